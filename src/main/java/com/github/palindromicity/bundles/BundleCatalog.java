@@ -0,0 +1,444 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import com.github.palindromicity.bundles.util.BundleDirectoryScanner;
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.BundleUtil;
+import com.github.palindromicity.bundles.util.HashUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A catalog of the bundles in a library directory, so that the nodes sharing the directory do
+ * not each have to open every bundle.
+ *
+ * <p>The catalog is written once, offline, by {@link #index(FileObject, BundleProperties)} into
+ * the library directory, as {@code bundle.catalog.file.name}. It is a manifest with a section per
+ * bundle, named by its path relative to the directory, holding the main attributes of the bundle's
+ * own manifest, its SHA-256 checksum, size and modification time, the dependency jars it ships
+ * and the extensions they provide.</p>
+ *
+ * <p>A bundle whose size and modification time in the directory listing still match its entry is
+ * discovered and mapped from the catalog. Bundles that were changed or added since the catalog was
+ * written are read as if there was no catalog.</p>
+ *
+ * <p>The catalog records the {@link #FORMAT_VERSION} it was written in. A catalog written in
+ * another format, or by a release that did not record it, is ignored and every bundle is
+ * opened.</p>
+ *
+ * <p>The extensions are only indexed for the extension types configured when the catalog was
+ * written, which it records as {@link #EXTENSION_TYPES}. A reader configured with an extension
+ * type the catalog was not indexed for, see {@link #isIndexedFor(BundleProperties)}, maps the
+ * extensions by opening the bundles, and extensions of types the reader does not configure are
+ * never mapped.</p>
+ */
+public class BundleCatalog {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String FORMAT = "Catalog-Format";
+  public static final String VERSION = "Catalog-Version";
+  public static final String CHECKSUM = "Catalog-Checksum";
+  public static final String SIZE = "Catalog-Size";
+  public static final String LAST_MODIFIED = "Catalog-Last-Modified";
+  public static final String JARS = "Catalog-Jars";
+  public static final String EXTENSIONS = "Catalog-Extensions";
+  public static final String EXTENSION_TYPES = "Catalog-Extension-Types";
+
+  /**
+   * The format of the catalog, changed whenever the attributes written for a bundle change.
+   */
+  public static final String FORMAT_VERSION = "2";
+
+  /**
+   * The catalog entry of a bundle.
+   */
+  public static class Entry {
+
+    private final String name;
+    private final Attributes attributes;
+
+    Entry(String name, Attributes attributes) {
+      this.name = name;
+      this.attributes = attributes;
+    }
+
+    /**
+     * @return the path of the bundle, relative to the library directory
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the main attributes of the bundle manifest, and the catalog attributes
+     */
+    public Attributes getAttributes() {
+      return attributes;
+    }
+
+    /**
+     * @return the SHA-256 checksum of the bundle, as hex
+     */
+    public String getChecksum() {
+      return attributes.getValue(CHECKSUM);
+    }
+
+    public long getSize() {
+      return parseLong(SIZE);
+    }
+
+    public long getLastModified() {
+      return parseLong(LAST_MODIFIED);
+    }
+
+    /**
+     * @return the file names of the dependency jars in the bundle
+     */
+    public List<String> getJars() {
+      return split(attributes.getValue(JARS));
+    }
+
+    /**
+     * @return the extension classes in the bundle, by extension type name
+     */
+    public Map<String, List<String>> getExtensions() {
+      final Map<String, List<String>> extensions = new TreeMap<>();
+      for (String extension : split(attributes.getValue(EXTENSIONS))) {
+        final int colon = extension.indexOf(':');
+        if (colon > 0) {
+          extensions.computeIfAbsent(extension.substring(0, colon), k -> new ArrayList<>())
+              .add(extension.substring(colon + 1));
+        }
+      }
+      return extensions;
+    }
+
+    /**
+     * Returns true if the bundle listed in the library directory is the one this entry describes.
+     *
+     * @param size the size of the listed bundle
+     * @param lastModified the modification time of the listed bundle
+     * @return true if the entry is current
+     */
+    public boolean isCurrent(long size, long lastModified) {
+      return getSize() == size && getLastModified() == lastModified;
+    }
+
+    /**
+     * Adds the extensions of the bundle to an {@link ExtensionMapping}, for the extension types
+     * configured in the {@code BundleProperties} only.
+     *
+     * @param bundleFile the bundle file
+     * @param mapping the mapping
+     * @param props the {@code BundleProperties}
+     */
+    void mapExtensions(FileObject bundleFile, ExtensionMapping mapping, BundleProperties props) {
+      final BundleCoordinates coordinates = BundleUtil
+          .fromAttributes(bundleFile, attributes, props).getCoordinates();
+      final Map<String, String> extensionTypes = props.getBundleExtensionTypes();
+      for (Map.Entry<String, List<String>> extension : getExtensions().entrySet()) {
+        if (extensionTypes.containsKey(extension.getKey())) {
+          mapping.addAllExtensions(extension.getKey(), coordinates, extension.getValue());
+        }
+      }
+    }
+
+    private long parseLong(String key) {
+      try {
+        return Long.parseLong(attributes.getValue(key));
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    private static List<String> split(String value) {
+      if (StringUtils.isBlank(value)) {
+        return Collections.emptyList();
+      }
+      return Arrays.asList(value.split(","));
+    }
+  }
+
+  private final Map<String, Entry> entries;
+  private final String version;
+  private final Map<String, String> extensionTypes;
+
+  private BundleCatalog(Map<String, Entry> entries, String version,
+      Map<String, String> extensionTypes) {
+    this.entries = Collections.unmodifiableMap(entries);
+    this.version = version;
+    this.extensionTypes = Collections.unmodifiableMap(extensionTypes);
+  }
+
+  /**
+   * Indexes the bundles in a library directory, opening each of them. This is meant to run
+   * offline, whenever the bundles in the directory change.
+   *
+   * @param libraryDir the library directory
+   * @param props the {@code BundleProperties}, configuring the archive extension, the discovery
+   *     and the extension types
+   * @return the {@code BundleCatalog}
+   * @throws IOException if a bundle cannot be read
+   */
+  public static BundleCatalog index(FileObject libraryDir, BundleProperties props)
+      throws IOException {
+    final Map<String, Entry> entries = new TreeMap<>();
+    for (FileObject bundleFile : BundleDirectoryScanner
+        .fromProperties(props, props.getArchiveExtension()).findFiles(libraryDir)) {
+      final String name = libraryDir.getName().getRelativeName(bundleFile.getName());
+      entries.put(name, new Entry(name, indexBundle(bundleFile, props)));
+    }
+    return new BundleCatalog(entries, version(entries.values()),
+        new TreeMap<>(props.getBundleExtensionTypes()));
+  }
+
+  private static Attributes indexBundle(FileObject bundleFile, BundleProperties props)
+      throws IOException {
+    final MessageDigest digest = HashUtils.newDigest();
+    final byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = bundleFile.getContent().getInputStream()) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+
+    final FileSystemManager manager = bundleFile.getFileSystem().getFileSystemManager();
+    final FileObject bundleRoot = manager.createFileSystem(bundleFile);
+    final Attributes attributes;
+    final List<String> jars = new ArrayList<>();
+    final ExtensionMapping mapping = new ExtensionMapping();
+    try {
+      try (InputStream in = bundleRoot.resolveFile(JarFile.MANIFEST_NAME).getContent()
+          .getInputStream()) {
+        attributes = new Attributes(new Manifest(in).getMainAttributes());
+      }
+      final BundleCoordinates coordinates = BundleUtil
+          .fromAttributes(bundleFile, attributes, props).getCoordinates();
+
+      final FileObject deps = bundleRoot.resolveFile(VfsBundleClassLoader.DEPENDENCY_PATH);
+      if (deps.exists()) {
+        for (FileObject jar : deps.getChildren()) {
+          if ("jar".equals(jar.getName().getExtension())) {
+            jars.add(jar.getName().getBaseName());
+            mapping.merge(BundleMapper.buildExtensionMappingForJar(coordinates, jar, props));
+          }
+        }
+      }
+    } finally {
+      manager.closeFileSystem(bundleRoot.getFileSystem());
+    }
+    final List<String> extensions = new ArrayList<>();
+    for (Map.Entry<String, Map<String, Set<BundleCoordinates>>> type : mapping
+        .getAllExtensions().entrySet()) {
+      for (String className : type.getValue().keySet()) {
+        extensions.add(type.getKey() + ":" + className);
+      }
+    }
+    Collections.sort(extensions);
+
+    attributes.putValue(CHECKSUM, HashUtils.toHex(digest.digest()));
+    attributes.putValue(SIZE, Long.toString(bundleFile.getContent().getSize()));
+    attributes.putValue(LAST_MODIFIED,
+        Long.toString(bundleFile.getContent().getLastModifiedTime()));
+    attributes.putValue(JARS, String.join(",", jars));
+    attributes.putValue(EXTENSIONS, String.join(",", extensions));
+    return attributes;
+  }
+
+  private static String version(Collection<Entry> entries) {
+    final MessageDigest digest = HashUtils.newDigest();
+    for (Entry entry : entries) {
+      digest.update((entry.getName() + "=" + entry.getChecksum() + "\n")
+          .getBytes(StandardCharsets.UTF_8));
+    }
+    return HashUtils.toHex(digest.digest());
+  }
+
+  /**
+   * Reads the catalog of a library directory.
+   *
+   * @param libraryDir the library directory
+   * @param props the {@code BundleProperties}, configuring the catalog file name
+   * @return the {@code BundleCatalog}, or null if the directory has no catalog, or its catalog was
+   *     written in another {@link #FORMAT_VERSION}
+   * @throws FileSystemException if the catalog cannot be read
+   */
+  public static BundleCatalog read(FileObject libraryDir, BundleProperties props)
+      throws FileSystemException {
+    final FileObject catalogFile = libraryDir.resolveFile(props.getCatalogFileName());
+    if (!catalogFile.exists()) {
+      return null;
+    }
+    final Manifest manifest;
+    try (InputStream in = catalogFile.getContent().getInputStream()) {
+      manifest = new Manifest(in);
+    } catch (IOException e) {
+      throw new FileSystemException("failed reading catalog " + catalogFile.getName(), e);
+    }
+    final String format = manifest.getMainAttributes().getValue(FORMAT);
+    if (!FORMAT_VERSION.equals(format)) {
+      logger.warn("Ignoring catalog {} of format {}, expected format {}", catalogFile.getName(),
+          format, FORMAT_VERSION);
+      return null;
+    }
+    final Map<String, Entry> entries = new LinkedHashMap<>();
+    for (Map.Entry<String, Attributes> section : manifest.getEntries().entrySet()) {
+      entries.put(section.getKey(), new Entry(section.getKey(), section.getValue()));
+    }
+    final Map<String, String> extensionTypes = new TreeMap<>();
+    for (String extensionType : Entry.split(manifest.getMainAttributes()
+        .getValue(EXTENSION_TYPES))) {
+      final int equals = extensionType.indexOf('=');
+      if (equals > 0) {
+        extensionTypes.put(extensionType.substring(0, equals),
+            extensionType.substring(equals + 1));
+      }
+    }
+    final BundleCatalog catalog = new BundleCatalog(entries,
+        manifest.getMainAttributes().getValue(VERSION), extensionTypes);
+    logger.debug("Read catalog {} version {} of {} bundles", catalogFile.getName(),
+        catalog.getVersion(), entries.size());
+    return catalog;
+  }
+
+  /**
+   * Writes the catalog.
+   *
+   * @param out the stream to write to, it is not closed
+   * @throws IOException if the catalog cannot be written
+   */
+  public void write(OutputStream out) throws IOException {
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue(FORMAT, FORMAT_VERSION);
+    manifest.getMainAttributes().putValue(VERSION, version);
+    final List<String> types = new ArrayList<>();
+    for (Map.Entry<String, String> extensionType : extensionTypes.entrySet()) {
+      types.add(extensionType.getKey() + "=" + extensionType.getValue());
+    }
+    manifest.getMainAttributes().putValue(EXTENSION_TYPES, String.join(",", types));
+    for (Entry entry : entries.values()) {
+      manifest.getEntries().put(entry.getName(), entry.getAttributes());
+    }
+    manifest.write(out);
+  }
+
+  /**
+   * Writes the catalog into a library directory. File systems that cannot be written through VFS,
+   * such as HDFS, should {@link #write(OutputStream)} it with their own client instead.
+   *
+   * @param libraryDir the library directory
+   * @param props the {@code BundleProperties}, configuring the catalog file name
+   * @throws IOException if the catalog cannot be written
+   */
+  public void writeTo(FileObject libraryDir, BundleProperties props) throws IOException {
+    final FileObject catalogFile = libraryDir.resolveFile(props.getCatalogFileName());
+    try (OutputStream out = catalogFile.getContent().getOutputStream()) {
+      write(out);
+    }
+  }
+
+  /**
+   * @return the version of the catalog, a checksum of the checksums of its bundles
+   */
+  public String getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the class names of the extension types the catalog was indexed for, by extension
+   *     type name
+   */
+  public Map<String, String> getExtensionTypes() {
+    return extensionTypes;
+  }
+
+  /**
+   * Returns true if the extensions in the catalog can be mapped for a reader, that is if every
+   * extension type the reader configures was configured, with the same class, when the catalog
+   * was indexed.
+   *
+   * @param props the {@code BundleProperties} of the reader
+   * @return true if the catalog was indexed for every configured extension type
+   */
+  public boolean isIndexedFor(BundleProperties props) {
+    for (Map.Entry<String, String> extensionType : props.getBundleExtensionTypes().entrySet()) {
+      if (!extensionType.getValue().equals(extensionTypes.get(extensionType.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Collection<Entry> getEntries() {
+    return entries.values();
+  }
+
+  /**
+   * @param name the path of a bundle, relative to the library directory
+   * @return the entry of the bundle, or null if it is not in the catalog
+   */
+  public Entry getEntry(String name) {
+    return entries.get(name);
+  }
+
+  /**
+   * Returns the entry of a listed bundle, if the entry is current.
+   *
+   * @param libraryDir the library directory the bundle was listed in
+   * @param listedFile the bundle
+   * @return the entry, or null if the bundle is not in the catalog or was changed since
+   * @throws FileSystemException if the name of the bundle cannot be resolved
+   */
+  public Entry getCurrentEntry(FileObject libraryDir, BundleDirectoryScanner.ListedFile listedFile)
+      throws FileSystemException {
+    final Entry entry = entries.get(libraryDir.getName()
+        .getRelativeName(listedFile.getFile().getName()));
+    if (entry == null || !entry.isCurrent(listedFile.getSize(), listedFile.getLastModified())) {
+      return null;
+    }
+    return entry;
+  }
+}
@@ -18,6 +18,7 @@
 package com.github.palindromicity.bundles;
 
 import com.google.common.annotations.VisibleForTesting;
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.net.URISyntaxException;
 import java.util.LinkedHashSet;
@@ -27,7 +28,9 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemManager;
 import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.metrics.StartupRecorder;
 import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.ResourceByteCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +44,8 @@ public final class BundleClassLoaders {
   private static final Logger logger = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
 
+  private volatile InMemoryBundleRepository inMemoryBundleRepository;
+
   private BundleClassLoaders() {
   }
 
@@ -87,6 +92,26 @@ public final class BundleClassLoaders {
   public static void init(final FileSystemManager fileSystemManager,
       final List<FileObject> extensionsDirs, BundleProperties props)
       throws FileSystemException, ClassNotFoundException, URISyntaxException {
+    init(fileSystemManager, extensionsDirs, props, null);
+  }
+
+  /**
+   * Initializes and loads the BundleClassLoaders, recording the time spent on each bundle.
+   *
+   * @param fileSystemManager the FileSystemManager
+   * @param extensionsDirs where to find extension artifacts
+   * @param props BundleProperties
+   * @param startupRecorder the {@code StartupRecorder}, may be null
+   * @throws FileSystemException if any issue occurs while working with the bundle files.
+   * @throws java.lang.ClassNotFoundException if unable to load class definition
+   * @throws IllegalStateException when already initialized
+   * @throws URISyntaxException if any invalid bundle URI properties are found
+   * @see #init(FileSystemManager, List, BundleProperties)
+   */
+  public static void init(final FileSystemManager fileSystemManager,
+      final List<FileObject> extensionsDirs, BundleProperties props,
+      StartupRecorder startupRecorder)
+      throws FileSystemException, ClassNotFoundException, URISyntaxException {
     if (extensionsDirs == null || fileSystemManager == null) {
       throw new NullPointerException("cannot have empty arguments");
     }
@@ -95,17 +120,20 @@ public final class BundleClassLoaders {
         throw new IllegalStateException("BundleClassloader already exists");
       }
       BundleClassLoaders b = new BundleClassLoaders();
-      BundleClassLoadersContext ic = b.load(fileSystemManager, extensionsDirs, props);
+      BundleClassLoadersContext ic = b
+          .load(fileSystemManager, extensionsDirs, props, startupRecorder);
       initContext = ic;
       bundleClassLoaders = b;
     }
   }
 
   private BundleClassLoadersContext load(final FileSystemManager fileSystemManager,
-      final List<FileObject> extensionsDirs, BundleProperties properties)
+      final List<FileObject> extensionsDirs, BundleProperties properties,
+      StartupRecorder startupRecorder)
       throws FileSystemException, ClassNotFoundException, URISyntaxException {
     return new BundleClassLoadersContext.Builder().withFileSystemManager(fileSystemManager)
-        .withExtensionDirs(extensionsDirs).withBundleProperties(properties).build();
+        .withExtensionDirs(extensionsDirs).withBundleProperties(properties)
+        .withStartupRecorder(startupRecorder).build();
   }
 
   /**
@@ -142,6 +170,58 @@ public final class BundleClassLoaders {
     return new LinkedHashSet<>(initContext.getBundles().values());
   }
 
+  /**
+   * Returns the resource byte cache shared by the bundle class loaders.
+   *
+   * @return the {@code ResourceByteCache}, or null if it is disabled
+   * @throws IllegalStateException if the bundles have not been loaded
+   */
+  public ResourceByteCache getResourceByteCache() {
+    if (initContext == null) {
+      throw new IllegalStateException("Bundles have not been loaded.");
+    }
+    return initContext.getResourceByteCache();
+  }
+
+  /**
+   * Returns the FileSystemManager the bundles were loaded with.
+   *
+   * @return the {@code FileSystemManager}
+   * @throws IllegalStateException if the bundles have not been loaded
+   */
+  public FileSystemManager getFileSystemManager() {
+    if (initContext == null) {
+      throw new IllegalStateException("Bundles have not been loaded.");
+    }
+    return initContext.getFileSystemManager();
+  }
+
+  /**
+   * Returns the layer hosting the dependency jars shared by the bundle class loaders.
+   *
+   * @return the {@code SharedJarLayer}, or null if jars are not shared
+   * @throws IllegalStateException if the bundles have not been loaded
+   */
+  public SharedJarLayer getSharedJarLayer() {
+    if (initContext == null) {
+      throw new IllegalStateException("Bundles have not been loaded.");
+    }
+    return initContext.getSharedJarLayer();
+  }
+
+  /**
+   * Returns the pool limiting the dependency jars the bundle class loaders hold open.
+   *
+   * @return the {@code JarHandlePool}, or null if the open jars are not limited
+   * @throws IllegalStateException if the bundles have not been loaded
+   */
+  public JarHandlePool getJarHandlePool() {
+    if (initContext == null) {
+      throw new IllegalStateException("Bundles have not been loaded.");
+    }
+    return initContext.getJarHandlePool();
+  }
+
   /**
    * <p>Add a bundle to the BundleClassLoaders. Post initialization with will load a bundle and
    * merge it's information into the context.</p>
@@ -165,9 +245,57 @@ public final class BundleClassLoaders {
     BundleClassLoadersContext newContext = new BundleClassLoadersContext.Builder()
         .withBundleProperties(initContext.getProperties())
         .withExtensionDirs(initContext.getExtensionDirs())
-        .withFileSystemManager(initContext.getFileSystemManager()).build(bundleName);
+        .withFileSystemManager(initContext.getFileSystemManager())
+        .withResourceByteCache(initContext.getResourceByteCache())
+        .withPackageIndex(initContext.getPackageIndex())
+        .withSharedJarLayer(initContext.getSharedJarLayer())
+        .withJarHandlePool(initContext.getJarHandlePool())
+        .withLoadedBundles(initContext.getBundles().values()).build(bundleName);
 
     initContext.merge(newContext);
     return initContext.getBundles().values().stream().findFirst().get();
   }
+
+  /**
+   * <p>Add a bundle held in memory to the BundleClassLoaders. The bundle content is written to a
+   * file system held in memory, and its classes and resources are never read from disk. The
+   * class loader of the bundle holds the entries it needs, so the bundle file is deleted once it
+   * is created.</p>
+   *
+   * <p>This method has limited access, only package classes that can ensure thread saftey and
+   * control should call.</p>
+   *
+   * @param bundleName the file name of the bundle
+   * @param in the content of the bundle, read to the end but not closed
+   * @return The {@link Bundle} that is created
+   * @throws FileSystemException if the bundle cannot be stored or read
+   * @throws IllegalArgumentException if a bundle with the same name was already added
+   * @throws IllegalStateException if the bundles have not been loaded, a bundle with the same
+   *     coordinates is loaded, or a dependency of the bundle is not
+   */
+  protected Bundle addBundle(String bundleName, InputStream in) throws FileSystemException {
+    if (initContext == null) {
+      throw new IllegalStateException("Bundles have not been loaded.");
+    }
+    if (inMemoryBundleRepository == null) {
+      inMemoryBundleRepository = new InMemoryBundleRepository(
+          initContext.getFileSystemManager());
+    }
+    final FileObject bundleFile = inMemoryBundleRepository.put(bundleName, in);
+    try {
+      return initContext.addInMemoryBundle(bundleFile);
+    } finally {
+      bundleFile.delete();
+    }
+  }
+
+  /**
+   * Returns the repository holding the bundles added from memory.
+   *
+   * @return the {@code InMemoryBundleRepository}, or null if no bundle was added from memory. It
+   *     only holds the bundles that are being added
+   */
+  public InMemoryBundleRepository getInMemoryBundleRepository() {
+    return inMemoryBundleRepository;
+  }
 }
@@ -21,9 +21,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.lang.invoke.MethodHandles;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -32,6 +34,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.commons.lang.StringUtils;
@@ -41,10 +45,17 @@ import org.apache.commons.vfs2.FileSystemManager;
 import com.github.palindromicity.bundles.bundle.Bundle;
 import com.github.palindromicity.bundles.bundle.BundleCoordinates;
 import com.github.palindromicity.bundles.bundle.BundleDetails;
+import com.github.palindromicity.bundles.jfr.BundleEvents;
+import com.github.palindromicity.bundles.jfr.EventScope;
+import com.github.palindromicity.bundles.metrics.MetaspaceUsage;
+import com.github.palindromicity.bundles.metrics.StartupRecorder;
+import com.github.palindromicity.bundles.util.BundleDirectoryScanner;
+import com.github.palindromicity.bundles.util.BundlePack;
 import com.github.palindromicity.bundles.util.BundleProperties;
-import com.github.palindromicity.bundles.util.BundleSelector;
 import com.github.palindromicity.bundles.util.BundleUtil;
 import com.github.palindromicity.bundles.util.FileUtils;
+import com.github.palindromicity.bundles.util.NativeLibraryCache;
+import com.github.palindromicity.bundles.util.ResourceByteCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +77,19 @@ public class BundleClassLoadersContext {
     List<FileObject> extensionsDirs;
     FileObject bundleFile;
     BundleProperties properties;
+    StartupRecorder startupRecorder;
+    ResourceByteCache resourceByteCache;
+    BundlePackageIndex packageIndex;
+    SharedJarLayer sharedJarLayer;
+    JarHandlePool jarHandlePool;
+    private NativeLibraryCache nativeLibraryCache;
+    private DelegationPolicy delegationPolicy;
+    private NativeLibraryCache extractionCache;
+    private final Map<String, BundlePack> openPacks = new HashMap<>();
+    private final Map<String, Attributes> knownAttributes = new HashMap<>();
+    private final Map<String, Long> listedSizes = new HashMap<>();
+    private BundleDirectoryScanner scanner;
+    private Collection<Bundle> loadedBundles = Collections.emptyList();
 
     public Builder() {
     }
@@ -100,6 +124,72 @@ public class BundleClassLoadersContext {
       return this;
     }
 
+    /**
+     * Provides a {@link StartupRecorder} to record the time spent on each bundle. Optional.
+     * @param startupRecorder {@code StartupRecorder}
+     * @return {@code Builder}
+     */
+    public Builder withStartupRecorder(StartupRecorder startupRecorder) {
+      this.startupRecorder = startupRecorder;
+      return this;
+    }
+
+    /**
+     * Provides the {@link ResourceByteCache} shared by the bundle class loaders. If not provided,
+     * the cache is created from the {@code BundleProperties}, if it is enabled.
+     * @param resourceByteCache {@code ResourceByteCache}
+     * @return {@code Builder}
+     */
+    public Builder withResourceByteCache(ResourceByteCache resourceByteCache) {
+      this.resourceByteCache = resourceByteCache;
+      return this;
+    }
+
+    /**
+     * Provides the {@link JarHandlePool} shared by the bundle class loaders. If not provided, the
+     * pool is created from the {@code BundleProperties}, if the open jars are limited.
+     * @param jarHandlePool {@code JarHandlePool}
+     * @return {@code Builder}
+     */
+    public Builder withJarHandlePool(JarHandlePool jarHandlePool) {
+      this.jarHandlePool = jarHandlePool;
+      return this;
+    }
+
+    /**
+     * Provides the {@link BundlePackageIndex} the bundle class loaders register their packages
+     * with. If not provided, a new index is created.
+     * @param packageIndex {@code BundlePackageIndex}
+     * @return {@code Builder}
+     */
+    public Builder withPackageIndex(BundlePackageIndex packageIndex) {
+      this.packageIndex = packageIndex;
+      return this;
+    }
+
+    /**
+     * Provides the {@link SharedJarLayer} hosting the dependency jars shared by bundles. If not
+     * provided, the layer is built from the library directories when
+     * {@code bundle.classloader.shared.jars} is set.
+     * @param sharedJarLayer {@code SharedJarLayer}
+     * @return {@code Builder}
+     */
+    public Builder withSharedJarLayer(SharedJarLayer sharedJarLayer) {
+      this.sharedJarLayer = sharedJarLayer;
+      return this;
+    }
+
+    /**
+     * Provides the bundles that are already loaded, for bundles loaded later to depend on. They are
+     * not part of the built context.
+     * @param loadedBundles the loaded {@code Bundle}s
+     * @return {@code Builder}
+     */
+    public Builder withLoadedBundles(Collection<Bundle> loadedBundles) {
+      this.loadedBundles = loadedBundles;
+      return this;
+    }
+
     /**
      * <p>Builds a BundleClassLoaderContext. When built the context will be loaded from the provided
      * library directories, using the {@link FileSystemManager} and {@code BundleProperties}.</p>
@@ -150,11 +240,42 @@ public class BundleClassLoadersContext {
 
       // get the system classloader
       final ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
+      nativeLibraryCache = NativeLibraryCache.fromProperties(properties);
+      delegationPolicy = DelegationPolicy.fromProperties(properties);
+      final String classLoaderType = properties.getClassLoaderType();
+      if (BundleProperties.CLASSLOADER_TYPE_EXTRACTED.equals(classLoaderType)) {
+        extractionCache = new NativeLibraryCache(Paths.get(properties.getExtractionDirectory()));
+      } else if (!BundleProperties.CLASSLOADER_TYPE_VFS.equals(classLoaderType)) {
+        throw new IllegalArgumentException(
+            BundleProperties.CLASSLOADER_TYPE + " must be " + BundleProperties.CLASSLOADER_TYPE_VFS
+                + " or " + BundleProperties.CLASSLOADER_TYPE_EXTRACTED + ", but was "
+                + classLoaderType);
+      }
+      if (packageIndex == null) {
+        packageIndex = new BundlePackageIndex();
+      }
+      if (resourceByteCache == null) {
+        resourceByteCache = ResourceByteCache.fromProperties(properties);
+      }
+      if (jarHandlePool == null) {
+        jarHandlePool = JarHandlePool.fromProperties(properties);
+      }
+      if (sharedJarLayer == null && !properties.getSharedJarPatterns().isEmpty()) {
+        sharedJarLayer = buildSharedJarLayer(systemClassLoader);
+      }
+      final ClassLoader rootClassLoader = sharedJarLayer != null ? sharedJarLayer
+          : systemClassLoader;
 
       // find all bundle files and create class loaders for them.
       final Map<String, Bundle> directoryBundleLookup = new LinkedHashMap<>();
       final Map<String, ClassLoader> coordinateClassLoaderLookup = new HashMap<>();
       final Map<String, Set<BundleCoordinates>> idBundleLookup = new HashMap<>();
+      for (Bundle loaded : loadedBundles) {
+        final BundleCoordinates coordinates = loaded.getBundleDetails().getCoordinates();
+        coordinateClassLoaderLookup.put(coordinates.getCoordinates(), loaded.getClassLoader());
+        idBundleLookup.computeIfAbsent(coordinates.getId(), id -> new HashSet<>())
+            .add(coordinates);
+      }
       boolean foundExplicitLoadBundle = false;
       boolean explicitBundleIsNotFile = false;
       for (FileObject extensionsDir : extensionsDirs) {
@@ -168,9 +289,16 @@ public class BundleClassLoadersContext {
         // if it is explicit, we need to flag finding it, since for explict loads
         // a bundle that doesn't exist or is not a file is an error
         if (explicitBundleToLoad == null) {
-          dirFiles = extensionsDir.findFiles(new BundleSelector(properties.getArchiveExtension()));
+          dirFiles = findBundleFiles(extensionsDir);
         } else {
           FileObject explicitBundleFileObject = extensionsDir.resolveFile(explicitBundleToLoad);
+          if (!explicitBundleFileObject.exists()) {
+            // the bundle may be held in a pack of the directory
+            final FileObject packed = findPackedBundle(extensionsDir, explicitBundleToLoad);
+            if (packed != null) {
+              explicitBundleFileObject = packed;
+            }
+          }
           if (explicitBundleFileObject.exists()) {
             foundExplicitLoadBundle = true;
             if (!explicitBundleFileObject.isFile()) {
@@ -191,16 +319,28 @@ public class BundleClassLoadersContext {
 
           // load the bundle details which includes bundle dependencies
           for (final FileObject bundleFile : bundleDirContents) {
-            if (!bundleFile.exists() || !bundleFile.isFile()) {
+            // listed bundles, and those in a pack, are known to be files without probing them
+            final Long listedSize = listedSizes.get(bundleFile.getName().getURI());
+            if (listedSize == null && (!bundleFile.exists() || !bundleFile.isFile())) {
               continue;
             }
             BundleDetails bundleDetail = null;
+            final long parseStart = System.nanoTime();
             try {
-              bundleDetail = getBundleDetails(bundleFile, properties);
+              final Attributes known = knownAttributes.get(bundleFile.getName().getURI());
+              bundleDetail = known != null
+                  ? BundleUtil.fromAttributes(bundleFile, known, properties)
+                  : getBundleDetails(bundleFile, properties);
             } catch (IllegalStateException e) {
               logger.warn("Unable to load BUNDLE {} due to {}, skipping...",
                   new Object[]{bundleFile.getURL(), e.getMessage()});
             }
+            if (startupRecorder != null && bundleDetail != null) {
+              startupRecorder.recordBundleParse(bundleDetail.getCoordinates().getCoordinates(),
+                  bundleFile.getName().getURI(), System.nanoTime() - parseStart);
+              startupRecorder.recordFile(bundleFile.getName().getScheme(),
+                  listedSize != null ? listedSize : bundleFile.getContent().getSize());
+            }
 
             // prevent the application from starting when there are two BUNDLEs with same group,
             // id, and version
@@ -241,11 +381,19 @@ public class BundleClassLoadersContext {
               final BundleCoordinates bundleDependencyCoordinate = bundleDetail
                   .getDependencyCoordinates();
 
+              // the additional dependencies must all be loaded first
+              final List<ClassLoader> dependencyClassLoaders =
+                  getDependencyClassLoaders(bundleDetail, coordinateClassLoaderLookup,
+                      idBundleLookup);
+              if (dependencyClassLoaders == null) {
+                continue;
+              }
+
               // see if this class loader is eligible for loading
               ClassLoader potentialBundleClassLoader = null;
               if (bundleDependencyCoordinate == null) {
                 potentialBundleClassLoader = createBundleClassLoader(fileSystemManager,
-                    bundleDetail.getBundleFile(), ClassLoader.getSystemClassLoader());
+                    bundleDetail, rootClassLoader, dependencyClassLoaders);
               } else {
                 final String dependencyCoordinateStr = bundleDependencyCoordinate.getCoordinates();
 
@@ -254,7 +402,7 @@ public class BundleClassLoadersContext {
                   final ClassLoader bundleDependencyClassLoader = coordinateClassLoaderLookup
                       .get(dependencyCoordinateStr);
                   potentialBundleClassLoader = createBundleClassLoader(fileSystemManager,
-                      bundleDetail.getBundleFile(), bundleDependencyClassLoader);
+                      bundleDetail, bundleDependencyClassLoader, dependencyClassLoaders);
                 } else {
                   // get all bundles that match the declared dependency id
                   final Set<BundleCoordinates> coordinates = idBundleLookup
@@ -278,7 +426,7 @@ public class BundleClassLoadersContext {
                         final ClassLoader bundleDependencyClassLoader = coordinateClassLoaderLookup
                             .get(coordinate.getCoordinates());
                         potentialBundleClassLoader = createBundleClassLoader(fileSystemManager,
-                            bundleDetail.getBundleFile(), bundleDependencyClassLoader);
+                            bundleDetail, bundleDependencyClassLoader, dependencyClassLoaders);
                       }
                     }
                   }
@@ -301,9 +449,17 @@ public class BundleClassLoadersContext {
 
           // see if any bundle couldn't be loaded
           for (final BundleDetails bundleDetail : bundleDetails) {
+            final List<String> dependencies = new ArrayList<>();
+            if (bundleDetail.getDependencyCoordinates() != null) {
+              dependencies.add(bundleDetail.getDependencyCoordinates().getId());
+            }
+            for (BundleCoordinates coordinates : bundleDetail
+                .getAdditionalDependencyCoordinates()) {
+              dependencies.add(coordinates.getCoordinates());
+            }
             logger.warn(String
                 .format("Unable to resolve required dependency '%s'. Skipping BUNDLE '%s'",
-                    bundleDetail.getDependencyCoordinates().getId(),
+                    String.join(", ", dependencies),
                     bundleDetail.getBundleFile().getURL().toURI().toString()));
           }
         }
@@ -323,7 +479,159 @@ public class BundleClassLoadersContext {
         }
       }
       return new BundleClassLoadersContext(fileSystemManager, extensionsDirs,
-          new LinkedHashMap<>(directoryBundleLookup), properties);
+          new LinkedHashMap<>(directoryBundleLookup), properties, resourceByteCache,
+          packageIndex, sharedJarLayer, jarHandlePool);
+    }
+
+    /**
+     * Builds the {@link SharedJarLayer} from the dependency jars of all the bundles in the
+     * library directories.
+     *
+     * @param parentClassLoader the parent of the layer
+     * @return {@code SharedJarLayer}
+     * @throws FileSystemException if the bundles cannot be read
+     */
+    private SharedJarLayer buildSharedJarLayer(final ClassLoader parentClassLoader)
+        throws FileSystemException {
+      final long start = System.nanoTime();
+      final List<FileObject> bundleFiles = new ArrayList<>();
+      for (FileObject extensionsDir : extensionsDirs) {
+        FileUtils.ensureDirectoryExistAndCanRead(extensionsDir);
+        bundleFiles.addAll(Arrays.asList(findBundleFiles(extensionsDir)));
+      }
+      final SharedJarLayer layer = new SharedJarLayer.Builder()
+          .withFileSystemManager(fileSystemManager)
+          .withExtractionCache(extractionCache != null ? extractionCache
+              : new NativeLibraryCache(Paths.get(properties.getExtractionDirectory())))
+          .withJarPatterns(properties.getSharedJarPatterns())
+          .withBundleFiles(bundleFiles)
+          .withParentClassloader(parentClassLoader).build();
+      logger.info("Sharing {} dependency jars of {} bundles, hashed in {}ms",
+          layer.getSharedJarCount(), bundleFiles.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return layer;
+    }
+
+    /**
+     * Finds the bundles in a library directory, listing each directory once for both bundles and
+     * bundle packs, up to the configured depth. The sizes from the listing are kept, so the files
+     * are not probed again. The bundles held in a pack are returned as local copies of their range
+     * of the pack, and the manifest attributes from its table of contents are kept so they are not
+     * read again.
+     * The same is done for the bundles that are current in the catalog of the directory, if any.
+     *
+     * @param extensionsDir the library directory
+     * @return the bundle files
+     * @throws FileSystemException if the directory or a pack cannot be read
+     */
+    private FileObject[] findBundleFiles(final FileObject extensionsDir)
+        throws FileSystemException {
+      if (scanner == null) {
+        scanner = BundleDirectoryScanner.fromProperties(properties,
+            properties.getArchiveExtension(), properties.getPackExtension());
+      }
+      final List<BundleDirectoryScanner.ListedFile> listedFiles = scanner.scan(extensionsDir);
+      final BundleCatalog catalog = BundleCatalog.read(extensionsDir, properties);
+      int cataloged = 0;
+      final List<FileObject> bundleFiles = new ArrayList<>(listedFiles.size());
+      for (BundleDirectoryScanner.ListedFile listedFile : listedFiles) {
+        final FileObject dirFile = listedFile.getFile();
+        if (!properties.getPackExtension().equals(dirFile.getName().getExtension())) {
+          final BundleCatalog.Entry catalogEntry = catalog == null ? null
+              : catalog.getCurrentEntry(extensionsDir, listedFile);
+          if (catalogEntry != null) {
+            knownAttributes.put(dirFile.getName().getURI(), catalogEntry.getAttributes());
+            cataloged++;
+          }
+          listedSizes.put(dirFile.getName().getURI(), listedFile.getSize());
+          bundleFiles.add(dirFile);
+          continue;
+        }
+        final BundlePack pack = openPack(dirFile);
+        for (BundlePack.Entry entry : pack.getEntries()) {
+          bundleFiles.add(getPackedBundleFile(pack, entry));
+        }
+      }
+      if (catalog != null) {
+        logger.debug("Found {} of {} bundles in {} current in catalog version {}", cataloged,
+            listedFiles.size(), extensionsDir.getName(), catalog.getVersion());
+      }
+      return bundleFiles.toArray(new FileObject[0]);
+    }
+
+    /**
+     * Finds a bundle by file name in the bundle packs of a library directory.
+     *
+     * @param extensionsDir the library directory
+     * @param bundleName the file name of the bundle
+     * @return the local copy of the packed bundle, or null if no pack holds the bundle
+     * @throws FileSystemException if the directory or a pack cannot be read
+     */
+    private FileObject findPackedBundle(final FileObject extensionsDir, final String bundleName)
+        throws FileSystemException {
+      final BundleDirectoryScanner packScanner = BundleDirectoryScanner
+          .fromProperties(properties, properties.getPackExtension());
+      for (BundleDirectoryScanner.ListedFile listedFile : packScanner.scan(extensionsDir)) {
+        final BundlePack pack = openPack(listedFile.getFile());
+        for (BundlePack.Entry entry : pack.getEntries()) {
+          if (entry.getName().equals(bundleName)) {
+            return getPackedBundleFile(pack, entry);
+          }
+        }
+      }
+      return null;
+    }
+
+    private BundlePack openPack(final FileObject packFile) throws FileSystemException {
+      BundlePack pack = openPacks.get(packFile.getName().getURI());
+      if (pack == null) {
+        pack = BundlePack.open(packFile, Paths.get(properties.getReplicationDirectory()));
+        openPacks.put(packFile.getName().getURI(), pack);
+        logger.debug("Opened bundle pack {} of {} bundles", packFile.getName(),
+            pack.getEntries().size());
+      }
+      return pack;
+    }
+
+    /**
+     * Returns a bundle of a pack, keeping the manifest attributes and size from the table of
+     * contents so they are not read again.
+     */
+    private FileObject getPackedBundleFile(final BundlePack pack, final BundlePack.Entry entry)
+        throws FileSystemException {
+      final FileObject bundleFile = pack.getBundleFile(entry);
+      knownAttributes.put(bundleFile.getName().getURI(), entry.getAttributes());
+      listedSizes.put(bundleFile.getName().getURI(), entry.getLength());
+      return bundleFile;
+    }
+
+    /**
+     * Returns the class loaders of the additional dependencies of a bundle.
+     *
+     * @param bundleDetail the Bundle details
+     * @param coordinateClassLoaderLookup the class loaders created so far
+     * @param idBundleLookup the coordinates of all the known bundles, by id
+     * @return the class loaders, or null if any dependency has not been loaded yet
+     */
+    private List<ClassLoader> getDependencyClassLoaders(
+        final BundleDetails bundleDetail,
+        final Map<String, ClassLoader> coordinateClassLoaderLookup,
+        final Map<String, Set<BundleCoordinates>> idBundleLookup) {
+      final List<BundleCoordinates> dependencies = bundleDetail
+          .getAdditionalDependencyCoordinates();
+      if (dependencies.isEmpty()) {
+        return Collections.emptyList();
+      }
+      final List<ClassLoader> classLoaders = new ArrayList<>(dependencies.size());
+      for (BundleCoordinates dependency : dependencies) {
+        final ClassLoader classLoader = findDependency(coordinateClassLoaderLookup,
+            idBundleLookup.getOrDefault(dependency.getId(), Collections.emptySet()), dependency);
+        if (classLoader == null) {
+          return null;
+        }
+        classLoaders.add(classLoader);
+      }
+      return classLoaders;
     }
 
     /**
@@ -342,37 +650,136 @@ public class BundleClassLoadersContext {
     /**
      * Creates a new BundleClassLoader. The parentClassLoader may be null.
      *
-     * @param bundleFile the Bundle File
+     * @param bundleDetail the Bundle details
      * @param parentClassLoader parent classloader of bundle
+     * @param dependencyClassLoaders the class loaders of the additional dependencies
      * @return the bundle classloader
      * @throws FileSystemException ioe
      * @throws ClassNotFoundException cfne
      */
     private ClassLoader createBundleClassLoader(final FileSystemManager fileSystemManager,
-        final FileObject bundleFile, final ClassLoader parentClassLoader)
+        final BundleDetails bundleDetail, final ClassLoader parentClassLoader,
+        final List<ClassLoader> dependencyClassLoaders)
         throws FileSystemException, ClassNotFoundException {
+      if (extractionCache != null) {
+        return createExtractedBundleClassLoader(fileSystemManager, bundleDetail,
+            parentClassLoader, dependencyClassLoaders);
+      }
+      final FileObject bundleFile = bundleDetail.getBundleFile();
       logger.debug("Loading Bundle file: " + bundleFile.getURL());
-      final ClassLoader bundleClassLoader = new VfsBundleClassLoader.Builder()
-          .withFileSystemManager(fileSystemManager).withBundleFile(bundleFile)
-          .withParentClassloader(parentClassLoader).build();
+      final long start = System.nanoTime();
+      final long metaspace = MetaspaceUsage.used();
+      final VfsBundleClassLoader bundleClassLoader;
+      try (EventScope event = BundleEvents.classLoaderCreate(
+          bundleDetail.getCoordinates().getCoordinates(), bundleFile.getName().getURI())) {
+        bundleClassLoader = new VfsBundleClassLoader.Builder()
+            .withFileSystemManager(fileSystemManager).withBundleFile(bundleFile)
+            .withBundleCoordinates(bundleDetail.getCoordinates())
+            .withNativeLibraryCache(nativeLibraryCache)
+            .withResourceByteCache(resourceByteCache)
+            .withDelegationPolicy(delegationPolicy)
+            .withPackageIndex(packageIndex)
+            .withDependencyClassLoaders(
+                ofType(dependencyClassLoaders, VfsBundleClassLoader.class))
+            .withImportedPackages(bundleDetail.getImportedPackages())
+            .withSharedJarLayer(sharedJarLayer)
+            .withJarHandlePool(jarHandlePool)
+            .withSharedClassBytesMaxBytes(properties.getSharedClassBytesMaxBytes())
+            .withParentClassloader(parentClassLoader).build();
+      }
+      bundleClassLoader.getMetrics().recordCreationMetaspace(MetaspaceUsage.since(metaspace));
+      packageIndex.register(bundleClassLoader);
+      if (startupRecorder != null) {
+        startupRecorder.recordClassLoaderCreate(bundleDetail.getCoordinates().getCoordinates(),
+            System.nanoTime() - start);
+        // the nested jars, the bundle file itself was recorded when it was parsed
+        for (FileObject jar : bundleClassLoader.getDependencyJars()) {
+          startupRecorder.recordFile(jar.getName().getScheme(), jar.getContent().getSize());
+        }
+      }
       logger.info(
           "Loaded Bundle file: " + bundleFile.getURL() + " as class loader " + bundleClassLoader);
       return bundleClassLoader;
     }
+
+    /**
+     * Creates a new ExtractedBundleClassLoader, extracting the bundle jars locally.
+     *
+     * @param bundleDetail the Bundle details
+     * @param parentClassLoader parent classloader of bundle
+     * @param dependencyClassLoaders the class loaders of the additional dependencies
+     * @return the bundle classloader
+     * @throws FileSystemException ioe
+     */
+    private ClassLoader createExtractedBundleClassLoader(
+        final FileSystemManager fileSystemManager, final BundleDetails bundleDetail,
+        final ClassLoader parentClassLoader, final List<ClassLoader> dependencyClassLoaders)
+        throws FileSystemException {
+      final FileObject bundleFile = bundleDetail.getBundleFile();
+      logger.debug("Extracting Bundle file: " + bundleFile.getURL());
+      final long start = System.nanoTime();
+      final long metaspace = MetaspaceUsage.used();
+      if (!bundleDetail.getImportedPackages().isEmpty()) {
+        logger.warn("Bundle-Import-Package of " + bundleFile.getURL()
+            + " is not supported by extracted class loaders and is ignored");
+      }
+      final ExtractedBundleClassLoader bundleClassLoader;
+      try (EventScope event = BundleEvents.classLoaderCreate(
+          bundleDetail.getCoordinates().getCoordinates(), bundleFile.getName().getURI())) {
+        bundleClassLoader = new ExtractedBundleClassLoader.Builder()
+            .withFileSystemManager(fileSystemManager).withBundleFile(bundleFile)
+            .withBundleCoordinates(bundleDetail.getCoordinates())
+            .withExtractionCache(extractionCache)
+            .withNativeLibraryCache(nativeLibraryCache)
+            .withSharedJarLayer(sharedJarLayer)
+            .withDependencyClassLoaders(
+                ofType(dependencyClassLoaders, ExtractedBundleClassLoader.class))
+            .withParentClassloader(parentClassLoader).build();
+      }
+      bundleClassLoader.getMetrics().recordCreationMetaspace(MetaspaceUsage.since(metaspace));
+      if (startupRecorder != null) {
+        startupRecorder.recordClassLoaderCreate(bundleDetail.getCoordinates().getCoordinates(),
+            System.nanoTime() - start);
+      }
+      logger.info(
+          "Loaded Bundle file: " + bundleFile.getURL() + " as class loader " + bundleClassLoader);
+      return bundleClassLoader;
+    }
+
+    private static <T extends ClassLoader> List<T> ofType(final List<ClassLoader> classLoaders,
+        final Class<T> type) {
+      final List<T> matching = new ArrayList<>(classLoaders.size());
+      for (ClassLoader classLoader : classLoaders) {
+        if (type.isInstance(classLoader)) {
+          matching.add(type.cast(classLoader));
+        }
+      }
+      return matching;
+    }
   }
 
   private List<FileObject> extensionDirs;
   private Map<String, Bundle> bundles;
   private final BundleProperties properties;
   private final FileSystemManager fileSystemManager;
+  private final ResourceByteCache resourceByteCache;
+  private final BundlePackageIndex packageIndex;
+  private final SharedJarLayer sharedJarLayer;
+  private final JarHandlePool jarHandlePool;
 
   private BundleClassLoadersContext(final FileSystemManager fileSystemManager,
       final List<FileObject> extensionDirs, final Map<String, Bundle> bundles,
-      final BundleProperties properties) {
+      final BundleProperties properties, final ResourceByteCache resourceByteCache,
+      final BundlePackageIndex packageIndex, final SharedJarLayer sharedJarLayer,
+      final JarHandlePool jarHandlePool) {
     this.extensionDirs = ImmutableList.copyOf(extensionDirs);
     this.bundles = ImmutableMap.copyOf(bundles);
     this.properties = properties;
     this.fileSystemManager = fileSystemManager;
+    this.resourceByteCache = resourceByteCache;
+    this.packageIndex = packageIndex;
+    this.sharedJarLayer = sharedJarLayer;
+    this.jarHandlePool = jarHandlePool;
   }
 
   /**
@@ -392,6 +799,109 @@ public class BundleClassLoadersContext {
             .collect(Collectors.toMap(Entry::getKey, Entry::getValue, (s, a) -> s)));
   }
 
+  /**
+   * Loads a bundle held in memory into this context. The parent and additional dependencies of
+   * the bundle must already be loaded. Responsibility for synchronization of access to this
+   * context is up to the holder of it's reference
+   *
+   * @param bundleFile the bundle file, in a file system held in memory
+   * @return the {@link Bundle} that is created
+   * @throws FileSystemException if the bundle cannot be read
+   * @throws IllegalArgumentException if a bundle with the same file name was already added
+   * @throws IllegalStateException if a bundle with the same coordinates is loaded, or a
+   *     dependency is not
+   */
+  public Bundle addInMemoryBundle(final FileObject bundleFile) throws FileSystemException {
+    if (bundles.containsKey(bundleFile.getName().getURI())) {
+      throw new IllegalArgumentException(bundleFile.getName().getBaseName()
+          + " was already added");
+    }
+    final BundleDetails bundleDetail = BundleUtil.fromBundleStream(bundleFile, properties);
+    final Map<String, ClassLoader> coordinateClassLoaderLookup = new HashMap<>();
+    for (Bundle bundle : bundles.values()) {
+      coordinateClassLoaderLookup.put(
+          bundle.getBundleDetails().getCoordinates().getCoordinates(), bundle.getClassLoader());
+    }
+    final String coordinates = bundleDetail.getCoordinates().getCoordinates();
+    if (coordinateClassLoaderLookup.containsKey(coordinates)) {
+      throw new IllegalStateException("A bundle with coordinates " + coordinates
+          + " is already loaded");
+    }
+
+    ClassLoader parentClassLoader = sharedJarLayer != null ? sharedJarLayer
+        : ClassLoader.getSystemClassLoader();
+    final BundleCoordinates dependency = bundleDetail.getDependencyCoordinates();
+    if (dependency != null) {
+      parentClassLoader = requireLoaded(coordinateClassLoaderLookup, coordinates, dependency);
+    }
+    final List<ClassLoader> dependencyClassLoaders = new ArrayList<>();
+    for (BundleCoordinates additional : bundleDetail.getAdditionalDependencyCoordinates()) {
+      dependencyClassLoaders.add(requireLoaded(coordinateClassLoaderLookup, coordinates,
+          additional));
+    }
+
+    final long metaspace = MetaspaceUsage.used();
+    final InMemoryBundleClassLoader bundleClassLoader;
+    try (EventScope event = BundleEvents.classLoaderCreate(coordinates,
+        bundleFile.getName().getURI())) {
+      bundleClassLoader = new InMemoryBundleClassLoader.Builder().withBundleFile(bundleFile)
+          .withBundleCoordinates(bundleDetail.getCoordinates())
+          .withDependencyClassLoaders(dependencyClassLoaders)
+          .withParentClassloader(parentClassLoader).build();
+    }
+    bundleClassLoader.getMetrics().recordCreationMetaspace(MetaspaceUsage.since(metaspace));
+
+    final Bundle bundle = new Bundle(bundleDetail, bundleClassLoader);
+    final Map<String, Bundle> merged = new LinkedHashMap<>(bundles);
+    merged.put(bundleFile.getName().getURI(), bundle);
+    bundles = ImmutableMap.copyOf(merged);
+    return bundle;
+  }
+
+  private static ClassLoader requireLoaded(final Map<String, ClassLoader> lookup,
+      final String coordinates, final BundleCoordinates dependency) {
+    final List<BundleCoordinates> known = new ArrayList<>();
+    for (String loaded : lookup.keySet()) {
+      known.add(BundleCoordinates.fromCoordinates(loaded));
+    }
+    final ClassLoader classLoader = findDependency(lookup, known, dependency);
+    if (classLoader == null) {
+      throw new IllegalStateException("Unable to resolve dependency " + dependency
+          .getCoordinates() + " of in memory bundle " + coordinates);
+    }
+    return classLoader;
+  }
+
+  /**
+   * Returns the class loader of the bundle satisfying a dependency. The bundle with the exact
+   * coordinates wins, otherwise coordinates without a group or version must be satisfied by
+   * exactly one of the known bundles.
+   *
+   * @param loaded the class loaders created so far, by coordinates
+   * @param known the coordinates of the bundles that are or will be loaded
+   * @param dependency the dependency
+   * @return the class loader, or null if the dependency is not loaded yet, or is ambiguous
+   */
+  private static ClassLoader findDependency(final Map<String, ClassLoader> loaded,
+      final Collection<BundleCoordinates> known, final BundleCoordinates dependency) {
+    final ClassLoader exact = loaded.get(dependency.getCoordinates());
+    if (exact != null) {
+      return exact;
+    }
+    BundleCoordinates match = null;
+    for (BundleCoordinates candidate : known) {
+      if (dependency.isSatisfiedBy(candidate)) {
+        if (match != null && !match.equals(candidate)) {
+          logger.debug("Dependency {} is satisfied by both {} and {}", dependency, match,
+              candidate);
+          return null;
+        }
+        match = candidate;
+      }
+    }
+    return match == null ? null : loaded.get(match.getCoordinates());
+  }
+
   public List<FileObject> getExtensionDirs() {
     return extensionDirs;
   }
@@ -407,4 +917,34 @@ public class BundleClassLoadersContext {
   public FileSystemManager getFileSystemManager() {
     return fileSystemManager;
   }
+
+  /**
+   * @return the {@code ResourceByteCache} of the bundle class loaders, or null if it is disabled
+   */
+  public ResourceByteCache getResourceByteCache() {
+    return resourceByteCache;
+  }
+
+  /**
+   * @return the {@code BundlePackageIndex} of the packages exported by the bundle class loaders
+   */
+  public BundlePackageIndex getPackageIndex() {
+    return packageIndex;
+  }
+
+  /**
+   * Returns the layer hosting the dependency jars shared by bundles.
+   * @return {@code SharedJarLayer} or null if jars are not shared
+   */
+  public SharedJarLayer getSharedJarLayer() {
+    return sharedJarLayer;
+  }
+
+  /**
+   * Returns the pool limiting the dependency jars the bundles hold open.
+   * @return {@code JarHandlePool} or null if the open jars are not limited
+   */
+  public JarHandlePool getJarHandlePool() {
+    return jarHandlePool;
+  }
 }
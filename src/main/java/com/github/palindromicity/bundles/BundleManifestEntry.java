@@ -23,7 +23,8 @@ package com.github.palindromicity.bundles;
 public enum BundleManifestEntry {
   PRE_GROUP("-Group"), PRE_ID("-Id"), PRE_VERSION("-Version"), PRE_DEPENDENCY_GROUP(
       "-Dependency-Group"), PRE_DEPENDENCY_ID("-Dependency-Id"), PRE_DEPENDENCY_VERSION(
-      "-Dependency-Version"), BUILD_TAG("Build-Tag"), BUILD_REVISION(
+      "-Dependency-Version"), PRE_DEPENDENCIES("-Dependencies"), PRE_IMPORT_PACKAGE(
+      "-Import-Package"), BUILD_TAG("Build-Tag"), BUILD_REVISION(
       "Build-Revision"), BUILD_BRANCH("Build-Branch"), BUILD_TIMESTAMP(
       "Build-Timestamp"), BUILD_JDK("Build-Jdk"), BUILT_BY("Built-By");
 
@@ -24,7 +24,6 @@ import java.lang.invoke.MethodHandles;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,8 +32,9 @@ import java.util.jar.JarInputStream;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemManager;
 import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import com.github.palindromicity.bundles.util.BundlePack;
 import com.github.palindromicity.bundles.util.BundleProperties;
-import com.github.palindromicity.bundles.util.BundleSelector;
+import com.github.palindromicity.bundles.util.BundleDirectoryScanner;
 import com.github.palindromicity.bundles.util.BundleUtil;
 import com.github.palindromicity.bundles.util.FileUtils;
 import org.slf4j.Logger;
@@ -64,6 +64,7 @@ public final class BundleMapper {
       archiveExtension = props.getArchiveExtension();
 
       final List<FileObject> bundleFiles = new ArrayList<>();
+      final ExtensionMapping extensionMapping = new ExtensionMapping();
 
       for (URI bundleLibraryDir : bundleLibraryDirs) {
 
@@ -75,10 +76,27 @@ public final class BundleMapper {
         // Test if the source BUNDLEs can be read
         FileUtils.ensureDirectoryExistAndCanRead(bundleDir);
 
-        FileObject[] dirFiles = bundleDir.findFiles(new BundleSelector(archiveExtension));
-        if (dirFiles != null) {
-          List<FileObject> fileList = Arrays.asList(dirFiles);
-          bundleFiles.addAll(fileList);
+        // bundles with a current catalog entry are mapped without opening them, if the catalog
+        // was indexed for the configured extension types
+        BundleCatalog catalog = BundleCatalog.read(bundleDir, props);
+        if (catalog != null && !catalog.isIndexedFor(props)) {
+          logger.info("Catalog of {} was indexed for extension types {}, opening its bundles",
+              bundleDir.getName(), catalog.getExtensionTypes());
+          catalog = null;
+        }
+        for (BundleDirectoryScanner.ListedFile listedFile : BundleDirectoryScanner
+            .fromProperties(props, archiveExtension, props.getPackExtension()).scan(bundleDir)) {
+          if (props.getPackExtension().equals(listedFile.getFile().getName().getExtension())) {
+            mapPackedBundles(listedFile.getFile(), extensionMapping, props);
+            continue;
+          }
+          final BundleCatalog.Entry entry = catalog == null ? null
+              : catalog.getCurrentEntry(bundleDir, listedFile);
+          if (entry != null) {
+            entry.mapExtensions(listedFile.getFile(), extensionMapping, props);
+          } else {
+            bundleFiles.add(listedFile.getFile());
+          }
         }
       }
 
@@ -89,7 +107,6 @@ public final class BundleMapper {
         }
       }
 
-      final ExtensionMapping extensionMapping = new ExtensionMapping();
       mapExtensions(bundlesToCoordinates, extensionMapping, props);
       return extensionMapping;
     } catch (IOException | URISyntaxException e) {
@@ -103,6 +120,33 @@ public final class BundleMapper {
     return null;
   }
 
+  /**
+   * Maps the extensions of the bundles in a pack. Their coordinates come from the table of
+   * contents, and each bundle is read as a range of the pack rather than mounted.
+   */
+  private static void mapPackedBundles(final FileObject packFile, final ExtensionMapping mapping,
+      final BundleProperties props) throws IOException {
+    final BundlePack pack = BundlePack.open(packFile);
+    final String dependencyPrefix = VfsBundleClassLoader.DEPENDENCY_PATH + "/";
+    for (BundlePack.Entry entry : pack.getEntries()) {
+      final BundleCoordinates coordinates = BundleUtil
+          .fromAttributes(packFile, entry.getAttributes(), props)
+          .getCoordinates();
+      try (JarInputStream bundle = new JarInputStream(pack.openStream(entry))) {
+        for (JarEntry jarEntry = bundle.getNextJarEntry(); jarEntry != null;
+            jarEntry = bundle.getNextJarEntry()) {
+          final String name = jarEntry.getName();
+          if (name.startsWith(dependencyPrefix) && name.endsWith(".jar")
+              && name.indexOf('/', dependencyPrefix.length()) == -1) {
+            // not closed, closing it would close the bundle stream
+            mapping.merge(buildExtensionMappingForJar(coordinates, new JarInputStream(bundle),
+                props));
+          }
+        }
+      }
+    }
+  }
+
   private static void mapExtensions(final Map<FileObject, BundleCoordinates> bundlesToCoordinates,
       final ExtensionMapping mapping, BundleProperties props) throws IOException {
     for (final Map.Entry<FileObject, BundleCoordinates> entry : bundlesToCoordinates.entrySet()) {
@@ -145,8 +189,15 @@ public final class BundleMapper {
   }
 
 
-  private static ExtensionMapping buildExtensionMappingForJar(final BundleCoordinates coordinate,
+  static ExtensionMapping buildExtensionMappingForJar(final BundleCoordinates coordinate,
       final FileObject jar, final BundleProperties props) throws IOException {
+    try (final JarInputStream jarFile = new JarInputStream(jar.getContent().getInputStream())) {
+      return buildExtensionMappingForJar(coordinate, jarFile, props);
+    }
+  }
+
+  private static ExtensionMapping buildExtensionMappingForJar(final BundleCoordinates coordinate,
+      final JarInputStream jarFile, final BundleProperties props) throws IOException {
     final ExtensionMapping mapping = new ExtensionMapping();
 
     // The BundleProperties has configuration for the extension names and classnames
@@ -156,14 +207,11 @@ public final class BundleMapper {
       return mapping;
     }
     JarEntry jarEntry;
-    try (final JarInputStream jarFile = new JarInputStream(jar.getContent().getInputStream())) {
-
-      while ((jarEntry = jarFile.getNextJarEntry()) != null) {
-        for (Map.Entry<String, String> extensionEntry : extensions.entrySet()) {
-          if (jarEntry.getName().equals(String.format(META_FMT, extensionEntry.getValue()))) {
-            mapping.addAllExtensions(extensionEntry.getKey(), coordinate,
-                buildExtensionMappingForJar(jarFile, jarEntry));
-          }
+    while ((jarEntry = jarFile.getNextJarEntry()) != null) {
+      for (Map.Entry<String, String> extensionEntry : extensions.entrySet()) {
+        if (jarEntry.getName().equals(String.format(META_FMT, extensionEntry.getValue()))) {
+          mapping.addAllExtensions(extensionEntry.getKey(), coordinate,
+              buildExtensionMappingForJar(jarFile, jarEntry));
         }
       }
     }
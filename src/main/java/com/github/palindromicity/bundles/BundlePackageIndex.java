@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.google.common.collect.ImmutableMap;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The global index of packages to the bundle class loader that exports them.
+ *
+ * <p>Every bundle class loader created by a {@link BundleClassLoadersContext} registers the
+ * packages of its jars. Bundles that import packages, by the {@code -Import-Package} manifest
+ * entry, resolve them here with a single lookup, instead of walking a class loader hierarchy.
+ * When more than one bundle contains a package, the first bundle registered exports it.</p>
+ */
+public class BundlePackageIndex {
+
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String META_INF = "META-INF";
+
+  private final Map<String, VfsBundleClassLoader> exporters = new ConcurrentHashMap<>();
+
+  /**
+   * Registers the packages of a bundle class loader.
+   *
+   * @param classLoader the {@code VfsBundleClassLoader}
+   */
+  public void register(VfsBundleClassLoader classLoader) {
+    for (String packageName : classLoader.getPackageNames()) {
+      if (packageName.isEmpty() || packageName.equals(META_INF)
+          || packageName.startsWith(META_INF + ".")) {
+        continue;
+      }
+      final VfsBundleClassLoader existing = exporters.putIfAbsent(packageName, classLoader);
+      if (existing != null && existing != classLoader) {
+        LOGGER.debug("Package {} of {} is already exported by {}", packageName,
+            classLoader.getBundleCoordinates(), existing.getBundleCoordinates());
+      }
+    }
+  }
+
+  /**
+   * Returns the class loader that exports a package.
+   *
+   * @param packageName the package name
+   * @return the {@code VfsBundleClassLoader}, or null if no bundle contains the package
+   */
+  public VfsBundleClassLoader getExporter(String packageName) {
+    return exporters.get(packageName);
+  }
+
+  /**
+   * Returns a copy of the index.
+   *
+   * @return {@code Map} of package names to the exporting class loader
+   */
+  public Map<String, VfsBundleClassLoader> getExporters() {
+    return ImmutableMap.copyOf(exporters);
+  }
+}
@@ -17,8 +17,12 @@
 package com.github.palindromicity.bundles;
 
 import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.metrics.StartupReport;
 import com.google.common.annotations.VisibleForTesting;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.Set;
 import org.apache.commons.vfs2.FileSystemException;
 
@@ -37,6 +41,7 @@ public interface BundleSystem {
   @VisibleForTesting()
   static void reset() {
     synchronized (BundleSystem.class) {
+      BundleSystemMetrics.unregister();
       BundleClassLoaders.reset();
       ExtensionManager.reset();
     }
@@ -67,6 +72,15 @@ public interface BundleSystem {
   <T> Set<Class<? extends T>> getExtensionsClassesForExtensionType(Class<T> extensionType)
       throws NotInitializedException;
 
+  /**
+   * Returns the report of the time spent starting this system, by phase and by bundle.
+   *
+   * @return {@code StartupReport}, or null if the system has not started or does not record one
+   */
+  default StartupReport getStartupReport() {
+    return null;
+  }
+
   /**
    * Loads a Bundle into the system.
    *
@@ -80,4 +94,53 @@ public interface BundleSystem {
   void addBundle(String bundleFileName)
       throws NotInitializedException, ClassNotFoundException, FileSystemException,
       URISyntaxException;
+
+  /**
+   * Loads a Bundle held in memory into the system. The bundle is never written to or read from
+   * disk. Its parent and dependency bundles must already be loaded.
+   *
+   * <p>The default implementation does not support bundles held in memory.</p>
+   *
+   * @param bundleName the file name of the bundle, unique among the bundles loaded from memory
+   * @param in the content of the bundle, read to the end but not closed
+   * @throws NotInitializedException nie
+   * @throws FileSystemException fse
+   * @throws UnsupportedOperationException if the system does not load bundles from memory
+   */
+  default void addBundle(String bundleName, InputStream in)
+      throws NotInitializedException, FileSystemException {
+    throw new UnsupportedOperationException(
+        getClass().getName() + " does not load bundles from memory");
+  }
+
+  /**
+   * Loads a Bundle held in memory into the system.
+   *
+   * @param bundleName the file name of the bundle, unique among the bundles loaded from memory
+   * @param content the content of the bundle
+   * @throws NotInitializedException nie
+   * @throws FileSystemException fse
+   * @see #addBundle(String, InputStream)
+   */
+  default void addBundle(String bundleName, byte[] content)
+      throws NotInitializedException, FileSystemException {
+    addBundle(bundleName, new ByteArrayInputStream(content));
+  }
+
+  /**
+   * Loads a Bundle held in memory into the system. The remaining content of the buffer is read,
+   * and its position is left unchanged.
+   *
+   * @param bundleName the file name of the bundle, unique among the bundles loaded from memory
+   * @param content the content of the bundle
+   * @throws NotInitializedException nie
+   * @throws FileSystemException fse
+   * @see #addBundle(String, InputStream)
+   */
+  default void addBundle(String bundleName, ByteBuffer content)
+      throws NotInitializedException, FileSystemException {
+    final byte[] bytes = new byte[content.remaining()];
+    content.duplicate().get(bytes);
+    addBundle(bundleName, bytes);
+  }
 }
@@ -24,6 +24,8 @@ import java.util.List;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemManager;
 import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.metrics.StartupRecorder;
+import com.github.palindromicity.bundles.metrics.StartupReport;
 import com.github.palindromicity.bundles.util.BundleProperties;
 import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
 import org.slf4j.Logger;
@@ -139,11 +141,13 @@ public class BundleSystemBuilder {
     if (this.properties == null) {
       throw new IllegalArgumentException("BundleProperties are required");
     }
+    final StartupRecorder startupRecorder = new StartupRecorder();
     try {
+      long start = System.nanoTime();
       if (this.fileSystemManager == null) {
-        this.fileSystemManager = FileSystemManagerFactory
-            .createFileSystemManager(new String[]{properties.getArchiveExtension()});
+        this.fileSystemManager = FileSystemManagerFactory.createFileSystemManager(properties);
       }
+      start = recordPhase(startupRecorder, "fileSystemManager", start);
       if (this.extensionClasses.isEmpty()) {
         properties.getBundleExtensionTypes().forEach((x, y) -> {
           try {
@@ -153,10 +157,12 @@ public class BundleSystemBuilder {
           }
         });
       }
+      start = recordPhase(startupRecorder, "extensionClasses", start);
       if (this.systemBundle == null) {
         this.systemBundle = ExtensionManager
             .createSystemBundle(this.fileSystemManager, this.properties);
       }
+      start = recordPhase(startupRecorder, "systemBundle", start);
       List<URI> libDirs = properties.getBundleLibraryDirectories();
       libDirs.forEach((uri) -> LOG.debug(uri.toString()));
       List<FileObject> libFileObjects = new ArrayList<>();
@@ -173,14 +179,28 @@ public class BundleSystemBuilder {
         }
       });
 
+      start = recordPhase(startupRecorder, "libraryDirectories", start);
+
       // initialize the Bundle System
-      BundleClassLoaders.init(fileSystemManager, libFileObjects, properties);
+      BundleClassLoaders.init(fileSystemManager, libFileObjects, properties, startupRecorder);
+      start = recordPhase(startupRecorder, "bundleClassLoaders", start);
       ExtensionManager
-          .init(extensionClasses, systemBundle, BundleClassLoaders.getInstance().getBundles());
+          .init(extensionClasses, systemBundle, BundleClassLoaders.getInstance().getBundles(),
+              startupRecorder, InstanceClassLoaderRegistry.fromProperties(properties));
+      recordPhase(startupRecorder, "extensionManager", start);
+      BundleSystemMetrics.register();
+      final StartupReport startupReport = startupRecorder.toReport();
+      LOG.info(startupReport.toString());
       return new DefaultBundleSystem(fileSystemManager, extensionClasses, libFileObjects,
-          systemBundle, properties);
+          systemBundle, properties, startupReport);
     } catch (Exception e) {
       throw new NotInitializedException(e);
     }
   }
+
+  private static long recordPhase(StartupRecorder startupRecorder, String phase, long start) {
+    final long now = System.nanoTime();
+    startupRecorder.recordPhase(phase, now - start);
+    return now;
+  }
 }
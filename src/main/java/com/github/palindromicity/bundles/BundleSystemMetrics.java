@@ -0,0 +1,413 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.metrics.BundleFootprint;
+import com.github.palindromicity.bundles.metrics.BundleSystemMXBean;
+import com.github.palindromicity.bundles.metrics.ClassLoaderStats;
+import com.github.palindromicity.bundles.metrics.ExtensionManagerMetrics;
+import com.github.palindromicity.bundles.metrics.LatencyHistogram;
+import com.github.palindromicity.bundles.util.BoundedFilesCache;
+import com.github.palindromicity.bundles.util.ResourceByteCache;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.vfs2.FilesCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the class loading metrics of the {@link BundleClassLoaders} and the registry metrics
+ * of the {@link ExtensionManager} through the platform MBean server.
+ *
+ * <p>All values are gathered from the singletons when read, so the MBean reflects bundles added
+ * after initialization and reports empty values while the system is not initialized.</p>
+ */
+public class BundleSystemMetrics implements BundleSystemMXBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String OBJECT_NAME = "com.github.palindromicity.bundles:type=BundleSystem";
+
+  /**
+   * Registers the MBean with the platform MBean server if it is not already registered.
+   */
+  public static void register() {
+    synchronized (BundleSystemMetrics.class) {
+      try {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+          server.registerMBean(new BundleSystemMetrics(), name);
+        }
+      } catch (JMException | SecurityException e) {
+        LOG.warn("Unable to register " + OBJECT_NAME, e);
+      }
+    }
+  }
+
+  /**
+   * Unregisters the MBean from the platform MBean server if it is registered.
+   */
+  public static void unregister() {
+    synchronized (BundleSystemMetrics.class) {
+      try {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+      } catch (JMException | SecurityException e) {
+        LOG.warn("Unable to unregister " + OBJECT_NAME, e);
+      }
+    }
+  }
+
+  @Override
+  public int getBundleCount() {
+    return getBundles().size();
+  }
+
+  @Override
+  public List<ClassLoaderStats> getBundleClassLoaderStats() {
+    final List<ClassLoaderStats> stats = new ArrayList<>();
+    for (Bundle bundle : getBundles()) {
+      final ClassLoader classLoader = bundle.getClassLoader();
+      if (classLoader instanceof VfsBundleClassLoader) {
+        stats.add(((VfsBundleClassLoader) classLoader).getMetrics()
+            .snapshot(bundle.getBundleDetails().getCoordinates().getCoordinates(), null));
+      } else if (classLoader instanceof ExtractedBundleClassLoader) {
+        stats.add(((ExtractedBundleClassLoader) classLoader).getMetrics()
+            .snapshot(bundle.getBundleDetails().getCoordinates().getCoordinates(), null));
+      } else if (classLoader instanceof InMemoryBundleClassLoader) {
+        stats.add(((InMemoryBundleClassLoader) classLoader).getMetrics()
+            .snapshot(bundle.getBundleDetails().getCoordinates().getCoordinates(), null));
+      }
+    }
+    return stats;
+  }
+
+  @Override
+  public List<BundleFootprint> getBundleFootprints() {
+    return getBundleFootprints(BundleFootprint.BY_MEMORY_COST);
+  }
+
+  /**
+   * Returns the footprint of each bundle.
+   *
+   * @param order the order of the footprints, for example {@link BundleFootprint#BY_CLASS_BYTES}
+   * @return the footprints
+   */
+  public List<BundleFootprint> getBundleFootprints(Comparator<BundleFootprint> order) {
+    final ResourceByteCache cache = getResourceByteCache();
+    final List<BundleFootprint> footprints = new ArrayList<>();
+    for (Bundle bundle : getBundles()) {
+      final String coordinates = bundle.getBundleDetails().getCoordinates().getCoordinates();
+      final ClassLoader classLoader = bundle.getClassLoader();
+      final BundleFootprint.Builder builder = new BundleFootprint.Builder()
+          .withBundleCoordinates(coordinates);
+      if (classLoader instanceof VfsBundleClassLoader) {
+        final VfsBundleClassLoader vfsClassLoader = (VfsBundleClassLoader) classLoader;
+        builder.withClassLoaderMetrics(vfsClassLoader.getMetrics())
+            .withOpenFileSystems(vfsClassLoader.getOpenFileSystemCount())
+            .withReplicatedBytes(vfsClassLoader.getReplicatedBytes());
+      } else if (classLoader instanceof ExtractedBundleClassLoader) {
+        final ExtractedBundleClassLoader extractedClassLoader =
+            (ExtractedBundleClassLoader) classLoader;
+        builder.withClassLoaderMetrics(extractedClassLoader.getMetrics())
+            .withOpenFileSystems(extractedClassLoader.getOpenFileSystemCount())
+            .withReplicatedBytes(extractedClassLoader.getExtractedBytes());
+      } else if (classLoader instanceof InMemoryBundleClassLoader) {
+        final InMemoryBundleClassLoader memoryClassLoader = (InMemoryBundleClassLoader) classLoader;
+        builder.withClassLoaderMetrics(memoryClassLoader.getMetrics())
+            .withOpenFileSystems(0)
+            .withReplicatedBytes(memoryClassLoader.getHeldBytes());
+      } else {
+        continue;
+      }
+      if (cache != null) {
+        builder.withCachedResources(cache.getEntryCount(coordinates), cache.getBytes(coordinates));
+      }
+      footprints.add(builder.build());
+    }
+    footprints.sort(order);
+    return footprints;
+  }
+
+  @Override
+  public List<ClassLoaderStats> getInstanceClassLoaderStats() {
+    final List<ClassLoaderStats> stats = new ArrayList<>();
+    try {
+      final ExtensionManager extensionManager = ExtensionManager.getInstance();
+      for (ClassLoader classLoader : extensionManager.getInstanceClassLoaders().values()) {
+        if (classLoader instanceof InstanceClassLoader) {
+          final InstanceClassLoader instanceClassLoader = (InstanceClassLoader) classLoader;
+          final List<Bundle> bundles = extensionManager
+              .getBundles(instanceClassLoader.getInstanceType());
+          final String coordinates = bundles.isEmpty() ? null
+              : bundles.get(0).getBundleDetails().getCoordinates().getCoordinates();
+          stats.add(instanceClassLoader.getMetrics()
+              .snapshot(coordinates, instanceClassLoader.getIdentifier()));
+        }
+      }
+    } catch (NotInitializedException e) {
+      return Collections.emptyList();
+    }
+    return stats;
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public Map<String, Integer> getExtensionCounts() {
+    final Map<String, Integer> counts = new TreeMap<>();
+    try {
+      final ExtensionManager extensionManager = ExtensionManager.getInstance();
+      for (Class extensionType : extensionManager.getExtensionClasses()) {
+        counts.put(extensionType.getName(),
+            extensionManager.getExtensions(extensionType).size());
+      }
+    } catch (NotInitializedException e) {
+      return Collections.emptyMap();
+    }
+    return counts;
+  }
+
+  @Override
+  public long getCreateInstanceCount() {
+    final ExtensionManagerMetrics metrics = getExtensionManagerMetrics();
+    return metrics == null ? 0 : metrics.getCreateInstanceCount();
+  }
+
+  @Override
+  public long getCreateInstanceFailures() {
+    final ExtensionManagerMetrics metrics = getExtensionManagerMetrics();
+    return metrics == null ? 0 : metrics.getCreateInstanceFailures();
+  }
+
+  @Override
+  public double getCreateInstanceRatePerSecond() {
+    final ExtensionManagerMetrics metrics = getExtensionManagerMetrics();
+    return metrics == null ? 0.0 : metrics.getCreateInstanceRate();
+  }
+
+  @Override
+  public long getCreateInstanceMeanMicros() {
+    final LatencyHistogram histogram = getCreateInstanceTime();
+    return histogram == null ? 0 : TimeUnit.NANOSECONDS.toMicros(histogram.getMeanNanos());
+  }
+
+  @Override
+  public long getCreateInstanceP99Micros() {
+    final LatencyHistogram histogram = getCreateInstanceTime();
+    return histogram == null ? 0
+        : TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(0.99));
+  }
+
+  @Override
+  public long getCreateInstanceMaxMicros() {
+    final LatencyHistogram histogram = getCreateInstanceTime();
+    return histogram == null ? 0 : TimeUnit.NANOSECONDS.toMicros(histogram.getMaxNanos());
+  }
+
+  @Override
+  public int getInstanceClassLoaderCount() {
+    final InstanceClassLoaderRegistry registry = getInstanceClassLoaderRegistry();
+    return registry == null ? 0 : registry.getLiveCount();
+  }
+
+  @Override
+  public long getInstanceClassLoaderEvictions() {
+    final InstanceClassLoaderRegistry registry = getInstanceClassLoaderRegistry();
+    return registry == null ? 0 : registry.getEvictedCount();
+  }
+
+  @Override
+  public long getResourceCacheHits() {
+    final ResourceByteCache cache = getResourceByteCache();
+    return cache == null ? 0 : cache.getHits();
+  }
+
+  @Override
+  public long getResourceCacheMisses() {
+    final ResourceByteCache cache = getResourceByteCache();
+    return cache == null ? 0 : cache.getMisses();
+  }
+
+  @Override
+  public long getResourceCacheEvictions() {
+    final ResourceByteCache cache = getResourceByteCache();
+    return cache == null ? 0 : cache.getEvictions();
+  }
+
+  @Override
+  public long getResourceCacheBytes() {
+    final ResourceByteCache cache = getResourceByteCache();
+    return cache == null ? 0 : cache.getBytes();
+  }
+
+  @Override
+  public double getResourceCacheHitRate() {
+    final ResourceByteCache cache = getResourceByteCache();
+    return cache == null ? 0.0 : cache.getHitRate();
+  }
+
+  @Override
+  public int getFilesCacheSize() {
+    final BoundedFilesCache cache = getFilesCache();
+    return cache == null ? 0 : cache.getSize();
+  }
+
+  @Override
+  public long getFilesCacheHits() {
+    final BoundedFilesCache cache = getFilesCache();
+    return cache == null ? 0 : cache.getHits();
+  }
+
+  @Override
+  public long getFilesCacheMisses() {
+    final BoundedFilesCache cache = getFilesCache();
+    return cache == null ? 0 : cache.getMisses();
+  }
+
+  @Override
+  public long getFilesCacheEvictions() {
+    final BoundedFilesCache cache = getFilesCache();
+    return cache == null ? 0 : cache.getEvictions();
+  }
+
+  @Override
+  public long getFilesCacheRejections() {
+    final BoundedFilesCache cache = getFilesCache();
+    return cache == null ? 0 : cache.getRejections();
+  }
+
+  @Override
+  public int getJarHandlesOpen() {
+    final JarHandlePool pool = getJarHandlePool();
+    return pool == null ? 0 : pool.getOpenCount();
+  }
+
+  @Override
+  public long getJarHandleReopens() {
+    final JarHandlePool pool = getJarHandlePool();
+    return pool == null ? 0 : pool.getReopens();
+  }
+
+  @Override
+  public long getJarHandleCloses() {
+    final JarHandlePool pool = getJarHandlePool();
+    return pool == null ? 0 : pool.getCloses();
+  }
+
+  @Override
+  public double getJarHandleReopenRate() {
+    final JarHandlePool pool = getJarHandlePool();
+    return pool == null ? 0.0 : pool.getReopenRate();
+  }
+
+  @Override
+  public int getSharedJarCount() {
+    final SharedJarLayer layer = getSharedJarLayer();
+    return layer == null ? 0 : layer.getSharedJarCount();
+  }
+
+  @Override
+  public long getSharedJarSavedBytes() {
+    final SharedJarLayer layer = getSharedJarLayer();
+    return layer == null ? 0 : layer.getSavedBytes();
+  }
+
+  @Override
+  public Map<String, Long> getSharedJarSavedBytesByBundle() {
+    final SharedJarLayer layer = getSharedJarLayer();
+    return layer == null ? Collections.emptyMap() : layer.getSavedBytesByBundle();
+  }
+
+  private static BoundedFilesCache getFilesCache() {
+    try {
+      final FilesCache cache = BundleClassLoaders.getInstance().getFileSystemManager()
+          .getFilesCache();
+      return cache instanceof BoundedFilesCache ? (BoundedFilesCache) cache : null;
+    } catch (NotInitializedException e) {
+      return null;
+    }
+  }
+
+  private static JarHandlePool getJarHandlePool() {
+    try {
+      return BundleClassLoaders.getInstance().getJarHandlePool();
+    } catch (NotInitializedException e) {
+      return null;
+    }
+  }
+
+  private static SharedJarLayer getSharedJarLayer() {
+    try {
+      return BundleClassLoaders.getInstance().getSharedJarLayer();
+    } catch (NotInitializedException e) {
+      return null;
+    }
+  }
+
+  private static InstanceClassLoaderRegistry getInstanceClassLoaderRegistry() {
+    try {
+      return ExtensionManager.getInstance().getInstanceClassLoaderRegistry();
+    } catch (NotInitializedException e) {
+      return null;
+    }
+  }
+
+  private static ResourceByteCache getResourceByteCache() {
+    try {
+      return BundleClassLoaders.getInstance().getResourceByteCache();
+    } catch (NotInitializedException e) {
+      return null;
+    }
+  }
+
+  private static Set<Bundle> getBundles() {
+    try {
+      return BundleClassLoaders.getInstance().getBundles();
+    } catch (NotInitializedException e) {
+      return Collections.emptySet();
+    }
+  }
+
+  private static ExtensionManagerMetrics getExtensionManagerMetrics() {
+    try {
+      return ExtensionManager.getInstance().getMetrics();
+    } catch (NotInitializedException e) {
+      return null;
+    }
+  }
+
+  private static LatencyHistogram getCreateInstanceTime() {
+    final ExtensionManagerMetrics metrics = getExtensionManagerMetrics();
+    return metrics == null ? null : metrics.getCreateInstanceTime();
+  }
+}
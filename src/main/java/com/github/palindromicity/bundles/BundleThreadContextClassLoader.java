@@ -27,6 +27,9 @@ import java.net.URLClassLoader;
 import java.util.Enumeration;
 import java.util.List;
 import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.jfr.BundleEvents;
+import com.github.palindromicity.bundles.jfr.EventScope;
+import com.github.palindromicity.bundles.metrics.ExtensionManagerMetrics;
 import com.github.palindromicity.bundles.util.BundleProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -103,7 +106,9 @@ public class BundleThreadContextClassLoader extends URLClassLoader {
         // classloader before we return the class.
         // Just looking the class up is not enough.
         //
-        if (desiredClassLoader instanceof VfsBundleClassLoader) {
+        if (desiredClassLoader instanceof VfsBundleClassLoader
+            || desiredClassLoader instanceof ExtractedBundleClassLoader
+            || desiredClassLoader instanceof InMemoryBundleClassLoader) {
           Thread.currentThread().setContextClassLoader(desiredClassLoader);
         }
         return desiredClassLoader;
@@ -161,6 +166,23 @@ public class BundleThreadContextClassLoader extends URLClassLoader {
       final Class<T> typeDefinition, final BundleProperties bundleProperties)
       throws InstantiationException, IllegalAccessException, ClassNotFoundException,
       NotInitializedException {
+    final ExtensionManagerMetrics metrics = ExtensionManager.getInstance().getMetrics();
+    final long start = System.nanoTime();
+    boolean succeeded = false;
+    try (EventScope event = BundleEvents.createInstance(implementationClassName)) {
+      final T instance = doCreateInstance(implementationClassName, typeDefinition,
+          bundleProperties);
+      succeeded = true;
+      return instance;
+    } finally {
+      metrics.recordCreateInstance(System.nanoTime() - start, succeeded);
+    }
+  }
+
+  private static <T> T doCreateInstance(final String implementationClassName,
+      final Class<T> typeDefinition, final BundleProperties bundleProperties)
+      throws InstantiationException, IllegalAccessException, ClassNotFoundException,
+      NotInitializedException {
     final ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
     Thread.currentThread().setContextClassLoader(BundleThreadContextClassLoader.getInstance());
     try {
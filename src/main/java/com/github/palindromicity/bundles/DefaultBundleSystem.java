@@ -16,6 +16,7 @@
 
 package com.github.palindromicity.bundles;
 
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.net.URISyntaxException;
 import java.util.HashSet;
@@ -26,6 +27,9 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemManager;
 import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.jfr.BundleEvents;
+import com.github.palindromicity.bundles.jfr.EventScope;
+import com.github.palindromicity.bundles.metrics.StartupReport;
 import com.github.palindromicity.bundles.util.BundleProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,14 +48,23 @@ public class DefaultBundleSystem implements BundleSystem {
   private final List<Class> extensionClasses;
   private final List<FileObject> extensionDirectories;
   private final Bundle systemBundle;
+  private final StartupReport startupReport;
 
   protected DefaultBundleSystem(FileSystemManager fileSystemManager, List<Class> extensionClasses,
       List<FileObject> extensionDirectories, Bundle systemBundle, BundleProperties properties) {
+    this(fileSystemManager, extensionClasses, extensionDirectories, systemBundle, properties,
+        null);
+  }
+
+  protected DefaultBundleSystem(FileSystemManager fileSystemManager, List<Class> extensionClasses,
+      List<FileObject> extensionDirectories, Bundle systemBundle, BundleProperties properties,
+      StartupReport startupReport) {
     this.properties = properties;
     this.fileSystemManager = fileSystemManager;
     this.extensionClasses = extensionClasses;
     this.systemBundle = systemBundle;
     this.extensionDirectories = extensionDirectories;
+    this.startupReport = startupReport;
   }
 
   /**
@@ -87,6 +100,11 @@ public class DefaultBundleSystem implements BundleSystem {
     return set;
   }
 
+  @Override
+  public StartupReport getStartupReport() {
+    return startupReport;
+  }
+
   /**
    * Loads a Bundle into the system.
    *
@@ -101,11 +119,40 @@ public class DefaultBundleSystem implements BundleSystem {
       throw new IllegalArgumentException("bundleFileName cannot be null or empty");
     }
     synchronized (DefaultBundleSystem.class) {
-      LOG.debug("Adding bundle " + bundleFileName + " to BundleClassLoaders");
-      Bundle bundle = BundleClassLoaders.getInstance().addBundle(bundleFileName);
-      LOG.debug("Adding bundle " + bundle.getBundleDetails().getBundleFile().getName().toString()
-          + " to ExtensionManager");
-      ExtensionManager.getInstance().addBundle(bundle);
+      try (EventScope event = BundleEvents.addBundle(bundleFileName)) {
+        LOG.debug("Adding bundle " + bundleFileName + " to BundleClassLoaders");
+        Bundle bundle = BundleClassLoaders.getInstance().addBundle(bundleFileName);
+        event.setCoordinates(bundle.getBundleDetails().getCoordinates().getCoordinates());
+        LOG.debug("Adding bundle " + bundle.getBundleDetails().getBundleFile().getName().toString()
+            + " to ExtensionManager");
+        ExtensionManager.getInstance().addBundle(bundle);
+      }
+    }
+  }
+
+  /**
+   * Loads a Bundle held in memory into the system.
+   *
+   * @param bundleName the file name of the bundle, unique among the bundles loaded from memory
+   * @param in the content of the bundle, read to the end but not closed
+   */
+  @Override
+  public void addBundle(String bundleName, InputStream in)
+      throws NotInitializedException, FileSystemException {
+    if (StringUtils.isEmpty(bundleName)) {
+      throw new IllegalArgumentException("bundleName cannot be null or empty");
+    }
+    if (in == null) {
+      throw new IllegalArgumentException("bundle content cannot be null");
+    }
+    synchronized (DefaultBundleSystem.class) {
+      try (EventScope event = BundleEvents.addBundle(bundleName)) {
+        LOG.debug("Adding in memory bundle " + bundleName + " to BundleClassLoaders");
+        Bundle bundle = BundleClassLoaders.getInstance().addBundle(bundleName, in);
+        event.setCoordinates(bundle.getBundleDetails().getCoordinates().getCoordinates());
+        LOG.debug("Adding in memory bundle " + bundleName + " to ExtensionManager");
+        ExtensionManager.getInstance().addBundle(bundle);
+      }
     }
   }
 
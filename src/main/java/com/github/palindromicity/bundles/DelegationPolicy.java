@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decides how a {@link VfsBundleClassLoader} delegates class loading.
+ *
+ * <p>{@link #PARENT_FIRST} is the standard ClassLoader behavior, every class is first requested
+ * from the parent class loaders. A package indexed policy sends classes in packages a bundle
+ * owns directly to the bundle class loader that owns them, skipping the walk up the parent
+ * chain. Classes in {@code java.*} and in the shared packages are always loaded parent first, the
+ * shared packages should include the extension type APIs and anything else that must be the same
+ * class on both sides of the bundle boundary.</p>
+ */
+public final class DelegationPolicy {
+
+  public static final DelegationPolicy PARENT_FIRST = new DelegationPolicy(false,
+      ImmutableList.<String>of());
+
+  private final boolean packageIndexed;
+  private final List<String> sharedPackages;
+
+  private DelegationPolicy(boolean packageIndexed, List<String> sharedPackages) {
+    this.packageIndexed = packageIndexed;
+    this.sharedPackages = sharedPackages;
+  }
+
+  /**
+   * Creates a package indexed policy.
+   *
+   * @param sharedPackages the packages, including their sub packages, that are always loaded
+   *     parent first
+   * @return {@code DelegationPolicy}
+   */
+  public static DelegationPolicy packageIndexed(Collection<String> sharedPackages) {
+    return new DelegationPolicy(true, ImmutableList.copyOf(sharedPackages));
+  }
+
+  /**
+   * Creates the policy configured by the {@code BundleProperties}. The packages of the configured
+   * extension types are added to the shared packages.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return {@code DelegationPolicy}
+   */
+  public static DelegationPolicy fromProperties(BundleProperties properties) {
+    final String mode = properties.getClassLoaderDelegation();
+    if (BundleProperties.DELEGATION_PARENT_FIRST.equals(mode)) {
+      return PARENT_FIRST;
+    }
+    if (!BundleProperties.DELEGATION_PACKAGE_INDEX.equals(mode)) {
+      throw new IllegalArgumentException(
+          BundleProperties.CLASSLOADER_DELEGATION + " must be one of "
+              + BundleProperties.DELEGATION_PARENT_FIRST + " or "
+              + BundleProperties.DELEGATION_PACKAGE_INDEX + ", but was " + mode);
+    }
+    final List<String> shared = new ArrayList<>(properties.getSharedPackages());
+    for (String className : properties.getBundleExtensionTypes().values()) {
+      shared.add(VfsBundleClassPathEntry.packageOfClass(className));
+    }
+    return packageIndexed(shared);
+  }
+
+  public boolean isPackageIndexed() {
+    return packageIndexed;
+  }
+
+  public List<String> getSharedPackages() {
+    return sharedPackages;
+  }
+
+  /**
+   * Returns true if classes in the package must be loaded parent first.
+   *
+   * @param packageName the package name
+   * @return true if the package is {@code java.*} or one of the shared packages
+   */
+  public boolean isShared(String packageName) {
+    if (!packageIndexed || packageName.equals("java") || packageName.startsWith("java.")) {
+      return true;
+    }
+    for (String shared : sharedPackages) {
+      if (packageName.startsWith(shared) && (packageName.length() == shared.length()
+          || packageName.charAt(shared.length()) == '.')) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -19,7 +19,6 @@ package com.github.palindromicity.bundles;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
-import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -38,6 +37,8 @@ import org.apache.commons.vfs2.FileSystemManager;
 import com.github.palindromicity.bundles.bundle.Bundle;
 import com.github.palindromicity.bundles.bundle.BundleCoordinates;
 import com.github.palindromicity.bundles.bundle.BundleDetails;
+import com.github.palindromicity.bundles.metrics.ExtensionManagerMetrics;
+import com.github.palindromicity.bundles.metrics.StartupRecorder;
 import com.github.palindromicity.bundles.util.BundleProperties;
 import com.github.palindromicity.bundles.util.DummyFileObject;
 import com.github.palindromicity.bundles.util.FileUtils;
@@ -64,6 +65,8 @@ public class ExtensionManager {
   public static final BundleCoordinates SYSTEM_BUNDLE_COORDINATE = new BundleCoordinates(
       BundleCoordinates.DEFAULT_GROUP, "system", BundleCoordinates.DEFAULT_VERSION);
 
+  private final ExtensionManagerMetrics metrics = new ExtensionManagerMetrics();
+
   private ExtensionManager(){}
 
   /**
@@ -98,6 +101,34 @@ public class ExtensionManager {
   public static void init(final List<Class> classes, final Bundle systemBundle,
       final Set<Bundle> bundles)
       throws NotInitializedException {
+    init(classes, systemBundle, bundles, null);
+  }
+
+  /**
+   * Loads all extension class types, recording the extension scan time of each bundle.
+   *
+   * @param bundles the bundles to scan through in search of extensions
+   * @param startupRecorder the {@code StartupRecorder}, may be null
+   * @see #init(List, Bundle, Set)
+   */
+  public static void init(final List<Class> classes, final Bundle systemBundle,
+      final Set<Bundle> bundles, final StartupRecorder startupRecorder)
+      throws NotInitializedException {
+    init(classes, systemBundle, bundles, startupRecorder, null);
+  }
+
+  /**
+   * Loads all extension class types, keeping instance ClassLoaders in the given registry.
+   *
+   * @param bundles the bundles to scan through in search of extensions
+   * @param startupRecorder the {@code StartupRecorder}, may be null
+   * @param instanceClassLoaderRegistry the {@code InstanceClassLoaderRegistry}, may be null
+   * @see #init(List, Bundle, Set)
+   */
+  public static void init(final List<Class> classes, final Bundle systemBundle,
+      final Set<Bundle> bundles, final StartupRecorder startupRecorder,
+      final InstanceClassLoaderRegistry instanceClassLoaderRegistry)
+      throws NotInitializedException {
 
     if (systemBundle == null) {
       throw new IllegalArgumentException("systemBundle is required");
@@ -116,7 +147,9 @@ public class ExtensionManager {
       ExtensionManagerContext ic = new ExtensionManagerContext.Builder()
           .withClasses(classes)
           .withSystemBundle(systemBundle)
-          .withBundles(bundles).build();
+          .withBundles(bundles)
+          .withStartupRecorder(startupRecorder)
+          .withInstanceClassLoaderRegistry(instanceClassLoaderRegistry).build();
       initContext = ic;
       extensionManager = em;
       extensionManager.logClassLoaderMapping();
@@ -191,21 +224,26 @@ public class ExtensionManager {
     final ClassLoader bundleClassLoader = bundle.getClassLoader();
 
     // If the class is annotated with @RequiresInstanceClassLoading and the registered ClassLoader
-    // is a URLClassLoader then make a new InstanceClassLoader that is a full copy of the BUNDLE
-    // Class Loader, otherwise create an empty InstanceClassLoader that has the Bundle ClassLoader
-    // as a parent
+    // is a URLClassLoader or a VfsBundleClassLoader then make a new InstanceClassLoader that is a
+    // full copy of the BUNDLE Class Loader, otherwise create an empty InstanceClassLoader that has
+    // the Bundle ClassLoader as a parent
     ClassLoader instanceClassLoader;
-    if (initContext.getRequiresInstanceClassLoading().contains(classType)
-        && (bundleClassLoader instanceof URLClassLoader)) {
+    final boolean requiresInstanceClassLoading = initContext.getRequiresInstanceClassLoading()
+        .contains(classType);
+    if (requiresInstanceClassLoading && (bundleClassLoader instanceof URLClassLoader)) {
       final URLClassLoader registeredUrlClassLoader = (URLClassLoader) bundleClassLoader;
       instanceClassLoader = new InstanceClassLoader(instanceIdentifier, classType,
           registeredUrlClassLoader.getURLs(), registeredUrlClassLoader.getParent());
+    } else if (requiresInstanceClassLoading
+        && (bundleClassLoader instanceof VfsBundleClassLoader)) {
+      instanceClassLoader = new VfsInstanceClassLoader(instanceIdentifier, classType,
+          (VfsBundleClassLoader) bundleClassLoader);
     } else {
       instanceClassLoader = new InstanceClassLoader(instanceIdentifier, classType, new URL[0],
           bundleClassLoader);
     }
 
-    initContext.getInstanceClassloaderLookup().put(instanceIdentifier, instanceClassLoader);
+    initContext.getInstanceClassLoaderRegistry().put(instanceIdentifier, instanceClassLoader);
     return instanceClassLoader;
   }
 
@@ -219,7 +257,58 @@ public class ExtensionManager {
   public ClassLoader getInstanceClassLoader(final String instanceIdentifier)
       throws NotInitializedException {
     checkInitialized();
-    return initContext.getInstanceClassloaderLookup().get(instanceIdentifier);
+    return initContext.getInstanceClassLoaderRegistry().get(instanceIdentifier);
+  }
+
+  /**
+   * Ties the ClassLoader of an instance to the reachability of the instance, so that it is
+   * evicted and closed once the instance has been garbage collected, and not before.
+   *
+   * @param instanceIdentifier the identifier of a component
+   * @param instance the component instance
+   * @return true if an instance ClassLoader exists for the identifier
+   * @throws NotInitializedException nie
+   */
+  public boolean attachInstance(final String instanceIdentifier, final Object instance)
+      throws NotInitializedException {
+    if (instanceIdentifier == null || instance == null) {
+      throw new IllegalArgumentException("instanceIdentifier and instance are required");
+    }
+    checkInitialized();
+    return initContext.getInstanceClassLoaderRegistry().attachInstance(instanceIdentifier,
+        instance);
+  }
+
+  /**
+   * Retrieves all live instance ClassLoaders by instance identifier.
+   *
+   * @return an immutable copy of the instance ClassLoader lookup
+   * @throws NotInitializedException nie
+   */
+  public Map<String, ClassLoader> getInstanceClassLoaders() throws NotInitializedException {
+    checkInitialized();
+    return initContext.getInstanceClassLoaderRegistry().asMap();
+  }
+
+  /**
+   * Returns the registry of instance ClassLoaders, with its eviction counters.
+   *
+   * @return {@code InstanceClassLoaderRegistry}
+   * @throws NotInitializedException nie
+   */
+  public InstanceClassLoaderRegistry getInstanceClassLoaderRegistry()
+      throws NotInitializedException {
+    checkInitialized();
+    return initContext.getInstanceClassLoaderRegistry();
+  }
+
+  /**
+   * Returns the registry level metrics of this ExtensionManager.
+   *
+   * @return {@code ExtensionManagerMetrics}
+   */
+  public ExtensionManagerMetrics getMetrics() {
+    return metrics;
   }
 
   /**
@@ -246,16 +335,9 @@ public class ExtensionManager {
       return null;
     }
     checkInitialized();
-    final ClassLoader classLoader = initContext.getInstanceClassloaderLookup()
+    final ClassLoader classLoader = initContext.getInstanceClassLoaderRegistry()
         .remove(instanceIdentifier);
-    if (classLoader != null && (classLoader instanceof URLClassLoader)) {
-      final URLClassLoader urlClassLoader = (URLClassLoader) classLoader;
-      try {
-        urlClassLoader.close();
-      } catch (IOException e) {
-        logger.warn("Unable to class URLClassLoader for " + instanceIdentifier);
-      }
-    }
+    InstanceClassLoaderRegistry.close(instanceIdentifier, classLoader);
     return classLoader;
   }
 
@@ -29,13 +29,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.commons.vfs2.FileSystemManager;
 import com.github.palindromicity.bundles.annotation.behavior.RequiresInstanceClassLoading;
 import com.github.palindromicity.bundles.bundle.Bundle;
 import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import com.github.palindromicity.bundles.jfr.BundleEvents;
+import com.github.palindromicity.bundles.jfr.EventScope;
+import com.github.palindromicity.bundles.metrics.StartupRecorder;
 import com.github.palindromicity.bundles.util.ImmutableCollectionUtils;
 import org.atteo.classindex.ClassIndex;
 import org.slf4j.Logger;
@@ -57,6 +59,8 @@ public class ExtensionManagerContext {
     List<Class> classes;
     Bundle systemBundle;
     Set<Bundle> bundles;
+    StartupRecorder startupRecorder;
+    InstanceClassLoaderRegistry instanceClassLoaderRegistry;
 
     /**
      * Provides the {@link Class} definitions that will specify what extensions are to be loaded.
@@ -88,6 +92,30 @@ public class ExtensionManagerContext {
       return this;
     }
 
+    /**
+     * Provides a {@link StartupRecorder} to record the extension scan time of each bundle.
+     * Optional.
+     * @param startupRecorder {@code StartupRecorder}
+     * @return {@code Builder}
+     */
+    public Builder withStartupRecorder(StartupRecorder startupRecorder) {
+      this.startupRecorder = startupRecorder;
+      return this;
+    }
+
+    /**
+     * Provides the {@link InstanceClassLoaderRegistry} instance ClassLoaders are kept in.
+     * Optional, by default instance ClassLoaders are kept until they are removed.
+     *
+     * @param instanceClassLoaderRegistry the registry
+     * @return {@code Builder}
+     */
+    public Builder withInstanceClassLoaderRegistry(
+        InstanceClassLoaderRegistry instanceClassLoaderRegistry) {
+      this.instanceClassLoaderRegistry = instanceClassLoaderRegistry;
+      return this;
+    }
+
     public Builder() {
     }
 
@@ -119,7 +147,9 @@ public class ExtensionManagerContext {
       final Map<BundleCoordinates, Bundle> bundleCoordinateBundleLookup = new HashMap<>();
       final Map<ClassLoader, Bundle> classLoaderBundleLookup = new HashMap<>();
       final Set<String> requiresInstanceClassLoading = new HashSet<>();
-      final Map<String, ClassLoader> instanceClassloaderLookup = new HashMap<>();
+      final InstanceClassLoaderRegistry instanceClassLoaders =
+          instanceClassLoaderRegistry != null ? instanceClassLoaderRegistry
+              : new InstanceClassLoaderRegistry.Builder().build();
 
       for (Class c : classes) {
         definitionMap.put(c, new HashSet<>());
@@ -142,7 +172,13 @@ public class ExtensionManagerContext {
         classLoaderBundleLookup.put(bcl, bundle);
 
         Thread.currentThread().setContextClassLoader(bcl);
+        final long start = System.nanoTime();
         loadExtensions(bundle, definitionMap, classNameBundleLookup, requiresInstanceClassLoading);
+        if (startupRecorder != null) {
+          startupRecorder.recordExtensionScan(
+              bundle.getBundleDetails().getCoordinates().getCoordinates(),
+              System.nanoTime() - start);
+        }
 
         // Create a look-up from withCoordinates to bundle
         bundleCoordinateBundleLookup.put(bundle.getBundleDetails().getCoordinates(), bundle);
@@ -154,7 +190,7 @@ public class ExtensionManagerContext {
       }
       return new ExtensionManagerContext(systemBundle, definitionMap, classNameBundleLookup,
           bundleCoordinateBundleLookup, classLoaderBundleLookup, requiresInstanceClassLoading,
-          instanceClassloaderLookup);
+          instanceClassLoaders);
     }
 
     /**
@@ -178,26 +214,33 @@ public class ExtensionManagerContext {
         // This implemenation instead uses the ClassIndex system
         Class clazz = entry.getKey();
         ClassLoader cl = bundle.getClassLoader();
-        Iterable<Class<?>> it = ClassIndex.getSubclasses(clazz, cl);
-        for (Class<?> c : it) {
-          logger.debug("Concidering " + c.getSimpleName());
-          if (cl.equals(c.getClassLoader())) {
-            // check for abstract
-            if (!Modifier.isAbstract(c.getModifiers())) {
-              registerServiceClass(c, classNameBundleLookup, requiresInstanceClassLoading, bundle,
-                  entry.getValue());
+        int found = 0;
+        try (EventScope event = BundleEvents.extensionScan(
+            bundle.getBundleDetails().getCoordinates().getCoordinates(), clazz.getName())) {
+          Iterable<Class<?>> it = ClassIndex.getSubclasses(clazz, cl);
+          for (Class<?> c : it) {
+            logger.debug("Concidering " + c.getSimpleName());
+            if (cl.equals(c.getClassLoader())) {
+              // check for abstract
+              if (!Modifier.isAbstract(c.getModifiers())) {
+                registerServiceClass(c, classNameBundleLookup, requiresInstanceClassLoading,
+                    bundle, entry.getValue());
+                found++;
+              }
             }
           }
-        }
-        it = ClassIndex.getAnnotated(clazz, cl);
-        for (Class<?> c : it) {
-          if (cl.equals(clazz.getClassLoader())) {
-            // check for abstract
-            if (!Modifier.isAbstract(c.getModifiers())) {
-              registerServiceClass(c, classNameBundleLookup, requiresInstanceClassLoading, bundle,
-                  entry.getValue());
+          it = ClassIndex.getAnnotated(clazz, cl);
+          for (Class<?> c : it) {
+            if (cl.equals(clazz.getClassLoader())) {
+              // check for abstract
+              if (!Modifier.isAbstract(c.getModifiers())) {
+                registerServiceClass(c, classNameBundleLookup, requiresInstanceClassLoading,
+                    bundle, entry.getValue());
+                found++;
+              }
             }
           }
+          event.setSize(found);
         }
       }
     }
@@ -272,7 +315,7 @@ public class ExtensionManagerContext {
   private Map<BundleCoordinates, Bundle> bundleCoordinateBundleLookup;
   private Map<ClassLoader, Bundle> classLoaderBundleLookup;
   private Set<String> requiresInstanceClassLoading;
-  private Map<String, ClassLoader> instanceClassloaderLookup;
+  private final InstanceClassLoaderRegistry instanceClassLoaderRegistry;
   private Bundle systemBundle;
 
 
@@ -280,7 +323,7 @@ public class ExtensionManagerContext {
       Map<String, List<Bundle>> classNameBundleLookup,
       Map<BundleCoordinates, Bundle> bundleCoordinateBundleLookup,
       Map<ClassLoader, Bundle> classLoaderBundleLookup, Set<String> requiresInstanceClassLoading,
-      Map<String, ClassLoader> instanceClassloaderLookup) {
+      InstanceClassLoaderRegistry instanceClassLoaderRegistry) {
     this.systemBundle = systemBundle;
     this.definitionMap = ImmutableCollectionUtils.immutableMapOfSets(definitionMap);
     this.classNameBundleLookup = ImmutableCollectionUtils
@@ -288,7 +331,7 @@ public class ExtensionManagerContext {
     this.bundleCoordinateBundleLookup = ImmutableMap.copyOf(bundleCoordinateBundleLookup);
     this.classLoaderBundleLookup = ImmutableMap.copyOf(classLoaderBundleLookup);
     this.requiresInstanceClassLoading = ImmutableSet.copyOf(requiresInstanceClassLoading);
-    this.instanceClassloaderLookup = new ConcurrentHashMap<>(instanceClassloaderLookup);
+    this.instanceClassLoaderRegistry = instanceClassLoaderRegistry;
   }
 
   /**
@@ -334,10 +377,7 @@ public class ExtensionManagerContext {
         .concat(requiresInstanceClassLoading.stream(), other.requiresInstanceClassLoading.stream()
             .filter((x) -> !requiresInstanceClassLoading.contains(x))).collect(Collectors.toSet()));
 
-    this.instanceClassloaderLookup = new ConcurrentHashMap<>(
-        Stream.of(instanceClassloaderLookup, other.instanceClassloaderLookup).map(Map::entrySet)
-            .flatMap(Collection::stream)
-            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (s, a) -> s)));
+    other.instanceClassLoaderRegistry.asMap().forEach(instanceClassLoaderRegistry::putIfAbsent);
   }
 
 
@@ -361,8 +401,17 @@ public class ExtensionManagerContext {
     return requiresInstanceClassLoading;
   }
 
+  /**
+   * Returns the instance ClassLoaders by instance identifier, a live view of the
+   * {@link InstanceClassLoaderRegistry}. Changes made through the map are made to the registry.
+   * @return the instance ClassLoaders
+   */
   public Map<String, ClassLoader> getInstanceClassloaderLookup() {
-    return instanceClassloaderLookup;
+    return instanceClassLoaderRegistry.asLiveMap();
+  }
+
+  public InstanceClassLoaderRegistry getInstanceClassLoaderRegistry() {
+    return instanceClassLoaderRegistry;
   }
 
   public Bundle getSystemBundle() {
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import com.github.palindromicity.bundles.metrics.ClassLoaderMetrics;
+import com.github.palindromicity.bundles.util.NativeLibraryCache;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bundle ClassLoader over local copies of the bundle and its dependency jars, built on the
+ * JDK's {@link URLClassLoader}.
+ *
+ * <p>The bundle and each jar in {@code META-INF/bundled-dependencies} are extracted once to a
+ * content addressed local directory, and are then served by the JDK's own jar handling instead
+ * of VFS. The ClassLoader is parallel capable, and keeps the set of packages its jars contain,
+ * so classes of packages it does not have fail without searching the jars. Packages of the
+ * additional dependency bundles are loaded from those bundles directly.</p>
+ *
+ * <p>Parents follow the dependency coordinates, as for the {@link VfsBundleClassLoader}. The
+ * ClassLoader does not take part in the {@link BundlePackageIndex}, so the packages a bundle
+ * lists in {@code Bundle-Import-Package} are not imported from other bundles.</p>
+ */
+public class ExtractedBundleClassLoader extends URLClassLoader {
+
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
+  public static class Builder {
+
+    private FileSystemManager fileSystemManager;
+    private FileObject bundleFile;
+    private ClassLoader parentClassLoader;
+    private BundleCoordinates bundleCoordinates;
+    private NativeLibraryCache extractionCache;
+    private NativeLibraryCache nativeLibraryCache;
+    private List<ExtractedBundleClassLoader> dependencyClassLoaders = Collections.emptyList();
+    private SharedJarLayer sharedJarLayer;
+
+    public ExtractedBundleClassLoader.Builder withFileSystemManager(
+        FileSystemManager fileSystemManager) {
+      this.fileSystemManager = fileSystemManager;
+      return this;
+    }
+
+    public ExtractedBundleClassLoader.Builder withBundleFile(FileObject bundleFile) {
+      this.bundleFile = bundleFile;
+      return this;
+    }
+
+    public ExtractedBundleClassLoader.Builder withParentClassloader(
+        ClassLoader parentClassloader) {
+      this.parentClassLoader = parentClassloader;
+      return this;
+    }
+
+    public ExtractedBundleClassLoader.Builder withBundleCoordinates(
+        BundleCoordinates bundleCoordinates) {
+      this.bundleCoordinates = bundleCoordinates;
+      return this;
+    }
+
+    /**
+     * Provides the local, content addressed directory the bundle and its jars are extracted to.
+     *
+     * @param extractionCache the cache
+     * @return {@code Builder}
+     */
+    public ExtractedBundleClassLoader.Builder withExtractionCache(
+        NativeLibraryCache extractionCache) {
+      this.extractionCache = extractionCache;
+      return this;
+    }
+
+    public ExtractedBundleClassLoader.Builder withNativeLibraryCache(
+        NativeLibraryCache nativeLibraryCache) {
+      this.nativeLibraryCache = nativeLibraryCache;
+      return this;
+    }
+
+    /**
+     * Provides the class loaders of the additional dependency bundles. All of their packages are
+     * imported.
+     *
+     * @param dependencyClassLoaders the class loaders
+     * @return {@code Builder}
+     */
+    public ExtractedBundleClassLoader.Builder withDependencyClassLoaders(
+        List<ExtractedBundleClassLoader> dependencyClassLoaders) {
+      this.dependencyClassLoaders = dependencyClassLoaders;
+      return this;
+    }
+
+    /**
+     * Provides the {@link SharedJarLayer}, dependency jars it hosts are left out of the bundle
+     * class loader.
+     *
+     * @param sharedJarLayer {@code SharedJarLayer}
+     * @return {@code Builder}
+     */
+    public ExtractedBundleClassLoader.Builder withSharedJarLayer(
+        SharedJarLayer sharedJarLayer) {
+      this.sharedJarLayer = sharedJarLayer;
+      return this;
+    }
+
+    /**
+     * Extracts the bundle and builds the ClassLoader.
+     *
+     * @return {@code ExtractedBundleClassLoader}
+     * @throws FileSystemException if the bundle cannot be read or extracted
+     */
+    public ExtractedBundleClassLoader build() throws FileSystemException {
+      if (fileSystemManager == null || bundleFile == null || extractionCache == null) {
+        throw new IllegalArgumentException(
+            "fileSystemManager, bundleFile and extractionCache are required");
+      }
+      final List<Path> jars = new ArrayList<>();
+      FileObject nativeDir = null;
+      try {
+        final Path extracted = extractionCache.extract(bundleFile);
+        jars.add(extracted);
+        // the local copy is read in place, rather than replicating the bundle again
+        final FileObject bundleRoot = fileSystemManager
+            .createFileSystem(fileSystemManager.toFileObject(extracted.toFile()));
+        final FileObject deps = bundleRoot.resolveFile(VfsBundleClassLoader.DEPENDENCY_PATH);
+        if (deps.exists() && deps.isFolder()) {
+          for (FileObject jar : deps.getChildren()) {
+            if (jar.isFile()) {
+              final String coordinates = bundleCoordinates == null ? null
+                  : bundleCoordinates.getCoordinates();
+              if (sharedJarLayer == null || !sharedJarLayer.isShared(coordinates, jar)) {
+                jars.add(extractionCache.extract(jar));
+              }
+            } else if (VfsBundleClassLoader.NATIVE_FOLDER.equals(jar.getName().getBaseName())) {
+              nativeDir = jar;
+            }
+          }
+        }
+        if (nativeDir == null) {
+          // only native libraries are read through VFS once the jars are extracted
+          fileSystemManager.closeFileSystem(bundleRoot.getFileSystem());
+        }
+      } catch (FileSystemException e) {
+        throw e;
+      } catch (IOException e) {
+        throw new FileSystemException("Unable to extract bundle " + bundleFile.getName(), e);
+      }
+      final URL[] urls = new URL[jars.size()];
+      try {
+        for (int i = 0; i < urls.length; i++) {
+          urls[i] = jars.get(i).toUri().toURL();
+        }
+      } catch (MalformedURLException e) {
+        throw new FileSystemException("Unable to extract bundle " + bundleFile.getName(), e);
+      }
+      return new ExtractedBundleClassLoader(urls, jars, parentClassLoader, this, nativeDir);
+    }
+  }
+
+  private final BundleCoordinates bundleCoordinates;
+  private final Set<String> packageNames;
+  // class file path -> size, until the class is defined
+  private final Map<String, Long> classSizes = new ConcurrentHashMap<>();
+  private final List<Path> jars;
+  private final Map<String, ExtractedBundleClassLoader> dependencyPackages = new HashMap<>();
+  private final FileObject nativeDir;
+  private final NativeLibraryCache nativeLibraryCache;
+  private final ClassLoaderMetrics metrics = new ClassLoaderMetrics();
+
+  private ExtractedBundleClassLoader(final URL[] urls, final List<Path> jars,
+      final ClassLoader parent, final Builder builder, final FileObject nativeDir)
+      throws FileSystemException {
+    super(urls, parent);
+    this.bundleCoordinates = builder.bundleCoordinates;
+    this.nativeDir = nativeDir;
+    this.nativeLibraryCache = builder.nativeLibraryCache;
+    this.jars = Collections.unmodifiableList(new ArrayList<>(jars));
+    this.packageNames = Collections.unmodifiableSet(indexPackages(jars, classSizes));
+    for (ExtractedBundleClassLoader dependency : builder.dependencyClassLoaders) {
+      for (String packageName : dependency.getPackageNames()) {
+        dependencyPackages.putIfAbsent(packageName, dependency);
+      }
+    }
+  }
+
+  private static Set<String> indexPackages(final List<Path> jars,
+      final Map<String, Long> classSizes) throws FileSystemException {
+    final Set<String> packages = new HashSet<>();
+    for (Path path : jars) {
+      try (JarFile jar = new JarFile(path.toFile())) {
+        for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+          final JarEntry entry = entries.nextElement();
+          if (!entry.isDirectory()) {
+            packages.add(VfsBundleClassPathEntry.packageOfPath(entry.getName()));
+            if (entry.getName().endsWith(".class") && entry.getSize() >= 0) {
+              // the first jar with the class defines it
+              classSizes.putIfAbsent(entry.getName(), entry.getSize());
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new FileSystemException("Unable to index " + path, e);
+      }
+    }
+    return packages;
+  }
+
+  /**
+   * Returns the coordinates of the bundle this class loader was built for.
+   *
+   * @return {@code BundleCoordinates}
+   */
+  public BundleCoordinates getBundleCoordinates() {
+    return bundleCoordinates;
+  }
+
+  /**
+   * Returns the class loading metrics of this class loader.
+   *
+   * @return {@code ClassLoaderMetrics}
+   */
+  public ClassLoaderMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the number of VFS file systems this class loader holds open. The jars are read by the
+   * JDK, only a bundle with native libraries keeps its extracted copy mounted to find them.
+   *
+   * @return the number of open file systems
+   */
+  public int getOpenFileSystemCount() {
+    return nativeDir == null ? 0 : 1;
+  }
+
+  /**
+   * Returns the size of the local copies of the bundle and its jars.
+   *
+   * @return the extracted bytes
+   */
+  public long getExtractedBytes() {
+    long extracted = 0;
+    for (Path jar : jars) {
+      try {
+        extracted += Files.size(jar);
+      } catch (IOException e) {
+        LOGGER.debug("Unable to size " + jar, e);
+      }
+    }
+    return extracted;
+  }
+
+  /**
+   * Returns the packages contained in the jars of this class loader.
+   *
+   * @return the package names
+   */
+  public Set<String> getPackageNames() {
+    return packageNames;
+  }
+
+  /**
+   * Loads the class, recording the time spent waiting for the class loading lock.
+   */
+  @Override
+  protected Class<?> loadClass(final String name, final boolean resolve)
+      throws ClassNotFoundException {
+    final long start = System.nanoTime();
+    synchronized (getClassLoadingLock(name)) {
+      metrics.recordLockWait(System.nanoTime() - start);
+      return super.loadClass(name, resolve);
+    }
+  }
+
+  /**
+   * Finds a class the parent could not load. Classes of packages this bundle does not contain
+   * are loaded from the additional dependency bundles, or fail without searching the jars.
+   */
+  @Override
+  protected Class<?> findClass(final String name) throws ClassNotFoundException {
+    metrics.recordParentDelegationMiss();
+    final long start = System.nanoTime();
+    boolean found = false;
+    try {
+      final String packageName = VfsBundleClassPathEntry.packageOfClass(name);
+      if (!packageNames.contains(packageName)) {
+        final ExtractedBundleClassLoader exporter = dependencyPackages.get(packageName);
+        if (exporter == null) {
+          throw new ClassNotFoundException(name);
+        }
+        final Class<?> clazz = exporter.loadClass(name);
+        found = true;
+        return clazz;
+      }
+      final Class<?> clazz = super.findClass(name);
+      final Long size = classSizes.remove(name.replace('.', '/') + ".class");
+      if (size != null) {
+        metrics.recordClassDefined(size);
+      } else {
+        metrics.recordUnsizedClassDefined();
+      }
+      found = true;
+      return clazz;
+    } finally {
+      metrics.recordFindClass(System.nanoTime() - start, found);
+    }
+  }
+
+  @Override
+  public URL findResource(final String name) {
+    final URL url = super.findResource(name);
+    metrics.recordResourceLookup(url != null);
+    return url;
+  }
+
+  /**
+   * Finds a native library in the {@code native} folder of the bundle dependencies, extracting
+   * it to the {@link NativeLibraryCache}.
+   *
+   * @param libname the library name
+   * @return the absolute path of the library, or null if the bundle does not contain it
+   */
+  @Override
+  protected String findLibrary(final String libname) {
+    if (nativeDir == null || nativeLibraryCache == null) {
+      return null;
+    }
+    try {
+      final FileObject library = nativeDir.resolveFile(System.mapLibraryName(libname));
+      if (library.exists() && library.isFile()) {
+        final Path path = nativeLibraryCache.extract(library);
+        return path.toString();
+      }
+    } catch (IOException ioe) {
+      LOGGER.error("Failed to extract native library " + libname, ioe);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import com.github.palindromicity.bundles.metrics.ClassLoaderMetrics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.SecureClassLoader;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * A bundle ClassLoader that holds the bundle and its dependency jars in memory.
+ *
+ * <p>The bundle is read once, when the ClassLoader is built, and the entries of the bundle and of
+ * each jar in {@code META-INF/bundled-dependencies} are kept as byte arrays. Classes and
+ * resources are served from those arrays, with {@code bundle-memory} URLs that only this
+ * ClassLoader can open, so no part of the bundle is written to or read from disk. Native
+ * libraries are not supported, as they can only be loaded from the local file system.</p>
+ */
+public class InMemoryBundleClassLoader extends SecureClassLoader {
+
+  public static final String PROTOCOL = "bundle-memory";
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
+  public static class Builder {
+
+    private FileObject bundleFile;
+    private ClassLoader parentClassLoader;
+    private BundleCoordinates bundleCoordinates;
+    private List<ClassLoader> dependencyClassLoaders = Collections.emptyList();
+
+    /**
+     * Provides the bundle, which is read completely when the ClassLoader is built.
+     *
+     * @param bundleFile the bundle, for example in an {@link InMemoryBundleRepository}
+     * @return Builder
+     */
+    public InMemoryBundleClassLoader.Builder withBundleFile(FileObject bundleFile) {
+      this.bundleFile = bundleFile;
+      return this;
+    }
+
+    public InMemoryBundleClassLoader.Builder withParentClassloader(
+        ClassLoader parentClassloader) {
+      this.parentClassLoader = parentClassloader;
+      return this;
+    }
+
+    public InMemoryBundleClassLoader.Builder withBundleCoordinates(
+        BundleCoordinates bundleCoordinates) {
+      this.bundleCoordinates = bundleCoordinates;
+      return this;
+    }
+
+    /**
+     * Provides the ClassLoaders of the additional dependencies of the bundle, which are searched
+     * after the bundle itself.
+     *
+     * @param dependencyClassLoaders the ClassLoaders
+     * @return Builder
+     */
+    public InMemoryBundleClassLoader.Builder withDependencyClassLoaders(
+        List<ClassLoader> dependencyClassLoaders) {
+      this.dependencyClassLoaders = dependencyClassLoaders;
+      return this;
+    }
+
+    public InMemoryBundleClassLoader build() throws FileSystemException {
+      if (bundleFile == null) {
+        throw new IllegalArgumentException("bundleFile is required");
+      }
+      final InMemoryBundleClassLoader classLoader = new InMemoryBundleClassLoader(this);
+      try (InputStream in = bundleFile.getContent().getInputStream()) {
+        classLoader.read(in);
+      } catch (IOException e) {
+        throw new FileSystemException("Unable to read bundle " + bundleFile.getName(), e);
+      }
+      return classLoader;
+    }
+  }
+
+  private static final String DEPENDENCY_PREFIX = VfsBundleClassLoader.DEPENDENCY_PATH + "/";
+
+  private final BundleCoordinates bundleCoordinates;
+  private final String urlPrefix;
+  private final List<ClassLoader> dependencyClassLoaders;
+  private final List<Root> roots = new ArrayList<>();
+  private final URLStreamHandler handler = new MemoryHandler();
+  private final ClassLoaderMetrics metrics = new ClassLoaderMetrics();
+  private long heldBytes;
+
+  private InMemoryBundleClassLoader(final Builder builder) {
+    super(builder.parentClassLoader != null ? builder.parentClassLoader
+        : ClassLoader.getSystemClassLoader());
+    this.bundleCoordinates = builder.bundleCoordinates;
+    this.urlPrefix = "/" + (bundleCoordinates != null ? bundleCoordinates.getCoordinates()
+        : builder.bundleFile.getName().getBaseName()) + "/";
+    this.dependencyClassLoaders = new ArrayList<>(builder.dependencyClassLoaders);
+  }
+
+  /**
+   * Reads the bundle entries, and the entries of each dependency jar, into memory. The bundle is
+   * the first root, followed by the jars in the order they are stored.
+   */
+  private void read(final InputStream in) throws IOException {
+    final Root bundle = new Root("");
+    roots.add(bundle);
+    try (ZipInputStream zip = new ZipInputStream(in)) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        final String name = entry.getName();
+        final byte[] bytes = readFully(zip);
+        if (!name.startsWith(DEPENDENCY_PREFIX) || !name.endsWith(".jar")
+            || name.indexOf('/', DEPENDENCY_PREFIX.length()) != -1) {
+          bundle.put(name, bytes);
+        } else {
+          // the jar is only held as its entries
+          final Root jar = new Root(name);
+          try (ZipInputStream jarZip = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            for (ZipEntry jarEntry = jarZip.getNextEntry(); jarEntry != null;
+                jarEntry = jarZip.getNextEntry()) {
+              if (!jarEntry.isDirectory()) {
+                jar.put(jarEntry.getName(), readFully(jarZip));
+              }
+            }
+          }
+          roots.add(jar);
+        }
+      }
+    }
+    for (Root root : roots) {
+      heldBytes += root.bytes;
+    }
+  }
+
+  private static byte[] readFully(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  public BundleCoordinates getBundleCoordinates() {
+    return bundleCoordinates;
+  }
+
+  public ClassLoaderMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the number of bytes held for the entries of the bundle and its dependency jars.
+   *
+   * @return the held bytes
+   */
+  public long getHeldBytes() {
+    return heldBytes;
+  }
+
+  @Override
+  protected Class<?> findClass(final String name) throws ClassNotFoundException {
+    metrics.recordParentDelegationMiss();
+    final long start = System.nanoTime();
+    boolean found = false;
+    try {
+      final String path = name.replace('.', '/') + ".class";
+      for (Root root : roots) {
+        final byte[] bytes = root.entries.get(path);
+        if (bytes != null) {
+          definePackageIfNeeded(name, root);
+          final Class<?> clazz = defineClass(name, bytes, 0, bytes.length, root.codeSource);
+          metrics.recordClassDefined(bytes.length);
+          found = true;
+          return clazz;
+        }
+      }
+      for (ClassLoader dependency : dependencyClassLoaders) {
+        try {
+          final Class<?> clazz = dependency.loadClass(name);
+          found = true;
+          return clazz;
+        } catch (ClassNotFoundException e) {
+          // try the next dependency
+        }
+      }
+      throw new ClassNotFoundException(name);
+    } finally {
+      metrics.recordFindClass(System.nanoTime() - start, found);
+    }
+  }
+
+  private void definePackageIfNeeded(final String className, final Root root) {
+    final String packageName = VfsBundleClassPathEntry.packageOfClass(className);
+    if (packageName.isEmpty() || getPackage(packageName) != null) {
+      return;
+    }
+    final Attributes attributes = root.manifest != null ? root.manifest.getMainAttributes()
+        : new Attributes();
+    try {
+      definePackage(packageName, attributes.getValue(Attributes.Name.SPECIFICATION_TITLE),
+          attributes.getValue(Attributes.Name.SPECIFICATION_VERSION),
+          attributes.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+          attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+          attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+          attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR), null);
+    } catch (IllegalArgumentException e) {
+      // defined concurrently by another thread
+    }
+  }
+
+  @Override
+  protected URL findResource(final String name) {
+    for (Root root : roots) {
+      if (root.entries.containsKey(name)) {
+        metrics.recordResourceLookup(true);
+        return root.urlOf(name);
+      }
+    }
+    metrics.recordResourceLookup(false);
+    return null;
+  }
+
+  @Override
+  protected Enumeration<URL> findResources(final String name) throws IOException {
+    final List<URL> urls = new ArrayList<>();
+    for (Root root : roots) {
+      if (root.entries.containsKey(name)) {
+        urls.add(root.urlOf(name));
+      }
+    }
+    metrics.recordResourceLookup(!urls.isEmpty());
+    return Collections.enumeration(urls);
+  }
+
+  @Override
+  public String toString() {
+    return InMemoryBundleClassLoader.class.getSimpleName() + "[" + urlPrefix + "]";
+  }
+
+  /**
+   * The entries of the bundle or of one dependency jar.
+   */
+  private final class Root {
+
+    private final String name;
+    private final Map<String, byte[]> entries = new HashMap<>();
+    private final CodeSource codeSource;
+    private Manifest manifest;
+    private long bytes;
+
+    private Root(final String name) throws MalformedURLException {
+      this.name = name;
+      this.codeSource = new CodeSource(
+          new URL(PROTOCOL, null, -1, urlPrefix + name, handler), (Certificate[]) null);
+    }
+
+    private void put(final String entryName, final byte[] content) throws IOException {
+      entries.put(entryName, content);
+      bytes += content.length;
+      if (JarFile.MANIFEST_NAME.equals(entryName)) {
+        manifest = new Manifest(new ByteArrayInputStream(content));
+      }
+    }
+
+    private URL urlOf(final String entryName) {
+      try {
+        return new URL(PROTOCOL, null, -1, urlPrefix + name + "!/" + entryName, handler);
+      } catch (MalformedURLException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  /**
+   * Opens {@code bundle-memory} URLs created by this ClassLoader.
+   */
+  private final class MemoryHandler extends URLStreamHandler {
+
+    @Override
+    protected URLConnection openConnection(final URL url) throws IOException {
+      final String file = url.getFile();
+      final int separator = file.indexOf("!/");
+      if (!file.startsWith(urlPrefix) || separator == -1) {
+        throw new IOException("Not an entry of " + InMemoryBundleClassLoader.this + ": " + url);
+      }
+      final String rootName = file.substring(urlPrefix.length(), separator);
+      final String entryName = file.substring(separator + 2);
+      for (Root root : roots) {
+        if (root.name.equals(rootName)) {
+          final byte[] content = root.entries.get(entryName);
+          if (content != null) {
+            return new URLConnection(url) {
+              @Override
+              public void connect() {
+                connected = true;
+              }
+
+              @Override
+              public InputStream getInputStream() {
+                return new ByteArrayInputStream(content);
+              }
+
+              @Override
+              public long getContentLengthLong() {
+                return content.length;
+              }
+            };
+          }
+        }
+      }
+      throw new IOException("No entry " + url);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+
+/**
+ * A repository of bundles held in memory, in the VFS {@code ram} file system of a
+ * {@link FileSystemManager}.
+ *
+ * <p>Bundles received as bytes, for example unpacked from a larger artifact, are stored here
+ * instead of in a library directory, and are loaded by an {@link InMemoryBundleClassLoader}, so
+ * they are never written to disk. The {@code FileSystemManager} must support the {@code ram}
+ * scheme, as the ones created by {@code FileSystemManagerFactory} do.</p>
+ *
+ * <p>An {@code InMemoryBundleClassLoader} holds the entries of the bundle once it is created, so
+ * {@code BundleClassLoaders} deletes the bundle file from the repository after loading it.</p>
+ */
+public class InMemoryBundleRepository {
+
+  public static final String ROOT_URI = "ram:///bundles";
+
+  private final FileObject root;
+
+  /**
+   * Creates the repository in the {@code ram} file system of the manager.
+   *
+   * @param fileSystemManager the {@code FileSystemManager}
+   * @throws FileSystemException if the manager does not support the {@code ram} scheme
+   */
+  public InMemoryBundleRepository(FileSystemManager fileSystemManager)
+      throws FileSystemException {
+    if (fileSystemManager == null) {
+      throw new IllegalArgumentException("fileSystemManager is required");
+    }
+    this.root = fileSystemManager.resolveFile(ROOT_URI);
+    root.createFolder();
+  }
+
+  /**
+   * Stores a bundle.
+   *
+   * @param name the file name of the bundle, unique within the repository
+   * @param in the bundle content, read to the end but not closed
+   * @return the bundle file
+   * @throws FileSystemException if the content cannot be read
+   */
+  public FileObject put(String name, InputStream in) throws FileSystemException {
+    if (name == null || name.isEmpty() || name.indexOf('/') != -1) {
+      throw new IllegalArgumentException("name must be a file name, but was " + name);
+    }
+    if (in == null) {
+      throw new IllegalArgumentException("in is required");
+    }
+    final FileObject bundleFile = root.resolveFile(name);
+    if (bundleFile.exists()) {
+      throw new IllegalArgumentException(name + " is already in the repository");
+    }
+    bundleFile.createFile();
+    try (OutputStream out = bundleFile.getContent().getOutputStream()) {
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      bundleFile.delete();
+      throw new FileSystemException("Unable to store bundle " + name, e);
+    }
+    return bundleFile;
+  }
+
+  /**
+   * Stores a bundle.
+   *
+   * @param name the file name of the bundle, unique within the repository
+   * @param content the bundle content
+   * @return the bundle file
+   * @throws FileSystemException if the bundle cannot be stored
+   */
+  public FileObject put(String name, byte[] content) throws FileSystemException {
+    if (content == null) {
+      throw new IllegalArgumentException("content is required");
+    }
+    return put(name, new ByteArrayInputStream(content));
+  }
+
+  /**
+   * Stores a bundle. The position of the buffer is not changed.
+   *
+   * @param name the file name of the bundle, unique within the repository
+   * @param content the bundle content, from its position to its limit
+   * @return the bundle file
+   * @throws FileSystemException if the bundle cannot be stored
+   */
+  public FileObject put(String name, ByteBuffer content) throws FileSystemException {
+    if (content == null) {
+      throw new IllegalArgumentException("content is required");
+    }
+    if (content.hasArray()) {
+      return put(name, new ByteArrayInputStream(content.array(),
+          content.arrayOffset() + content.position(), content.remaining()));
+    }
+    final byte[] bytes = new byte[content.remaining()];
+    content.duplicate().get(bytes);
+    return put(name, bytes);
+  }
+
+  /**
+   * @return the bundle files in the repository
+   * @throws FileSystemException if the repository cannot be listed
+   */
+  public List<FileObject> getBundleFiles() throws FileSystemException {
+    return new ArrayList<>(Arrays.asList(root.getChildren()));
+  }
+
+  public FileObject getRoot() {
+    return root;
+  }
+}
@@ -17,10 +17,27 @@
 
 package com.github.palindromicity.bundles;
 
+import com.github.palindromicity.bundles.metrics.ClassLoaderMetrics;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,15 +46,24 @@ import org.slf4j.LoggerFactory;
  * intermediary ClassLoader that will be checked first when loading/finding classes.
  * Typically an instance of this ClassLoader will be created by passing in the URLs and parent from
  * a BundleClassLoader in order to create a copy of the BundleClassLoader without modifying it.
+ *
+ * <p>The intermediary ClassLoaders are shared by every InstanceClassLoader with the same parent
+ * and the same instance resources, and closed when the last of them releases it. Classes defined
+ * from instance resources are therefore shared by those instances.</p>
  */
 public class InstanceClassLoader extends URLClassLoader {
 
   private static final Logger logger = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
 
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
   private final String identifier;
   private final String instanceType;
-  private ShimClassLoader shimClassLoader;
+  private volatile ShimClassLoader shimClassLoader;
+  private final ClassLoaderMetrics metrics = new ClassLoaderMetrics();
 
   /**
    * @param identifier the id of the component this ClassLoader was created for.
@@ -53,21 +79,42 @@ public class InstanceClassLoader extends URLClassLoader {
   }
 
   /**
-   * Initializes a new ShimClassLoader for the provided resources, closing the previous.
-   * ShimClassLoader if one existed.
+   * Returns the id of the component this ClassLoader was created for.
+   * @return the identifier
+   */
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  /**
+   * Returns the class type of the component this ClassLoader was created for.
+   * @return the class type
+   */
+  public String getInstanceType() {
+    return instanceType;
+  }
+
+  /**
+   * Returns the class loading metrics of this ClassLoader.
+   * @return {@code ClassLoaderMetrics}
+   */
+  public ClassLoaderMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets the ShimClassLoader for the provided resources, releasing the previous
+   * ShimClassLoader if one existed. ShimClassLoaders are shared by all InstanceClassLoaders with
+   * the same parent and resources.
    *
    * @param urls the URLs for the ShimClassLoader
    */
   public synchronized void setInstanceResources(final URL[] urls) {
-    if (shimClassLoader != null) {
-      try {
-        shimClassLoader.close();
-      } catch (IOException e) {
-        logger.warn("Unable to close inner URLClassLoader for " + identifier);
-      }
+    final ShimClassLoader previous = shimClassLoader;
+    shimClassLoader = ShimClassLoader.acquire(urls, getParent());
+    if (previous != null) {
+      previous.release(identifier);
     }
-
-    shimClassLoader = new ShimClassLoader(urls, getParent());
   }
 
   /**
@@ -88,11 +135,20 @@ public class InstanceClassLoader extends URLClassLoader {
 
   @Override
   protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    final long start = System.nanoTime();
+    synchronized (getClassLoadingLock(name)) {
+      metrics.recordLockWait(System.nanoTime() - start);
+      return loadClassLocked(name, resolve);
+    }
+  }
+
+  private Class<?> loadClassLocked(String name, boolean resolve) throws ClassNotFoundException {
     Class<?> c = null;
-    // first try the shim
-    if (shimClassLoader != null) {
+    // first try the shim, if it may have the class
+    final ShimClassLoader shim = shimClassLoader;
+    if (shim != null && shim.mayContainClass(name)) {
       try {
-        c = shimClassLoader.loadClass(name, resolve);
+        c = shim.loadClass(name, resolve);
       } catch (ClassNotFoundException e) {
         c = null;
       }
@@ -107,47 +163,175 @@ public class InstanceClassLoader extends URLClassLoader {
 
   @Override
   protected Class<?> findClass(String name) throws ClassNotFoundException {
-    Class<?> c = null;
-    // first try the shim
-    if (shimClassLoader != null) {
-      try {
-        c = shimClassLoader.findClass(name);
-      } catch (ClassNotFoundException cnf) {
-        c = null;
+    // findClass is only reached once the parent has failed to provide the class
+    metrics.recordParentDelegationMiss();
+    final long start = System.nanoTime();
+    boolean found = false;
+    try {
+      Class<?> c = null;
+      // first try the shim, if it may have the class
+      final ShimClassLoader shim = shimClassLoader;
+      if (shim != null && shim.mayContainClass(name)) {
+        try {
+          c = shim.findClass(name);
+        } catch (ClassNotFoundException cnf) {
+          c = null;
+        }
       }
-    }
-    // if it wasn't in the shim try our self
-    if (c == null) {
-      return super.findClass(name);
-    } else {
+      // if it wasn't in the shim try our self
+      if (c == null) {
+        c = findInstanceClass(name);
+      }
+      found = true;
       return c;
+    } finally {
+      metrics.recordFindClass(System.nanoTime() - start, found);
     }
   }
 
+  /**
+   * Finds a class this ClassLoader defines its own copy of, once neither the parent nor the shim
+   * could provide it. Implementations record the defined class with {@link #getMetrics()}. The
+   * size of classes the {@link URLClassLoader} defines is not known, so they are recorded as
+   * unsized.
+   *
+   * @param name the class name
+   * @return the class
+   * @throws ClassNotFoundException if the class cannot be found
+   */
+  protected Class<?> findInstanceClass(String name) throws ClassNotFoundException {
+    final Class<?> c = super.findClass(name);
+    metrics.recordUnsizedClassDefined();
+    return c;
+  }
+
+  @Override
+  public URL findResource(String name) {
+    final URL url = super.findResource(name);
+    metrics.recordResourceLookup(url != null);
+    return url;
+  }
+
   @Override
   public void close() throws IOException {
-    if (shimClassLoader != null) {
-      try {
-        shimClassLoader.close();
-      } catch (IOException e) {
-        logger.warn("Unable to close inner URLClassLoader for " + identifier);
+    synchronized (this) {
+      if (shimClassLoader != null) {
+        shimClassLoader.release(identifier);
+        shimClassLoader = null;
       }
     }
     super.close();
   }
 
+  /**
+   * Returns the number of ShimClassLoaders currently shared between InstanceClassLoaders.
+   * @return the number of live ShimClassLoaders
+   */
+  public static int getSharedShimCount() {
+    return ShimClassLoader.count();
+  }
+
   /**
    * Extend URLClassLoader to increase visibility of protected methods so that InstanceClassLoader
    * can delegate.
+   *
+   * <p>ShimClassLoaders are reference counted and shared by key, the parent and the distinct
+   * URLs in order. The names of the entries of local jars and directories are indexed when the
+   * ShimClassLoader is created, so classes it does not have are skipped without throwing a
+   * {@code ClassNotFoundException}.</p>
    */
   private static class ShimClassLoader extends URLClassLoader {
 
-    public ShimClassLoader(URL[] urls, ClassLoader parent) {
+    private static final Map<ShimKey, ShimClassLoader> SHIMS = new HashMap<>();
+
+    private final ShimKey key;
+    private final Set<String> index;
+    private int references;
+
+    private ShimClassLoader(ShimKey key, URL[] urls, ClassLoader parent) {
       super(urls, parent);
+      this.key = key;
+      this.index = indexOf(urls);
     }
 
-    public ShimClassLoader(URL[] urls) {
-      super(urls);
+    static ShimClassLoader acquire(URL[] urls, ClassLoader parent) {
+      final Set<String> distinct = new LinkedHashSet<>();
+      final List<URL> distinctUrls = new ArrayList<>();
+      for (URL url : urls) {
+        if (distinct.add(url.toExternalForm())) {
+          distinctUrls.add(url);
+        }
+      }
+      final ShimKey key = new ShimKey(parent, new ArrayList<>(distinct));
+      synchronized (SHIMS) {
+        ShimClassLoader shim = SHIMS.get(key);
+        if (shim == null) {
+          shim = new ShimClassLoader(key, distinctUrls.toArray(new URL[0]), parent);
+          SHIMS.put(key, shim);
+        }
+        shim.references++;
+        return shim;
+      }
+    }
+
+    static int count() {
+      synchronized (SHIMS) {
+        return SHIMS.size();
+      }
+    }
+
+    void release(String identifier) {
+      synchronized (SHIMS) {
+        if (--references > 0) {
+          return;
+        }
+        SHIMS.remove(key);
+      }
+      try {
+        close();
+      } catch (IOException e) {
+        logger.warn("Unable to close inner URLClassLoader for " + identifier);
+      }
+    }
+
+    /**
+     * Returns false only if the class is known not to be in the URLs of this ClassLoader.
+     */
+    boolean mayContainClass(String name) {
+      return index == null || index.contains(name.replace('.', '/').concat(".class"));
+    }
+
+    /**
+     * Indexes the entry names of local jars and directories.
+     *
+     * @return the entry names, or null if any URL cannot be indexed
+     */
+    private static Set<String> indexOf(URL[] urls) {
+      final Set<String> names = new HashSet<>();
+      try {
+        for (URL url : urls) {
+          if (!"file".equals(url.getProtocol())) {
+            return null;
+          }
+          final Path path = Paths.get(url.toURI());
+          if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+              files.filter(Files::isRegularFile).forEach(
+                  file -> names.add(path.relativize(file).toString().replace('\\', '/')));
+            }
+          } else if (Files.isRegularFile(path)) {
+            try (JarFile jar = new JarFile(path.toFile())) {
+              for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                names.add(entries.nextElement().getName());
+              }
+            }
+          }
+        }
+      } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+        logger.debug("Unable to index instance resources, classes will be looked up", e);
+        return null;
+      }
+      return Collections.unmodifiableSet(names);
     }
 
     @Override
@@ -162,4 +346,33 @@ public class InstanceClassLoader extends URLClassLoader {
 
   }
 
+  /**
+   * The key ShimClassLoaders are shared by, the parent ClassLoader, compared by identity, and the
+   * distinct URLs in order.
+   */
+  private static final class ShimKey {
+
+    private final ClassLoader parent;
+    private final List<String> urls;
+
+    ShimKey(ClassLoader parent, List<String> urls) {
+      this.parent = parent;
+      this.urls = urls;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ShimKey)) {
+        return false;
+      }
+      final ShimKey other = (ShimKey) obj;
+      return parent == other.parent && urls.equals(other.urls);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(parent) + urls.hashCode();
+    }
+  }
+
 }
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URLClassLoader;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The instance ClassLoaders of the {@link ExtensionManager}, by instance identifier.
+ *
+ * <p>ClassLoaders are evicted, and closed, when any of the configured policies applies:</p>
+ * <ul>
+ *   <li>more than the maximum count are registered, least recently used first</li>
+ *   <li>they were not retrieved for longer than the time to live</li>
+ *   <li>the instance attached with {@link #attachInstance(String, Object)} was garbage
+ *   collected</li>
+ * </ul>
+ *
+ * <p>A ClassLoader whose attached instance is still reachable is never evicted by the maximum
+ * count or the time to live, since the instance uses it directly, without going through the
+ * registry, and would fail once it is closed. It is evicted once the instance is collected.</p>
+ *
+ * <p>Eviction happens as the registry is used, there is no background thread. Without a policy
+ * ClassLoaders are only removed by {@link #remove(String)}.</p>
+ */
+public class InstanceClassLoaderRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup()
+      .lookupClass());
+
+  /**
+   * Builder class for InstanceClassLoaderRegistry.
+   */
+  public static class Builder {
+
+    private int maximumCount;
+    private long timeToLiveNanos;
+
+    /**
+     * Provides the maximum number of registered ClassLoaders, 0 for no maximum.
+     *
+     * @param maximumCount the maximum count
+     * @return {@code Builder}
+     */
+    public Builder withMaximumCount(int maximumCount) {
+      if (maximumCount < 0) {
+        throw new IllegalArgumentException("maximumCount cannot be negative");
+      }
+      this.maximumCount = maximumCount;
+      return this;
+    }
+
+    /**
+     * Provides how long a ClassLoader stays registered after it was last retrieved, 0 for ever.
+     *
+     * @param timeToLive the time to live
+     * @param unit the unit of the time to live
+     * @return {@code Builder}
+     */
+    public Builder withTimeToLive(long timeToLive, TimeUnit unit) {
+      if (timeToLive < 0) {
+        throw new IllegalArgumentException("timeToLive cannot be negative");
+      }
+      this.timeToLiveNanos = unit.toNanos(timeToLive);
+      return this;
+    }
+
+    public InstanceClassLoaderRegistry build() {
+      return new InstanceClassLoaderRegistry(maximumCount, timeToLiveNanos);
+    }
+  }
+
+  private final int maximumCount;
+  private final long timeToLiveNanos;
+  private final LinkedHashMap<String, Registration> registrations = new LinkedHashMap<>(16,
+      0.75f, true);
+  private final ReferenceQueue<Object> collectedInstances = new ReferenceQueue<>();
+  private final LongAdder registered = new LongAdder();
+  private final LongAdder evicted = new LongAdder();
+  private final Map<String, ClassLoader> liveMap = new LiveMap();
+
+  private InstanceClassLoaderRegistry(int maximumCount, long timeToLiveNanos) {
+    this.maximumCount = maximumCount;
+    this.timeToLiveNanos = timeToLiveNanos;
+  }
+
+  /**
+   * Creates the registry configured by the {@code BundleProperties}.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return {@code InstanceClassLoaderRegistry}
+   */
+  public static InstanceClassLoaderRegistry fromProperties(BundleProperties properties) {
+    return new Builder().withMaximumCount(properties.getInstanceClassLoaderMaxCount())
+        .withTimeToLive(properties.getInstanceClassLoaderTimeToLiveMillis(),
+            TimeUnit.MILLISECONDS).build();
+  }
+
+  /**
+   * Registers the ClassLoader of an instance, replacing any previous one.
+   *
+   * @param instanceIdentifier the identifier of the instance
+   * @param classLoader the ClassLoader
+   */
+  public void put(String instanceIdentifier, ClassLoader classLoader) {
+    register(instanceIdentifier, classLoader, true);
+  }
+
+  /**
+   * Registers the ClassLoader of an instance unless one is already registered.
+   *
+   * @param instanceIdentifier the identifier of the instance
+   * @param classLoader the ClassLoader
+   */
+  public void putIfAbsent(String instanceIdentifier, ClassLoader classLoader) {
+    register(instanceIdentifier, classLoader, false);
+  }
+
+  /**
+   * Registers a ClassLoader, returning the one previously registered for the instance.
+   */
+  private ClassLoader register(String instanceIdentifier, ClassLoader classLoader,
+      boolean replace) {
+    final List<Registration> removed = new ArrayList<>();
+    Registration previous;
+    synchronized (registrations) {
+      previous = registrations.get(instanceIdentifier);
+      if (replace || previous == null) {
+        registrations.put(instanceIdentifier, new Registration(instanceIdentifier, classLoader));
+        registered.increment();
+      }
+      expunge(removed);
+    }
+    close(removed);
+    return previous == null ? null : previous.classLoader;
+  }
+
+  /**
+   * Retrieves the ClassLoader of an instance, which resets its time to live.
+   *
+   * @param instanceIdentifier the identifier of the instance
+   * @return the ClassLoader, or null if none is registered
+   */
+  public ClassLoader get(String instanceIdentifier) {
+    final List<Registration> removed = new ArrayList<>();
+    final Registration registration;
+    synchronized (registrations) {
+      expunge(removed);
+      registration = registrations.get(instanceIdentifier);
+      if (registration != null) {
+        registration.lastAccessNanos = System.nanoTime();
+      }
+    }
+    close(removed);
+    return registration == null ? null : registration.classLoader;
+  }
+
+  /**
+   * Removes the ClassLoader of an instance without closing it.
+   *
+   * @param instanceIdentifier the identifier of the instance
+   * @return the ClassLoader, or null if none was registered
+   */
+  public ClassLoader remove(String instanceIdentifier) {
+    synchronized (registrations) {
+      final Registration registration = registrations.remove(instanceIdentifier);
+      return registration == null ? null : registration.classLoader;
+    }
+  }
+
+  /**
+   * Ties the ClassLoader of an instance to the reachability of the instance, the ClassLoader is
+   * evicted once the instance has been garbage collected, and is kept while it is reachable.
+   *
+   * @param instanceIdentifier the identifier of the instance
+   * @param instance the instance
+   * @return true if a ClassLoader is registered for the instance
+   */
+  public boolean attachInstance(String instanceIdentifier, Object instance) {
+    synchronized (registrations) {
+      final Registration registration = registrations.get(instanceIdentifier);
+      if (registration == null) {
+        return false;
+      }
+      registration.instance = new InstanceReference(instance, registration, collectedInstances);
+      return true;
+    }
+  }
+
+  /**
+   * Evicts and closes the ClassLoaders the policies of this registry no longer allow.
+   *
+   * @return the number of evicted ClassLoaders
+   */
+  public int evict() {
+    final List<Registration> removed = new ArrayList<>();
+    synchronized (registrations) {
+      expunge(removed);
+    }
+    close(removed);
+    return removed.size();
+  }
+
+  /**
+   * Returns an immutable copy of the registered ClassLoaders by instance identifier.
+   *
+   * @return the ClassLoaders
+   */
+  public Map<String, ClassLoader> asMap() {
+    final Map<String, ClassLoader> classLoaders = new LinkedHashMap<>();
+    synchronized (registrations) {
+      registrations.forEach((id, registration) -> classLoaders.put(id, registration.classLoader));
+    }
+    return ImmutableMap.copyOf(classLoaders);
+  }
+
+  /**
+   * Returns a live view of the registered ClassLoaders by instance identifier. Reading the view
+   * retrieves ClassLoaders, putting and removing registers and removes them, as the methods of
+   * this registry do. Iteration is over a copy taken when the iterator is created.
+   *
+   * @return the view
+   */
+  public Map<String, ClassLoader> asLiveMap() {
+    return liveMap;
+  }
+
+  /**
+   * @return the number of registered ClassLoaders
+   */
+  public int getLiveCount() {
+    synchronized (registrations) {
+      return registrations.size();
+    }
+  }
+
+  /**
+   * @return the number of ClassLoaders registered since this registry was created
+   */
+  public long getRegisteredCount() {
+    return registered.sum();
+  }
+
+  /**
+   * @return the number of ClassLoaders evicted since this registry was created
+   */
+  public long getEvictedCount() {
+    return evicted.sum();
+  }
+
+  public int getMaximumCount() {
+    return maximumCount;
+  }
+
+  public long getTimeToLive(TimeUnit unit) {
+    return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Removes the registrations the policies no longer allow, must hold the registrations lock.
+   */
+  private void expunge(List<Registration> removed) {
+    for (Reference<?> ref = collectedInstances.poll(); ref != null;
+        ref = collectedInstances.poll()) {
+      final Registration registration = ((InstanceReference) ref).registration;
+      if (registration.instance == ref
+          && registrations.remove(registration.identifier, registration)) {
+        removed.add(registration);
+      }
+    }
+    if (timeToLiveNanos > 0) {
+      final long now = System.nanoTime();
+      for (Iterator<Registration> it = registrations.values().iterator(); it.hasNext(); ) {
+        final Registration registration = it.next();
+        if (now - registration.lastAccessNanos > timeToLiveNanos
+            && !registration.isInstanceReachable()) {
+          it.remove();
+          removed.add(registration);
+        }
+      }
+    }
+    if (maximumCount > 0) {
+      for (Iterator<Registration> it = registrations.values().iterator();
+          registrations.size() > maximumCount && it.hasNext(); ) {
+        final Registration registration = it.next();
+        if (!registration.isInstanceReachable()) {
+          removed.add(registration);
+          it.remove();
+        }
+      }
+    }
+  }
+
+  private void close(List<Registration> removed) {
+    for (Registration registration : removed) {
+      evicted.increment();
+      logger.debug("Evicting instance ClassLoader for " + registration.identifier);
+      close(registration.identifier, registration.classLoader);
+    }
+  }
+
+  /**
+   * Closes an instance ClassLoader if necessary.
+   *
+   * @param instanceIdentifier the identifier of the instance
+   * @param classLoader the ClassLoader
+   */
+  static void close(String instanceIdentifier, ClassLoader classLoader) {
+    if (classLoader instanceof URLClassLoader) {
+      try {
+        ((URLClassLoader) classLoader).close();
+      } catch (IOException e) {
+        logger.warn("Unable to close URLClassLoader for " + instanceIdentifier);
+      }
+    }
+  }
+
+  private final class LiveMap extends AbstractMap<String, ClassLoader> {
+
+    @Override
+    public ClassLoader get(Object key) {
+      return key instanceof String ? InstanceClassLoaderRegistry.this.get((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      synchronized (registrations) {
+        return registrations.containsKey(key);
+      }
+    }
+
+    @Override
+    public ClassLoader put(String key, ClassLoader value) {
+      return register(key, value, true);
+    }
+
+    @Override
+    public ClassLoader putIfAbsent(String key, ClassLoader value) {
+      return register(key, value, false);
+    }
+
+    @Override
+    public ClassLoader remove(Object key) {
+      return key instanceof String ? InstanceClassLoaderRegistry.this.remove((String) key) : null;
+    }
+
+    @Override
+    public int size() {
+      return getLiveCount();
+    }
+
+    @Override
+    public Set<Entry<String, ClassLoader>> entrySet() {
+      return new AbstractSet<Entry<String, ClassLoader>>() {
+
+        @Override
+        public Iterator<Entry<String, ClassLoader>> iterator() {
+          final Iterator<Entry<String, ClassLoader>> copy = asMap().entrySet().iterator();
+          return new Iterator<Entry<String, ClassLoader>>() {
+
+            private Entry<String, ClassLoader> last;
+
+            @Override
+            public boolean hasNext() {
+              return copy.hasNext();
+            }
+
+            @Override
+            public Entry<String, ClassLoader> next() {
+              last = copy.next();
+              return last;
+            }
+
+            @Override
+            public void remove() {
+              if (last == null) {
+                throw new IllegalStateException();
+              }
+              InstanceClassLoaderRegistry.this.remove(last.getKey());
+              last = null;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return getLiveCount();
+        }
+      };
+    }
+  }
+
+  private static final class Registration {
+
+    private final String identifier;
+    private final ClassLoader classLoader;
+    private volatile long lastAccessNanos = System.nanoTime();
+    private InstanceReference instance;
+
+    Registration(String identifier, ClassLoader classLoader) {
+      this.identifier = identifier;
+      this.classLoader = classLoader;
+    }
+
+    /**
+     * Returns true if an instance was attached and has not been collected.
+     */
+    boolean isInstanceReachable() {
+      final InstanceReference reference = instance;
+      return reference != null && reference.get() != null;
+    }
+  }
+
+  private static final class InstanceReference extends WeakReference<Object> {
+
+    private final Registration registration;
+
+    InstanceReference(Object instance, Registration registration, ReferenceQueue<Object> queue) {
+      super(instance, queue);
+      this.registration = registration;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.BundleProperties;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caps the number of dependency jars of {@link VfsBundleClassLoader}s that hold an open file
+ * handle at the same time.
+ *
+ * <p>A mounted dependency jar is a VFS jar file system over a replicated copy of the jar, which
+ * keeps the copy open. Every use of a jar stamps its entry with the time it was used, without
+ * locking, and the pool only takes its lock when a jar is opened, or opened again after its
+ * handle was released. Once more than the maximum are open, the pool sweeps the open jars and
+ * closes the communication link of the least recently used jar file systems, releasing the handle
+ * while the file system and its file objects stay valid. VFS reopens the jar transparently the
+ * next time it is read, which the pool counts as a reopen. Jars that are being read, or have open
+ * streams, are skipped, so the pool may briefly exceed its maximum.</p>
+ *
+ * <p>A high reopen rate means the working set of jars is larger than the maximum.</p>
+ */
+public class JarHandlePool {
+
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private final int maxOpen;
+  private final Set<VfsBundleClassPathEntry> open = ConcurrentHashMap.newKeySet();
+  private final Object lock = new Object();
+  private final LongAdder opens = new LongAdder();
+  private final LongAdder reopens = new LongAdder();
+  private final LongAdder closes = new LongAdder();
+
+  /**
+   * Creates a pool.
+   *
+   * @param maxOpen the maximum number of open jars
+   */
+  public JarHandlePool(int maxOpen) {
+    if (maxOpen <= 0) {
+      throw new IllegalArgumentException("maxOpen must be greater than 0");
+    }
+    this.maxOpen = maxOpen;
+  }
+
+  /**
+   * Creates the pool configured by the {@code BundleProperties}.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return {@code JarHandlePool} or null if the number of open jars is not limited
+   */
+  public static JarHandlePool fromProperties(BundleProperties properties) {
+    final int maxOpen = properties.getJarHandlesMaxOpen();
+    return maxOpen == 0 ? null : new JarHandlePool(maxOpen);
+  }
+
+  /**
+   * Marks the jar of the entry as used, releasing the least recently used jars if the pool is
+   * full.
+   *
+   * @param entry the mounted entry
+   */
+  void touch(final VfsBundleClassPathEntry entry) {
+    entry.setLastUsed(System.nanoTime());
+    if (!entry.isReleased() && open.contains(entry)) {
+      return;
+    }
+    synchronized (lock) {
+      if (!entry.isReleased() && open.contains(entry)) {
+        return;
+      }
+      if (entry.reacquire()) {
+        reopens.increment();
+      } else {
+        opens.increment();
+      }
+      open.add(entry);
+      if (open.size() > maxOpen) {
+        sweep(entry);
+      }
+    }
+  }
+
+  /**
+   * Releases the least recently used jars until the pool is back to its maximum, skipping the
+   * jar being opened and the jars that cannot be released. Called holding the lock.
+   */
+  private void sweep(final VfsBundleClassPathEntry opened) {
+    final List<VfsBundleClassPathEntry> candidates = new ArrayList<>(open);
+    candidates.sort(Comparator.comparingLong(VfsBundleClassPathEntry::getLastUsed));
+    for (VfsBundleClassPathEntry candidate : candidates) {
+      if (open.size() <= maxOpen) {
+        return;
+      }
+      if (candidate != opened && candidate.release()) {
+        open.remove(candidate);
+        closes.increment();
+        LOGGER.debug("Released jar handle {}", candidate.getSource().getName());
+      }
+    }
+  }
+
+  public int getMaxOpen() {
+    return maxOpen;
+  }
+
+  /**
+   * @return the number of jars currently holding a handle
+   */
+  public int getOpenCount() {
+    return open.size();
+  }
+
+  /**
+   * @return the number of jars opened for the first time
+   */
+  public long getOpens() {
+    return opens.sum();
+  }
+
+  /**
+   * @return the number of jars opened again after their handle was released
+   */
+  public long getReopens() {
+    return reopens.sum();
+  }
+
+  /**
+   * @return the number of handles released
+   */
+  public long getCloses() {
+    return closes.sum();
+  }
+
+  /**
+   * @return the fraction of jar opens that were reopens
+   */
+  public double getReopenRate() {
+    final long r = getReopens();
+    final long total = r + getOpens();
+    return total == 0 ? 0.0 : (double) r / total;
+  }
+}
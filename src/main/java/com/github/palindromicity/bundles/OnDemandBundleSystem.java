@@ -16,9 +16,11 @@
 
 package com.github.palindromicity.bundles;
 
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.net.URISyntaxException;
 import java.util.Set;
+import com.github.palindromicity.bundles.metrics.StartupReport;
 import org.apache.commons.vfs2.FileSystemException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +49,13 @@ public class OnDemandBundleSystem implements BundleSystem {
     return getBundleSystem().getExtensionsClassesForExtensionType(extensionType);
   }
 
+  @Override
+  public StartupReport getStartupReport() {
+    // reporting must not trigger the on demand start
+    BundleSystem bs = bundleSystem;
+    return bs == null ? null : bs.getStartupReport();
+  }
+
   @Override
   public void addBundle(String bundleFileName)
       throws NotInitializedException, ClassNotFoundException, FileSystemException,
@@ -61,6 +70,13 @@ public class OnDemandBundleSystem implements BundleSystem {
     }
   }
 
+  @Override
+  public void addBundle(String bundleName, InputStream in)
+      throws NotInitializedException, FileSystemException {
+    // bundles held in memory are not in the library directories, so the system is loaded first
+    getBundleSystem().addBundle(bundleName, in);
+  }
+
   private BundleSystem getBundleSystem() throws NotInitializedException {
     BundleSystem bs = bundleSystem;
     if (bs == null) {
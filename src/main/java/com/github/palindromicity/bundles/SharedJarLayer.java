@@ -0,0 +1,420 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.HashUtils;
+import com.github.palindromicity.bundles.util.NativeLibraryCache;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ClassLoader layer between the system ClassLoader and the bundle ClassLoaders, hosting a single
+ * copy of dependency jars that many bundles ship identically.
+ *
+ * <p>Dependency jars whose file name matches one of the shareable patterns are hashed, by
+ * extracting them to a content addressed {@link NativeLibraryCache}, while the layer is built.
+ * A jar is hosted when at least two bundles ship the same content, and no other shareable jar
+ * with different content provides any of its packages, so that differing versions of a library
+ * stay in their bundles. Bundle ClassLoaders leave hosted jars out and use the layer as their
+ * root parent, so the classes are defined once instead of once per bundle.</p>
+ *
+ * <p>The layer records the class bytes defined from each hosted jar, and the bundles that ship
+ * it, to report the class bytes each bundle did not have to define itself.</p>
+ */
+public class SharedJarLayer extends URLClassLoader {
+
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
+  public static class Builder {
+
+    private FileSystemManager fileSystemManager;
+    private NativeLibraryCache extractionCache;
+    private ClassLoader parentClassLoader;
+    private final List<Pattern> jarPatterns = new ArrayList<>();
+    private final List<FileObject> bundleFiles = new ArrayList<>();
+
+    public SharedJarLayer.Builder withFileSystemManager(FileSystemManager fileSystemManager) {
+      this.fileSystemManager = fileSystemManager;
+      return this;
+    }
+
+    /**
+     * Provides the local, content addressed directory jars are extracted to and hashed by.
+     *
+     * @param extractionCache the cache
+     * @return {@code Builder}
+     */
+    public SharedJarLayer.Builder withExtractionCache(NativeLibraryCache extractionCache) {
+      this.extractionCache = extractionCache;
+      return this;
+    }
+
+    public SharedJarLayer.Builder withParentClassloader(ClassLoader parentClassloader) {
+      this.parentClassLoader = parentClassloader;
+      return this;
+    }
+
+    /**
+     * Provides the file names of shareable jars, where {@code *} matches any characters, for
+     * example {@code guava-*.jar}.
+     *
+     * @param jarPatterns the patterns
+     * @return {@code Builder}
+     */
+    public SharedJarLayer.Builder withJarPatterns(Collection<String> jarPatterns) {
+      for (String jarPattern : jarPatterns) {
+        final List<String> parts = new ArrayList<>();
+        for (String part : jarPattern.split("\\*", -1)) {
+          parts.add(Pattern.quote(part));
+        }
+        this.jarPatterns.add(Pattern.compile(String.join(".*", parts)));
+      }
+      return this;
+    }
+
+    /**
+     * Provides the bundles whose dependency jars are considered for the layer.
+     *
+     * @param bundleFiles the bundle files
+     * @return {@code Builder}
+     */
+    public SharedJarLayer.Builder withBundleFiles(Collection<FileObject> bundleFiles) {
+      this.bundleFiles.addAll(bundleFiles);
+      return this;
+    }
+
+    /**
+     * Hashes the shareable jars of the bundles and builds the layer.
+     *
+     * @return {@code SharedJarLayer}
+     * @throws FileSystemException if a bundle cannot be read or a jar cannot be extracted
+     */
+    public SharedJarLayer build() throws FileSystemException {
+      if (fileSystemManager == null || extractionCache == null) {
+        throw new IllegalArgumentException("fileSystemManager and extractionCache are required");
+      }
+      // hash -> local copy, and the number of bundles shipping it
+      final Map<String, Path> candidates = new LinkedHashMap<>();
+      final Map<String, Integer> copies = new HashMap<>();
+      // stamp -> hash, reused when the bundle ClassLoaders ask for the same jars
+      final Map<String, String> jarHashes = new HashMap<>();
+      for (FileObject bundleFile : bundleFiles) {
+        for (FileObject jar : shareableJars(fileSystemManager, bundleFile, jarPatterns)) {
+          final String hash = hashOf(extractionCache, jar);
+          candidates.putIfAbsent(hash, extract(extractionCache, jar));
+          copies.merge(hash, 1, Integer::sum);
+          jarHashes.put(HashUtils.stampOf(jar), hash);
+        }
+      }
+
+      final Map<String, Set<String>> packageHashes = new HashMap<>();
+      final Map<String, Set<String>> hashPackages = new HashMap<>();
+      for (Map.Entry<String, Path> candidate : candidates.entrySet()) {
+        final Set<String> packages = packagesOf(candidate.getValue());
+        hashPackages.put(candidate.getKey(), packages);
+        for (String packageName : packages) {
+          packageHashes.computeIfAbsent(packageName, p -> new HashSet<>())
+              .add(candidate.getKey());
+        }
+      }
+
+      final Map<String, Path> hosted = new LinkedHashMap<>();
+      for (Map.Entry<String, Path> candidate : candidates.entrySet()) {
+        final String hash = candidate.getKey();
+        boolean conflicting = false;
+        for (String packageName : hashPackages.get(hash)) {
+          conflicting |= packageHashes.get(packageName).size() > 1;
+        }
+        if (conflicting) {
+          LOGGER.info("Not sharing {}, another version provides the same packages",
+              candidate.getValue().getFileName());
+        } else if (copies.get(hash) > 1) {
+          hosted.put(hash, candidate.getValue());
+        }
+      }
+      return new SharedJarLayer(hosted, jarHashes, parentClassLoader, this);
+    }
+  }
+
+  private final List<Pattern> jarPatterns;
+  private final NativeLibraryCache extractionCache;
+  private final Map<String, HostedJar> hostedByHash = new LinkedHashMap<>();
+  private final Map<String, HostedJar> hostedByLocation = new HashMap<>();
+  private final Map<String, Set<HostedJar>> bundleJars = new ConcurrentHashMap<>();
+  private final Map<String, String> jarHashes;
+
+  private SharedJarLayer(final Map<String, Path> hosted, final Map<String, String> jarHashes,
+      final ClassLoader parent, final Builder builder) throws FileSystemException {
+    super(urlsOf(hosted.values()), parent);
+    this.jarPatterns = Collections.unmodifiableList(new ArrayList<>(builder.jarPatterns));
+    this.extractionCache = builder.extractionCache;
+    this.jarHashes = new ConcurrentHashMap<>(jarHashes);
+    for (Map.Entry<String, Path> entry : hosted.entrySet()) {
+      final HostedJar jar = new HostedJar(entry.getKey(), entry.getValue());
+      hostedByHash.put(jar.hash, jar);
+      hostedByLocation.put(jar.location, jar);
+      LOGGER.debug("Sharing {} ({})", entry.getValue().getFileName(), entry.getKey());
+    }
+  }
+
+  private static URL[] urlsOf(final Collection<Path> paths) throws FileSystemException {
+    final List<URL> urls = new ArrayList<>(paths.size());
+    for (Path path : paths) {
+      try {
+        urls.add(path.toUri().toURL());
+      } catch (MalformedURLException e) {
+        throw new FileSystemException("Unable to share " + path, e);
+      }
+    }
+    return urls.toArray(new URL[0]);
+  }
+
+  private static List<FileObject> shareableJars(final FileSystemManager fileSystemManager,
+      final FileObject bundleFile, final List<Pattern> jarPatterns) throws FileSystemException {
+    final List<FileObject> jars = new ArrayList<>();
+    final FileObject deps = fileSystemManager.createFileSystem(bundleFile)
+        .resolveFile(VfsBundleClassLoader.DEPENDENCY_PATH);
+    if (deps.exists() && deps.isFolder()) {
+      for (FileObject jar : deps.getChildren()) {
+        if (jar.isFile() && matches(jarPatterns, jar.getName().getBaseName())) {
+          jars.add(jar);
+        }
+      }
+    }
+    return jars;
+  }
+
+  private static boolean matches(final List<Pattern> jarPatterns, final String name) {
+    for (Pattern pattern : jarPatterns) {
+      if (pattern.matcher(name).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Path extract(final NativeLibraryCache extractionCache, final FileObject jar)
+      throws FileSystemException {
+    try {
+      return extractionCache.extract(jar);
+    } catch (FileSystemException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new FileSystemException("Unable to hash " + jar.getName(), e);
+    }
+  }
+
+  private static String hashOf(final NativeLibraryCache extractionCache, final FileObject jar)
+      throws FileSystemException {
+    try {
+      return extractionCache.hashOf(jar);
+    } catch (FileSystemException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new FileSystemException("Unable to hash " + jar.getName(), e);
+    }
+  }
+
+  private static Set<String> packagesOf(final Path local) throws FileSystemException {
+    final Set<String> packages = new HashSet<>();
+    try (JarFile jar = new JarFile(local.toFile())) {
+      for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+        final JarEntry entry = entries.nextElement();
+        if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+          packages.add(VfsBundleClassPathEntry.packageOfPath(entry.getName()));
+        }
+      }
+    } catch (IOException e) {
+      throw new FileSystemException("Unable to index " + local, e);
+    }
+    return packages;
+  }
+
+  /**
+   * Returns true if the dependency jar of a bundle is hosted by this layer, in which case the
+   * bundle ClassLoader must leave it out. The hash of each jar is kept by its stamp, so a jar is
+   * only hashed again once it has changed.
+   *
+   * @param bundleCoordinates the coordinates of the bundle shipping the jar
+   * @param jar the dependency jar within the bundle
+   * @return true if the jar is hosted
+   * @throws FileSystemException if the jar cannot be hashed
+   */
+  public boolean isShared(final String bundleCoordinates, final FileObject jar)
+      throws FileSystemException {
+    if (hostedByHash.isEmpty() || !matches(jarPatterns, jar.getName().getBaseName())) {
+      return false;
+    }
+    final String stamp = HashUtils.stampOf(jar);
+    String hash = jarHashes.get(stamp);
+    if (hash == null) {
+      hash = hashOf(extractionCache, jar);
+      jarHashes.put(stamp, hash);
+    }
+    final HostedJar hosted = hostedByHash.get(hash);
+    if (hosted == null) {
+      return false;
+    }
+    if (bundleCoordinates != null) {
+      bundleJars.computeIfAbsent(bundleCoordinates, c -> ConcurrentHashMap.newKeySet())
+          .add(hosted);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of jars hosted by this layer.
+   *
+   * @return the number of jars
+   */
+  public int getSharedJarCount() {
+    return hostedByHash.size();
+  }
+
+  /**
+   * Returns the class bytes each bundle did not define itself, because the classes were defined
+   * once by this layer. Class bytes stand in for the metaspace the classes use.
+   *
+   * @return the bytes by bundle coordinates
+   */
+  public Map<String, Long> getSavedBytesByBundle() {
+    final Map<String, Long> saved = new TreeMap<>();
+    for (Map.Entry<String, Set<HostedJar>> entry : bundleJars.entrySet()) {
+      long bytes = 0;
+      for (HostedJar jar : entry.getValue()) {
+        bytes += jar.bytes.sum();
+      }
+      saved.put(entry.getKey(), bytes);
+    }
+    return saved;
+  }
+
+  /**
+   * Returns the class bytes saved across all bundles, every bundle beyond the first that ships a
+   * hosted jar would have defined its classes again.
+   *
+   * @return the saved bytes
+   */
+  public long getSavedBytes() {
+    final Map<HostedJar, Integer> users = new HashMap<>();
+    for (Set<HostedJar> jars : bundleJars.values()) {
+      for (HostedJar jar : jars) {
+        users.merge(jar, 1, Integer::sum);
+      }
+    }
+    long saved = 0;
+    for (Map.Entry<HostedJar, Integer> entry : users.entrySet()) {
+      saved += entry.getKey().bytes.sum() * (entry.getValue() - 1);
+    }
+    return saved;
+  }
+
+  /**
+   * Finds the class in the hosted jars, recording its size against the jar it came from.
+   */
+  @Override
+  protected Class<?> findClass(final String name) throws ClassNotFoundException {
+    final Class<?> clazz = super.findClass(name);
+    final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+    final HostedJar jar = codeSource == null || codeSource.getLocation() == null ? null
+        : hostedByLocation.get(codeSource.getLocation().toExternalForm());
+    if (jar != null) {
+      jar.recordClass(name);
+    }
+    return clazz;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (HostedJar jar : hostedByHash.values()) {
+      jar.close();
+    }
+    super.close();
+  }
+
+  private static final class HostedJar {
+
+    private final String hash;
+    private final String location;
+    private final Path path;
+    private final LongAdder bytes = new LongAdder();
+    private JarFile jarFile;
+
+    HostedJar(String hash, Path path) throws FileSystemException {
+      this.hash = hash;
+      this.path = path;
+      try {
+        this.location = path.toUri().toURL().toExternalForm();
+      } catch (MalformedURLException e) {
+        throw new FileSystemException("Unable to share " + path, e);
+      }
+    }
+
+    synchronized void recordClass(String className) {
+      try {
+        if (jarFile == null) {
+          jarFile = new JarFile(path.toFile());
+        }
+        final JarEntry entry = jarFile.getJarEntry(className.replace('.', '/') + ".class");
+        if (entry != null && entry.getSize() > 0) {
+          bytes.add(entry.getSize());
+        }
+      } catch (IOException e) {
+        LOGGER.debug("Unable to size " + className, e);
+      }
+    }
+
+    synchronized void close() throws IOException {
+      if (jarFile != null) {
+        jarFile.close();
+        jarFile = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import java.security.CodeSource;
+import java.util.jar.Attributes;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Helper class for VfsBundleClassLoader. The bytes of a class read from a bundle, shared by the
+ * {@link VfsInstanceClassLoader}s of the bundle. Instances are immutable, the bytes must not be
+ * modified.
+ *
+ * @see VfsBundleClassLoader
+ */
+class VfsBundleClassBytes {
+
+  private final byte[] bytes;
+  private final VfsBundleClassPathEntry entry;
+  private final String packageName;
+  private final CodeSource codeSource;
+
+  VfsBundleClassBytes(final byte[] bytes, final VfsBundleClassLoaderResource resource,
+      final CodeSource codeSource) {
+    this.bytes = bytes;
+    this.entry = resource.getEntry();
+    this.packageName = resource.getPackageName();
+    this.codeSource = codeSource;
+  }
+
+  byte[] getBytes() {
+    return bytes;
+  }
+
+  CodeSource getCodeSource() {
+    return codeSource;
+  }
+
+  /**
+   * Returns the package of the class, or null for the default package.
+   */
+  String getPackageName() {
+    return packageName;
+  }
+
+  String getPackageAttribute(final Attributes.Name name) throws FileSystemException {
+    return entry.getPackageAttribute(packageName == null ? "" : packageName, name);
+  }
+
+  boolean isPackageSealed() throws FileSystemException {
+    return entry.isSealed(packageName == null ? "" : packageName);
+  }
+}
@@ -16,26 +16,44 @@
 
 package com.github.palindromicity.bundles;
 
+import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import com.github.palindromicity.bundles.jfr.BundleEvents;
+import com.github.palindromicity.bundles.jfr.EventScope;
+import com.github.palindromicity.bundles.metrics.ClassLoaderMetrics;
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.NativeLibraryCache;
+import com.github.palindromicity.bundles.util.ResourceByteCache;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.security.CodeSource;
 import java.security.Permission;
 import java.security.PermissionCollection;
 import java.security.Permissions;
+import java.security.ProtectionDomain;
 import java.security.SecureClassLoader;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
+import org.apache.commons.vfs2.FileContent;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemManager;
-import org.apache.commons.vfs2.NameScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -112,11 +130,26 @@ public class VfsBundleClassLoader extends SecureClassLoader {
   private static final Logger LOGGER = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
 
+  static {
+    // classes are locked by name, not by loader, as bundles load classes from each other
+    ClassLoader.registerAsParallelCapable();
+  }
+
   public static class Builder {
 
     private FileSystemManager fileSystemManager;
     private FileObject bundleFile;
     private ClassLoader parentClassLoader;
+    private BundleCoordinates bundleCoordinates;
+    private NativeLibraryCache nativeLibraryCache;
+    private ResourceByteCache resourceByteCache;
+    private DelegationPolicy delegationPolicy;
+    private BundlePackageIndex packageIndex;
+    private List<VfsBundleClassLoader> dependencyClassLoaders = Collections.emptyList();
+    private Collection<String> importedPackages = Collections.emptyList();
+    private SharedJarLayer sharedJarLayer;
+    private JarHandlePool jarHandlePool;
+    private long sharedClassBytesMaxBytes = BundleProperties.DEFAULT_SHARED_CLASS_BYTES_MAX_BYTES;
 
     public VfsBundleClassLoader.Builder withFileSystemManager(FileSystemManager fileSystemManager) {
       this.fileSystemManager = fileSystemManager;
@@ -133,14 +166,136 @@ public class VfsBundleClassLoader extends SecureClassLoader {
       return this;
     }
 
+    public VfsBundleClassLoader.Builder withBundleCoordinates(
+        BundleCoordinates bundleCoordinates) {
+      this.bundleCoordinates = bundleCoordinates;
+      return this;
+    }
+
+    public VfsBundleClassLoader.Builder withNativeLibraryCache(
+        NativeLibraryCache nativeLibraryCache) {
+      this.nativeLibraryCache = nativeLibraryCache;
+      return this;
+    }
+
+    public VfsBundleClassLoader.Builder withResourceByteCache(
+        ResourceByteCache resourceByteCache) {
+      this.resourceByteCache = resourceByteCache;
+      return this;
+    }
+
+    public VfsBundleClassLoader.Builder withDelegationPolicy(
+        DelegationPolicy delegationPolicy) {
+      this.delegationPolicy = delegationPolicy;
+      return this;
+    }
+
+    /**
+     * Provides the global package index imported packages are resolved with.
+     *
+     * @param packageIndex {@code BundlePackageIndex}
+     * @return {@code Builder}
+     */
+    public VfsBundleClassLoader.Builder withPackageIndex(BundlePackageIndex packageIndex) {
+      this.packageIndex = packageIndex;
+      return this;
+    }
+
+    /**
+     * Provides the class loaders of the additional dependency bundles. All of their packages are
+     * imported.
+     *
+     * @param dependencyClassLoaders the class loaders
+     * @return {@code Builder}
+     */
+    public VfsBundleClassLoader.Builder withDependencyClassLoaders(
+        List<VfsBundleClassLoader> dependencyClassLoaders) {
+      this.dependencyClassLoaders = dependencyClassLoaders;
+      return this;
+    }
+
+    /**
+     * Provides the packages imported through the {@link BundlePackageIndex}. A name ending in
+     * {@code .*} imports the package and all of its sub packages.
+     *
+     * @param importedPackages the package names
+     * @return {@code Builder}
+     */
+    public VfsBundleClassLoader.Builder withImportedPackages(
+        Collection<String> importedPackages) {
+      this.importedPackages = importedPackages;
+      return this;
+    }
+
+    /**
+     * Provides the {@link SharedJarLayer}, dependency jars it hosts are left out of the bundle
+     * class loader. The layer should be the root of the parent class loaders.
+     *
+     * @param sharedJarLayer {@code SharedJarLayer}
+     * @return {@code Builder}
+     */
+    public VfsBundleClassLoader.Builder withSharedJarLayer(SharedJarLayer sharedJarLayer) {
+      this.sharedJarLayer = sharedJarLayer;
+      return this;
+    }
+
+    /**
+     * Provides the {@link JarHandlePool} limiting the dependency jars that are open at the same
+     * time. Without a pool, every mounted jar stays open.
+     *
+     * @param jarHandlePool {@code JarHandlePool}
+     * @return {@code Builder}
+     */
+    public VfsBundleClassLoader.Builder withJarHandlePool(JarHandlePool jarHandlePool) {
+      this.jarHandlePool = jarHandlePool;
+      return this;
+    }
+
+    /**
+     * Provides the byte budget of the class bytes kept for instance class loaders. The least
+     * recently used classes are dropped past the budget, and read again when needed.
+     *
+     * @param sharedClassBytesMaxBytes the budget in bytes, 0 keeps no class bytes
+     * @return {@code Builder}
+     */
+    public VfsBundleClassLoader.Builder withSharedClassBytesMaxBytes(
+        long sharedClassBytesMaxBytes) {
+      if (sharedClassBytesMaxBytes < 0) {
+        throw new IllegalArgumentException("sharedClassBytesMaxBytes must not be negative");
+      }
+      this.sharedClassBytesMaxBytes = sharedClassBytesMaxBytes;
+      return this;
+    }
+
     public VfsBundleClassLoader build() throws FileSystemException {
-      return new VfsBundleClassLoader(bundleFile, fileSystemManager, parentClassLoader);
+      return new VfsBundleClassLoader(new FileObject[]{bundleFile}, fileSystemManager,
+          parentClassLoader, this);
     }
   }
 
-  private final ArrayList<FileObject> resources = new ArrayList<FileObject>();
+  private final Map<String, FileObject> resourcesByUri = new ConcurrentHashMap<>();
+  // class bytes shared with instance class loaders, least recently used first
+  private final LinkedHashMap<String, VfsBundleClassBytes> classBytes =
+      new LinkedHashMap<>(64, 0.75f, true);
+  private long classBytesSize;
+  private final long sharedClassBytesMaxBytes;
+  private final ArrayList<VfsBundleClassPathEntry> entries = new ArrayList<>();
+  private final Map<String, VfsBundleClassLoader> packageOwners;
+  private final DelegationPolicy delegationPolicy;
+  private final Map<String, VfsBundleClassLoader> dependencyPackages;
+  private final BundlePackageIndex packageIndex;
+  private final Set<String> importedPackages = new HashSet<>();
+  private final List<String> importedPackagePrefixes = new ArrayList<>();
   private FileObject nativeDir;
+  private final ClassLoaderMetrics metrics = new ClassLoaderMetrics();
+  private final BundleCoordinates bundleCoordinates;
+  private final String coordinatesString;
+  private final NativeLibraryCache nativeLibraryCache;
+  private final ResourceByteCache resourceByteCache;
+  private final SharedJarLayer sharedJarLayer;
+  private final JarHandlePool jarHandlePool;
   public static final String DEPENDENCY_PATH = "META-INF/bundled-dependencies";
+  public static final String NATIVE_FOLDER = "native";
 
   /**
    * Constructs a new VFSClassLoader for the given Bundle file.
@@ -191,18 +346,212 @@ public class VfsBundleClassLoader extends SecureClassLoader {
    */
   public VfsBundleClassLoader(final FileObject[] files, final FileSystemManager manager,
       final ClassLoader parent) throws FileSystemException {
+    this(files, manager, parent, new Builder());
+  }
+
+  private VfsBundleClassLoader(final FileObject[] files, final FileSystemManager manager,
+      final ClassLoader parent, final Builder builder)
+      throws FileSystemException {
     super(parent);
+    this.resourceByteCache = builder.resourceByteCache;
+    this.bundleCoordinates = builder.bundleCoordinates;
+    this.coordinatesString = bundleCoordinates == null ? null : bundleCoordinates.getCoordinates();
+    this.nativeLibraryCache = builder.nativeLibraryCache != null ? builder.nativeLibraryCache
+        : new NativeLibraryCache(Paths.get(System.getProperty("java.io.tmpdir"),
+            BundleProperties.DEFAULT_NATIVE_CACHE_DIRECTORY_NAME));
+    this.delegationPolicy = builder.delegationPolicy != null ? builder.delegationPolicy
+        : DelegationPolicy.PARENT_FIRST;
+    this.packageIndex = builder.packageIndex;
+    this.sharedJarLayer = builder.sharedJarLayer;
+    this.jarHandlePool = builder.jarHandlePool;
+    this.sharedClassBytesMaxBytes = builder.sharedClassBytesMaxBytes;
+    for (String importedPackage : builder.importedPackages) {
+      if (importedPackage.endsWith(".*")) {
+        importedPackagePrefixes.add(importedPackage.substring(0, importedPackage.length() - 1));
+        importedPackages.add(importedPackage.substring(0, importedPackage.length() - 2));
+      } else {
+        importedPackages.add(importedPackage);
+      }
+    }
     addFileObjects(manager, files);
+    this.packageOwners = indexPackageOwners(parent);
+    this.dependencyPackages = new HashMap<>();
+    for (VfsBundleClassLoader dependency : builder.dependencyClassLoaders) {
+      for (String packageName : dependency.getPackageNames()) {
+        dependencyPackages.putIfAbsent(packageName, dependency);
+      }
+    }
+  }
+
+  /**
+   * Builds the package to owning class loader index. Packages of parent bundle class loaders
+   * keep their owner, as they would win under parent first delegation.
+   */
+  private Map<String, VfsBundleClassLoader> indexPackageOwners(final ClassLoader parent) {
+    if (!delegationPolicy.isPackageIndexed()) {
+      return Collections.emptyMap();
+    }
+    final Map<String, VfsBundleClassLoader> owners = new HashMap<>();
+    if (parent instanceof VfsBundleClassLoader) {
+      owners.putAll(((VfsBundleClassLoader) parent).packageOwners);
+    }
+    for (VfsBundleClassPathEntry entry : entries) {
+      for (String packageName : entry.getPackages()) {
+        if (!delegationPolicy.isShared(packageName)) {
+          owners.putIfAbsent(packageName, this);
+        }
+      }
+    }
+    return owners;
+  }
+
+  /**
+   * Returns the bundle class loader a package is imported from, either from one of the
+   * additional dependency bundles or, for imported packages, from the {@link BundlePackageIndex}.
+   *
+   * @param packageName the package name
+   * @return the exporting class loader, or null if the package is not imported
+   */
+  private VfsBundleClassLoader findExporter(final String packageName) {
+    VfsBundleClassLoader exporter = dependencyPackages.get(packageName);
+    if (exporter == null && packageIndex != null && isImported(packageName)) {
+      exporter = packageIndex.getExporter(packageName);
+    }
+    return exporter == this ? null : exporter;
+  }
+
+  private boolean isImported(final String packageName) {
+    if (importedPackages.contains(packageName)) {
+      return true;
+    }
+    for (String prefix : importedPackagePrefixes) {
+      if (packageName.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
-   * Provide access to the file objects this class loader represents.
+   * Provide access to the file objects this class loader represents. Dependency jars that have
+   * not been used yet are mounted.
    *
    * @return An array of FileObjects.
+   * @throws IllegalStateException if a dependency jar cannot be mounted
    * @since 2.0
    */
   public FileObject[] getFileObjects() {
-    return resources.toArray(new FileObject[resources.size()]);
+    final FileObject[] roots = new FileObject[entries.size()];
+    for (int i = 0; i < roots.length; i++) {
+      try {
+        roots[i] = entries.get(i).getRoot();
+      } catch (FileSystemException e) {
+        throw new IllegalStateException(
+            "Unable to mount " + entries.get(i).getSource().getName().getURI(), e);
+      }
+    }
+    return roots;
+  }
+
+  /**
+   * Returns the dependency jars of the bundle, as files within the bundle, without mounting
+   * them.
+   *
+   * @return {@code List} of jar FileObjects
+   */
+  public List<FileObject> getDependencyJars() {
+    final List<FileObject> jars = new ArrayList<>();
+    for (VfsBundleClassPathEntry entry : entries) {
+      if (entry.isJar()) {
+        jars.add(entry.getSource());
+      }
+    }
+    return jars;
+  }
+
+  /**
+   * Returns the number of dependency jars that have been mounted.
+   *
+   * @return the number of mounted jars
+   */
+  public int getMountedJarCount() {
+    int mounted = 0;
+    for (VfsBundleClassPathEntry entry : entries) {
+      if (entry.isJar() && entry.isMounted()) {
+        mounted++;
+      }
+    }
+    return mounted;
+  }
+
+  /**
+   * Returns the number of file systems this class loader holds open, the bundle itself and each
+   * mounted dependency jar whose handle was not released by the {@link JarHandlePool}.
+   *
+   * @return the number of open file systems
+   */
+  public int getOpenFileSystemCount() {
+    int open = 0;
+    for (VfsBundleClassPathEntry entry : entries) {
+      if (!entry.isJar() || (entry.isMounted() && !entry.isReleased())) {
+        open++;
+      }
+    }
+    return open;
+  }
+
+  /**
+   * Returns the size of the mounted dependency jars, which VFS replicates to temporary files.
+   *
+   * @return the replicated bytes
+   */
+  public long getReplicatedBytes() {
+    long replicated = 0;
+    for (VfsBundleClassPathEntry entry : entries) {
+      if (entry.isJar() && entry.isMounted()) {
+        try {
+          replicated += entry.getSource().getContent().getSize();
+        } catch (FileSystemException e) {
+          LOGGER.debug("Unable to size " + entry.getSource().getName(), e);
+        }
+      }
+    }
+    return replicated;
+  }
+
+  /**
+   * Returns the coordinates of the bundle this class loader was built for.
+   *
+   * @return {@code BundleCoordinates} or null if the class loader was not created by a Builder
+   */
+  public BundleCoordinates getBundleCoordinates() {
+    return bundleCoordinates;
+  }
+
+  /**
+   * Returns the class loading metrics of this class loader.
+   *
+   * @return {@code ClassLoaderMetrics}
+   */
+  public ClassLoaderMetrics getMetrics() {
+    return metrics;
+  }
+
+  public DelegationPolicy getDelegationPolicy() {
+    return delegationPolicy;
+  }
+
+  /**
+   * Returns the packages contained in the jars of this class loader.
+   *
+   * @return the package names
+   */
+  public Set<String> getPackageNames() {
+    final Set<String> packages = new HashSet<>();
+    for (VfsBundleClassPathEntry entry : entries) {
+      packages.addAll(entry.getPackages());
+    }
+    return packages;
   }
 
   /**
@@ -233,43 +582,118 @@ public class VfsBundleClassLoader extends SecureClassLoader {
         // resolve the dependency directory within the bundle
         FileObject deps = bundleFile.resolveFile(DEPENDENCY_PATH);
         if (deps.exists() && deps.isFolder()) {
-          nativeDir = deps.resolveFile("native");
+          final FileObject nativeFolder = deps.resolveFile(NATIVE_FOLDER);
+          if (nativeFolder.exists() && nativeFolder.isFolder()) {
+            nativeDir = nativeFolder;
+          }
           FileObject[] depJars = deps.getChildren();
           for (FileObject jarFileObject : depJars) {
-            // create a filesystem from each jar and add it as
-            // a resource
-            jarFileObject = manager.createFileSystem(jarFileObject);
-            resources.add(jarFileObject);
+            if (!jarFileObject.isFile()) {
+              // the native folder, or any other folder, is not a jar
+              continue;
+            }
+            if (sharedJarLayer != null && sharedJarLayer.isShared(coordinatesString,
+                jarFileObject)) {
+              // loaded once, by the shared layer
+              continue;
+            }
+            // list each jar, its filesystem is created the first time a lookup routes to it
+            entries.add(VfsBundleClassPathEntry
+                .lazy(manager, jarFileObject, coordinatesString, this::addResource,
+                    jarHandlePool));
           }
         }
       } else {
         continue;
       }
-      resources.add(file);
+      addResource(file);
+      entries.add(VfsBundleClassPathEntry.index(file));
     }
   }
 
+  private void addResource(final FileObject file) {
+    resourcesByUri.putIfAbsent(file.getName().getURI(), file);
+  }
+
+  /**
+   * Finds a native library in the {@code native} folder of the bundle dependencies. The library
+   * is extracted to the {@link NativeLibraryCache}, and the absolute path of the local copy is
+   * returned, as required by {@code System.loadLibrary}.
+   *
+   * @param libname the library name
+   * @return the absolute path of the library, or null if the bundle does not contain it
+   */
   @Override
   protected String findLibrary(final String libname) {
+    if (nativeDir == null) {
+      // not found in the bundle. try system native dir
+      return null;
+    }
     try {
-      final FileObject libsoFile = nativeDir.resolveFile("lib" + libname + ".so");
-      final FileObject dllFile = nativeDir.resolveFile(libname + ".dll");
-      final FileObject soFile = nativeDir.resolveFile(libname + ".so");
-      if (libsoFile.exists()) {
-        return libsoFile.getURL().toString();
-      } else if (dllFile.exists()) {
-        return dllFile.getURL().toString();
-      } else if (soFile.exists()) {
-        return soFile.getURL().toString();
-      }
-    } catch (FileSystemException fse) {
-      LOGGER.error("Failed to get dependencies", fse);
+      final String[] candidates = new String[]{System.mapLibraryName(libname),
+          "lib" + libname + ".so", libname + ".dll", libname + ".so"};
+      for (String candidate : candidates) {
+        final FileObject library = nativeDir.resolveFile(candidate);
+        if (library.exists() && library.isFile()) {
+          return nativeLibraryCache.extract(library).toString();
+        }
+      }
+    } catch (IOException ioe) {
+      LOGGER.error("Failed to extract native library " + libname, ioe);
     }
     // not found in the bundle. try system native dir
     return null;
   }
 
 
+  /**
+   * Loads the class, recording the time spent waiting for the class loading lock. With a package
+   * indexed {@link DelegationPolicy}, classes in packages owned by a bundle are loaded directly
+   * from the owning bundle class loader, without asking the parent class loaders first.
+   */
+  @Override
+  protected Class<?> loadClass(final String name, final boolean resolve)
+      throws ClassNotFoundException {
+    final long start = System.nanoTime();
+    synchronized (getClassLoadingLock(name)) {
+      metrics.recordLockWait(System.nanoTime() - start);
+      final String packageName = VfsBundleClassPathEntry.packageOfClass(name);
+      VfsBundleClassLoader owner = packageOwners.get(packageName);
+      if (owner == null && delegationPolicy.isPackageIndexed()
+          && !delegationPolicy.isShared(packageName)) {
+        owner = findExporter(packageName);
+      }
+      if (owner == null) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> clazz = findLoadedClass(name);
+      if (clazz == null) {
+        try {
+          clazz = owner == this ? findOwnClass(name) : owner.loadClass(name);
+        } catch (ClassNotFoundException e) {
+          // a package split with the parent class loaders, fall back to parent first
+          if (owner != this || getParent() == null) {
+            return super.loadClass(name, resolve);
+          }
+          // this bundle was already searched, only the parents and exporters are left
+          try {
+            clazz = getParent().loadClass(name);
+          } catch (ClassNotFoundException parentMiss) {
+            metrics.recordParentDelegationMiss();
+            clazz = findExportedClass(name);
+            if (clazz == null) {
+              throw e;
+            }
+          }
+        }
+      }
+      if (resolve) {
+        resolveClass(clazz);
+      }
+      return clazz;
+    }
+  }
+
   /**
    * Finds and loads the class with the specified name from the search path.
    *
@@ -277,15 +701,49 @@ public class VfsBundleClassLoader extends SecureClassLoader {
    */
   @Override
   protected Class<?> findClass(final String name) throws ClassNotFoundException {
-    try {
-      final String path = name.replace('.', '/').concat(".class");
-      final VfsBundleClassLoaderResource res = loadResource(path);
+    // findClass is only reached once the parent has failed to provide the class
+    metrics.recordParentDelegationMiss();
+    final Class<?> exported = findExportedClass(name);
+    return exported != null ? exported : findOwnClass(name);
+  }
+
+  /**
+   * Loads the class from the bundle exporting its package, if there is one other than this.
+   *
+   * @return the class, or null if its package is not exported or the exporter does not have it
+   */
+  private Class<?> findExportedClass(final String name) {
+    final VfsBundleClassLoader exporter = findExporter(
+        VfsBundleClassPathEntry.packageOfClass(name));
+    if (exporter != null && exporter != this) {
+      try {
+        return exporter.loadClass(name);
+      } catch (ClassNotFoundException e) {
+        // not exported after all, try this bundle
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds and loads the class with the specified name from the search path of this class
+   * loader only.
+   */
+  private Class<?> findOwnClass(final String name) throws ClassNotFoundException {
+    final long start = System.nanoTime();
+    boolean found = false;
+    final String path = name.replace('.', '/').concat(".class");
+    try (VfsBundleClassLoaderResource res = loadResource(path)) {
       if (res == null) {
         throw new ClassNotFoundException(name);
       }
-      return defineClass(name, res);
+      final Class<?> clazz = defineClass(name, res);
+      found = true;
+      return clazz;
     } catch (final IOException ioe) {
       throw new ClassNotFoundException(name, ioe);
+    } finally {
+      metrics.recordFindClass(System.nanoTime() - start, found);
     }
   }
 
@@ -313,18 +771,102 @@ public class VfsBundleClassLoader extends SecureClassLoader {
       }
     }
 
-    final byte[] bytes = res.getBytes();
+    try (EventScope event = BundleEvents.defineClass(coordinatesString, name)) {
+      final byte[] bytes = res.getBytes();
+      final Class<?> clazz = defineClass(name, bytes, 0, bytes.length, getProtectionDomain(res));
+      metrics.recordClassDefined(bytes.length);
+      event.setSize(bytes.length);
+      return clazz;
+    }
+  }
+
+  /**
+   * Returns the ProtectionDomain of res. Classes of the same class path entry that are signed by
+   * the same certificates share one domain, which is created with the first of them.
+   */
+  private ProtectionDomain getProtectionDomain(final VfsBundleClassLoaderResource res)
+      throws FileSystemException {
+    final VfsBundleClassPathEntry entry = res.getEntry();
     final Certificate[] certs = res.getFileObject().getContent().getCertificates();
-    final CodeSource cs = new CodeSource(url, certs);
-    return defineClass(name, bytes, 0, bytes.length, cs);
+    final ProtectionDomain domain = entry.getProtectionDomain(certs);
+    if (domain != null) {
+      return domain;
+    }
+    final CodeSource cs = new CodeSource(entry.getUrl(), certs);
+    return entry.putProtectionDomain(certs,
+        new ProtectionDomain(cs, getPermissions(cs), this, null));
+  }
+
+  /**
+   * Returns the bytes of a class of this bundle, for instance class loaders that define their own
+   * copy of it. The bytes are shared by every instance class loader of the bundle, within the
+   * budget given by {@link Builder#withSharedClassBytesMaxBytes(long)}.
+   *
+   * @param name the class name
+   * @return {@code VfsBundleClassBytes}, or null if this bundle does not contain the class
+   * @throws IOException if the class cannot be read
+   */
+  VfsBundleClassBytes getClassBytes(final String name) throws IOException {
+    synchronized (classBytes) {
+      final VfsBundleClassBytes cached = classBytes.get(name);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    final VfsBundleClassBytes read;
+    try (VfsBundleClassLoaderResource res = loadResource(
+        name.replace('.', '/').concat(".class"))) {
+      if (res == null) {
+        return null;
+      }
+      final CodeSource cs = getProtectionDomain(res).getCodeSource();
+      read = new VfsBundleClassBytes(res.getBytes(), res, cs);
+    }
+    final int size = read.getBytes().length;
+    if (size > sharedClassBytesMaxBytes) {
+      return read;
+    }
+    synchronized (classBytes) {
+      final VfsBundleClassBytes cached = classBytes.putIfAbsent(name, read);
+      if (cached != null) {
+        return cached;
+      }
+      classBytesSize += size;
+      final Iterator<VfsBundleClassBytes> it = classBytes.values().iterator();
+      while (classBytesSize > sharedClassBytesMaxBytes && it.hasNext()) {
+        classBytesSize -= it.next().getBytes().length;
+        it.remove();
+      }
+    }
+    return read;
+  }
+
+  /**
+   * Returns the bundle class loader classes of a package are imported from.
+   *
+   * @param className the class name
+   * @return the exporting class loader, or null if the package is not imported
+   */
+  VfsBundleClassLoader findExporterOfClass(final String className) {
+    return findExporter(VfsBundleClassPathEntry.packageOfClass(className));
+  }
+
+  /**
+   * Returns the number of classes whose bytes are shared with instance class loaders.
+   *
+   * @return the number of classes
+   */
+  public int getSharedClassCount() {
+    synchronized (classBytes) {
+      return classBytes.size();
+    }
   }
 
   /**
    * Returns true if the we should seal the package where res resides.
    */
   private boolean isSealed(final VfsBundleClassLoaderResource res) throws FileSystemException {
-    final String sealed = res.getPackageAttribute(Attributes.Name.SEALED);
-    return "true".equalsIgnoreCase(sealed);
+    return res.isPackageSealed();
   }
 
   /**
@@ -407,14 +949,7 @@ public class VfsBundleClassLoader extends SecureClassLoader {
    * Does a reverse lookup to find the FileObject when we only have the URL.
    */
   private FileObject lookupFileObject(final String name) {
-    final Iterator<FileObject> it = resources.iterator();
-    while (it.hasNext()) {
-      final FileObject object = it.next();
-      if (name.equals(object.getName().getURI())) {
-        return object;
-      }
-    }
-    return null;
+    return resourcesByUri.get(name);
   }
 
   /**
@@ -426,8 +961,16 @@ public class VfsBundleClassLoader extends SecureClassLoader {
    */
   @Override
   protected URL findResource(final String name) {
-    try {
-      final VfsBundleClassLoaderResource res = loadResource(name);
+    final VfsBundleClassLoader exporter = findExporter(
+        VfsBundleClassPathEntry.packageOfPath(name));
+    if (exporter != null) {
+      final URL url = exporter.getResource(name);
+      if (url != null) {
+        return url;
+      }
+    }
+    try (VfsBundleClassLoaderResource res = loadResource(name)) {
+      metrics.recordResourceLookup(res != null);
       if (res != null) {
         return res.getUrl();
       }
@@ -437,6 +980,63 @@ public class VfsBundleClassLoader extends SecureClassLoader {
     }
   }
 
+  /**
+   * Returns a stream over the resource. Resources provided by this bundle are opened directly
+   * from their FileObject, without creating and opening a VFS URL. When a
+   * {@link ResourceByteCache} is configured, they are served from the cache, without going back
+   * through the parent class loaders and the jar.
+   *
+   * @param name The resource name.
+   * @return An InputStream, or null if the resource could not be found.
+   */
+  @Override
+  public InputStream getResourceAsStream(final String name) {
+    final ClassLoader parent = getParent();
+    if (parent == null) {
+      // the bootstrap class loader can only be searched through getResource
+      return super.getResourceAsStream(name);
+    }
+    final boolean caching = resourceByteCache != null && coordinatesString != null;
+    if (caching) {
+      final InputStream cached = resourceByteCache.get(coordinatesString, name);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    // parent and imported resources keep precedence, and are not cached with this bundle
+    final InputStream parentStream = parent.getResourceAsStream(name);
+    if (parentStream != null) {
+      return parentStream;
+    }
+    final VfsBundleClassLoader exporter = findExporter(
+        VfsBundleClassPathEntry.packageOfPath(name));
+    if (exporter != null) {
+      final InputStream exported = exporter.getResourceAsStream(name);
+      if (exported != null) {
+        return exported;
+      }
+    }
+    try (VfsBundleClassLoaderResource res = loadResource(name)) {
+      metrics.recordResourceLookup(res != null);
+      if (res == null) {
+        return null;
+      }
+      if (caching) {
+        resourceByteCache.recordMiss();
+      }
+      final FileContent content = res.getFileObject().getContent();
+      if (!caching || !resourceByteCache.accepts(content.getSize())) {
+        return content.getInputStream();
+      }
+      final byte[] bytes = res.getBytes();
+      resourceByteCache.put(coordinatesString, name, bytes);
+      return new ByteArrayInputStream(bytes);
+    } catch (final IOException ioe) {
+      LOGGER.debug("Unable to read resource " + name, ioe);
+      return null;
+    }
+  }
+
   /**
    * Returns an Enumeration of all the resources in the search path with the specified name.
    * <p> Gets called from {@link ClassLoader#getResources(String)} after parent class loader was
@@ -450,28 +1050,46 @@ public class VfsBundleClassLoader extends SecureClassLoader {
   protected Enumeration<URL> findResources(final String name) throws IOException {
     final List<URL> result = new ArrayList<URL>(2);
 
-    for (FileObject baseFile : resources) {
-      final FileObject file = baseFile.resolveFile(name, NameScope.DESCENDENT_OR_SELF);
-      if (file.exists()) {
-        result.add(new VfsBundleClassLoaderResource(name, baseFile, file).getUrl());
+    for (VfsBundleClassPathEntry entry : entries) {
+      entry.pin();
+      try {
+        final FileObject file = entry.resolve(name);
+        if (file != null) {
+          result.add(file.getURL());
+        }
+      } finally {
+        entry.unpin();
       }
     }
+    metrics.recordResourceLookup(!result.isEmpty());
 
     return Collections.enumeration(result);
   }
 
   /**
-   * Searches through the search path of for the first class or resource with specified name.
+   * Searches through the search path of for the first class or resource with specified name. The
+   * entry the resource is found in stays pinned until the resource is closed.
    *
    * @param name The resource to load.
    * @return The Resource.
    * @throws FileSystemException if an error occurs.
    */
   private VfsBundleClassLoaderResource loadResource(final String name) throws FileSystemException {
-    for (final FileObject baseFile : resources) {
-      final FileObject file = baseFile.resolveFile(name, NameScope.DESCENDENT_OR_SELF);
-      if (file.exists()) {
-        return new VfsBundleClassLoaderResource(name, baseFile, file);
+    for (final VfsBundleClassPathEntry entry : entries) {
+      entry.pin();
+      boolean found = false;
+      try {
+        final FileObject file = entry.resolve(name);
+        if (file != null) {
+          final VfsBundleClassLoaderResource res = new VfsBundleClassLoaderResource(name, entry,
+              file);
+          found = true;
+          return res;
+        }
+      } finally {
+        if (!found) {
+          entry.unpin();
+        }
       }
     }
     return null;
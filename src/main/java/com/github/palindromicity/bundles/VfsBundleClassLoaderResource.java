@@ -28,11 +28,14 @@ import org.apache.commons.vfs2.FileUtil;
  * Helper class for VfsBundleClassLoader. This represents a resource loaded with the classloader.
  * This class is adapted from Apache Commons VFS Resource class v.2.1
  *
+ * <p>A resource is created while its class path entry is pinned, and closing it unpins the
+ * entry.</p>
+ *
  * @see VfsBundleClassLoader
  */
-class VfsBundleClassLoaderResource {
+class VfsBundleClassLoaderResource implements AutoCloseable {
 
-  private final FileObject root;
+  private final VfsBundleClassPathEntry entry;
   private final FileObject resource;
   private final FileObject packageFolder;
   private final String packageName;
@@ -40,14 +43,14 @@ class VfsBundleClassLoaderResource {
   /**
    * Creates a new instance.
    *
-   * @param root The code source FileObject.
+   * @param entry The class path entry the resource was found in.
    * @param resource The resource of the FileObject.
    */
   public VfsBundleClassLoaderResource(final String name,
-      final FileObject root,
+      final VfsBundleClassPathEntry entry,
       final FileObject resource)
       throws FileSystemException {
-    this.root = root;
+    this.entry = entry;
     this.resource = resource;
     packageFolder = resource.getParent();
     final int pos = name.lastIndexOf('/');
@@ -76,7 +79,14 @@ class VfsBundleClassLoaderResource {
    * Returns an attribute of the package containing the resource.
    */
   public String getPackageAttribute(final Attributes.Name attrName) throws FileSystemException {
-    return (String) packageFolder.getContent().getAttribute(attrName.toString());
+    return entry.getPackageAttribute(packageName == null ? "" : packageName, attrName);
+  }
+
+  /**
+   * Returns true if the package containing the resource is sealed.
+   */
+  public boolean isPackageSealed() throws FileSystemException {
+    return entry.isSealed(packageName == null ? "" : packageName);
   }
 
   /**
@@ -93,11 +103,18 @@ class VfsBundleClassLoaderResource {
     return resource;
   }
 
+  /**
+   * Returns the class path entry containing the resource.
+   */
+  public VfsBundleClassPathEntry getEntry() {
+    return entry;
+  }
+
   /**
    * Returns the code source as an URL.
    */
   public URL getCodeSourceUrl() throws FileSystemException {
-    return root.getURL();
+    return entry.getUrl();
   }
 
   /**
@@ -106,4 +123,12 @@ class VfsBundleClassLoaderResource {
   public byte[] getBytes() throws IOException {
     return FileUtil.getContent(resource);
   }
+
+  /**
+   * Unpins the class path entry containing the resource.
+   */
+  @Override
+  public void close() {
+    entry.unpin();
+  }
 }
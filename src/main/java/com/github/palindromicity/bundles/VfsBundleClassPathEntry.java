@@ -0,0 +1,465 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.jfr.BundleEvents;
+import com.github.palindromicity.bundles.jfr.EventScope;
+import com.github.palindromicity.bundles.util.ZipUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.function.Consumer;
+import java.util.jar.Manifest;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.NameScope;
+import org.apache.commons.vfs2.provider.AbstractFileSystem;
+
+/**
+ * Helper class for VfsBundleClassLoader. This represents one root of the class path, a jar or
+ * the bundle itself, together with the set of packages it contains.
+ *
+ * <p>The package set is built once, when the root is added to the class loader, so lookups for
+ * names in packages the root does not contain never have to resolve a file. The manifest of the
+ * root is likewise read once, the first time a package from it is defined.</p>
+ *
+ * <p>Entries for the dependency jars of a bundle are mounted lazily. Their package set is built
+ * from the entry names, read in place without replicating the jar. The jar file system, which
+ * replicates the jar and keeps it open, is only created the first time a lookup routes to one of
+ * its packages, so jars that are never used are never replicated.</p>
+ *
+ * <p>With a {@link JarHandlePool}, readers {@link #pin()} the entry for as long as they read from
+ * the jar, and the pool only releases the handle of entries that are not pinned.</p>
+ *
+ * @see VfsBundleClassLoader
+ */
+class VfsBundleClassPathEntry {
+
+  private final FileObject source;
+  private final FileSystemManager manager;
+  private final String coordinates;
+  private final Consumer<FileObject> mountListener;
+  private final JarHandlePool handlePool;
+  private volatile FileObject root;
+  private volatile boolean released;
+  private volatile long lastUsed;
+  private final Set<String> packages;
+  private volatile URL url;
+  private final Map<Set<Certificate>, ProtectionDomain> protectionDomains =
+      new ConcurrentHashMap<>();
+  private volatile Manifest manifest;
+  private final Map<String, Boolean> sealedPackages = new ConcurrentHashMap<>();
+  private final ReadWriteLock pins = new ReentrantReadWriteLock();
+
+  /**
+   * Marks a root without a manifest, so it is only looked for once.
+   */
+  private static final Manifest NO_MANIFEST = new Manifest();
+
+  private VfsBundleClassPathEntry(final FileObject root, final Set<String> packages) {
+    this.source = root;
+    this.manager = null;
+    this.coordinates = null;
+    this.mountListener = null;
+    this.handlePool = null;
+    this.root = root;
+    this.packages = packages;
+  }
+
+  private VfsBundleClassPathEntry(final FileSystemManager manager, final FileObject jar,
+      final String coordinates, final Consumer<FileObject> mountListener,
+      final JarHandlePool handlePool, final Set<String> packages) {
+    this.source = jar;
+    this.manager = manager;
+    this.coordinates = coordinates;
+    this.mountListener = mountListener;
+    this.handlePool = handlePool;
+    this.packages = packages;
+  }
+
+  /**
+   * Creates an entry for a jar that is mounted on first use. The packages are indexed from the
+   * names of the jar entries, the same way {@link #index(FileObject)} indexes a mounted root. The
+   * names are read in place with {@link ZipUtils#entryNames(FileObject)}, the jar is not
+   * replicated until it is mounted.
+   *
+   * @param manager the FileSystemManager used to mount the jar
+   * @param jar the jar FileObject
+   * @param coordinates the coordinates of the bundle, for events, may be null
+   * @param mountListener called with the root of the jar file system once it is mounted
+   * @param handlePool the pool limiting the open jars, may be null
+   * @return {@code VfsBundleClassPathEntry}
+   * @throws FileSystemException if the jar cannot be read
+   */
+  static VfsBundleClassPathEntry lazy(final FileSystemManager manager, final FileObject jar,
+      final String coordinates, final Consumer<FileObject> mountListener,
+      final JarHandlePool handlePool) throws FileSystemException {
+    final Set<String> packages = new HashSet<>();
+    try {
+      for (String entryName : ZipUtils.entryNames(jar)) {
+        String name = entryName;
+        if (name.endsWith("/")) {
+          name = name.substring(0, name.length() - 1);
+        }
+        // every folder above the entry is non empty
+        for (int pos = name.lastIndexOf('/'); pos != -1; pos = name.lastIndexOf('/', pos - 1)) {
+          if (!packages.add(name.substring(0, pos).replace('/', '.'))) {
+            break;
+          }
+        }
+        if (!name.isEmpty()) {
+          packages.add("");
+        }
+      }
+    } catch (IOException e) {
+      throw new FileSystemException("failed listing jar " + jar.getName().getURI(), e);
+    }
+    return new VfsBundleClassPathEntry(manager, jar, coordinates, mountListener, handlePool,
+        Collections.unmodifiableSet(packages));
+  }
+
+  /**
+   * Creates an entry for the root, indexing every non empty folder under it as a package. The top
+   * level of the root is indexed as the empty package.
+   *
+   * @param root the root FileObject
+   * @return {@code VfsBundleClassPathEntry}
+   * @throws FileSystemException if the root cannot be read
+   */
+  static VfsBundleClassPathEntry index(final FileObject root) throws FileSystemException {
+    if (!root.isFolder()) {
+      return new VfsBundleClassPathEntry(root, Collections.<String>emptySet());
+    }
+    final Set<String> packages = new HashSet<>();
+    final Deque<FileObject> folders = new ArrayDeque<>();
+    final Deque<String> names = new ArrayDeque<>();
+    folders.push(root);
+    names.push("");
+    while (!folders.isEmpty()) {
+      final FileObject folder = folders.pop();
+      final String packageName = names.pop();
+      final FileObject[] children = folder.getChildren();
+      if (children.length > 0) {
+        // folders count as well, so lookups of package directories still resolve
+        packages.add(packageName);
+      }
+      for (FileObject child : children) {
+        if (child.getType().hasChildren()) {
+          final String baseName = child.getName().getBaseName();
+          folders.push(child);
+          names.push(packageName.isEmpty() ? baseName : packageName + "." + baseName);
+        }
+      }
+    }
+    return new VfsBundleClassPathEntry(root, Collections.unmodifiableSet(packages));
+  }
+
+  /**
+   * Returns the package a resource or class path belongs to.
+   *
+   * @param path a resource path, using '/' as the separator
+   * @return the package name, or the empty String for top level resources
+   */
+  static String packageOfPath(final String path) {
+    final int pos = path.lastIndexOf('/');
+    return pos == -1 ? "" : path.substring(0, pos).replace('/', '.');
+  }
+
+  /**
+   * Returns the package a class belongs to.
+   *
+   * @param className the binary name of the class
+   * @return the package name, or the empty String for the default package
+   */
+  static String packageOfClass(final String className) {
+    final int pos = className.lastIndexOf('.');
+    return pos == -1 ? "" : className.substring(0, pos);
+  }
+
+  /**
+   * Returns the root of the entry, mounting the jar file system if required.
+   *
+   * @return the root FileObject
+   * @throws FileSystemException if the jar cannot be mounted
+   */
+  FileObject getRoot() throws FileSystemException {
+    FileObject mounted = root;
+    if (mounted == null) {
+      synchronized (this) {
+        mounted = root;
+        if (mounted == null) {
+          try (EventScope event = BundleEvents
+              .jarOpen(coordinates, source.getName().getBaseName())) {
+            mounted = manager.createFileSystem(source);
+          }
+          root = mounted;
+          if (mountListener != null) {
+            mountListener.accept(mounted);
+          }
+        }
+      }
+    }
+    if (handlePool != null) {
+      handlePool.touch(this);
+    }
+    return mounted;
+  }
+
+  /**
+   * Pins the entry, so its jar handle is not released while it is read. Every call must be
+   * followed by a call to {@link #unpin()} on the same thread.
+   */
+  void pin() {
+    if (handlePool != null) {
+      pins.readLock().lock();
+    }
+  }
+
+  /**
+   * Unpins the entry, see {@link #pin()}.
+   */
+  void unpin() {
+    if (handlePool != null) {
+      pins.readLock().unlock();
+    }
+  }
+
+  /**
+   * Closes the communication link of the mounted jar file system, releasing its file handle. VFS
+   * reopens the jar the next time it is read.
+   *
+   * @return true if the handle was released, false if the jar is not mounted, is pinned or is
+   *     being read
+   */
+  boolean release() {
+    final FileObject mounted = root;
+    if (mounted == null || !(mounted.getFileSystem() instanceof AbstractFileSystem)) {
+      return false;
+    }
+    if (!pins.writeLock().tryLock()) {
+      return false;
+    }
+    try {
+      final AbstractFileSystem fileSystem = (AbstractFileSystem) mounted.getFileSystem();
+      if (!fileSystem.isReleaseable()) {
+        return false;
+      }
+      fileSystem.closeCommunicationLink();
+      released = true;
+      return true;
+    } finally {
+      pins.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns true if the handle of the jar was released by the {@link JarHandlePool}, and the jar
+   * has not been used since.
+   *
+   * @return true if released
+   */
+  boolean isReleased() {
+    return released;
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} the {@link JarHandlePool} last saw the jar used at
+   */
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  void setLastUsed(final long lastUsed) {
+    this.lastUsed = lastUsed;
+  }
+
+  /**
+   * Marks the jar as in use again.
+   *
+   * @return true if its handle had been released
+   */
+  boolean reacquire() {
+    final boolean wasReleased = released;
+    released = false;
+    return wasReleased;
+  }
+
+  /**
+   * Returns the FileObject the entry was created for, for jars this is the jar file in the
+   * bundle, which is available without mounting it.
+   *
+   * @return the FileObject
+   */
+  FileObject getSource() {
+    return source;
+  }
+
+  boolean isMounted() {
+    return root != null;
+  }
+
+  /**
+   * Returns true if the entry is a dependency jar, rather than the bundle itself.
+   *
+   * @return true for jars
+   */
+  boolean isJar() {
+    return manager != null;
+  }
+
+  Set<String> getPackages() {
+    return packages;
+  }
+
+  /**
+   * Returns the URL of the root, the code source of all classes in this entry.
+   *
+   * @return the URL
+   * @throws FileSystemException if the URL cannot be created
+   */
+  URL getUrl() throws FileSystemException {
+    if (url == null) {
+      url = getRoot().getURL();
+    }
+    return url;
+  }
+
+  /**
+   * Returns the ProtectionDomain shared by the classes of this entry that are signed by the given
+   * certificates. The entries of a jar are signed separately, so classes of the same jar may have
+   * different signers, or none at all.
+   *
+   * @param certificates the certificates of the class, may be null
+   * @return the ProtectionDomain, or null if no class with these certificates has been defined yet
+   */
+  ProtectionDomain getProtectionDomain(final Certificate[] certificates) {
+    return protectionDomains.get(certificateSet(certificates));
+  }
+
+  /**
+   * Caches the ProtectionDomain of the classes of this entry that are signed by the given
+   * certificates, unless another thread cached one first.
+   *
+   * @param certificates the certificates of the class, may be null
+   * @param protectionDomain the ProtectionDomain
+   * @return the cached ProtectionDomain
+   */
+  ProtectionDomain putProtectionDomain(final Certificate[] certificates,
+      final ProtectionDomain protectionDomain) {
+    final ProtectionDomain cached = protectionDomains
+        .putIfAbsent(certificateSet(certificates), protectionDomain);
+    return cached == null ? protectionDomain : cached;
+  }
+
+  private static Set<Certificate> certificateSet(final Certificate[] certificates) {
+    if (certificates == null || certificates.length == 0) {
+      return Collections.emptySet();
+    }
+    return new HashSet<>(Arrays.asList(certificates));
+  }
+
+  /**
+   * Returns a manifest attribute of a package. The attributes of the package section, if any,
+   * take precedence over the main attributes.
+   *
+   * @param packageName the package name
+   * @param name the attribute name
+   * @return the value, or null if it is not set
+   * @throws FileSystemException if the manifest cannot be read
+   */
+  String getPackageAttribute(final String packageName, final Attributes.Name name)
+      throws FileSystemException {
+    final Manifest mf = getManifest();
+    final Attributes attributes = mf.getAttributes(packageName.replace('.', '/') + "/");
+    final String value = attributes == null ? null : attributes.getValue(name);
+    return value != null ? value : mf.getMainAttributes().getValue(name);
+  }
+
+  /**
+   * Returns true if the manifest seals the package.
+   *
+   * @param packageName the package name
+   * @return true if the package is sealed
+   * @throws FileSystemException if the manifest cannot be read
+   */
+  boolean isSealed(final String packageName) throws FileSystemException {
+    Boolean sealed = sealedPackages.get(packageName);
+    if (sealed == null) {
+      sealed = "true"
+          .equalsIgnoreCase(getPackageAttribute(packageName, Attributes.Name.SEALED));
+      sealedPackages.put(packageName, sealed);
+    }
+    return sealed;
+  }
+
+  private Manifest getManifest() throws FileSystemException {
+    Manifest mf = manifest;
+    if (mf == null) {
+      mf = NO_MANIFEST;
+      pin();
+      try {
+        final FileObject mounted = getRoot();
+        if (mounted.isFolder()) {
+          final FileObject file = mounted.resolveFile(JarFile.MANIFEST_NAME);
+          if (file.exists()) {
+            try (InputStream in = file.getContent().getInputStream()) {
+              mf = new Manifest(in);
+            } catch (IOException e) {
+              throw new FileSystemException("failed reading manifest file " + file.getURL(), e);
+            }
+          }
+        }
+      } finally {
+        unpin();
+      }
+      manifest = mf;
+    }
+    return mf;
+  }
+
+  /**
+   * Resolves a resource within this entry. The caller should hold a {@link #pin()} while it
+   * resolves and reads the resource.
+   *
+   * @param name the resource path
+   * @return the FileObject, or null if this entry does not contain the resource
+   * @throws FileSystemException if an error occurs
+   */
+  FileObject resolve(final String name) throws FileSystemException {
+    if (!packages.contains(packageOfPath(name))) {
+      return null;
+    }
+    final FileObject file = getRoot().resolveFile(name, NameScope.DESCENDENT_OR_SELF);
+    return file.exists() ? file : null;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes.Name;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * An {@link InstanceClassLoader} that is a full copy of a {@link VfsBundleClassLoader}.
+ *
+ * <p>The classes of the bundle are defined again by this ClassLoader, so each instance gets its
+ * own copy of their static state. The class bytes come from the bundle class loader, which reads
+ * each class once and shares the bytes with all of its instance class loaders, so an additional
+ * instance costs metaspace, but no I/O or inflation. Resources and native libraries are not
+ * copied, they are served by the bundle class loader.</p>
+ */
+public class VfsInstanceClassLoader extends InstanceClassLoader {
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
+  private final VfsBundleClassLoader bundleClassLoader;
+  private final Map<CodeSource, ProtectionDomain> domains = new ConcurrentHashMap<>();
+
+  /**
+   * @param identifier the id of the component this ClassLoader was created for.
+   * @param type the class type of the component
+   * @param bundleClassLoader the bundle class loader to copy
+   */
+  public VfsInstanceClassLoader(final String identifier, final String type,
+      final VfsBundleClassLoader bundleClassLoader) {
+    super(identifier, type, new URL[0], bundleClassLoader.getParent());
+    this.bundleClassLoader = bundleClassLoader;
+  }
+
+  /**
+   * Returns the bundle class loader this ClassLoader is a copy of.
+   * @return the {@code VfsBundleClassLoader}
+   */
+  public VfsBundleClassLoader getBundleClassLoader() {
+    return bundleClassLoader;
+  }
+
+  @Override
+  protected Class<?> findInstanceClass(String name) throws ClassNotFoundException {
+    // imported packages are shared, they belong to another bundle
+    final VfsBundleClassLoader exporter = bundleClassLoader.findExporterOfClass(name);
+    if (exporter != null) {
+      return exporter.loadClass(name);
+    }
+    final VfsBundleClassBytes classBytes;
+    try {
+      classBytes = bundleClassLoader.getClassBytes(name);
+    } catch (IOException e) {
+      throw new ClassNotFoundException(name, e);
+    }
+    if (classBytes == null) {
+      throw new ClassNotFoundException(name);
+    }
+    try {
+      definePackageIfRequired(classBytes);
+    } catch (FileSystemException e) {
+      throw new ClassNotFoundException(name, e);
+    }
+    final byte[] bytes = classBytes.getBytes();
+    final Class<?> c = defineClass(name, bytes, 0, bytes.length,
+        getProtectionDomain(classBytes.getCodeSource()));
+    getMetrics().recordClassDefined(bytes.length);
+    return c;
+  }
+
+  private ProtectionDomain getProtectionDomain(final CodeSource cs) {
+    return domains.computeIfAbsent(cs,
+        codeSource -> new ProtectionDomain(codeSource, getPermissions(codeSource), this, null));
+  }
+
+  private void definePackageIfRequired(final VfsBundleClassBytes classBytes)
+      throws FileSystemException {
+    final String pkgName = classBytes.getPackageName();
+    if (pkgName == null || getPackage(pkgName) != null) {
+      return;
+    }
+    final URL sealBase = classBytes.isPackageSealed()
+        ? classBytes.getCodeSource().getLocation() : null;
+    try {
+      definePackage(pkgName, classBytes.getPackageAttribute(Name.SPECIFICATION_TITLE),
+          classBytes.getPackageAttribute(Name.SPECIFICATION_VERSION),
+          classBytes.getPackageAttribute(Name.SPECIFICATION_VENDOR),
+          classBytes.getPackageAttribute(Name.IMPLEMENTATION_TITLE),
+          classBytes.getPackageAttribute(Name.IMPLEMENTATION_VERSION),
+          classBytes.getPackageAttribute(Name.IMPLEMENTATION_VENDOR), sealBase);
+    } catch (IllegalArgumentException e) {
+      // defined concurrently by another class of the package
+    }
+  }
+
+  @Override
+  public URL findResource(String name) {
+    final URL url = bundleClassLoader.findResource(name);
+    getMetrics().recordResourceLookup(url != null);
+    return url;
+  }
+
+  @Override
+  public Enumeration<URL> findResources(String name) throws IOException {
+    return bundleClassLoader.findResources(name);
+  }
+
+  @Override
+  protected String findLibrary(String libname) {
+    return bundleClassLoader.findLibrary(libname);
+  }
+}
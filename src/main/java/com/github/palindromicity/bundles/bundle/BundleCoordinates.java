@@ -56,6 +56,44 @@ public class BundleCoordinates {
     this.coordinates = this.group + ":" + this.id + ":" + this.version;
   }
 
+  /**
+   * Parses coordinates in the {@code group:id:version} form returned by
+   * {@link #getCoordinates()}. The group and version may be omitted, as {@code group:id} or
+   * {@code id}, in which case the defaults are used, and the coordinates are matched against
+   * bundles with {@link #isSatisfiedBy(BundleCoordinates)}.
+   *
+   * @param coordinates the coordinates String
+   * @return {@code BundleCoordinates}
+   * @throws IllegalArgumentException if the String has more than three parts
+   */
+  public static BundleCoordinates fromCoordinates(final String coordinates) {
+    final String[] parts = coordinates.trim().split(":", -1);
+    switch (parts.length) {
+      case 1:
+        return new BundleCoordinates(null, parts[0], null);
+      case 2:
+        return new BundleCoordinates(parts[0], parts[1], null);
+      case 3:
+        return new BundleCoordinates(parts[0], parts[1], parts[2]);
+      default:
+        throw new IllegalArgumentException("Invalid coordinates: " + coordinates);
+    }
+  }
+
+  /**
+   * Returns true if a bundle with the given coordinates satisfies a dependency on these
+   * coordinates. The ids must be equal, while the default group and the default version, as
+   * used when they are omitted, match any group and any version.
+   *
+   * @param bundle the coordinates of the bundle
+   * @return true if the bundle satisfies these coordinates
+   */
+  public boolean isSatisfiedBy(final BundleCoordinates bundle) {
+    return id.equals(bundle.getId())
+        && (DEFAULT_GROUP.equals(group) || group.equals(bundle.getGroup()))
+        && (DEFAULT_VERSION.equals(version) || version.equals(bundle.getVersion()));
+  }
+
   private boolean isBlank(String str) {
     return str == null || str.trim().length() == 0;
   }
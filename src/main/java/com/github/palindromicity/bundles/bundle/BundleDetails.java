@@ -19,7 +19,9 @@ package com.github.palindromicity.bundles.bundle;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 
@@ -32,6 +34,8 @@ public class BundleDetails {
 
   private final BundleCoordinates coordinates;
   private final BundleCoordinates dependencyCoordinates;
+  private final List<BundleCoordinates> additionalDependencyCoordinates;
+  private final List<String> importedPackages;
 
   private final String buildTag;
   private final String buildRevision;
@@ -44,6 +48,8 @@ public class BundleDetails {
     this.bundleFile = builder.bundleFile;
     this.coordinates = builder.coordinates;
     this.dependencyCoordinates = builder.dependencyCoordinates;
+    this.additionalDependencyCoordinates = builder.additionalDependencyCoordinates;
+    this.importedPackages = builder.importedPackages;
 
     this.buildTag = builder.buildTag;
     this.buildRevision = builder.buildRevision;
@@ -79,6 +85,23 @@ public class BundleDetails {
     return dependencyCoordinates;
   }
 
+  /**
+   * Returns the dependencies declared in addition to the parent dependency. Their packages are
+   * imported, but they do not become parent class loaders.
+   * @return List of coordinates, empty if there are none
+   */
+  public List<BundleCoordinates> getAdditionalDependencyCoordinates() {
+    return additionalDependencyCoordinates;
+  }
+
+  /**
+   * Returns the packages this bundle imports from whichever bundle exports them.
+   * @return List of package names, empty if there are none
+   */
+  public List<String> getImportedPackages() {
+    return importedPackages;
+  }
+
   public String getBuildTag() {
     return buildTag;
   }
@@ -136,6 +159,8 @@ public class BundleDetails {
 
     private BundleCoordinates coordinates;
     private BundleCoordinates dependencyCoordinates;
+    private List<BundleCoordinates> additionalDependencyCoordinates = Collections.emptyList();
+    private List<String> importedPackages = Collections.emptyList();
 
     private String buildTag;
     private String buildRevision;
@@ -159,6 +184,18 @@ public class BundleDetails {
       return this;
     }
 
+    public Builder withAdditionalDependencyCoordinates(
+        final List<BundleCoordinates> additionalDependencyCoordinates) {
+      this.additionalDependencyCoordinates = Collections
+          .unmodifiableList(additionalDependencyCoordinates);
+      return this;
+    }
+
+    public Builder withImportedPackages(final List<String> importedPackages) {
+      this.importedPackages = Collections.unmodifiableList(importedPackages);
+      return this;
+    }
+
     public Builder withBuildTag(final String buildTag) {
       this.buildTag = buildTag;
       return this;
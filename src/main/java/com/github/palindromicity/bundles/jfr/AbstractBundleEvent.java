@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base class of the bundle Flight Recorder events. Every event carries the coordinates of the
+ * bundle and the subject of the event, the duration is recorded by Flight Recorder.
+ */
+@Category({"Bundles"})
+abstract class AbstractBundleEvent extends Event {
+
+  @Label("Bundle Coordinates")
+  String coordinates;
+
+  @Label("Subject")
+  String subject;
+
+  void setSize(long size) {
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.jfr;
+
+import java.lang.invoke.MethodHandles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry point for the Java Flight Recorder events of the bundle lifecycle.
+ *
+ * <p>This class references neither {@code jdk.jfr} nor the event classes, which are only created
+ * by {@link JfrEventScope}, and that is only loaded when Flight Recorder is present. So it is
+ * safe to use on runtimes without Flight Recorder, where every method returns
+ * {@link EventScope#NOOP}. When Flight Recorder is present but the event is not enabled, the cost
+ * is one event allocation and an enabled check.</p>
+ *
+ * <pre>
+ *   try (EventScope scope = BundleEvents.defineClass(coordinates, className)) {
+ *     ...
+ *     scope.setSize(bytes.length);
+ *   }
+ * </pre>
+ */
+public final class BundleEvents {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final boolean AVAILABLE = detect();
+
+  private BundleEvents() {
+  }
+
+  private static boolean detect() {
+    try {
+      Class.forName("jdk.jfr.Event", false, BundleEvents.class.getClassLoader());
+      return true;
+    } catch (Throwable t) {
+      LOG.debug("Flight Recorder is not available, bundle events are disabled");
+      return false;
+    }
+  }
+
+  /**
+   * @return true if Flight Recorder events can be emitted on this runtime
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * Begins a bundle discovery and manifest parse event.
+   *
+   * @param bundleFile the bundle file
+   * @return {@code EventScope}
+   */
+  public static EventScope bundleParse(String bundleFile) {
+    return AVAILABLE ? JfrEventScope.bundleParse(bundleFile)
+        : EventScope.NOOP;
+  }
+
+  /**
+   * Begins a bundle class loader creation event.
+   *
+   * @param coordinates the bundle coordinates
+   * @param bundleFile the bundle file
+   * @return {@code EventScope}
+   */
+  public static EventScope classLoaderCreate(String coordinates, String bundleFile) {
+    return AVAILABLE ? JfrEventScope.classLoaderCreate(coordinates, bundleFile)
+        : EventScope.NOOP;
+  }
+
+  /**
+   * Begins a nested jar file system open event.
+   *
+   * @param coordinates the bundle coordinates
+   * @param jar the jar within the bundle
+   * @return {@code EventScope}
+   */
+  public static EventScope jarOpen(String coordinates, String jar) {
+    return AVAILABLE ? JfrEventScope.jarOpen(coordinates, jar)
+        : EventScope.NOOP;
+  }
+
+  /**
+   * Begins a class definition event.
+   *
+   * @param coordinates the bundle coordinates
+   * @param className the class being defined
+   * @return {@code EventScope}
+   */
+  public static EventScope defineClass(String coordinates, String className) {
+    return AVAILABLE ? JfrEventScope.defineClass(coordinates, className)
+        : EventScope.NOOP;
+  }
+
+  /**
+   * Begins a ClassIndex extension scan event.
+   *
+   * @param coordinates the bundle coordinates
+   * @param extensionType the extension type being scanned for
+   * @return {@code EventScope}
+   */
+  public static EventScope extensionScan(String coordinates, String extensionType) {
+    return AVAILABLE ? JfrEventScope.extensionScan(coordinates, extensionType)
+        : EventScope.NOOP;
+  }
+
+  /**
+   * Begins an extension instance creation event.
+   *
+   * @param className the extension class
+   * @return {@code EventScope}
+   */
+  public static EventScope createInstance(String className) {
+    return AVAILABLE ? JfrEventScope.createInstance(className)
+        : EventScope.NOOP;
+  }
+
+  /**
+   * Begins an add bundle event, covering the merge into the running system.
+   *
+   * @param bundleFile the bundle file name
+   * @return {@code EventScope}
+   */
+  public static EventScope addBundle(String bundleFile) {
+    return AVAILABLE ? JfrEventScope.addBundle(bundleFile)
+        : EventScope.NOOP;
+  }
+}
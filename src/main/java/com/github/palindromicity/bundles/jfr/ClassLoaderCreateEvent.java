@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted when a {@code VfsBundleClassLoader} is built for a bundle.
+ */
+@Name("com.github.palindromicity.bundles.ClassLoaderCreate")
+@Label("Bundle Class Loader Create")
+@Description("Creation of a bundle class loader, the subject is the bundle file")
+final class ClassLoaderCreateEvent extends AbstractBundleEvent {
+}
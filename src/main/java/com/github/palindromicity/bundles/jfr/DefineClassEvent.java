@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emitted for every class defined by a {@code VfsBundleClassLoader}.
+ */
+@Name("com.github.palindromicity.bundles.DefineClass")
+@Label("Bundle Define Class")
+@Description("Definition of a class by a bundle class loader, the subject is the class")
+@StackTrace(false)
+final class DefineClassEvent extends AbstractBundleEvent {
+
+  @Label("Class Size")
+  @DataAmount
+  long bytes;
+
+  @Override
+  void setSize(long size) {
+    this.bytes = size;
+  }
+}
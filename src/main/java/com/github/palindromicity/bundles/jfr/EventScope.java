@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.jfr;
+
+/**
+ * A timed bundle event that is in progress. Closing the scope ends and commits the event.
+ *
+ * <p>Scopes are obtained from {@link BundleEvents}. When Flight Recorder is not available, or the
+ * event is not enabled in the running recording, the shared {@link #NOOP} scope is returned.</p>
+ */
+public interface EventScope extends AutoCloseable {
+
+  /**
+   * A scope that records nothing.
+   */
+  EventScope NOOP = new EventScope() {
+    @Override
+    public void setCoordinates(String coordinates) {
+    }
+
+    @Override
+    public void setSize(long size) {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  /**
+   * Sets the coordinates of the bundle the event is about, when they are not known up front.
+   *
+   * @param coordinates the bundle coordinates
+   */
+  void setCoordinates(String coordinates);
+
+  /**
+   * Sets the size the event measures, for example the bytes of a defined class or the number of
+   * extensions found by a scan. Events without a size ignore it.
+   *
+   * @param size the size
+   */
+  void setSize(long size);
+
+  /**
+   * Ends and commits the event.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.jfr;
+
+/**
+ * {@link EventScope} backed by a Flight Recorder event. Only loaded when Flight Recorder is
+ * available, and the only class that creates the events, so that {@link BundleEvents} does not
+ * link against {@code jdk.jfr}.
+ */
+final class JfrEventScope implements EventScope {
+
+  private final AbstractBundleEvent event;
+
+  private JfrEventScope(AbstractBundleEvent event) {
+    this.event = event;
+  }
+
+  static EventScope bundleParse(String bundleFile) {
+    return begin(new BundleParseEvent(), null, bundleFile);
+  }
+
+  static EventScope classLoaderCreate(String coordinates, String bundleFile) {
+    return begin(new ClassLoaderCreateEvent(), coordinates, bundleFile);
+  }
+
+  static EventScope jarOpen(String coordinates, String jar) {
+    return begin(new JarOpenEvent(), coordinates, jar);
+  }
+
+  static EventScope defineClass(String coordinates, String className) {
+    return begin(new DefineClassEvent(), coordinates, className);
+  }
+
+  static EventScope extensionScan(String coordinates, String extensionType) {
+    return begin(new ExtensionScanEvent(), coordinates, extensionType);
+  }
+
+  static EventScope createInstance(String className) {
+    return begin(new CreateInstanceEvent(), null, className);
+  }
+
+  static EventScope addBundle(String bundleFile) {
+    return begin(new AddBundleEvent(), null, bundleFile);
+  }
+
+  private static EventScope begin(AbstractBundleEvent event, String coordinates, String subject) {
+    if (!event.isEnabled()) {
+      return EventScope.NOOP;
+    }
+    event.coordinates = coordinates;
+    event.subject = subject;
+    event.begin();
+    return new JfrEventScope(event);
+  }
+
+  @Override
+  public void setCoordinates(String coordinates) {
+    event.coordinates = coordinates;
+  }
+
+  @Override
+  public void setSize(long size) {
+    event.setSize(size);
+  }
+
+  @Override
+  public void close() {
+    event.commit();
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.Comparator;
+
+/**
+ * An immutable snapshot of the memory and disk a single bundle costs, published through the
+ * {@link BundleSystemMXBean}.
+ *
+ * <p>The memory cost adds the bytecode of the classes the bundle defined, the metaspace growth
+ * measured while its ClassLoader was created, and the bytes of its cached resources. Replicated
+ * bytes are the local copies of nested jars, on disk rather than in memory, so they are reported
+ * separately.</p>
+ */
+public class BundleFootprint {
+
+  /**
+   * Orders footprints by memory cost, largest first.
+   */
+  public static final Comparator<BundleFootprint> BY_MEMORY_COST = Comparator
+      .comparingLong(BundleFootprint::getMemoryCost).reversed();
+
+  /**
+   * Orders footprints by bytecode size, largest first.
+   */
+  public static final Comparator<BundleFootprint> BY_CLASS_BYTES = Comparator
+      .comparingLong(BundleFootprint::getClassBytes).reversed();
+
+  /**
+   * Orders footprints by replicated bytes, largest first.
+   */
+  public static final Comparator<BundleFootprint> BY_REPLICATED_BYTES = Comparator
+      .comparingLong(BundleFootprint::getReplicatedBytes).reversed();
+
+  /**
+   * Builder class for BundleFootprint.
+   */
+  public static class Builder {
+
+    private String bundleCoordinates;
+    private long classesDefined;
+    private long classBytes;
+    private int openFileSystems;
+    private long replicatedBytes;
+    private int cachedResources;
+    private long cachedResourceBytes;
+    private long creationMetaspaceBytes = -1;
+
+    public Builder withBundleCoordinates(String bundleCoordinates) {
+      this.bundleCoordinates = bundleCoordinates;
+      return this;
+    }
+
+    /**
+     * Provides the classes defined and their bytecode size from the ClassLoader metrics.
+     *
+     * @param metrics the metrics of the bundle ClassLoader
+     * @return {@code Builder}
+     */
+    public Builder withClassLoaderMetrics(ClassLoaderMetrics metrics) {
+      this.classesDefined = metrics.getClassesDefined();
+      this.classBytes = metrics.getBytesDefined();
+      this.creationMetaspaceBytes = metrics.getCreationMetaspaceBytes();
+      return this;
+    }
+
+    public Builder withOpenFileSystems(int openFileSystems) {
+      this.openFileSystems = openFileSystems;
+      return this;
+    }
+
+    public Builder withReplicatedBytes(long replicatedBytes) {
+      this.replicatedBytes = replicatedBytes;
+      return this;
+    }
+
+    public Builder withCachedResources(int cachedResources, long cachedResourceBytes) {
+      this.cachedResources = cachedResources;
+      this.cachedResourceBytes = cachedResourceBytes;
+      return this;
+    }
+
+    public BundleFootprint build() {
+      return new BundleFootprint(this);
+    }
+  }
+
+  private final String bundleCoordinates;
+  private final long classesDefined;
+  private final long classBytes;
+  private final int openFileSystems;
+  private final long replicatedBytes;
+  private final int cachedResources;
+  private final long cachedResourceBytes;
+  private final long creationMetaspaceBytes;
+
+  private BundleFootprint(Builder builder) {
+    this.bundleCoordinates = builder.bundleCoordinates;
+    this.classesDefined = builder.classesDefined;
+    this.classBytes = builder.classBytes;
+    this.openFileSystems = builder.openFileSystems;
+    this.replicatedBytes = builder.replicatedBytes;
+    this.cachedResources = builder.cachedResources;
+    this.cachedResourceBytes = builder.cachedResourceBytes;
+    this.creationMetaspaceBytes = builder.creationMetaspaceBytes;
+  }
+
+  public String getBundleCoordinates() {
+    return bundleCoordinates;
+  }
+
+  public long getClassesDefined() {
+    return classesDefined;
+  }
+
+  public long getClassBytes() {
+    return classBytes;
+  }
+
+  /**
+   * @return the VFS file systems the ClassLoader holds open, those mounted and not released
+   */
+  public int getOpenFileSystems() {
+    return openFileSystems;
+  }
+
+  public long getReplicatedBytes() {
+    return replicatedBytes;
+  }
+
+  public int getCachedResources() {
+    return cachedResources;
+  }
+
+  public long getCachedResourceBytes() {
+    return cachedResourceBytes;
+  }
+
+  /**
+   * @return the metaspace growth while the ClassLoader was created, or -1 if unknown
+   */
+  public long getCreationMetaspaceBytes() {
+    return creationMetaspaceBytes;
+  }
+
+  /**
+   * @return the estimated memory cost of the bundle in bytes
+   */
+  public long getMemoryCost() {
+    return classBytes + Math.max(0, creationMetaspaceBytes) + cachedResourceBytes;
+  }
+
+  @Override
+  public String toString() {
+    return bundleCoordinates + " memory=" + getMemoryCost() + " classes=" + classesDefined
+        + " classBytes=" + classBytes + " metaspace=" + creationMetaspaceBytes
+        + " fileSystems=" + openFileSystems + " replicated=" + replicatedBytes
+        + " cached=" + cachedResources + "/" + cachedResourceBytes;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of the bundle system, published as
+ * {@code com.github.palindromicity.bundles:type=BundleSystem}.
+ *
+ * <p>Class loader statistics are keyed by bundle coordinates, so a slow warm up can be traced
+ * back to the bundle responsible for it.</p>
+ */
+public interface BundleSystemMXBean {
+
+  /**
+   * @return the number of loaded bundles, not including the system bundle
+   */
+  int getBundleCount();
+
+  /**
+   * @return statistics for each bundle ClassLoader
+   */
+  List<ClassLoaderStats> getBundleClassLoaderStats();
+
+  /**
+   * @return the footprint of each bundle, largest memory cost first
+   */
+  List<BundleFootprint> getBundleFootprints();
+
+  /**
+   * @return statistics for each live instance ClassLoader
+   */
+  List<ClassLoaderStats> getInstanceClassLoaderStats();
+
+  /**
+   * @return the number of known extensions per extension type
+   */
+  Map<String, Integer> getExtensionCounts();
+
+  long getCreateInstanceCount();
+
+  long getCreateInstanceFailures();
+
+  double getCreateInstanceRatePerSecond();
+
+  long getCreateInstanceMeanMicros();
+
+  long getCreateInstanceP99Micros();
+
+  long getCreateInstanceMaxMicros();
+
+  /**
+   * @return the number of live instance ClassLoaders
+   */
+  int getInstanceClassLoaderCount();
+
+  /**
+   * @return the number of instance ClassLoaders evicted by the eviction policy
+   */
+  long getInstanceClassLoaderEvictions();
+
+  /**
+   * @return resource byte cache hits, 0 if the cache is disabled
+   */
+  long getResourceCacheHits();
+
+  /**
+   * @return resources read from a bundle because they were not cached, lookups served by a parent
+   *     are not misses, 0 if the cache is disabled
+   */
+  long getResourceCacheMisses();
+
+  long getResourceCacheEvictions();
+
+  long getResourceCacheBytes();
+
+  double getResourceCacheHitRate();
+
+  /**
+   * @return the number of files held by the VFS files cache, 0 unless a bounded cache is
+   *     configured
+   */
+  int getFilesCacheSize();
+
+  long getFilesCacheHits();
+
+  long getFilesCacheMisses();
+
+  long getFilesCacheEvictions();
+
+  /**
+   * @return the number of times the {@code tinylfu} files cache kept its least recently used
+   *     file because a more recently used file was used less often
+   */
+  long getFilesCacheRejections();
+
+  /**
+   * @return the number of dependency jars holding an open file handle, 0 unless the open jars
+   *     are limited
+   */
+  int getJarHandlesOpen();
+
+  long getJarHandleReopens();
+
+  long getJarHandleCloses();
+
+  /**
+   * @return the fraction of dependency jar opens that reopened a released jar
+   */
+  double getJarHandleReopenRate();
+
+  /**
+   * @return the number of dependency jars hosted once for all bundles, 0 if sharing is disabled
+   */
+  int getSharedJarCount();
+
+  /**
+   * @return the class bytes not defined again because jars are shared
+   */
+  long getSharedJarSavedBytes();
+
+  /**
+   * @return the class bytes each bundle did not define itself, by bundle coordinates
+   */
+  Map<String, Long> getSharedJarSavedBytesByBundle();
+}
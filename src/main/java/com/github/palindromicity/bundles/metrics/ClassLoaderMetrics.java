@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class loading counters for a single bundle or instance ClassLoader.
+ *
+ * <p>All counters are striped, so recording does not contend between threads loading classes
+ * through the same ClassLoader.</p>
+ */
+public class ClassLoaderMetrics {
+
+  private final LongAdder classesDefined = new LongAdder();
+  private final LongAdder bytesDefined = new LongAdder();
+  private final LongAdder unsizedClassesDefined = new LongAdder();
+  private final LongAdder findClassMisses = new LongAdder();
+  private final LongAdder resourceLookups = new LongAdder();
+  private final LongAdder resourceMisses = new LongAdder();
+  private final LongAdder parentDelegationMisses = new LongAdder();
+  private final LatencyHistogram findClassTime = new LatencyHistogram();
+  private final LatencyHistogram lockWait = new LatencyHistogram();
+  private volatile long creationMetaspaceBytes = -1;
+
+  /**
+   * Records a class defined by the ClassLoader.
+   *
+   * @param bytes the size of the class bytes
+   */
+  public void recordClassDefined(long bytes) {
+    classesDefined.increment();
+    bytesDefined.add(bytes);
+  }
+
+  /**
+   * Records a class defined by the ClassLoader whose size is not known, such as a class the
+   * {@code URLClassLoader} defined. It is counted in the classes defined, and in the unsized
+   * classes defined, which the bytes defined do not include.
+   */
+  public void recordUnsizedClassDefined() {
+    classesDefined.increment();
+    unsizedClassesDefined.increment();
+  }
+
+  /**
+   * Records a call to findClass.
+   *
+   * @param nanos the time spent
+   * @param found true if the class was found
+   */
+  public void recordFindClass(long nanos, boolean found) {
+    findClassTime.record(nanos);
+    if (!found) {
+      findClassMisses.increment();
+    }
+  }
+
+  /**
+   * Records a resource lookup against the ClassLoader's own resources.
+   *
+   * @param found true if the resource was found
+   */
+  public void recordResourceLookup(boolean found) {
+    resourceLookups.increment();
+    if (!found) {
+      resourceMisses.increment();
+    }
+  }
+
+  /**
+   * Records a class that the parent ClassLoader could not provide.
+   */
+  public void recordParentDelegationMiss() {
+    parentDelegationMisses.increment();
+  }
+
+  /**
+   * Records the time spent waiting for the class loading lock.
+   *
+   * @param nanos the time spent
+   */
+  public void recordLockWait(long nanos) {
+    lockWait.record(nanos);
+  }
+
+  /**
+   * Records the growth of the metaspace while the ClassLoader was created.
+   *
+   * @param bytes the metaspace growth, or -1 if the JVM does not report it
+   */
+  public void recordCreationMetaspace(long bytes) {
+    creationMetaspaceBytes = bytes;
+  }
+
+  /**
+   * @return the metaspace growth while the ClassLoader was created, or -1 if unknown
+   */
+  public long getCreationMetaspaceBytes() {
+    return creationMetaspaceBytes;
+  }
+
+  public long getClassesDefined() {
+    return classesDefined.sum();
+  }
+
+  public long getBytesDefined() {
+    return bytesDefined.sum();
+  }
+
+  /**
+   * @return the classes defined whose size is not known, and not included in the bytes defined
+   */
+  public long getUnsizedClassesDefined() {
+    return unsizedClassesDefined.sum();
+  }
+
+  public long getFindClassMisses() {
+    return findClassMisses.sum();
+  }
+
+  public long getResourceLookups() {
+    return resourceLookups.sum();
+  }
+
+  public long getResourceMisses() {
+    return resourceMisses.sum();
+  }
+
+  public long getParentDelegationMisses() {
+    return parentDelegationMisses.sum();
+  }
+
+  public LatencyHistogram getFindClassTime() {
+    return findClassTime;
+  }
+
+  public LatencyHistogram getLockWait() {
+    return lockWait;
+  }
+
+  /**
+   * Creates an immutable snapshot of the current values.
+   *
+   * @param bundleCoordinates the coordinates of the bundle the ClassLoader belongs to
+   * @param name the name of the ClassLoader, for example an instance identifier
+   * @return {@code ClassLoaderStats}
+   */
+  public ClassLoaderStats snapshot(String bundleCoordinates, String name) {
+    return new ClassLoaderStats(bundleCoordinates, name, this);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of {@link ClassLoaderMetrics}, published through the
+ * {@link BundleSystemMXBean}.
+ */
+public class ClassLoaderStats {
+
+  private final String bundleCoordinates;
+  private final String name;
+  private final long classesDefined;
+  private final long bytesDefined;
+  private final long unsizedClassesDefined;
+  private final long findClassCount;
+  private final long findClassMisses;
+  private final long findClassMeanMicros;
+  private final long findClassP99Micros;
+  private final long findClassMaxMicros;
+  private final long resourceLookups;
+  private final long resourceMisses;
+  private final long parentDelegationMisses;
+  private final long lockWaitTotalMicros;
+  private final long lockWaitP99Micros;
+  private final long lockWaitMaxMicros;
+
+  ClassLoaderStats(String bundleCoordinates, String name, ClassLoaderMetrics metrics) {
+    this.bundleCoordinates = bundleCoordinates;
+    this.name = name;
+    this.classesDefined = metrics.getClassesDefined();
+    this.bytesDefined = metrics.getBytesDefined();
+    this.unsizedClassesDefined = metrics.getUnsizedClassesDefined();
+    this.findClassCount = metrics.getFindClassTime().getCount();
+    this.findClassMisses = metrics.getFindClassMisses();
+    this.findClassMeanMicros = micros(metrics.getFindClassTime().getMeanNanos());
+    this.findClassP99Micros = micros(metrics.getFindClassTime().getPercentileNanos(0.99));
+    this.findClassMaxMicros = micros(metrics.getFindClassTime().getMaxNanos());
+    this.resourceLookups = metrics.getResourceLookups();
+    this.resourceMisses = metrics.getResourceMisses();
+    this.parentDelegationMisses = metrics.getParentDelegationMisses();
+    this.lockWaitTotalMicros = micros(metrics.getLockWait().getTotalNanos());
+    this.lockWaitP99Micros = micros(metrics.getLockWait().getPercentileNanos(0.99));
+    this.lockWaitMaxMicros = micros(metrics.getLockWait().getMaxNanos());
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  public String getBundleCoordinates() {
+    return bundleCoordinates;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getClassesDefined() {
+    return classesDefined;
+  }
+
+  public long getBytesDefined() {
+    return bytesDefined;
+  }
+
+  public long getUnsizedClassesDefined() {
+    return unsizedClassesDefined;
+  }
+
+  public long getFindClassCount() {
+    return findClassCount;
+  }
+
+  public long getFindClassMisses() {
+    return findClassMisses;
+  }
+
+  public long getFindClassMeanMicros() {
+    return findClassMeanMicros;
+  }
+
+  public long getFindClassP99Micros() {
+    return findClassP99Micros;
+  }
+
+  public long getFindClassMaxMicros() {
+    return findClassMaxMicros;
+  }
+
+  public long getResourceLookups() {
+    return resourceLookups;
+  }
+
+  public long getResourceMisses() {
+    return resourceMisses;
+  }
+
+  public long getParentDelegationMisses() {
+    return parentDelegationMisses;
+  }
+
+  public long getLockWaitTotalMicros() {
+    return lockWaitTotalMicros;
+  }
+
+  public long getLockWaitP99Micros() {
+    return lockWaitP99Micros;
+  }
+
+  public long getLockWaitMaxMicros() {
+    return lockWaitMaxMicros;
+  }
+
+  @Override
+  public String toString() {
+    return bundleCoordinates + (name == null ? "" : "/" + name) + " classes=" + classesDefined
+        + " bytes=" + bytesDefined + " unsized=" + unsizedClassesDefined + " findClass=" + findClassCount + " misses="
+        + findClassMisses + " parentMisses=" + parentDelegationMisses + " resources="
+        + resourceLookups;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry level counters for the {@code ExtensionManager}, covering instance creation.
+ */
+public class ExtensionManagerMetrics {
+
+  private final long startNanos = System.nanoTime();
+  private final LongAdder createInstanceFailures = new LongAdder();
+  private final LatencyHistogram createInstanceTime = new LatencyHistogram();
+
+  /**
+   * Records a call to create an extension instance.
+   *
+   * @param nanos the time spent
+   * @param succeeded true if the instance was created
+   */
+  public void recordCreateInstance(long nanos, boolean succeeded) {
+    createInstanceTime.record(nanos);
+    if (!succeeded) {
+      createInstanceFailures.increment();
+    }
+  }
+
+  public long getCreateInstanceCount() {
+    return createInstanceTime.getCount();
+  }
+
+  public long getCreateInstanceFailures() {
+    return createInstanceFailures.sum();
+  }
+
+  public LatencyHistogram getCreateInstanceTime() {
+    return createInstanceTime;
+  }
+
+  /**
+   * Returns the mean rate of instance creation since these metrics were created.
+   *
+   * @return instances created per second
+   */
+  public double getCreateInstanceRate() {
+    final long elapsed = System.nanoTime() - startNanos;
+    if (elapsed <= 0) {
+      return 0.0;
+    }
+    return getCreateInstanceCount() / ((double) elapsed / TimeUnit.SECONDS.toNanos(1));
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cheap, lock free latency histogram with power of two nanosecond buckets.
+ *
+ * <p>Recording is a handful of striped {@link LongAdder} increments, so it is safe to call on
+ * class loading hot paths from many threads. Percentiles are approximate, they report the upper
+ * bound of the bucket the percentile falls in, capped at the maximum recorded value.</p>
+ */
+public class LatencyHistogram {
+
+  /**
+   * Buckets cover 1ns to 2^40ns (about 18 minutes), larger values land in the last bucket.
+   */
+  private static final int BUCKETS = 41;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos the duration in nanoseconds, negative values are recorded as zero
+   */
+  public void record(long nanos) {
+    final long value = nanos < 0 ? 0 : nanos;
+    buckets[bucketFor(value)].increment();
+    count.increment();
+    totalNanos.add(value);
+    maxNanos.accumulate(value);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Returns the mean duration.
+   *
+   * @return the mean in nanoseconds, or 0 if nothing was recorded
+   */
+  public long getMeanNanos() {
+    final long n = count.sum();
+    return n == 0 ? 0 : totalNanos.sum() / n;
+  }
+
+  /**
+   * Returns the approximate duration at the given percentile.
+   *
+   * @param percentile between 0.0 and 1.0
+   * @return the duration in nanoseconds, or 0 if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    final long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = buckets[i].sum();
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    final long target = Math.max(1, (long) Math.ceil(total * percentile));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= target) {
+        return Math.min(upperBound(i), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  private static int bucketFor(long nanos) {
+    final int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+    return bucket < BUCKETS ? bucket : BUCKETS - 1;
+  }
+
+  private static long upperBound(int bucket) {
+    return bucket == 0 ? 0 : (1L << bucket) - 1;
+  }
+}
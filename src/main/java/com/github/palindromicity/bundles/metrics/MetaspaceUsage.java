@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Reads the used size of the JVM's class metadata memory pool.
+ *
+ * <p>HotSpot reports class metadata in the {@code Metaspace} non heap pool. Other JVMs may not
+ * have such a pool, in which case the usage is reported as -1. The pool is shared by all
+ * threads, so deltas taken around an operation are estimates that include anything loaded
+ * concurrently.</p>
+ */
+public final class MetaspaceUsage {
+
+  private static final String METASPACE_POOL = "Metaspace";
+  private static final MemoryPoolMXBean POOL = findPool();
+
+  private MetaspaceUsage() {
+  }
+
+  private static MemoryPoolMXBean findPool() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.NON_HEAP && METASPACE_POOL.equals(pool.getName())
+          && pool.isValid()) {
+        return pool;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return true if the JVM reports class metadata usage
+   */
+  public static boolean isSupported() {
+    return POOL != null;
+  }
+
+  /**
+   * @return the used class metadata bytes, or -1 if the JVM does not report them
+   */
+  public static long used() {
+    return POOL == null ? -1 : POOL.getUsage().getUsed();
+  }
+
+  /**
+   * Returns the growth since an earlier reading.
+   *
+   * @param before the earlier result of {@link #used()}
+   * @return the growth in bytes, never negative, or -1 if the JVM does not report usage
+   */
+  public static long since(long before) {
+    if (before < 0) {
+      return -1;
+    }
+    final long after = used();
+    return after < 0 ? -1 : Math.max(0, after - before);
+  }
+}
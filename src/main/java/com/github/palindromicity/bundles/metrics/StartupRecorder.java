@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects timings while a bundle system starts, and produces the {@link StartupReport}.
+ *
+ * <p>A recorder is handed to the contexts that load bundles and extensions. All methods are
+ * synchronized, startup is single threaded and records a handful of values per bundle.</p>
+ */
+public class StartupRecorder {
+
+  private final long startNanos = System.nanoTime();
+  private final Map<String, Long> phases = new LinkedHashMap<>();
+  private final Map<String, StartupReport.BundleTiming> bundles = new LinkedHashMap<>();
+  private final Map<String, StartupReport.SchemeStats> schemes = new LinkedHashMap<>();
+
+  /**
+   * Records the wall time of a startup phase. Recording a phase twice adds the times.
+   *
+   * @param phase the phase name
+   * @param nanos the time spent
+   */
+  public synchronized void recordPhase(String phase, long nanos) {
+    phases.merge(phase, nanos, Long::sum);
+  }
+
+  /**
+   * Records the discovery and manifest parse of a bundle file.
+   *
+   * @param coordinates the bundle coordinates
+   * @param bundleFile the bundle file URI
+   * @param nanos the time spent
+   */
+  public synchronized void recordBundleParse(String coordinates, String bundleFile, long nanos) {
+    bundle(coordinates).bundleFile = bundleFile;
+    bundle(coordinates).parseNanos += nanos;
+  }
+
+  /**
+   * Records the creation of the class loader of a bundle.
+   *
+   * @param coordinates the bundle coordinates
+   * @param nanos the time spent
+   */
+  public synchronized void recordClassLoaderCreate(String coordinates, long nanos) {
+    bundle(coordinates).classLoaderNanos += nanos;
+  }
+
+  /**
+   * Records the extension scan of a bundle.
+   *
+   * @param coordinates the bundle coordinates
+   * @param nanos the time spent
+   */
+  public synchronized void recordExtensionScan(String coordinates, long nanos) {
+    bundle(coordinates).extensionScanNanos += nanos;
+  }
+
+  /**
+   * Records a file read during startup.
+   *
+   * @param scheme the file system scheme, for example {@code file} or {@code hdfs}
+   * @param bytes the size of the file
+   */
+  public synchronized void recordFile(String scheme, long bytes) {
+    final StartupReport.SchemeStats stats = schemes
+        .computeIfAbsent(scheme, StartupReport.SchemeStats::new);
+    stats.files++;
+    stats.bytes += bytes;
+  }
+
+  /**
+   * Creates the report of everything recorded so far.
+   *
+   * @return {@code StartupReport}
+   */
+  public synchronized StartupReport toReport() {
+    return new StartupReport(System.nanoTime() - startNanos, phases, bundles.values(),
+        schemes.values());
+  }
+
+  private StartupReport.BundleTiming bundle(String coordinates) {
+    return bundles.computeIfAbsent(coordinates, StartupReport.BundleTiming::new);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A machine readable report of how a bundle system spent its startup time.
+ *
+ * <p>The report covers the wall time of each startup phase, the time spent on each bundle, and
+ * the number and size of the files read from each file system scheme. {@link #asMap()} provides
+ * the whole report as nested maps and lists, ready to be serialized for tracking startup across
+ * releases.</p>
+ */
+public class StartupReport {
+
+  /**
+   * Startup time spent on a single bundle.
+   */
+  public static class BundleTiming {
+
+    private final String coordinates;
+    String bundleFile;
+    long parseNanos;
+    long classLoaderNanos;
+    long extensionScanNanos;
+
+    BundleTiming(String coordinates) {
+      this.coordinates = coordinates;
+    }
+
+    private BundleTiming(BundleTiming other) {
+      this.coordinates = other.coordinates;
+      this.bundleFile = other.bundleFile;
+      this.parseNanos = other.parseNanos;
+      this.classLoaderNanos = other.classLoaderNanos;
+      this.extensionScanNanos = other.extensionScanNanos;
+    }
+
+    public String getCoordinates() {
+      return coordinates;
+    }
+
+    public String getBundleFile() {
+      return bundleFile;
+    }
+
+    public long getParseNanos() {
+      return parseNanos;
+    }
+
+    public long getClassLoaderNanos() {
+      return classLoaderNanos;
+    }
+
+    public long getExtensionScanNanos() {
+      return extensionScanNanos;
+    }
+
+    public long getTotalNanos() {
+      return parseNanos + classLoaderNanos + extensionScanNanos;
+    }
+
+    Map<String, Object> asMap() {
+      final Map<String, Object> map = new LinkedHashMap<>();
+      map.put("coordinates", coordinates);
+      map.put("bundleFile", bundleFile);
+      map.put("parseMillis", millis(parseNanos));
+      map.put("classLoaderMillis", millis(classLoaderNanos));
+      map.put("extensionScanMillis", millis(extensionScanNanos));
+      map.put("totalMillis", millis(getTotalNanos()));
+      return map;
+    }
+  }
+
+  /**
+   * Files read from a single file system scheme.
+   */
+  public static class SchemeStats {
+
+    private final String scheme;
+    long files;
+    long bytes;
+
+    SchemeStats(String scheme) {
+      this.scheme = scheme;
+    }
+
+    private SchemeStats(SchemeStats other) {
+      this.scheme = other.scheme;
+      this.files = other.files;
+      this.bytes = other.bytes;
+    }
+
+    public String getScheme() {
+      return scheme;
+    }
+
+    public long getFiles() {
+      return files;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+  }
+
+  private final long totalNanos;
+  private final Map<String, Long> phaseNanos;
+  private final List<BundleTiming> bundles;
+  private final Map<String, SchemeStats> schemes;
+
+  StartupReport(long totalNanos, Map<String, Long> phaseNanos, Collection<BundleTiming> bundles,
+      Collection<SchemeStats> schemes) {
+    this.totalNanos = totalNanos;
+    this.phaseNanos = Collections.unmodifiableMap(new LinkedHashMap<>(phaseNanos));
+    this.bundles = Collections.unmodifiableList(
+        bundles.stream().map(BundleTiming::new).collect(Collectors.toList()));
+    final Map<String, SchemeStats> schemeMap = new LinkedHashMap<>();
+    schemes.forEach((s) -> schemeMap.put(s.getScheme(), new SchemeStats(s)));
+    this.schemes = Collections.unmodifiableMap(schemeMap);
+  }
+
+  /**
+   * @return the wall time from the start of the build to the creation of this report
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * @return the wall time of each phase, in the order the phases ran
+   */
+  public Map<String, Long> getPhaseNanos() {
+    return phaseNanos;
+  }
+
+  /**
+   * @return the time spent on each bundle, in load order
+   */
+  public List<BundleTiming> getBundles() {
+    return bundles;
+  }
+
+  /**
+   * @return the files read by file system scheme
+   */
+  public Map<String, SchemeStats> getSchemes() {
+    return schemes;
+  }
+
+  /**
+   * Returns the bundles that took the longest to load.
+   *
+   * @param count the maximum number of bundles to return
+   * @return the slowest bundles, slowest first
+   */
+  public List<BundleTiming> getSlowestBundles(int count) {
+    final List<BundleTiming> sorted = new ArrayList<>(bundles);
+    sorted.sort(Comparator.comparingLong(BundleTiming::getTotalNanos).reversed());
+    return sorted.subList(0, Math.min(count, sorted.size()));
+  }
+
+  /**
+   * Returns the report as nested maps and lists of strings and numbers. Times are in
+   * milliseconds.
+   *
+   * @return the report as a {@code Map}
+   */
+  public Map<String, Object> asMap() {
+    final Map<String, Object> map = new LinkedHashMap<>();
+    map.put("totalMillis", millis(totalNanos));
+    final Map<String, Object> phases = new LinkedHashMap<>();
+    phaseNanos.forEach((k, v) -> phases.put(k, millis(v)));
+    map.put("phases", phases);
+    map.put("bundles", bundles.stream().map(BundleTiming::asMap).collect(Collectors.toList()));
+    final Map<String, Object> schemeMap = new LinkedHashMap<>();
+    schemes.forEach((k, v) -> {
+      final Map<String, Object> stats = new LinkedHashMap<>();
+      stats.put("files", v.getFiles());
+      stats.put("bytes", v.getBytes());
+      schemeMap.put(k, stats);
+    });
+    map.put("schemes", schemeMap);
+    map.put("slowestBundles", getSlowestBundles(5).stream().map(BundleTiming::getCoordinates)
+        .collect(Collectors.toList()));
+    return map;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("Bundle system started in ").append(millis(totalNanos)).append(" ms (")
+        .append(bundles.size()).append(" bundles)");
+    phaseNanos.forEach((k, v) -> builder.append(' ').append(k).append('=')
+        .append(millis(v)).append("ms"));
+    return builder.toString();
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.cache.AbstractFilesCache;
+
+/**
+ * A VFS {@code FilesCache} that holds a fixed number of {@link FileObject}s, regardless of garbage
+ * collector pressure.
+ *
+ * <p>Every file put is cached, as VFS expects to get the same instance back, and a full cache
+ * evicts another file to make room for it. Files that are attached or have open content are in
+ * use and are never evicted, as with VFS's {@code LRUFilesCache}, so the cache grows past its size
+ * while all of its files are in use.</p>
+ *
+ * <p>Files are evicted least recently used first. With the {@link Policy#TINY_LFU} policy the
+ * least frequently used of the {@value #CANDIDATES} least recently used files is evicted instead,
+ * as estimated by a small count-min sketch that is halved periodically so old popularity fades.
+ * That keeps files resolved once, for example while scanning a bundle, from flushing the files
+ * resolved over and over.</p>
+ */
+public class BoundedFilesCache extends AbstractFilesCache {
+
+  /**
+   * The eviction and admission policy of the cache.
+   */
+  public enum Policy {
+    /**
+     * Admits every file and evicts the least recently used.
+     */
+    LRU,
+    /**
+     * Evicts the least frequently used of the least recently used files.
+     */
+    TINY_LFU
+  }
+
+  private static final int CANDIDATES = 4;
+
+  private final int maxSize;
+  private final Policy policy;
+  private final LinkedHashMap<Key, FileObject> files = new LinkedHashMap<>(64, 0.75f, true);
+  private final FrequencySketch sketch;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder rejections = new LongAdder();
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxSize the number of files held
+   * @param policy the eviction and admission policy
+   */
+  public BoundedFilesCache(int maxSize, Policy policy) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be greater than 0");
+    }
+    if (policy == null) {
+      throw new IllegalArgumentException("policy is required");
+    }
+    this.maxSize = maxSize;
+    this.policy = policy;
+    this.sketch = policy == Policy.TINY_LFU ? new FrequencySketch(maxSize) : null;
+  }
+
+  /**
+   * Creates the cache configured by the {@code BundleProperties}.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return {@code BoundedFilesCache} or null if VFS's soft reference cache is configured
+   */
+  public static BoundedFilesCache fromProperties(BundleProperties properties) {
+    final String policy = properties.getFilesCachePolicy();
+    if (BundleProperties.FILES_CACHE_POLICY_SOFT.equals(policy)) {
+      return null;
+    }
+    final long maxSize = properties.getFilesCacheMaxSize();
+    if (maxSize <= 0 || maxSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          BundleProperties.FILES_CACHE_MAX_SIZE + " must be between 1 and " + Integer.MAX_VALUE);
+    }
+    if (BundleProperties.FILES_CACHE_POLICY_LRU.equals(policy)) {
+      return new BoundedFilesCache((int) maxSize, Policy.LRU);
+    }
+    if (BundleProperties.FILES_CACHE_POLICY_TINY_LFU.equals(policy)) {
+      return new BoundedFilesCache((int) maxSize, Policy.TINY_LFU);
+    }
+    throw new IllegalArgumentException(
+        "Unknown " + BundleProperties.FILES_CACHE_POLICY + " " + policy);
+  }
+
+  @Override
+  public void putFile(FileObject file) {
+    put(file, false);
+  }
+
+  @Override
+  public boolean putFileIfAbsent(FileObject file) {
+    return put(file, true);
+  }
+
+  @Override
+  public FileObject getFile(FileSystem fileSystem, FileName name) {
+    final Key key = new Key(fileSystem, name);
+    final FileObject file;
+    synchronized (files) {
+      if (sketch != null) {
+        sketch.increment(key.hashCode());
+      }
+      file = files.get(key);
+    }
+    if (file == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return file;
+  }
+
+  @Override
+  public void clear(FileSystem fileSystem) {
+    synchronized (files) {
+      files.keySet().removeIf((key) -> key.fileSystem == fileSystem);
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (files) {
+      files.clear();
+    }
+  }
+
+  @Override
+  public void removeFile(FileSystem fileSystem, FileName name) {
+    synchronized (files) {
+      files.remove(new Key(fileSystem, name));
+    }
+  }
+
+  @Override
+  public void touchFile(FileObject file) {
+    synchronized (files) {
+      files.get(new Key(file.getFileSystem(), file.getName()));
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  public int getSize() {
+    synchronized (files) {
+      return files.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return the number of times the least recently used file was kept because a more recently
+   *     used file was used less often, always 0 for {@link Policy#LRU}
+   */
+  public long getRejections() {
+    return rejections.sum();
+  }
+
+  /**
+   * @return the fraction of lookups that were hits
+   */
+  public double getHitRate() {
+    final long h = getHits();
+    final long total = h + getMisses();
+    return total == 0 ? 0.0 : (double) h / total;
+  }
+
+  private boolean put(FileObject file, boolean ifAbsent) {
+    final Key key = new Key(file.getFileSystem(), file.getName());
+    synchronized (files) {
+      if (ifAbsent && files.containsKey(key)) {
+        return false;
+      }
+      files.put(key, file);
+      if (files.size() > maxSize) {
+        evict(key);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Evicts a file other than the one just put, skipping the files in use. Called holding the lock
+   * on files.
+   */
+  private void evict(Key added) {
+    Key eldest = null;
+    Key victim = null;
+    int victimFrequency = Integer.MAX_VALUE;
+    int candidates = 0;
+    for (Map.Entry<Key, FileObject> entry : files.entrySet()) {
+      final FileObject file = entry.getValue();
+      if (entry.getKey().equals(added) || file.isAttached() || file.isContentOpen()) {
+        continue;
+      }
+      if (eldest == null) {
+        eldest = entry.getKey();
+      }
+      if (sketch == null) {
+        victim = entry.getKey();
+        break;
+      }
+      final int frequency = sketch.frequency(entry.getKey().hashCode());
+      if (frequency < victimFrequency) {
+        victim = entry.getKey();
+        victimFrequency = frequency;
+      }
+      if (++candidates == CANDIDATES) {
+        break;
+      }
+    }
+    if (victim != null) {
+      files.remove(victim);
+      evictions.increment();
+      if (victim != eldest) {
+        rejections.increment();
+      }
+    }
+  }
+
+  /**
+   * A file is cached per file system instance, as layered file systems of different bundles can
+   * have equal root names.
+   */
+  private static final class Key {
+
+    private final FileSystem fileSystem;
+    private final FileName name;
+    private final int hash;
+
+    private Key(FileSystem fileSystem, FileName name) {
+      this.fileSystem = fileSystem;
+      this.name = name;
+      this.hash = 31 * System.identityHashCode(fileSystem) + name.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return fileSystem == other.fileSystem && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A count-min sketch with four counters per key, each saturating at 15. All counters are halved
+   * once the number of increments reaches ten times the cache size.
+   */
+  private static final class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final byte[] counters;
+    private final int mask;
+    private final int resetAt;
+    private int additions;
+
+    private FrequencySketch(int maxSize) {
+      final int width = Integer.highestOneBit(Math.max(64, Math.min(maxSize, 1 << 26)) - 1) << 1;
+      this.counters = new byte[width];
+      this.mask = width - 1;
+      this.resetAt = (int) Math.min(Integer.MAX_VALUE, 10L * maxSize);
+    }
+
+    private void increment(int hash) {
+      boolean added = false;
+      for (int seed : SEEDS) {
+        final int index = indexOf(hash, seed);
+        if (counters[index] < MAX_COUNT) {
+          counters[index]++;
+          added = true;
+        }
+      }
+      if (added && ++additions >= resetAt) {
+        for (int i = 0; i < counters.length; i++) {
+          counters[i] = (byte) (counters[i] >>> 1);
+        }
+        additions /= 2;
+      }
+    }
+
+    private int frequency(int hash) {
+      int frequency = MAX_COUNT;
+      for (int seed : SEEDS) {
+        frequency = Math.min(frequency, counters[indexOf(hash, seed)]);
+      }
+      return frequency;
+    }
+
+    private int indexOf(int hash, int seed) {
+      int h = (hash ^ seed) * 0x45D9F3B;
+      h ^= h >>> 16;
+      return h & mask;
+    }
+  }
+}
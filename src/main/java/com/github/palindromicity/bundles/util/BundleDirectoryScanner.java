@@ -0,0 +1,422 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.provider.hdfs.HdfsFileSystemConfigBuilder;
+import org.apache.commons.vfs2.provider.local.LocalFileName;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the bundles in a library directory, listing each directory once.
+ *
+ * <p>Unlike {@code findFiles} with a {@link BundleSelector}, the search is limited to a maximum
+ * depth and optionally to paths matching a glob, and the type and size of each file are taken
+ * from the listing, so no file is probed again. HDFS directories are listed with
+ * {@code FileSystem.listStatusIterator}, which fetches the statuses in batches instead of one
+ * NameNode call per file, using the Hadoop configuration of the VFS HDFS file system unless one
+ * is given. Local directories are walked with {@code Files.walkFileTree}, which reads the
+ * attributes of each file once.</p>
+ */
+public class BundleDirectoryScanner {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String HDFS_SCHEME = "hdfs";
+
+  /**
+   * A file found by the scanner, with the size and modification time from the listing.
+   */
+  public static class ListedFile {
+
+    private final FileObject file;
+    private final long size;
+    private final long lastModified;
+
+    ListedFile(FileObject file, long size, long lastModified) {
+      this.file = file;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    public FileObject getFile() {
+      return file;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  /**
+   * Builder for a {@code BundleDirectoryScanner}.
+   */
+  public static class Builder {
+
+    private final Set<String> extensions = new HashSet<>();
+    private int maxDepth = BundleProperties.DEFAULT_DISCOVERY_MAX_DEPTH;
+    private String glob;
+    private Configuration hadoopConfiguration;
+
+    /**
+     * Provides the extensions of the files to find. Required.
+     * @param extensions the extensions, for example the archive and pack extensions
+     * @return {@code Builder}
+     */
+    public Builder withExtensions(String... extensions) {
+      for (String extension : extensions) {
+        if (!StringUtils.isBlank(extension)) {
+          this.extensions.add(extension);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Limits how deep the directories are searched. 1 only searches the directory itself.
+     * @param maxDepth the maximum depth, or 0 to search all subdirectories
+     * @return {@code Builder}
+     */
+    public Builder withMaxDepth(int maxDepth) {
+      this.maxDepth = maxDepth;
+      return this;
+    }
+
+    /**
+     * Provides a glob the path of the files, relative to the directory, must match.
+     * @param glob the glob, for example {@code parsers/*}, or null to find all files
+     * @return {@code Builder}
+     */
+    public Builder withGlob(String glob) {
+      this.glob = glob;
+      return this;
+    }
+
+    /**
+     * Provides the Hadoop configuration used to list HDFS directories.
+     * @param hadoopConfiguration the configuration, or null to build it from the
+     *     {@code HdfsFileSystemConfigBuilder} options of the directory's file system
+     * @return {@code Builder}
+     */
+    public Builder withHadoopConfiguration(Configuration hadoopConfiguration) {
+      this.hadoopConfiguration = hadoopConfiguration;
+      return this;
+    }
+
+    /**
+     * Builds the scanner.
+     * @return {@code BundleDirectoryScanner}
+     */
+    public BundleDirectoryScanner build() {
+      if (extensions.isEmpty()) {
+        throw new IllegalArgumentException("extensions are required");
+      }
+      if (maxDepth < 0) {
+        throw new IllegalArgumentException("maxDepth must not be negative");
+      }
+      return new BundleDirectoryScanner(extensions, maxDepth,
+          glob == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob),
+          hadoopConfiguration);
+    }
+  }
+
+  private final Set<String> extensions;
+  private final int maxDepth;
+  private final PathMatcher matcher;
+  private final Configuration hadoopConfiguration;
+  private final LongAdder listings = new LongAdder();
+
+  private BundleDirectoryScanner(Set<String> extensions, int maxDepth, PathMatcher matcher,
+      Configuration hadoopConfiguration) {
+    this.extensions = Collections.unmodifiableSet(new HashSet<>(extensions));
+    this.maxDepth = maxDepth;
+    this.matcher = matcher;
+    this.hadoopConfiguration = hadoopConfiguration;
+  }
+
+  /**
+   * Creates a scanner finding the files with the given extensions, limited by the
+   * {@code BundleProperties}.
+   *
+   * @param properties the {@code BundleProperties}
+   * @param extensions the extensions of the files to find
+   * @return {@code BundleDirectoryScanner}
+   */
+  public static BundleDirectoryScanner fromProperties(BundleProperties properties,
+      String... extensions) {
+    return new Builder().withExtensions(extensions)
+        .withMaxDepth(properties.getDiscoveryMaxDepth())
+        .withGlob(properties.getDiscoveryGlob()).build();
+  }
+
+  /**
+   * Finds the matching files in a directory and its subdirectories, up to the maximum depth.
+   *
+   * @param directory the directory
+   * @return the files, in listing order
+   * @throws FileSystemException if a directory cannot be listed
+   */
+  public List<ListedFile> scan(FileObject directory) throws FileSystemException {
+    final List<ListedFile> files = new ArrayList<>();
+    if (HDFS_SCHEME.equals(directory.getName().getScheme())) {
+      final FileSystem fileSystem;
+      try {
+        fileSystem = FileSystem.get(URI.create(directory.getName().getRootURI()),
+            hadoopConfiguration != null ? hadoopConfiguration : hadoopConfigurationOf(directory));
+      } catch (IOException e) {
+        throw new FileSystemException("failed listing " + directory.getName(), e);
+      }
+      scanHdfs(fileSystem, directory, "", 1, files);
+    } else if (directory.getName() instanceof LocalFileName) {
+      scanLocal(directory, files);
+    } else {
+      scan(directory, "", 1, files);
+    }
+    return files;
+  }
+
+  /**
+   * Finds the matching files in a directory.
+   *
+   * @param directory the directory
+   * @return the files
+   * @throws FileSystemException if a directory cannot be listed
+   * @see #scan(FileObject)
+   */
+  public FileObject[] findFiles(FileObject directory) throws FileSystemException {
+    return scan(directory).stream().map(ListedFile::getFile).toArray(FileObject[]::new);
+  }
+
+  /**
+   * @return the number of directories listed by this scanner
+   */
+  public long getListings() {
+    return listings.sum();
+  }
+
+  private void scan(FileObject directory, String relativePath, int depth,
+      List<ListedFile> files) throws FileSystemException {
+    listings.increment();
+    for (FileObject child : directory.getChildren()) {
+      final String name = child.getName().getBaseName();
+      final FileType type = child.getType();
+      if (type == FileType.FOLDER) {
+        if (descend(depth)) {
+          scan(child, relativePath + name + "/", depth + 1, files);
+        }
+      } else if (type == FileType.FILE && matches(relativePath + name,
+          child.getName().getExtension())) {
+        files.add(new ListedFile(child, child.getContent().getSize(),
+            child.getContent().getLastModifiedTime()));
+      }
+    }
+  }
+
+  /**
+   * Walks a local directory. The walk reads the attributes of each file once, where listing it
+   * through VFS checks its type, size and modification time separately.
+   */
+  private void scanLocal(final FileObject directory, final List<ListedFile> files)
+      throws FileSystemException {
+    final LocalFileName name = (LocalFileName) directory.getName();
+    final java.nio.file.Path root = Paths.get(name.getRootFile() + name.getPathDecoded());
+    try {
+      Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+          maxDepth == 0 ? Integer.MAX_VALUE : maxDepth,
+          new SimpleFileVisitor<java.nio.file.Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(java.nio.file.Path dir,
+                BasicFileAttributes attrs) {
+              listings.increment();
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(java.nio.file.Path file, BasicFileAttributes attrs)
+                throws IOException {
+              final String relativePath = root.relativize(file).toString()
+                  .replace(root.getFileSystem().getSeparator(), "/");
+              if (attrs.isRegularFile() && matches(relativePath,
+                  extensionOf(file.getFileName().toString()))) {
+                files.add(new ListedFile(directory.resolveFile(relativePath), attrs.size(),
+                    attrs.lastModifiedTime().toMillis()));
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(java.nio.file.Path file, IOException e)
+                throws IOException {
+              if (e instanceof FileSystemLoopException) {
+                logger.debug("Skipping {}, it links to one of its parents", file);
+                return FileVisitResult.CONTINUE;
+              }
+              throw e;
+            }
+          });
+    } catch (IOException e) {
+      throw new FileSystemException("failed listing " + directory.getName(), e);
+    }
+  }
+
+  /**
+   * Builds the Hadoop configuration the VFS HDFS file system of the directory uses, from the
+   * {@code HdfsFileSystemConfigBuilder} options it was resolved with, added in the same order as
+   * the VFS HDFS provider adds them.
+   *
+   * <p>A configuration {@code InputStream} can only be read once, and VFS has usually read it
+   * already when it resolved the directory. Whatever it still holds is buffered and added. When
+   * it was consumed, {@code FileSystem.get} still returns the file system VFS created from it,
+   * from the Hadoop file system cache, unless that cache is disabled.</p>
+   */
+  private static Configuration hadoopConfigurationOf(FileObject directory) {
+    final FileSystemOptions options = directory.getFileSystem().getFileSystemOptions();
+    final Configuration configuration = new Configuration(true);
+    configuration.set(FileSystem.FS_DEFAULT_NAME_KEY, directory.getName().getRootURI());
+    if (options == null) {
+      return configuration;
+    }
+    final HdfsFileSystemConfigBuilder builder = HdfsFileSystemConfigBuilder.getInstance();
+    final String[] names = builder.getConfigNames(options);
+    if (names != null) {
+      for (String name : names) {
+        configuration.addResource(name);
+      }
+    }
+    final Path[] paths = builder.getConfigPaths(options);
+    if (paths != null) {
+      for (Path path : paths) {
+        configuration.addResource(path);
+      }
+    }
+    final URL[] urls = builder.getConfigURLs(options);
+    if (urls != null) {
+      for (URL url : urls) {
+        configuration.addResource(url);
+      }
+    }
+    final InputStream in = builder.getConfigInputStream(options);
+    if (in != null) {
+      final byte[] content = readConfigStream(in);
+      if (content.length > 0) {
+        configuration.addResource(new ByteArrayInputStream(content));
+      }
+    }
+    final Configuration configured = builder.getConfigConfiguration(options);
+    if (configured != null) {
+      configuration.addResource(configured);
+    }
+    return configuration;
+  }
+
+  private static byte[] readConfigStream(InputStream in) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    try {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      logger.debug("Configuration stream of the HDFS file system options cannot be read", e);
+      return new byte[0];
+    }
+    return out.toByteArray();
+  }
+
+  private void scanHdfs(FileSystem fileSystem, FileObject directory, String relativePath,
+      int depth, List<ListedFile> files) throws FileSystemException {
+    listings.increment();
+    try {
+      final RemoteIterator<FileStatus> statuses = fileSystem
+          .listStatusIterator(new Path(directory.getName().getPath()));
+      while (statuses.hasNext()) {
+        final FileStatus status = statuses.next();
+        final String name = status.getPath().getName();
+        if (status.isDirectory()) {
+          if (descend(depth)) {
+            scanHdfs(fileSystem, directory.resolveFile(name), relativePath + name + "/",
+                depth + 1, files);
+          }
+        } else if (status.isFile() && matches(relativePath + name, extensionOf(name))) {
+          files.add(new ListedFile(directory.resolveFile(name), status.getLen(),
+              status.getModificationTime()));
+        }
+      }
+    } catch (IOException e) {
+      throw new FileSystemException("failed listing " + directory.getName(), e);
+    }
+  }
+
+  private boolean descend(int depth) {
+    return maxDepth == 0 || depth < maxDepth;
+  }
+
+  private boolean matches(String relativePath, String extension) {
+    if (!extensions.contains(extension)) {
+      return false;
+    }
+    final boolean matched = matcher == null || matcher.matches(Paths.get(relativePath));
+    if (!matched && logger.isDebugEnabled()) {
+      logger.debug("Skipping {}, it does not match the discovery glob", relativePath);
+    }
+    return matched;
+  }
+
+  private static String extensionOf(String name) {
+    final int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1);
+  }
+}
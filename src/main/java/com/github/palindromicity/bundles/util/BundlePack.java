@@ -0,0 +1,447 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * A bundle pack is a single file holding many bundles, so that a library directory on a file
+ * system such as HDFS costs one file instead of one per bundle.
+ *
+ * <p>A pack is a zip archive. Each bundle is a stored, uncompressed, entry at the root of the
+ * archive, and {@value #TOC_PATH} is the table of contents: a manifest with a section per bundle,
+ * holding the main attributes of the bundle's own manifest and the offset and length of the
+ * bundle in the pack. Opening a pack reads the table of contents in place, without mounting or
+ * copying the pack, and the bundles are discovered from it without reading them.</p>
+ *
+ * <p>Each bundle is also a contiguous range of the pack, which {@link #openStream(Entry)} reads.
+ * {@link #getBundleFile(Entry)} copies that range, and only that range, into a local file the
+ * bundle is then mounted from, so each bundle is copied once, rather than the whole pack and then
+ * the bundle out of it. The copies are kept in the replication directory, by default
+ * {@code bundles-replicated} in {@code java.io.tmpdir}, named by the stamp of the pack and the
+ * name of the bundle, so they are reused across restarts until the pack changes, and are cleaned
+ * with the other copies of the directory.</p>
+ */
+public class BundlePack {
+
+  public static final String TOC_PATH = "META-INF/BUNDLE-PACK.MF";
+  public static final String OFFSET = "Pack-Offset";
+  public static final String LENGTH = "Pack-Length";
+
+  /**
+   * A bundle in the table of contents of a pack.
+   */
+  public static class Entry {
+
+    private final String name;
+    private final Attributes attributes;
+    private final long offset;
+    private final long length;
+
+    Entry(String name, Attributes attributes) {
+      this.name = name;
+      this.attributes = attributes;
+      this.offset = parseLong(attributes, OFFSET, name);
+      this.length = parseLong(attributes, LENGTH, name);
+    }
+
+    private static long parseLong(Attributes attributes, String key, String name) {
+      final String value = attributes.getValue(key);
+      try {
+        return Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        throw new IllegalStateException(
+            "Bundle " + name + " has an invalid " + key + " of " + value, e);
+      }
+    }
+
+    /**
+     * @return the file name of the bundle
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the main attributes of the bundle manifest
+     */
+    public Attributes getAttributes() {
+      return attributes;
+    }
+
+    /**
+     * @return the offset of the bundle in the pack
+     */
+    public long getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return the length of the bundle in bytes
+     */
+    public long getLength() {
+      return length;
+    }
+  }
+
+  /**
+   * Writes a bundle pack. The table of contents is written when the writer is closed.
+   */
+  public static class Writer implements Closeable {
+
+    private final CountingOutputStream out;
+    private final ZipOutputStream zip;
+    private final Manifest toc = new Manifest();
+
+    /**
+     * Creates a writer.
+     *
+     * @param out the stream the pack is written to, closed with the writer
+     */
+    public Writer(OutputStream out) {
+      this.out = new CountingOutputStream(out);
+      this.zip = new ZipOutputStream(this.out);
+      this.toc.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    }
+
+    /**
+     * Adds a bundle file to the pack, under its file name.
+     *
+     * @param bundle the bundle file
+     * @return this writer
+     * @throws IOException if the bundle cannot be read or written
+     */
+    public Writer add(Path bundle) throws IOException {
+      return add(bundle.getFileName().toString(), Files.readAllBytes(bundle));
+    }
+
+    /**
+     * Adds a bundle to the pack.
+     *
+     * @param name the file name of the bundle, unique in the pack
+     * @param content the content of the bundle
+     * @return this writer
+     * @throws IOException if the bundle cannot be written
+     * @throws IllegalArgumentException if the name is invalid or already used, or the bundle has
+     *     no manifest
+     */
+    public Writer add(String name, byte[] content) throws IOException {
+      if (StringUtils.isBlank(name) || name.contains("/") || name.startsWith("META-INF")) {
+        throw new IllegalArgumentException("Invalid bundle name " + name);
+      }
+      if (toc.getEntries().containsKey(name)) {
+        throw new IllegalArgumentException("Bundle " + name + " is already in the pack");
+      }
+      final Attributes attributes = new Attributes(readManifest(name, content)
+          .getMainAttributes());
+
+      final CRC32 crc = new CRC32();
+      crc.update(content);
+      final ZipEntry entry = new ZipEntry(name);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(content.length);
+      entry.setCompressedSize(content.length);
+      entry.setCrc(crc.getValue());
+      zip.putNextEntry(entry);
+      zip.flush();
+      attributes.putValue(OFFSET, Long.toString(out.getCount()));
+      attributes.putValue(LENGTH, Integer.toString(content.length));
+      zip.write(content);
+      zip.closeEntry();
+      toc.getEntries().put(name, attributes);
+      return this;
+    }
+
+    private static Manifest readManifest(String name, byte[] content) throws IOException {
+      try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(content))) {
+        Manifest manifest = in.getManifest();
+        for (JarEntry entry = manifest == null ? in.getNextJarEntry() : null;
+            entry != null && manifest == null; entry = in.getNextJarEntry()) {
+          if (JarFile.MANIFEST_NAME.equals(entry.getName())) {
+            manifest = new Manifest(in);
+          }
+        }
+        if (manifest == null) {
+          throw new IllegalArgumentException("No manifest in bundle " + name);
+        }
+        return manifest;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      zip.putNextEntry(new ZipEntry(TOC_PATH));
+      toc.write(zip);
+      zip.closeEntry();
+      zip.close();
+    }
+  }
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final FileObject packFile;
+  private final Path directory;
+  private final String stamp;
+  private final List<Entry> entries;
+  private final Map<String, FileObject> bundleFiles = new ConcurrentHashMap<>();
+
+  private BundlePack(FileObject packFile, Path directory, String stamp, List<Entry> entries) {
+    this.packFile = packFile;
+    this.directory = directory;
+    this.stamp = stamp;
+    this.entries = entries;
+  }
+
+  /**
+   * Opens a bundle pack, reading its table of contents. Bundle files are copied into
+   * {@code bundles-replicated} in {@code java.io.tmpdir}.
+   *
+   * @param packFile the pack
+   * @return {@code BundlePack}
+   * @throws FileSystemException if the pack cannot be read
+   * @throws IllegalStateException if the file is not a bundle pack
+   */
+  public static BundlePack open(FileObject packFile) throws FileSystemException {
+    return open(packFile, Paths.get(System.getProperty("java.io.tmpdir"),
+        BundleProperties.DEFAULT_REPLICATION_DIRECTORY_NAME));
+  }
+
+  /**
+   * Opens a bundle pack, reading its table of contents.
+   *
+   * @param packFile the pack
+   * @param directory the directory bundle files are copied into, such as the replication
+   *     directory
+   * @return {@code BundlePack}
+   * @throws FileSystemException if the pack cannot be read
+   * @throws IllegalStateException if the file is not a bundle pack
+   */
+  public static BundlePack open(FileObject packFile, Path directory)
+      throws FileSystemException {
+    if (packFile == null) {
+      throw new IllegalArgumentException("packFile is required");
+    }
+    if (directory == null) {
+      throw new IllegalArgumentException("directory is required");
+    }
+    final Manifest toc;
+    try {
+      final byte[] content = ZipUtils.readEntry(packFile, TOC_PATH);
+      if (content == null) {
+        throw new IllegalStateException(packFile.getName() + " has no " + TOC_PATH);
+      }
+      toc = new Manifest(new ByteArrayInputStream(content));
+    } catch (FileSystemException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new FileSystemException("failed reading " + TOC_PATH + " of " + packFile.getName(),
+          e);
+    }
+    final List<Entry> entries = new ArrayList<>(toc.getEntries().size());
+    for (Map.Entry<String, Attributes> section : toc.getEntries().entrySet()) {
+      entries.add(new Entry(section.getKey(), section.getValue()));
+    }
+    entries.sort(Comparator.comparingLong(Entry::getOffset));
+    return new BundlePack(packFile, directory, HashUtils.stampOf(packFile),
+        Collections.unmodifiableList(entries));
+  }
+
+  public FileObject getPackFile() {
+    return packFile;
+  }
+
+  /**
+   * @return the bundles in the pack, in the order they are stored
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns a bundle of the pack as a local file, copying its range of the pack the first time.
+   * A copy made earlier, for the same pack, is reused.
+   *
+   * @param entry the bundle
+   * @return the bundle file
+   * @throws FileSystemException if the bundle cannot be copied
+   */
+  public FileObject getBundleFile(Entry entry) throws FileSystemException {
+    FileObject bundleFile = bundleFiles.get(entry.getName());
+    if (bundleFile == null) {
+      final Path copy = directory.resolve(HashUtils.toHex(HashUtils.newDigest()
+          .digest((stamp + "\n" + entry.getName()).getBytes(StandardCharsets.UTF_8))))
+          .resolve(entry.getName());
+      try {
+        if (Files.isRegularFile(copy) && Files.size(copy) == entry.getLength()) {
+          // mark the copy as used, so cleaning the directory keeps it
+          Files.setLastModifiedTime(copy, FileTime.fromMillis(System.currentTimeMillis()));
+        } else {
+          copy(entry, copy);
+        }
+      } catch (FileSystemException e) {
+        throw e;
+      } catch (IOException e) {
+        throw new FileSystemException("Failed to copy " + entry.getName() + " from "
+            + packFile.getName(), e);
+      }
+      bundleFile = packFile.getFileSystem().getFileSystemManager().toFileObject(copy.toFile());
+      bundleFiles.put(entry.getName(), bundleFile);
+    }
+    return bundleFile;
+  }
+
+  private void copy(Entry entry, Path target) throws IOException {
+    Files.createDirectories(target.getParent());
+    final Path temp = Files.createTempFile(target.getParent(), entry.getName(), TEMP_SUFFIX);
+    try {
+      try (InputStream in = openStream(entry)) {
+        Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // another process copied the bundle first
+    } catch (AtomicMoveNotSupportedException e) {
+      throw new FileSystemException("Directory " + directory + " does not support atomic moves",
+          e);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Reads a bundle as a range of the pack file.
+   *
+   * @param entry the bundle
+   * @return the content of the bundle
+   * @throws IOException if the pack cannot be read
+   */
+  public InputStream openStream(Entry entry) throws IOException {
+    final RandomAccessContent content = packFile.getContent()
+        .getRandomAccessContent(RandomAccessMode.READ);
+    try {
+      content.seek(entry.getOffset());
+      return new RangeInputStream(content, entry.getLength());
+    } catch (IOException | RuntimeException e) {
+      content.close();
+      throw e;
+    }
+  }
+
+  private static class RangeInputStream extends InputStream {
+
+    private final RandomAccessContent content;
+    private final InputStream in;
+    private long remaining;
+
+    RangeInputStream(RandomAccessContent content, long length) throws IOException {
+      this.content = content;
+      this.in = content.getInputStream();
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      final int b = in.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      final int read = in.read(b, off, (int) Math.min(len, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+      content.close();
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+}
@@ -44,13 +44,67 @@ public abstract class BundleProperties {
   public static final String BUNDLE_LIBRARY_DIRECTORY = "bundle.library.directory";
   public static final String BUNDLE_LIBRARY_DIRECTORY_PREFIX = "bundle.library.directory.";
   public static final String ARCHIVE_EXTENSION = "bundle.archive.extension";
+  public static final String PACK_EXTENSION = "bundle.pack.extension";
+  public static final String DISCOVERY_MAX_DEPTH = "bundle.discovery.max.depth";
+  public static final String DISCOVERY_GLOB = "bundle.discovery.glob";
+  public static final String CATALOG_FILE_NAME = "bundle.catalog.file.name";
   public static final String META_ID_PREFIX = "bundle.meta.id.prefix";
   public static final String BUNDLE_EXTENSION_TYPE_PREFIX = "bundle.extension.type.";
+  public static final String NATIVE_CACHE_DIRECTORY = "bundle.native.cache.directory";
+  public static final String RESOURCE_CACHE_MAX_BYTES = "bundle.resource.cache.max.bytes";
+  public static final String RESOURCE_CACHE_MAX_ENTRY_BYTES =
+      "bundle.resource.cache.max.entry.bytes";
+  public static final String SHARED_CLASS_BYTES_MAX_BYTES =
+      "bundle.instance.class.bytes.max.bytes";
+  public static final String CLASSLOADER_DELEGATION = "bundle.classloader.delegation";
+  public static final String CLASSLOADER_SHARED_PACKAGES = "bundle.classloader.shared.packages";
+  public static final String CLASSLOADER_TYPE = "bundle.classloader.type";
+  public static final String EXTRACTION_DIRECTORY = "bundle.extraction.directory";
+  public static final String CLASSLOADER_SHARED_JARS = "bundle.classloader.shared.jars";
+  public static final String INSTANCE_CLASSLOADER_MAX_COUNT =
+      "bundle.instance.classloader.max.count";
+  public static final String INSTANCE_CLASSLOADER_TTL_MILLIS =
+      "bundle.instance.classloader.ttl.millis";
+  public static final String REPLICATION_DIRECTORY = "bundle.replication.directory";
+  public static final String REPLICATION_MAX_BYTES = "bundle.replication.max.bytes";
+  public static final String REPLICATION_MAX_AGE_MILLIS = "bundle.replication.max.age.millis";
+  public static final String FILES_CACHE_POLICY = "bundle.files.cache.policy";
+  public static final String FILES_CACHE_MAX_SIZE = "bundle.files.cache.max.size";
+  public static final String JAR_HANDLES_MAX_OPEN = "bundle.jar.handles.max.open";
+
+  // values
+  public static final String DELEGATION_PARENT_FIRST = "parent-first";
+  public static final String DELEGATION_PACKAGE_INDEX = "package-index";
+  public static final String CLASSLOADER_TYPE_VFS = "vfs";
+  public static final String CLASSLOADER_TYPE_EXTRACTED = "extracted";
+  public static final String FILES_CACHE_POLICY_SOFT = "soft";
+  public static final String FILES_CACHE_POLICY_LRU = "lru";
+  public static final String FILES_CACHE_POLICY_TINY_LFU = "tinylfu";
 
   // defaults
   public static final String DEFAULT_ARCHIVE_EXTENSION = "bundle";
+  public static final String DEFAULT_PACK_EXTENSION = "bundlepack";
+  public static final int DEFAULT_DISCOVERY_MAX_DEPTH = 0;
+  public static final String DEFAULT_CATALOG_FILE_NAME = "bundle-catalog.mf";
   public static final String DEFAULT_BUNDLE_LIBRARY_DIR = "./lib/";
   public static final String DEFAULT_META_ID_PREFIX = "Bundle";
+  public static final String DEFAULT_NATIVE_CACHE_DIRECTORY_NAME = "bundles-native";
+  public static final String DEFAULT_EXTRACTION_DIRECTORY_NAME = "bundles-extracted";
+  public static final String DEFAULT_REPLICATION_DIRECTORY_NAME = "bundles-replicated";
+  public static final long DEFAULT_REPLICATION_MAX_BYTES = 1024L * 1024L * 1024L;
+  public static final long DEFAULT_REPLICATION_MAX_AGE_MILLIS = 0L;
+  public static final String DEFAULT_FILES_CACHE_POLICY = FILES_CACHE_POLICY_SOFT;
+  public static final long DEFAULT_FILES_CACHE_MAX_SIZE = 10000L;
+  public static final int DEFAULT_JAR_HANDLES_MAX_OPEN = 0;
+  public static final String DEFAULT_CLASSLOADER_TYPE = CLASSLOADER_TYPE_VFS;
+  public static final long DEFAULT_RESOURCE_CACHE_MAX_BYTES = 0L;
+  public static final long DEFAULT_RESOURCE_CACHE_MAX_ENTRY_BYTES = 1024L * 1024L;
+  public static final long DEFAULT_SHARED_CLASS_BYTES_MAX_BYTES = 16L * 1024L * 1024L;
+  public static final String DEFAULT_CLASSLOADER_DELEGATION = DELEGATION_PARENT_FIRST;
+  public static final int DEFAULT_INSTANCE_CLASSLOADER_MAX_COUNT = 0;
+  public static final long DEFAULT_INSTANCE_CLASSLOADER_TTL_MILLIS = 0L;
+  public static final String DEFAULT_CLASSLOADER_SHARED_PACKAGES =
+      "javax,org.slf4j,com.github.palindromicity.bundles";
 
   /**
    * Retrieves the property value for the given property key.
@@ -175,6 +229,201 @@ public abstract class BundleProperties {
     return Paths.get(path).toUri();
   }
 
+  /**
+   * Returns the local directory native libraries are extracted to.
+   * Defaults to {@code bundles-native} in {@code java.io.tmpdir}.
+   * @return the directory path
+   */
+  public String getNativeCacheDirectory() {
+    return getProperty(NATIVE_CACHE_DIRECTORY, Paths
+        .get(System.getProperty("java.io.tmpdir"), DEFAULT_NATIVE_CACHE_DIRECTORY_NAME)
+        .toString());
+  }
+
+  /**
+   * Returns the type of the bundle class loaders, either {@code vfs}, the default, which reads
+   * bundles in place through VFS, or {@code extracted}, which extracts the bundle jars locally and
+   * loads them with the JDK's {@code URLClassLoader}.
+   * @return the class loader type
+   */
+  public String getClassLoaderType() {
+    return getProperty(CLASSLOADER_TYPE, DEFAULT_CLASSLOADER_TYPE).trim();
+  }
+
+  /**
+   * Returns the local directory bundle jars are extracted to by {@code extracted} class loaders.
+   * Defaults to {@code bundles-extracted} in {@code java.io.tmpdir}.
+   * @return the directory path
+   */
+  public String getExtractionDirectory() {
+    return getProperty(EXTRACTION_DIRECTORY, Paths
+        .get(System.getProperty("java.io.tmpdir"), DEFAULT_EXTRACTION_DIRECTORY_NAME)
+        .toString());
+  }
+
+  /**
+   * Returns the directory the jars nested in bundles are copied to when VFS needs a local copy.
+   * Copies are named by content and kept across restarts.
+   * @return the replication directory
+   */
+  public String getReplicationDirectory() {
+    return getProperty(REPLICATION_DIRECTORY, Paths
+        .get(System.getProperty("java.io.tmpdir"), DEFAULT_REPLICATION_DIRECTORY_NAME)
+        .toString());
+  }
+
+  /**
+   * Returns the size the replication directory is trimmed to at startup, 1 GB by default. 0 does
+   * not limit the size.
+   * @return the size in bytes
+   */
+  public long getReplicationMaxBytes() {
+    return getLongProperty(REPLICATION_MAX_BYTES, DEFAULT_REPLICATION_MAX_BYTES);
+  }
+
+  /**
+   * Returns how long an unused copy is kept in the replication directory. 0, the default, keeps
+   * copies regardless of age.
+   * @return the age in milliseconds
+   */
+  public long getReplicationMaxAgeMillis() {
+    return getLongProperty(REPLICATION_MAX_AGE_MILLIS, DEFAULT_REPLICATION_MAX_AGE_MILLIS);
+  }
+
+  /**
+   * Returns the policy of the VFS files cache, either {@code soft}, the default, which holds files
+   * until the garbage collector needs the memory, or {@code lru} or {@code tinylfu}, which hold a
+   * fixed number of files.
+   * @return the policy
+   */
+  public String getFilesCachePolicy() {
+    return getProperty(FILES_CACHE_POLICY, DEFAULT_FILES_CACHE_POLICY).trim();
+  }
+
+  /**
+   * Returns the number of files held by the {@code lru} and {@code tinylfu} VFS files caches.
+   * @return the maximum size
+   */
+  public long getFilesCacheMaxSize() {
+    return getLongProperty(FILES_CACHE_MAX_SIZE, DEFAULT_FILES_CACHE_MAX_SIZE);
+  }
+
+  /**
+   * Returns the maximum number of bundle dependency jars holding an open file handle at the same
+   * time. 0, the default, does not limit them.
+   * @return the maximum count
+   */
+  public int getJarHandlesMaxOpen() {
+    final long count = getLongProperty(JAR_HANDLES_MAX_OPEN, DEFAULT_JAR_HANDLES_MAX_OPEN);
+    if (count < 0 || count > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          JAR_HANDLES_MAX_OPEN + " must be between 0 and " + Integer.MAX_VALUE);
+    }
+    return (int) count;
+  }
+
+  /**
+   * Returns the file name patterns of the dependency jars that may be hosted once for all
+   * bundles, where {@code *} matches any characters. Empty, the default, disables sharing.
+   * @return the patterns
+   */
+  public List<String> getSharedJarPatterns() {
+    final List<String> patterns = new ArrayList<>();
+    for (String pattern : getProperty(CLASSLOADER_SHARED_JARS, "").split(",")) {
+      if (!StringUtils.isBlank(pattern)) {
+        patterns.add(pattern.trim());
+      }
+    }
+    return patterns;
+  }
+
+  /**
+   * Returns the byte budget of the resource byte cache. 0, the default, disables the cache.
+   * @return the budget in bytes
+   */
+  public long getResourceCacheMaxBytes() {
+    return getLongProperty(RESOURCE_CACHE_MAX_BYTES, DEFAULT_RESOURCE_CACHE_MAX_BYTES);
+  }
+
+  /**
+   * Returns the byte budget, per bundle, of the class bytes shared with instance ClassLoaders. 0
+   * disables sharing, the bytes are read for every instance ClassLoader.
+   * @return the budget in bytes
+   */
+  public long getSharedClassBytesMaxBytes() {
+    return getLongProperty(SHARED_CLASS_BYTES_MAX_BYTES, DEFAULT_SHARED_CLASS_BYTES_MAX_BYTES);
+  }
+
+  /**
+   * Returns the size of the largest resource the resource byte cache will hold.
+   * @return the size in bytes
+   */
+  public long getResourceCacheMaxEntryBytes() {
+    return getLongProperty(RESOURCE_CACHE_MAX_ENTRY_BYTES, DEFAULT_RESOURCE_CACHE_MAX_ENTRY_BYTES);
+  }
+
+  /**
+   * Returns the maximum number of instance class loaders kept by the ExtensionManager. 0, the
+   * default, keeps all of them.
+   * @return the maximum count
+   */
+  public int getInstanceClassLoaderMaxCount() {
+    final long count = getLongProperty(INSTANCE_CLASSLOADER_MAX_COUNT,
+        DEFAULT_INSTANCE_CLASSLOADER_MAX_COUNT);
+    if (count < 0 || count > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          INSTANCE_CLASSLOADER_MAX_COUNT + " must be between 0 and " + Integer.MAX_VALUE);
+    }
+    return (int) count;
+  }
+
+  /**
+   * Returns how long an instance class loader is kept after it was last used. 0, the default,
+   * keeps it until it is removed.
+   * @return the time to live in milliseconds
+   */
+  public long getInstanceClassLoaderTimeToLiveMillis() {
+    return getLongProperty(INSTANCE_CLASSLOADER_TTL_MILLIS,
+        DEFAULT_INSTANCE_CLASSLOADER_TTL_MILLIS);
+  }
+
+  /**
+   * Returns how bundle class loaders delegate, either {@code parent-first}, the default, or
+   * {@code package-index}.
+   * @return the delegation mode
+   */
+  public String getClassLoaderDelegation() {
+    return getProperty(CLASSLOADER_DELEGATION, DEFAULT_CLASSLOADER_DELEGATION).trim();
+  }
+
+  /**
+   * Returns the packages that are always loaded parent first when bundle class loaders use
+   * {@code package-index} delegation.
+   * @return the package names
+   */
+  public List<String> getSharedPackages() {
+    final List<String> packages = new ArrayList<>();
+    for (String name : getProperty(CLASSLOADER_SHARED_PACKAGES,
+        DEFAULT_CLASSLOADER_SHARED_PACKAGES).split(",")) {
+      if (!StringUtils.isBlank(name)) {
+        packages.add(name.trim());
+      }
+    }
+    return packages;
+  }
+
+  private long getLongProperty(String key, long defaultValue) {
+    final String value = getProperty(key);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(key + " must be a number, but was " + value, e);
+    }
+  }
+
   public String getMetaIdPrefix() {
     return getProperty(META_ID_PREFIX, DEFAULT_META_ID_PREFIX);
   }
@@ -183,6 +432,47 @@ public abstract class BundleProperties {
     return getProperty(ARCHIVE_EXTENSION, DEFAULT_ARCHIVE_EXTENSION);
   }
 
+  /**
+   * Returns the extension of the bundle packs, single files holding many bundles, found in the
+   * library directories.
+   * @return the pack extension
+   */
+  public String getPackExtension() {
+    return getProperty(PACK_EXTENSION, DEFAULT_PACK_EXTENSION);
+  }
+
+  /**
+   * Returns how deep bundles are searched for in the library directories. 1 only searches the
+   * library directories themselves, and 0, the default, searches all their subdirectories.
+   * @return the maximum depth
+   */
+  public int getDiscoveryMaxDepth() {
+    final long depth = getLongProperty(DISCOVERY_MAX_DEPTH, DEFAULT_DISCOVERY_MAX_DEPTH);
+    if (depth < 0 || depth > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          DISCOVERY_MAX_DEPTH + " must be between 0 and " + Integer.MAX_VALUE);
+    }
+    return (int) depth;
+  }
+
+  /**
+   * Returns the glob the paths of bundles, relative to their library directory, must match, for
+   * example {@code parsers/*}. Bundles must have the archive or pack extension either way.
+   * @return the glob, or null if bundles are not filtered by path
+   */
+  public String getDiscoveryGlob() {
+    final String glob = getProperty(DISCOVERY_GLOB);
+    return StringUtils.isBlank(glob) ? null : glob.trim();
+  }
+
+  /**
+   * Returns the name of the catalog file read from, and written to, each library directory.
+   * @return the catalog file name
+   */
+  public String getCatalogFileName() {
+    return getProperty(CATALOG_FILE_NAME, DEFAULT_CATALOG_FILE_NAME);
+  }
+
   /**
    * Creates an instance of BundleProperties from an {@link InputStream}.
    * @param inStream the InputStream
@@ -21,10 +21,17 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import com.github.palindromicity.bundles.bundle.BundleCoordinates;
 import com.github.palindromicity.bundles.bundle.BundleDetails;
+import com.github.palindromicity.bundles.jfr.BundleEvents;
+import com.github.palindromicity.bundles.jfr.EventScope;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
 public class BundleUtil {
@@ -66,6 +73,7 @@ public class BundleUtil {
             if (!StringUtils.isBlank(dependencyId)) {
                 builder.withDependencyCoordinates(new BundleCoordinates(dependencyGroup, dependencyId, dependencyVersion));
             }
+            withImports(builder, attributes, prefix);
 
             builder.withBuildBranch(attributes.getValue(BundleManifestEntry.BUILD_BRANCH.getManifestName()));
             builder.withBuildTag(attributes.getValue(BundleManifestEntry.BUILD_TAG.getManifestName()));
@@ -95,39 +103,124 @@ public class BundleUtil {
             throw new IllegalArgumentException("Bundle Directory cannot be null");
         }
 
+        try (final EventScope event = BundleEvents.bundleParse(bundleFile.getName().getURI())) {
+            final BundleDetails details = parseBundleFile(bundleFile, props);
+            event.setCoordinates(details.getCoordinates().getCoordinates());
+            return details;
+        }
+    }
+
+    private static BundleDetails parseBundleFile(final FileObject bundleFile, BundleProperties props) throws FileSystemException {
         FileObject bundleFileSystem = bundleFile.getFileSystem().getFileSystemManager().createFileSystem(bundleFile);
         final FileObject manifestFile = bundleFileSystem.resolveFile("META-INF/MANIFEST.MF");
         try (final InputStream fis = manifestFile.getContent().getInputStream()) {
-            final Manifest manifest = new Manifest(fis);
+            return fromManifest(bundleFile, new Manifest(fis), props);
+        }catch(IOException ioe){
+            throw new FileSystemException("failed reading manifest file " + manifestFile.getURL(),ioe);
+        }
+    }
 
-            final Attributes attributes = manifest.getMainAttributes();
-            final String prefix = props.getMetaIdPrefix();
-            final BundleDetails.Builder builder = new BundleDetails.Builder();
-            builder.withBundleFile(bundleFile);
+    /**
+     * Creates a BundleDetails from the given bundle without mounting it as a file system, by
+     * reading the manifest from the start of the bundle stream. This is used for bundles held in
+     * memory, which VFS would otherwise replicate to a temporary file.
+     *
+     * @param bundleFile the Bundle which contains a META-INF/MANIFEST.MF
+     * @param props the {@code BundleProperties}
+     * @return the BundleDetails constructed from the information in META-INF/MANIFEST.MF
+     * @throws FileSystemException if there are any problems reading the bundle
+     * @throws IllegalStateException if the bundle has no manifest
+     */
+    public static BundleDetails fromBundleStream(final FileObject bundleFile, BundleProperties props) throws FileSystemException {
+        if (bundleFile == null) {
+            throw new IllegalArgumentException("Bundle File cannot be null");
+        }
+        try (final JarInputStream in = new JarInputStream(bundleFile.getContent().getInputStream())) {
+            Manifest manifest = in.getManifest();
+            // the manifest is not one of the first entries
+            for (JarEntry entry = manifest == null ? in.getNextJarEntry() : null; entry != null && manifest == null; entry = in.getNextJarEntry()) {
+                if (JarFile.MANIFEST_NAME.equals(entry.getName())) {
+                    manifest = new Manifest(in);
+                }
+            }
+            if (manifest == null) {
+                throw new IllegalStateException("No manifest in bundle " + bundleFile.getName());
+            }
+            return fromManifest(bundleFile, manifest, props);
+        } catch (IOException ioe) {
+            throw new FileSystemException("failed reading bundle " + bundleFile.getName(), ioe);
+        }
+    }
 
-            final String group = attributes.getValue(prefix + BundleManifestEntry.PRE_GROUP.getManifestName());
-            final String id = attributes.getValue(prefix + BundleManifestEntry.PRE_ID.getManifestName());
-            final String version = attributes.getValue(prefix + BundleManifestEntry.PRE_VERSION.getManifestName());
-            builder.withCoordinates(new BundleCoordinates(group, id, version));
+    private static BundleDetails fromManifest(final FileObject bundleFile, final Manifest manifest, final BundleProperties props) {
+        return fromAttributes(bundleFile, manifest.getMainAttributes(), props);
+    }
 
-            final String dependencyGroup = attributes.getValue(prefix + BundleManifestEntry.PRE_DEPENDENCY_GROUP.getManifestName());
-            final String dependencyId = attributes.getValue(prefix + BundleManifestEntry.PRE_DEPENDENCY_ID.getManifestName());
-            final String dependencyVersion = attributes.getValue(prefix + BundleManifestEntry.PRE_DEPENDENCY_VERSION.getManifestName());
-            if (!StringUtils.isBlank(dependencyId)) {
-                builder.withDependencyCoordinates(new BundleCoordinates(dependencyGroup, dependencyId, dependencyVersion));
-            }
+    /**
+     * Creates a BundleDetails from the main manifest attributes of a Bundle that were read
+     * elsewhere, for example from the table of contents of a {@link BundlePack}, without reading
+     * the Bundle itself.
+     *
+     * @param bundleFile the Bundle the attributes belong to
+     * @param attributes the main attributes of its META-INF/MANIFEST.MF
+     * @param props the {@code BundleProperties}
+     * @return the BundleDetails constructed from the attributes
+     */
+    public static BundleDetails fromAttributes(final FileObject bundleFile, final Attributes attributes, final BundleProperties props) {
+        if (bundleFile == null) {
+            throw new IllegalArgumentException("Bundle File cannot be null");
+        }
+        final String prefix = props.getMetaIdPrefix();
+        final BundleDetails.Builder builder = new BundleDetails.Builder();
+        builder.withBundleFile(bundleFile);
+
+        final String group = attributes.getValue(prefix + BundleManifestEntry.PRE_GROUP.getManifestName());
+        final String id = attributes.getValue(prefix + BundleManifestEntry.PRE_ID.getManifestName());
+        final String version = attributes.getValue(prefix + BundleManifestEntry.PRE_VERSION.getManifestName());
+        builder.withCoordinates(new BundleCoordinates(group, id, version));
+
+        final String dependencyGroup = attributes.getValue(prefix + BundleManifestEntry.PRE_DEPENDENCY_GROUP.getManifestName());
+        final String dependencyId = attributes.getValue(prefix + BundleManifestEntry.PRE_DEPENDENCY_ID.getManifestName());
+        final String dependencyVersion = attributes.getValue(prefix + BundleManifestEntry.PRE_DEPENDENCY_VERSION.getManifestName());
+        if (!StringUtils.isBlank(dependencyId)) {
+            builder.withDependencyCoordinates(new BundleCoordinates(dependencyGroup, dependencyId, dependencyVersion));
+        }
+        withImports(builder, attributes, prefix);
 
-            builder.withBuildBranch(attributes.getValue(BundleManifestEntry.BUILD_BRANCH.getManifestName()));
-            builder.withBuildTag(attributes.getValue(BundleManifestEntry.BUILD_TAG.getManifestName()));
-            builder.withBuildRevision(attributes.getValue(BundleManifestEntry.BUILD_REVISION.getManifestName()));
-            builder.withBuildTimestamp(attributes.getValue(BundleManifestEntry.BUILD_TIMESTAMP.getManifestName()));
-            builder.withBuildJdk(attributes.getValue(BundleManifestEntry.BUILD_JDK.getManifestName()));
-            builder.withBuiltBy(attributes.getValue(BundleManifestEntry.BUILT_BY.getManifestName()));
+        builder.withBuildBranch(attributes.getValue(BundleManifestEntry.BUILD_BRANCH.getManifestName()));
+        builder.withBuildTag(attributes.getValue(BundleManifestEntry.BUILD_TAG.getManifestName()));
+        builder.withBuildRevision(attributes.getValue(BundleManifestEntry.BUILD_REVISION.getManifestName()));
+        builder.withBuildTimestamp(attributes.getValue(BundleManifestEntry.BUILD_TIMESTAMP.getManifestName()));
+        builder.withBuildJdk(attributes.getValue(BundleManifestEntry.BUILD_JDK.getManifestName()));
+        builder.withBuiltBy(attributes.getValue(BundleManifestEntry.BUILT_BY.getManifestName()));
 
-            return builder.build();
-        }catch(IOException ioe){
-            throw new FileSystemException("failed reading manifest file " + manifestFile.getURL(),ioe);
+        return builder.build();
+    }
+
+    /**
+     * Reads the additional dependencies and the imported packages. Both are comma separated
+     * lists, dependencies are given as {@code group:id:version}.
+     */
+    private static void withImports(final BundleDetails.Builder builder, final Attributes attributes, final String prefix) {
+        final List<BundleCoordinates> dependencies = new ArrayList<>();
+        for (String coordinates : splitList(attributes.getValue(prefix + BundleManifestEntry.PRE_DEPENDENCIES.getManifestName()))) {
+            dependencies.add(BundleCoordinates.fromCoordinates(coordinates));
+        }
+        builder.withAdditionalDependencyCoordinates(dependencies);
+        builder.withImportedPackages(splitList(attributes.getValue(prefix + BundleManifestEntry.PRE_IMPORT_PACKAGE.getManifestName())));
+    }
+
+    private static List<String> splitList(final String value) {
+        final List<String> values = new ArrayList<>();
+        if (StringUtils.isBlank(value)) {
+            return values;
+        }
+        for (String item : value.split(",")) {
+            if (!StringUtils.isBlank(item)) {
+                values.add(item.trim());
+            }
         }
+        return values;
     }
 
     public static BundleCoordinates coordinateFromBundleFile(final FileObject bundleFile, BundleProperties props) throws FileSystemException{
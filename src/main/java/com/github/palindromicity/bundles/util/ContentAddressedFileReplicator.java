@@ -0,0 +1,362 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.AbstractVfsComponent;
+import org.apache.commons.vfs2.provider.FileReplicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link FileReplicator} that keeps the local copies of nested jars in a content addressed
+ * directory, where they are reused across threads, processes and restarts.
+ *
+ * <p>Copies are stored as {@code <directory>/<sha-256 of the content>/<file name>}. A small stamp
+ * file, named by the hash of the URI, size and modification time of the source and of the files
+ * it is nested in, records which content a source was copied to, so replicating an unchanged
+ * source again only reads its metadata. A nested jar that keeps its size and a fixed timestamp
+ * in a rebuilt bundle still gets a new stamp, from the bundle. Copies
+ * and stamps are written to temporary files and atomically moved into place, so concurrent
+ * processes sharing the directory never see a partial file.</p>
+ *
+ * <p>Copies are not deleted on close. When the replicator is initialized, copies that were not used
+ * within the maximum age are deleted, followed by the least recently used copies until the
+ * directory fits the maximum size, 1 GB by default. A budget of 0 disables that limit. Between
+ * starts the directory grows by the jars replicated while running.</p>
+ */
+public class ContentAddressedFileReplicator extends AbstractVfsComponent implements
+    FileReplicator {
+
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String STAMPS = "stamps";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+  private final Map<String, File> replicated = new ConcurrentHashMap<>();
+  private final LongAdder copies = new LongAdder();
+  private final LongAdder reuses = new LongAdder();
+
+  public static class Builder {
+
+    private Path directory;
+    private long maxBytes = BundleProperties.DEFAULT_REPLICATION_MAX_BYTES;
+    private long maxAgeMillis = BundleProperties.DEFAULT_REPLICATION_MAX_AGE_MILLIS;
+
+    /**
+     * Provides the directory of the copies. Defaults to {@code bundles-replicated} in
+     * {@code java.io.tmpdir}.
+     *
+     * @param directory the directory
+     * @return Builder
+     */
+    public Builder withDirectory(Path directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    /**
+     * Provides the size the directory is trimmed to when the replicator is initialized. Defaults
+     * to {@link BundleProperties#DEFAULT_REPLICATION_MAX_BYTES}.
+     *
+     * @param maxBytes the size in bytes, 0 to not limit the size
+     * @return Builder
+     */
+    public Builder withMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Provides how long an unused copy is kept.
+     *
+     * @param maxAge the age, 0 to keep copies regardless of age
+     * @param unit the unit of the age
+     * @return Builder
+     */
+    public Builder withMaxAge(long maxAge, TimeUnit unit) {
+      this.maxAgeMillis = unit.toMillis(maxAge);
+      return this;
+    }
+
+    /**
+     * Builds the {@code ContentAddressedFileReplicator}.
+     *
+     * @return {@code ContentAddressedFileReplicator}
+     */
+    public ContentAddressedFileReplicator build() {
+      if (maxBytes < 0) {
+        throw new IllegalArgumentException("maxBytes must not be negative");
+      }
+      if (maxAgeMillis < 0) {
+        throw new IllegalArgumentException("maxAge must not be negative");
+      }
+      final Path dir = directory != null ? directory
+          : Paths.get(System.getProperty("java.io.tmpdir"),
+              BundleProperties.DEFAULT_REPLICATION_DIRECTORY_NAME);
+      return new ContentAddressedFileReplicator(dir.toAbsolutePath(), maxBytes, maxAgeMillis);
+    }
+  }
+
+  private ContentAddressedFileReplicator(Path directory, long maxBytes, long maxAgeMillis) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * Creates a replicator configured by the {@code BundleProperties}.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return {@code ContentAddressedFileReplicator}
+   */
+  public static ContentAddressedFileReplicator fromProperties(BundleProperties properties) {
+    return new Builder().withDirectory(Paths.get(properties.getReplicationDirectory()))
+        .withMaxBytes(properties.getReplicationMaxBytes())
+        .withMaxAge(properties.getReplicationMaxAgeMillis(), TimeUnit.MILLISECONDS).build();
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @return the number of sources copied by this replicator
+   */
+  public long getCopyCount() {
+    return copies.sum();
+  }
+
+  /**
+   * @return the number of sources served from an existing copy
+   */
+  public long getReuseCount() {
+    return reuses.sum();
+  }
+
+  @Override
+  public void init() throws FileSystemException {
+    try {
+      clean();
+    } catch (IOException e) {
+      LOGGER.warn("Failed to clean replication directory " + directory, e);
+    }
+  }
+
+  @Override
+  public File replicateFile(FileObject srcFile, FileSelector selector)
+      throws FileSystemException {
+    if (!srcFile.isFile()) {
+      throw new FileSystemException("Only files can be replicated, not " + srcFile.getName());
+    }
+    final String stamp = HashUtils.stampOf(srcFile);
+    final File known = replicated.get(stamp);
+    if (known != null && known.isFile()) {
+      reuses.increment();
+      return known;
+    }
+    try {
+      Path copy = findCopy(srcFile, stamp);
+      if (copy != null) {
+        reuses.increment();
+        LOGGER.debug("Reusing {} for {}", copy, srcFile.getName());
+      } else {
+        copy = copy(srcFile, stamp);
+        copies.increment();
+        LOGGER.debug("Replicated {} to {}", srcFile.getName(), copy);
+      }
+      final File file = copy.toFile();
+      replicated.put(stamp, file);
+      return file;
+    } catch (FileSystemException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new FileSystemException("Failed to replicate " + srcFile.getName(), e);
+    }
+  }
+
+  /**
+   * Deletes the copies older than the maximum age, then the least recently used copies until the
+   * directory fits the maximum size.
+   *
+   * @throws IOException if the directory cannot be listed
+   */
+  public void clean() throws IOException {
+    if (!Files.isDirectory(directory) || (maxBytes == 0 && maxAgeMillis == 0)) {
+      return;
+    }
+    final List<Path> files = new ArrayList<>();
+    try (Stream<Path> hashes = Files.list(directory)) {
+      for (Path hash : hashes.filter(Files::isDirectory).collect(Collectors.toList())) {
+        if (STAMPS.equals(hash.getFileName().toString())) {
+          continue;
+        }
+        try (Stream<Path> entries = Files.list(hash)) {
+          entries.filter(Files::isRegularFile).forEach(files::add);
+        }
+      }
+    }
+    final Map<Path, Long> lastUsed = new HashMap<>();
+    for (Path copy : files) {
+      lastUsed.put(copy, Files.getLastModifiedTime(copy).toMillis());
+    }
+    files.sort(Comparator.comparing(lastUsed::get));
+    long total = 0;
+    for (Path copy : files) {
+      total += Files.size(copy);
+    }
+    final long oldest = System.currentTimeMillis() - maxAgeMillis;
+    for (Path copy : files) {
+      final boolean expired = maxAgeMillis > 0 && lastUsed.get(copy) < oldest;
+      final boolean overBudget = maxBytes > 0 && total > maxBytes;
+      if (!expired && !overBudget) {
+        break;
+      }
+      final long size = Files.size(copy);
+      if (delete(copy)) {
+        total -= size;
+        delete(copy.getParent());
+      }
+    }
+    cleanStamps();
+  }
+
+  private Path findCopy(FileObject srcFile, String stamp) throws IOException {
+    final Path stampFile = directory.resolve(STAMPS).resolve(stamp);
+    if (!Files.isRegularFile(stampFile)) {
+      return null;
+    }
+    final String hash = new String(Files.readAllBytes(stampFile), StandardCharsets.UTF_8).trim();
+    final Path copy = directory.resolve(hash).resolve(srcFile.getName().getBaseName());
+    if (!Files.isRegularFile(copy) || Files.size(copy) != srcFile.getContent().getSize()) {
+      return null;
+    }
+    // mark the copy as used, so cleaning keeps it
+    Files.setLastModifiedTime(copy, FileTime.fromMillis(System.currentTimeMillis()));
+    return copy;
+  }
+
+  private Path copy(FileObject srcFile, String stamp) throws IOException {
+    Files.createDirectories(directory.resolve(STAMPS));
+    final String name = srcFile.getName().getBaseName();
+    final Path temp = Files.createTempFile(directory, name, TEMP_SUFFIX);
+    try {
+      final MessageDigest digest = HashUtils.newDigest();
+      try (InputStream in = srcFile.getContent().getInputStream();
+          OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+      final String hash = HashUtils.toHex(digest.digest());
+      final Path target = directory.resolve(hash).resolve(name);
+      if (Files.isRegularFile(target) && Files.size(target) == Files.size(temp)) {
+        Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+      } else {
+        Files.createDirectories(target.getParent());
+        move(temp, target);
+      }
+      final Path stampTemp = Files.createTempFile(directory.resolve(STAMPS), stamp, TEMP_SUFFIX);
+      Files.write(stampTemp, hash.getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(stampTemp, directory.resolve(STAMPS).resolve(stamp),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(stampTemp);
+      }
+      return target;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void move(Path temp, Path target) throws IOException {
+    try {
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // another process replicated the same content first
+      LOGGER.debug("{} replicated concurrently", target);
+    } catch (AtomicMoveNotSupportedException e) {
+      throw new FileSystemException(
+          "Replication directory " + directory + " does not support atomic moves", e);
+    }
+  }
+
+  private void cleanStamps() throws IOException {
+    final Path stamps = directory.resolve(STAMPS);
+    if (!Files.isDirectory(stamps)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(stamps)) {
+      for (Path stamp : files.collect(Collectors.toList())) {
+        final String hash;
+        try {
+          hash = new String(Files.readAllBytes(stamp), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+          continue;
+        }
+        if (hash.isEmpty() || !Files.isDirectory(directory.resolve(hash))) {
+          delete(stamp);
+        }
+      }
+    }
+  }
+
+  private static boolean delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+      return true;
+    } catch (IOException e) {
+      // in use by another process, or a directory that is not empty
+      LOGGER.debug("Could not delete {}", path, e);
+      return false;
+    }
+  }
+}
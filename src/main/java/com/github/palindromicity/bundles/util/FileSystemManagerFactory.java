@@ -16,16 +16,17 @@
 
 package com.github.palindromicity.bundles.util;
 
-import java.io.File;
 import java.lang.invoke.MethodHandles;
-import org.apache.accumulo.start.classloader.vfs.UniqueFileReplicator;
 import org.apache.commons.vfs2.CacheStrategy;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.FilesCache;
 import org.apache.commons.vfs2.cache.SoftRefFilesCache;
 import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
 import org.apache.commons.vfs2.impl.FileContentInfoFilenameFactory;
+import org.apache.commons.vfs2.provider.FileReplicator;
 import org.apache.commons.vfs2.provider.hdfs.HdfsFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,12 +41,13 @@ public class FileSystemManagerFactory {
    * * jar
    * * HDFS
    * * file
+   * * ram
    *
    * @return FileSystemManager
    * @throws FileSystemException if there is an issue creating the FileSystemManager
    */
   public static FileSystemManager createFileSystemManager() throws FileSystemException {
-    return createFileSystemManager(null);
+    return createFileSystemManager((String[]) null);
   }
 
   /**
@@ -54,6 +56,7 @@ public class FileSystemManagerFactory {
    * * jar
    * * HDFS
    * * file
+   * * ram
    *
    * <p>Other jar types can be supported through the jarExtensionToRegister parameter</p>
    *
@@ -63,6 +66,55 @@ public class FileSystemManagerFactory {
    */
   public static FileSystemManager createFileSystemManager(String[] jarExtensionsToRegister)
       throws FileSystemException {
+    return createFileSystemManager(jarExtensionsToRegister,
+        new ContentAddressedFileReplicator.Builder().build());
+  }
+
+  /**
+   * Create a FileSystemManager suitable for our purposes, that makes local copies of nested jars
+   * with the given replicator.
+   *
+   * @param jarExtensionsToRegister Other extensions to jar compatible files
+   * @param replicator the {@code FileReplicator}, for example a
+   *     {@link ContentAddressedFileReplicator} configured from the {@code BundleProperties}
+   * @return FileSystemManager
+   * @throws FileSystemException if there is an issue creating the FileSystemManager
+   */
+  public static FileSystemManager createFileSystemManager(String[] jarExtensionsToRegister,
+      FileReplicator replicator) throws FileSystemException {
+    return createFileSystemManager(jarExtensionsToRegister, replicator, null);
+  }
+
+  /**
+   * Create a FileSystemManager configured by the {@code BundleProperties}, supporting the bundle
+   * archive extension, with the replicator and files cache they configure.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return FileSystemManager
+   * @throws FileSystemException if there is an issue creating the FileSystemManager
+   */
+  public static FileSystemManager createFileSystemManager(BundleProperties properties)
+      throws FileSystemException {
+    return createFileSystemManager(new String[]{properties.getArchiveExtension()},
+        ContentAddressedFileReplicator.fromProperties(properties),
+        BoundedFilesCache.fromProperties(properties));
+  }
+
+  /**
+   * Create a FileSystemManager suitable for our purposes, that makes local copies of nested jars
+   * with the given replicator and caches resolved files in the given cache.
+   *
+   * @param jarExtensionsToRegister Other extensions to jar compatible files
+   * @param replicator the {@code FileReplicator}
+   * @param filesCache the {@code FilesCache}, or null for VFS's soft reference cache
+   * @return FileSystemManager
+   * @throws FileSystemException if there is an issue creating the FileSystemManager
+   */
+  public static FileSystemManager createFileSystemManager(String[] jarExtensionsToRegister,
+      FileReplicator replicator, FilesCache filesCache) throws FileSystemException {
+    if (replicator == null) {
+      throw new IllegalArgumentException("replicator is required");
+    }
     DefaultFileSystemManager vfs = new DefaultFileSystemManager();
 
     if (jarExtensionsToRegister != null && jarExtensionsToRegister.length > 0) {
@@ -78,11 +130,12 @@ public class FileSystemManagerFactory {
     vfs.addProvider("file", new org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider());
     vfs.addProvider("jar", new org.apache.commons.vfs2.provider.jar.JarFileProvider());
     vfs.addProvider("hdfs", new HdfsFileProvider());
+    vfs.addProvider("ram", new RamFileProvider());
     vfs.addExtensionMap("jar", "jar");
 
     vfs.setFileContentInfoFactory(new FileContentInfoFilenameFactory());
-    vfs.setFilesCache(new SoftRefFilesCache());
-    vfs.setReplicator(new UniqueFileReplicator(new File(System.getProperty("java.io.tmpdir"))));
+    vfs.setFilesCache(filesCache != null ? filesCache : new SoftRefFilesCache());
+    vfs.setReplicator(replicator);
     vfs.setCacheStrategy(CacheStrategy.ON_RESOLVE);
     vfs.init();
     return vfs;
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Utility functions for the SHA-256 hashes content is addressed by.
+ */
+public class HashUtils {
+
+  private HashUtils() {
+  }
+
+  /**
+   * @return a new SHA-256 digest
+   */
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param bytes the bytes of a digest
+   * @return the bytes as lower case hex
+   */
+  public static String toHex(byte[] bytes) {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+      builder.append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Returns the stamp of a file, a hash of the URI, size and modification time of the file and of
+   * the files it is nested in. The stamp changes whenever the file may have changed, without
+   * reading its content.
+   *
+   * @param file the file
+   * @return the stamp, as lower case hex
+   * @throws FileSystemException if the metadata of a file cannot be read
+   */
+  public static String stampOf(FileObject file) throws FileSystemException {
+    final StringBuilder source = new StringBuilder();
+    for (FileObject layer = file; layer != null;
+        layer = layer.getFileSystem().getParentLayer()) {
+      source.append(layer.getName().getURI()).append('\n').append(layer.getContent().getSize())
+          .append('\n').append(layer.getContent().getLastModifiedTime()).append('\n');
+    }
+    return toHex(newDigest().digest(source.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A content addressed, local cache of native libraries extracted from bundles.
+ *
+ * <p>{@code System.loadLibrary} can only load libraries from the local file system, so libraries
+ * in the {@code native} folder of a bundle are copied to
+ * {@code <cache directory>/<sha-256 of the content>/<library name>}. The copy is written to a
+ * temporary file and atomically moved into place, so concurrent processes sharing the cache
+ * directory never see a partial library.</p>
+ *
+ * <p>A stamp file, named by the {@link HashUtils#stampOf(FileObject) stamp} of the library, records
+ * the content it was extracted to. Extracting an unchanged library again, for example after a
+ * restart, only reads its metadata, and neither reads nor writes its content.</p>
+ */
+public class NativeLibraryCache {
+
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String STAMPS = "stamps";
+
+  private final Path directory;
+  private final Map<String, Extracted> extracted = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a cache in the given directory. The directory is created on first use.
+   *
+   * @param directory the cache directory
+   */
+  public NativeLibraryCache(Path directory) {
+    if (directory == null) {
+      throw new IllegalArgumentException("directory is required");
+    }
+    this.directory = directory.toAbsolutePath();
+  }
+
+  /**
+   * Creates a cache in the directory configured by the {@code BundleProperties}.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return {@code NativeLibraryCache}
+   */
+  public static NativeLibraryCache fromProperties(BundleProperties properties) {
+    return new NativeLibraryCache(Paths.get(properties.getNativeCacheDirectory()));
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Returns a local copy of the library, extracting it if it is not yet in the cache.
+   *
+   * @param library the library within a bundle
+   * @return the absolute path of the local copy
+   * @throws IOException if the library cannot be read or written
+   */
+  public Path extract(FileObject library) throws IOException {
+    return lookup(library).path;
+  }
+
+  /**
+   * Returns the sha-256 of the content of the library, extracting it if it is not yet in the
+   * cache.
+   *
+   * @param library the library within a bundle
+   * @return the sha-256 of the content, as lower case hex
+   * @throws IOException if the library cannot be read or written
+   */
+  public String hashOf(FileObject library) throws IOException {
+    return lookup(library).hash;
+  }
+
+  private Extracted lookup(FileObject library) throws IOException {
+    final String key = library.getName().getURI();
+    Extracted copy = extracted.get(key);
+    if (copy != null && Files.isRegularFile(copy.path)) {
+      return copy;
+    }
+    final String stamp = HashUtils.stampOf(library);
+    copy = findExtracted(library, stamp);
+    if (copy == null) {
+      copy = doExtract(library, stamp);
+    }
+    extracted.put(key, copy);
+    return copy;
+  }
+
+  private Extracted findExtracted(FileObject library, String stamp) throws IOException {
+    final Path stampFile = directory.resolve(STAMPS).resolve(stamp);
+    if (!Files.isRegularFile(stampFile)) {
+      return null;
+    }
+    final String hash = new String(Files.readAllBytes(stampFile), StandardCharsets.UTF_8).trim();
+    final Path target = directory.resolve(hash).resolve(library.getName().getBaseName());
+    if (!Files.isRegularFile(target) || Files.size(target) != library.getContent().getSize()) {
+      return null;
+    }
+    LOGGER.debug("Reusing native library {} for {}", target, library.getName());
+    return new Extracted(hash, target);
+  }
+
+  private Extracted doExtract(FileObject library, String stamp) throws IOException {
+    Files.createDirectories(directory.resolve(STAMPS));
+    final String name = library.getName().getBaseName();
+    final Path temp = Files.createTempFile(directory, name, ".tmp");
+    try {
+      final MessageDigest digest = HashUtils.newDigest();
+      try (InputStream in = library.getContent().getInputStream();
+          OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+      final String hash = HashUtils.toHex(digest.digest());
+      final Path target = directory.resolve(hash).resolve(name);
+      if (Files.isRegularFile(target) && Files.size(target) == Files.size(temp)) {
+        LOGGER.debug("Reusing native library {} for {}", target, library.getName());
+      } else {
+        Files.createDirectories(target.getParent());
+        move(temp, target);
+        LOGGER.debug("Extracted native library {} to {}", library.getName(), target);
+      }
+      final Path stampTemp = Files.createTempFile(directory.resolve(STAMPS), stamp, ".tmp");
+      try {
+        Files.write(stampTemp, hash.getBytes(StandardCharsets.UTF_8));
+        move(stampTemp, directory.resolve(STAMPS).resolve(stamp));
+      } finally {
+        Files.deleteIfExists(stampTemp);
+      }
+      return new Extracted(hash, target);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void move(Path temp, Path target) throws IOException {
+    try {
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // another process extracted the same content first
+      LOGGER.debug("{} extracted concurrently", target);
+    } catch (AtomicMoveNotSupportedException e) {
+      throw new FileSystemException(
+          "Native library cache " + directory + " does not support atomic moves", e);
+    }
+  }
+
+  private static final class Extracted {
+
+    private final String hash;
+    private final Path path;
+
+    Extracted(String hash, Path path) {
+      this.hash = hash;
+      this.path = path;
+    }
+  }
+}
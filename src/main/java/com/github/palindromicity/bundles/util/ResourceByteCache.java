@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, off-heap cache of bundle resource bytes, keyed by bundle coordinates and resource
+ * name.
+ *
+ * <p>Resources are stored in direct {@link ByteBuffer}s, so a large cache does not add to heap
+ * pressure, and are evicted least recently used first once the byte budget is exceeded. Evicted
+ * buffers are released by the garbage collector, so {@code -XX:MaxDirectMemorySize} must allow
+ * for the budget. Streams returned by the cache read from a view of the buffer and are safe to
+ * use concurrently.</p>
+ */
+public class ResourceByteCache {
+
+  private final long maxBytes;
+  private final long maxEntryBytes;
+  private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private long bytes;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxBytes the total byte budget
+   * @param maxEntryBytes the largest resource that will be cached
+   */
+  public ResourceByteCache(long maxBytes, long maxEntryBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be greater than 0");
+    }
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+  }
+
+  /**
+   * Creates the cache configured by the {@code BundleProperties}.
+   *
+   * @param properties the {@code BundleProperties}
+   * @return {@code ResourceByteCache} or null if the cache is disabled
+   */
+  public static ResourceByteCache fromProperties(BundleProperties properties) {
+    final long maxBytes = properties.getResourceCacheMaxBytes();
+    if (maxBytes <= 0) {
+      return null;
+    }
+    return new ResourceByteCache(maxBytes, properties.getResourceCacheMaxEntryBytes());
+  }
+
+  /**
+   * Returns a stream over the cached resource. A resource that is not cached may still be served
+   * by a parent, so only hits are counted here, see {@link #recordMiss()}.
+   *
+   * @param coordinates the bundle coordinates
+   * @param name the resource name
+   * @return {@code InputStream} or null if the resource is not cached
+   */
+  public InputStream get(String coordinates, String name) {
+    final ByteBuffer buffer;
+    synchronized (entries) {
+      buffer = entries.get(key(coordinates, name));
+    }
+    if (buffer == null) {
+      return null;
+    }
+    hits.increment();
+    return new ByteBufferInputStream(buffer.duplicate());
+  }
+
+  /**
+   * Records a miss, a resource that was not cached and was then served by the bundle itself.
+   */
+  public void recordMiss() {
+    misses.increment();
+  }
+
+  /**
+   * Returns true if a resource of the given size would be cached.
+   *
+   * @param size the resource size
+   * @return true if the resource fits
+   */
+  public boolean accepts(long size) {
+    return size >= 0 && size <= maxEntryBytes;
+  }
+
+  /**
+   * Caches a resource, evicting the least recently used resources to stay within the budget.
+   *
+   * @param coordinates the bundle coordinates
+   * @param name the resource name
+   * @param content the resource bytes
+   * @return true if the resource was cached
+   */
+  public boolean put(String coordinates, String name, byte[] content) {
+    if (!accepts(content.length)) {
+      return false;
+    }
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+    buffer.put(content).flip();
+    final ByteBuffer readOnly = buffer.asReadOnlyBuffer();
+    synchronized (entries) {
+      final ByteBuffer previous = entries.put(key(coordinates, name), readOnly);
+      if (previous != null) {
+        bytes -= previous.capacity();
+      }
+      bytes += content.length;
+      final Iterator<ByteBuffer> it = entries.values().iterator();
+      while (bytes > maxBytes && it.hasNext()) {
+        bytes -= it.next().capacity();
+        it.remove();
+        evictions.increment();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Removes all cached resources.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      bytes = 0;
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getBytes() {
+    synchronized (entries) {
+      return bytes;
+    }
+  }
+
+  public int getEntryCount() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Returns the bytes cached for one bundle.
+   *
+   * @param coordinates the bundle coordinates
+   * @return the cached bytes
+   */
+  public long getBytes(String coordinates) {
+    final String prefix = key(coordinates, "");
+    long total = 0;
+    synchronized (entries) {
+      for (Map.Entry<String, ByteBuffer> entry : entries.entrySet()) {
+        if (entry.getKey().startsWith(prefix)) {
+          total += entry.getValue().capacity();
+        }
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of resources cached for one bundle.
+   *
+   * @param coordinates the bundle coordinates
+   * @return the number of cached resources
+   */
+  public int getEntryCount(String coordinates) {
+    final String prefix = key(coordinates, "");
+    int count = 0;
+    synchronized (entries) {
+      for (String key : entries.keySet()) {
+        if (key.startsWith(prefix)) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return hits divided by lookups, or 0 if there were no lookups
+   */
+  public double getHitRate() {
+    final long h = hits.sum();
+    final long total = h + misses.sum();
+    return total == 0 ? 0.0 : (double) h / total;
+  }
+
+  private static String key(String coordinates, String name) {
+    return coordinates + '!' + name;
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
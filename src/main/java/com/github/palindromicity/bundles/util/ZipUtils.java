@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Utility functions for reading zip files, such as jars, in place through VFS.
+ *
+ * <p>When the file system of the zip file supports random access, only the central directory at
+ * its end, and the entries asked for, are read. Otherwise, for example for a jar nested in a
+ * bundle, or for zip64 files, the zip file is read once as a stream.</p>
+ */
+public class ZipUtils {
+
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+  /**
+   * An entry of the central directory.
+   */
+  private static class DirectoryEntry {
+
+    private final String name;
+    private final int method;
+    private final long compressedSize;
+    private final long size;
+    private final long offset;
+
+    DirectoryEntry(String name, int method, long compressedSize, long size, long offset) {
+      this.name = name;
+      this.method = method;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.offset = offset;
+    }
+  }
+
+  private ZipUtils() {
+  }
+
+  /**
+   * Returns the names of the entries of a zip file, without making a local copy of it.
+   *
+   * @param zip the zip file
+   * @return the entry names, in the order they are stored
+   * @throws IOException if the zip file cannot be read
+   */
+  public static List<String> entryNames(FileObject zip) throws IOException {
+    final List<DirectoryEntry> directory = readCentralDirectory(zip);
+    final List<String> names = new ArrayList<>();
+    if (directory != null) {
+      for (DirectoryEntry entry : directory) {
+        names.add(entry.name);
+      }
+      return names;
+    }
+    try (InputStream in = zip.getContent().getInputStream();
+        ZipInputStream zipIn = new ZipInputStream(in)) {
+      for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+        names.add(entry.getName());
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Reads an entry of a zip file, without making a local copy of it.
+   *
+   * @param zip the zip file
+   * @param name the name of the entry
+   * @return the content of the entry, or null if the zip file has no such entry
+   * @throws IOException if the zip file cannot be read
+   */
+  public static byte[] readEntry(FileObject zip, String name) throws IOException {
+    final List<DirectoryEntry> directory = readCentralDirectory(zip);
+    if (directory != null) {
+      final DirectoryEntry entry = findEntry(directory, name);
+      if (entry == null) {
+        return null;
+      }
+      final byte[] content = readEntry(zip, entry);
+      if (content != null) {
+        return content;
+      }
+    }
+    try (InputStream in = zip.getContent().getInputStream();
+        ZipInputStream zipIn = new ZipInputStream(in)) {
+      for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+        if (entry.getName().equals(name)) {
+          final ByteArrayOutputStream out = new ByteArrayOutputStream();
+          final byte[] buffer = new byte[8192];
+          int read;
+          while ((read = zipIn.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+          }
+          return out.toByteArray();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static DirectoryEntry findEntry(List<DirectoryEntry> directory, String name) {
+    for (DirectoryEntry entry : directory) {
+      if (entry.name.equals(name)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads the content of an entry through its local header, or returns null if it uses a layout
+   * this reader does not handle, so the zip file is read as a stream instead.
+   */
+  private static byte[] readEntry(FileObject zip, DirectoryEntry entry) throws IOException {
+    if ((entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED)
+        || entry.compressedSize > Integer.MAX_VALUE || entry.size > Integer.MAX_VALUE) {
+      return null;
+    }
+    try (RandomAccessContent content = zip.getContent()
+        .getRandomAccessContent(RandomAccessMode.READ)) {
+      final byte[] header = new byte[LOCAL_HEADER_SIZE];
+      content.seek(entry.offset);
+      content.readFully(header);
+      if (readInt(header, 0) != LOCAL_HEADER) {
+        return null;
+      }
+      final byte[] data = new byte[(int) entry.compressedSize];
+      content.seek(entry.offset + LOCAL_HEADER_SIZE + readShort(header, 26)
+          + readShort(header, 28));
+      content.readFully(data);
+      if (entry.method == ZipEntry.STORED) {
+        return data;
+      }
+      final Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(data);
+        final byte[] inflated = new byte[(int) entry.size];
+        int length = 0;
+        while (length < inflated.length && !inflater.finished()) {
+          final int read = inflater.inflate(inflated, length, inflated.length - length);
+          if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            return null;
+          }
+          length += read;
+        }
+        return length == inflated.length ? inflated : null;
+      } catch (DataFormatException e) {
+        return null;
+      } finally {
+        inflater.end();
+      }
+    }
+  }
+
+  /**
+   * Reads the central directory, or returns null if the file system does not support random
+   * access, or the zip file has a layout this reader does not handle, such as zip64, so it is read
+   * as a stream instead.
+   */
+  private static List<DirectoryEntry> readCentralDirectory(FileObject zip) throws IOException {
+    if (!zip.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+      return null;
+    }
+    try (RandomAccessContent content = zip.getContent()
+        .getRandomAccessContent(RandomAccessMode.READ)) {
+      final long length = content.length();
+      final int tailSize = (int) Math.min(length,
+          END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+      final byte[] tail = new byte[tailSize];
+      content.seek(length - tailSize);
+      content.readFully(tail);
+      int end = -1;
+      for (int pos = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; pos >= 0; pos--) {
+        if (readInt(tail, pos) == END_OF_CENTRAL_DIRECTORY) {
+          end = pos;
+          break;
+        }
+      }
+      if (end == -1) {
+        return null;
+      }
+      final long size = readUnsignedInt(tail, end + 12);
+      final long offset = readUnsignedInt(tail, end + 16);
+      if (size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL || offset + size > length) {
+        return null;
+      }
+      final byte[] directory = new byte[(int) size];
+      content.seek(offset);
+      content.readFully(directory);
+
+      final List<DirectoryEntry> entries = new ArrayList<>();
+      int pos = 0;
+      while (pos + CENTRAL_DIRECTORY_HEADER_SIZE <= directory.length) {
+        if (readInt(directory, pos) != CENTRAL_DIRECTORY_HEADER) {
+          return null;
+        }
+        final int nameLength = readShort(directory, pos + 28);
+        final int extraLength = readShort(directory, pos + 30);
+        final int commentLength = readShort(directory, pos + 32);
+        if (pos + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength > directory.length) {
+          return null;
+        }
+        final long compressedSize = readUnsignedInt(directory, pos + 20);
+        final long uncompressedSize = readUnsignedInt(directory, pos + 24);
+        final long localOffset = readUnsignedInt(directory, pos + 42);
+        if (compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL
+            || localOffset == 0xFFFFFFFFL) {
+          return null;
+        }
+        entries.add(new DirectoryEntry(new String(directory,
+            pos + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength, StandardCharsets.UTF_8),
+            readShort(directory, pos + 10), compressedSize, uncompressedSize, localOffset));
+        pos += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+      return entries;
+    }
+  }
+
+  private static int readShort(byte[] bytes, int pos) {
+    return (bytes[pos] & 0xFF) | (bytes[pos + 1] & 0xFF) << 8;
+  }
+
+  private static int readInt(byte[] bytes, int pos) {
+    return readShort(bytes, pos) | readShort(bytes, pos + 2) << 16;
+  }
+
+  private static long readUnsignedInt(byte[] bytes, int pos) {
+    return readInt(bytes, pos) & 0xFFFFFFFFL;
+  }
+}
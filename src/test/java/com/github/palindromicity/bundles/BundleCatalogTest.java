@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.BundleDirectoryScanner;
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BundleCatalogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SyntheticBundleBuilder parent = new SyntheticBundleBuilder()
+      .withCoordinates("group", "parent", "1.0").withExtensionType(AbstractFoo.class)
+      .withJarCount(2).withClassesPerJar(2).withExtensionClassesPerJar(1);
+  private final SyntheticBundleBuilder child = new SyntheticBundleBuilder()
+      .withCoordinates("group", "child", "1.0").withDependencyCoordinates("group", "parent", "1.0")
+      .withExtensionType(AbstractFoo.class).withClassesPerJar(2).withExtensionClassesPerJar(1);
+
+  private Path libPath;
+  private BundleProperties properties;
+  private FileSystemManager fileSystemManager;
+
+  @Before
+  public void beforeTest() throws Exception {
+    libPath = folder.newFolder("lib").toPath();
+    parent.writeTo(libPath);
+    child.writeTo(Files.createDirectories(libPath.resolve("children")));
+    properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, libPath.toString());
+    properties.setProperty(BundleProperties.BUNDLE_EXTENSION_TYPE_PREFIX + "foo",
+        AbstractFoo.class.getName());
+    fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{properties.getArchiveExtension()});
+  }
+
+  @After
+  public void afterTest() {
+    BundleSystem.reset();
+  }
+
+  private FileObject lib() throws Exception {
+    return fileSystemManager.resolveFile(libPath.toUri());
+  }
+
+  @Test
+  public void testIndexIsReadBack() throws Exception {
+    BundleCatalog.index(lib(), properties).writeTo(lib(), properties);
+    Assert.assertTrue(Files.exists(libPath.resolve(properties.getCatalogFileName())));
+
+    BundleCatalog catalog = BundleCatalog.read(lib(), properties);
+    Assert.assertNotNull(catalog);
+    Assert.assertEquals(2, catalog.getEntries().size());
+    Assert.assertNotNull(catalog.getVersion());
+
+    BundleCatalog.Entry parentEntry = catalog.getEntry(parent.getFileName());
+    Assert.assertEquals("parent", parentEntry.getAttributes().getValue("Bundle-Id"));
+    Assert.assertEquals(2, parentEntry.getJars().size());
+    Assert.assertEquals(Files.size(libPath.resolve(parent.getFileName())),
+        parentEntry.getSize());
+    Assert.assertEquals(64, parentEntry.getChecksum().length());
+    Assert.assertEquals(new HashSet<>(parent.getExtensionClassNames()),
+        new HashSet<>(parentEntry.getExtensions().get("foo")));
+
+    BundleCatalog.Entry childEntry = catalog.getEntry("children/" + child.getFileName());
+    Assert.assertNotNull(childEntry);
+    Assert.assertEquals("parent", childEntry.getAttributes().getValue("Bundle-Dependency-Id"));
+    Assert.assertEquals(new HashSet<>(child.getExtensionClassNames()),
+        new HashSet<>(childEntry.getExtensions().get("foo")));
+  }
+
+  @Test
+  public void testMissingCatalogIsNull() throws Exception {
+    Assert.assertNull(BundleCatalog.read(lib(), properties));
+  }
+
+  @Test
+  public void testCatalogOfAnotherFormatIsIgnored() throws Exception {
+    BundleCatalog.index(lib(), properties).writeTo(lib(), properties);
+    Path catalogPath = libPath.resolve(properties.getCatalogFileName());
+    String content = new String(Files.readAllBytes(catalogPath), StandardCharsets.UTF_8);
+    Assert.assertTrue(content.contains(BundleCatalog.FORMAT + ": " + BundleCatalog.FORMAT_VERSION));
+    Files.write(catalogPath, content.replace(
+        BundleCatalog.FORMAT + ": " + BundleCatalog.FORMAT_VERSION, BundleCatalog.FORMAT + ": 0")
+        .getBytes(StandardCharsets.UTF_8));
+    fileSystemManager.getFilesCache().clear(lib().getFileSystem());
+    Assert.assertNull(BundleCatalog.read(lib(), properties));
+  }
+
+  @Test
+  public void testChangedBundleIsStale() throws Exception {
+    BundleCatalog catalog = BundleCatalog.index(lib(), properties);
+    List<BundleDirectoryScanner.ListedFile> listed = new BundleDirectoryScanner.Builder()
+        .withExtensions(properties.getArchiveExtension()).withMaxDepth(1).build().scan(lib());
+    Assert.assertEquals(1, listed.size());
+    Assert.assertNotNull(catalog.getCurrentEntry(lib(), listed.get(0)));
+
+    Path parentPath = libPath.resolve(parent.getFileName());
+    Files.setLastModifiedTime(parentPath,
+        FileTime.fromMillis(Files.getLastModifiedTime(parentPath).toMillis() - 60000));
+    fileSystemManager.getFilesCache().clear(lib().getFileSystem());
+    listed = new BundleDirectoryScanner.Builder()
+        .withExtensions(properties.getArchiveExtension()).withMaxDepth(1).build().scan(lib());
+    Assert.assertNull(catalog.getCurrentEntry(lib(), listed.get(0)));
+  }
+
+  @Test
+  public void testMapperUsesCurrentEntries() throws Exception {
+    ExtensionMapping opened = BundleMapper.mapBundles(fileSystemManager, properties);
+    BundleCatalog.index(lib(), properties).writeTo(lib(), properties);
+
+    // a current entry is mapped without opening the bundle, even if its content is unreadable
+    Path parentPath = libPath.resolve(parent.getFileName());
+    FileTime lastModified = Files.getLastModifiedTime(parentPath);
+    Files.write(parentPath, new byte[(int) Files.size(parentPath)]);
+    Files.setLastModifiedTime(parentPath, lastModified);
+
+    FileSystemManager other = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{properties.getArchiveExtension()});
+    ExtensionMapping cataloged = BundleMapper.mapBundles(other, properties);
+    Assert.assertEquals(opened.getAllExtensions(), cataloged.getAllExtensions());
+  }
+
+  @Test
+  public void testCatalogRecordsExtensionTypes() throws Exception {
+    BundleCatalog.index(lib(), properties).writeTo(lib(), properties);
+    BundleCatalog catalog = BundleCatalog.read(lib(), properties);
+    Assert.assertEquals(AbstractFoo.class.getName(), catalog.getExtensionTypes().get("foo"));
+    Assert.assertTrue(catalog.isIndexedFor(properties));
+
+    properties.setProperty(BundleProperties.BUNDLE_EXTENSION_TYPE_PREFIX + "bar",
+        AbstractFoo.class.getName());
+    Assert.assertFalse(catalog.isIndexedFor(properties));
+  }
+
+  @Test
+  public void testMapperOpensBundlesForTypesNotIndexed() throws Exception {
+    ExtensionMapping opened = BundleMapper.mapBundles(fileSystemManager, properties);
+    BundleProperties indexProperties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    indexProperties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, libPath.toString());
+    indexProperties.setProperty(BundleProperties.BUNDLE_EXTENSION_TYPE_PREFIX + "bar",
+        AbstractFoo.class.getName());
+    BundleCatalog.index(lib(), indexProperties).writeTo(lib(), indexProperties);
+
+    // the catalog has the extensions as "bar", the reader configures "foo"
+    FileSystemManager other = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{properties.getArchiveExtension()});
+    ExtensionMapping mapping = BundleMapper.mapBundles(other, properties);
+    Assert.assertFalse(mapping.getAllExtensions().containsKey("bar"));
+    Assert.assertEquals(opened.getAllExtensions(), mapping.getAllExtensions());
+  }
+
+  @Test
+  public void testBundleSystemLoadsWithCatalog() throws Exception {
+    BundleCatalog.index(lib(), properties).writeTo(lib(), properties);
+    BundleSystem bundleSystem = new BundleSystemBuilder().withBundleProperties(properties)
+        .withExtensionClasses(Arrays.asList(AbstractFoo.class)).build();
+    for (String className : child.getExtensionClassNames()) {
+      Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    }
+    for (String className : parent.getExtensionClassNames()) {
+      Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    }
+  }
+}
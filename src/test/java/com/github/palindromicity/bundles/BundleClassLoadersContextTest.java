@@ -18,21 +18,36 @@ package com.github.palindromicity.bundles;
 
 import static org.junit.Assert.*;
 
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import com.github.palindromicity.bundles.bundle.Bundle;
 import com.github.palindromicity.bundles.util.BundleProperties;
 import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
 import com.github.palindromicity.bundles.util.TestUtil;
+import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemManager;
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class BundleClassLoadersContextTest {
   static final Map<String, String> EMPTY_MAP = new HashMap<String, String>();
 
+  private static final String DEPENDENCIES = "Bundle"
+      + BundleManifestEntry.PRE_DEPENDENCIES.getManifestName();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @AfterClass
   public static void after() {
     BundleClassLoaders.reset();
@@ -125,4 +140,72 @@ public class BundleClassLoadersContextTest {
       );
     }
   }
-}
\ No newline at end of file
+
+  private BundleClassLoadersContext build(Path lib, String explicitBundle,
+      Set<Bundle> loadedBundles) throws Exception {
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, lib.toString());
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[] {properties.getArchiveExtension()});
+    FileObject libDir = fileSystemManager.resolveFile(lib.toUri());
+    return new BundleClassLoadersContext.Builder().withFileSystemManager(fileSystemManager)
+        .withExtensionDirs(Collections.singletonList(libDir)).withBundleProperties(properties)
+        .withLoadedBundles(loadedBundles).build(explicitBundle);
+  }
+
+  private static Set<String> coordinates(BundleClassLoadersContext context) {
+    Set<String> coordinates = new HashSet<>();
+    for (Bundle bundle : context.getBundles().values()) {
+      coordinates.add(bundle.getBundleDetails().getCoordinates().getCoordinates());
+    }
+    return coordinates;
+  }
+
+  @Test
+  public void testDependenciesWithoutVersionResolve() throws Exception {
+    Path lib = folder.newFolder("lib").toPath();
+    new SyntheticBundleBuilder().withCoordinates("group", "shared", "1.0").writeTo(lib);
+    new SyntheticBundleBuilder().withCoordinates("group", "by-id", "1.0")
+        .withManifestEntry(DEPENDENCIES, "shared").writeTo(lib);
+    new SyntheticBundleBuilder().withCoordinates("group", "by-group", "1.0")
+        .withManifestEntry(DEPENDENCIES, "group:shared").writeTo(lib);
+    new SyntheticBundleBuilder().withCoordinates("group", "other-group", "1.0")
+        .withManifestEntry(DEPENDENCIES, "other:shared").writeTo(lib);
+
+    BundleClassLoadersContext context = build(lib, null, Collections.<Bundle>emptySet());
+    Assert.assertEquals(new HashSet<>(Arrays.asList("group:shared:1.0",
+        "group:by-id:1.0", "group:by-group:1.0")), coordinates(context));
+  }
+
+  @Test
+  public void testAmbiguousDependencyIsNotResolved() throws Exception {
+    Path lib = folder.newFolder("lib").toPath();
+    new SyntheticBundleBuilder().withCoordinates("group", "shared", "1.0").writeTo(lib);
+    new SyntheticBundleBuilder().withCoordinates("group", "shared", "2.0").writeTo(lib);
+    new SyntheticBundleBuilder().withCoordinates("group", "ambiguous", "1.0")
+        .withManifestEntry(DEPENDENCIES, "group:shared").writeTo(lib);
+    new SyntheticBundleBuilder().withCoordinates("group", "exact", "1.0")
+        .withManifestEntry(DEPENDENCIES, "group:shared:2.0").writeTo(lib);
+
+    BundleClassLoadersContext context = build(lib, null, Collections.<Bundle>emptySet());
+    Assert.assertEquals(new HashSet<>(Arrays.asList("group:shared:1.0",
+        "group:shared:2.0", "group:exact:1.0")), coordinates(context));
+  }
+
+  @Test
+  public void testBundleAddedLaterResolvesLoadedDependencies() throws Exception {
+    Path lib = folder.newFolder("lib").toPath();
+    new SyntheticBundleBuilder().withCoordinates("group", "shared", "1.0").writeTo(lib);
+    BundleClassLoadersContext first = build(lib, null, Collections.<Bundle>emptySet());
+
+    Path later = folder.newFolder("later").toPath();
+    SyntheticBundleBuilder added = new SyntheticBundleBuilder()
+        .withCoordinates("group", "added", "1.0")
+        .withManifestEntry(DEPENDENCIES, "group:shared:1.0");
+    added.writeTo(later);
+    BundleClassLoadersContext second = build(later, added.getFileName(),
+        new HashSet<>(first.getBundles().values()));
+    Assert.assertEquals(Collections.singleton("group:added:1.0"), coordinates(second));
+  }
+}
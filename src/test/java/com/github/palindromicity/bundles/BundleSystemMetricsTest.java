@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.metrics.BundleFootprint;
+import com.github.palindromicity.bundles.metrics.BundleSystemMXBean;
+import com.github.palindromicity.bundles.metrics.ClassLoaderStats;
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import com.github.palindromicity.bundles.util.SyntheticDeployment;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BundleSystemMetricsTest {
+
+  private static final Path LIB = Paths.get("target/metrics-bundles/lib");
+
+  @After
+  public void afterTest() throws Exception {
+    BundleSystem.reset();
+    FileUtils.deleteDirectory(new File("target/metrics-bundles"));
+  }
+
+  @Test
+  public void testMetricsArePublished() throws Exception {
+    SyntheticBundleBuilder template = new SyntheticBundleBuilder()
+        .withExtensionType(AbstractFoo.class).withClassesPerJar(3).withExtensionClassesPerJar(1);
+    SyntheticDeployment deployment = new SyntheticDeployment().withBundleCount(2)
+        .withTemplate(template);
+    deployment.writeTo(LIB);
+
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, LIB.toString());
+    BundleSystem bundleSystem = new BundleSystemBuilder().withBundleProperties(properties)
+        .withExtensionClasses(Arrays.asList(AbstractFoo.class)).build();
+
+    SyntheticBundleBuilder first = new SyntheticBundleBuilder()
+        .withCoordinates(deployment.getCoordinates(0).getGroup(),
+            deployment.getCoordinates(0).getId(), deployment.getCoordinates(0).getVersion())
+        .withExtensionType(AbstractFoo.class).withClassesPerJar(3).withExtensionClassesPerJar(1);
+    String className = first.getExtensionClassNames().get(0);
+    Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(BundleSystemMetrics.OBJECT_NAME);
+    Assert.assertTrue(server.isRegistered(name));
+
+    BundleSystemMXBean mxBean = JMX.newMXBeanProxy(server, name, BundleSystemMXBean.class);
+    Assert.assertEquals(2, mxBean.getBundleCount());
+    Assert.assertEquals(1, mxBean.getCreateInstanceCount());
+    Assert.assertEquals(0, mxBean.getCreateInstanceFailures());
+    Assert.assertTrue(mxBean.getExtensionCounts().get(AbstractFoo.class.getName()) >= 2);
+
+    List<ClassLoaderStats> stats = new BundleSystemMetrics().getBundleClassLoaderStats();
+    ClassLoaderStats loaded = stats.stream()
+        .filter((s) -> s.getBundleCoordinates()
+            .equals(deployment.getCoordinates(0).getCoordinates()))
+        .findFirst().get();
+    Assert.assertTrue(loaded.getClassesDefined() >= 1);
+    Assert.assertTrue(loaded.getBytesDefined() > 0);
+    Assert.assertTrue(loaded.getFindClassCount() >= 1);
+
+    List<BundleFootprint> footprints = new BundleSystemMetrics().getBundleFootprints();
+    Assert.assertEquals(2, footprints.size());
+    for (int i = 1; i < footprints.size(); i++) {
+      Assert.assertTrue(
+          footprints.get(i - 1).getMemoryCost() >= footprints.get(i).getMemoryCost());
+    }
+    BundleFootprint footprint = new BundleSystemMetrics()
+        .getBundleFootprints(BundleFootprint.BY_CLASS_BYTES).get(0);
+    Assert.assertEquals(deployment.getCoordinates(0).getCoordinates(),
+        footprint.getBundleCoordinates());
+    Assert.assertTrue(footprint.getClassBytes() > 0);
+    Assert.assertTrue(footprint.getOpenFileSystems() >= 1);
+
+    BundleSystem.reset();
+    Assert.assertFalse(server.isRegistered(name));
+  }
+}
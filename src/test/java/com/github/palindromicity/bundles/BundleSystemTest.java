@@ -19,10 +19,12 @@ package com.github.palindromicity.bundles;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import com.github.palindromicity.bundles.BundleThreadContextClassLoaderTest.WithPropertiesConstructor;
 import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.metrics.StartupReport;
 import com.github.palindromicity.bundles.util.BundleProperties;
 import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
 import org.apache.commons.io.FileUtils;
@@ -68,6 +70,27 @@ public class BundleSystemTest {
 
   }
 
+  @Test
+  public void testStartupReport() throws Exception {
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, "src/test/resources/BundleMapper/lib");
+    BundleSystem bundleSystem = new BundleSystemBuilder().withBundleProperties(properties)
+        .withExtensionClasses(
+            Arrays.asList(AbstractFoo.class)).build();
+    StartupReport report = bundleSystem.getStartupReport();
+    Assert.assertNotNull(report);
+    Assert.assertEquals(Arrays.asList("fileSystemManager", "extensionClasses", "systemBundle",
+        "libraryDirectories", "bundleClassLoaders", "extensionManager"),
+        new ArrayList<>(report.getPhaseNanos().keySet()));
+    Assert.assertEquals(BundleClassLoaders.getInstance().getBundles().size(),
+        report.getBundles().size());
+    Assert.assertTrue(report.getSchemes().get("file").getFiles() >= report.getBundles().size());
+    Assert.assertEquals(1, report.getSlowestBundles(1).size());
+    Assert.assertTrue(report.asMap().containsKey("slowestBundles"));
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void createInstanceFail() throws Exception {
     BundleSystem bundleSystem = new BundleSystemBuilder().build();
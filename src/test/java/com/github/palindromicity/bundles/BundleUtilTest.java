@@ -21,13 +21,18 @@ import com.github.palindromicity.bundles.bundle.BundleDetails;
 import com.github.palindromicity.bundles.util.BundleProperties;
 import com.github.palindromicity.bundles.util.BundleUtil;
 import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemManager;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -36,6 +41,10 @@ import static org.junit.Assert.assertNull;
 
 public class BundleUtilTest {
     Map<String, String> additionalProperties = new HashMap<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testManifestWithVersioningAndBuildInfo() throws IOException , URISyntaxException{
 
@@ -123,4 +132,32 @@ public class BundleUtilTest {
         BundleUtil.fromBundleTestDirectory(manifest, properties );
     }
 
+    @Test
+    public void testManifestWithImports() throws IOException, URISyntaxException {
+        BundleProperties properties = BundleProperties.createBasicBundleProperties("src/test/resources/bundle.properties", additionalProperties);
+        FileSystemManager fileSystemManager = FileSystemManagerFactory.createFileSystemManager(new String[] {properties.getArchiveExtension()});
+
+        final Path bundle = new SyntheticBundleBuilder().withCoordinates("group", "importer", "1.0")
+                .withManifestEntry("Bundle" + BundleManifestEntry.PRE_DEPENDENCIES.getManifestName(), "group:shared:1.0, other-shared")
+                .withManifestEntry("Bundle" + BundleManifestEntry.PRE_IMPORT_PACKAGE.getManifestName(), "org.example.api,org.example.util.*")
+                .writeTo(folder.getRoot().toPath());
+        final BundleDetails bundleDetails = BundleUtil.fromBundleFile(fileSystemManager.resolveFile(bundle.toUri()), properties);
+
+        assertNull(bundleDetails.getDependencyCoordinates());
+        assertEquals(Arrays.asList(new BundleCoordinates("group", "shared", "1.0"),
+                new BundleCoordinates(null, "other-shared", null)), bundleDetails.getAdditionalDependencyCoordinates());
+        assertEquals(Arrays.asList("org.example.api", "org.example.util.*"), bundleDetails.getImportedPackages());
+    }
+
+    @Test
+    public void testManifestWithoutImports() throws IOException, URISyntaxException {
+        BundleProperties properties = BundleProperties.createBasicBundleProperties("src/test/resources/bundle.properties", additionalProperties);
+        FileSystemManager fileSystemManager = FileSystemManagerFactory.createFileSystemManager(new String[] {properties.getArchiveExtension()});
+
+        final FileObject bundleDir = fileSystemManager.resolveFile(BundleProperties.getUri("src/test/resources/utils-bundles/bundle-with-versioning"));
+        final BundleDetails bundleDetails = BundleUtil.fromBundleTestDirectory(bundleDir, properties);
+        Assert.assertTrue(bundleDetails.getAdditionalDependencyCoordinates().isEmpty());
+        Assert.assertTrue(bundleDetails.getImportedPackages().isEmpty());
+    }
+
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.NativeLibraryCache;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExtractedBundleClassLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void afterTest() {
+    BundleSystem.reset();
+  }
+
+  @Test
+  public void testClassesAreLoadedFromExtractedJars() throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "extracted", "1.0").withExtensionType(MessageParser.class)
+        .withJarCount(2).withClassesPerJar(2);
+    Path bundle = builder.writeTo(folder.newFolder("lib").toPath());
+    Path extracted = folder.newFolder("extracted").toPath();
+
+    ExtractedBundleClassLoader classLoader = new ExtractedBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager)
+        .withBundleFile(fileSystemManager.resolveFile(bundle.toUri()))
+        .withBundleCoordinates(builder.getCoordinates())
+        .withExtractionCache(new NativeLibraryCache(extracted))
+        .withParentClassloader(getClass().getClassLoader()).build();
+
+    // the bundle and its two jars
+    Assert.assertEquals(3, classLoader.getURLs().length);
+    // without native libraries nothing is left mounted
+    Assert.assertEquals(0, classLoader.getOpenFileSystemCount());
+    VfsBundleClassLoader vfsClassLoader = new VfsBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager)
+        .withBundleFile(fileSystemManager.resolveFile(bundle.toUri()))
+        .withBundleCoordinates(builder.getCoordinates())
+        .withParentClassloader(getClass().getClassLoader()).build();
+    Assert.assertTrue(classLoader.getPackageNames().containsAll(vfsClassLoader.getPackageNames()));
+
+    for (String className : builder.getExtensionClassNames()) {
+      Class<?> clazz = classLoader.loadClass(className);
+      Assert.assertSame(classLoader, clazz.getClassLoader());
+      Assert.assertTrue(clazz.newInstance() instanceof MessageParser);
+      Assert.assertEquals(vfsClassLoader.loadClass(className).getName(), clazz.getName());
+    }
+    Assert.assertTrue(classLoader.getMetrics().getClassesDefined()
+        >= builder.getExtensionClassNames().size());
+    Assert.assertTrue(classLoader.getMetrics().getBytesDefined() > 0);
+    Assert.assertNotNull(classLoader.getResource("META-INF/MANIFEST.MF"));
+
+    try {
+      classLoader.loadClass("not.a.bundle.Package");
+      Assert.fail("expected ClassNotFoundException");
+    } catch (ClassNotFoundException e) {
+      // expected
+    }
+    Assert.assertEquals(1, classLoader.getMetrics().getFindClassMisses());
+  }
+
+  @Test
+  public void testBundleSystemWithExtractedClassLoaders() throws Exception {
+    Path lib = folder.newFolder("system", "lib").toPath();
+    SyntheticBundleBuilder parent = new SyntheticBundleBuilder()
+        .withCoordinates("group", "parent", "1.0").withExtensionType(AbstractFoo.class)
+        .withClassesPerJar(2).withExtensionClassesPerJar(1);
+    SyntheticBundleBuilder child = new SyntheticBundleBuilder()
+        .withCoordinates("group", "child", "1.0").withDependencyCoordinates("group", "parent",
+            "1.0").withExtensionType(AbstractFoo.class).withClassesPerJar(2)
+        .withExtensionClassesPerJar(1);
+    parent.writeTo(lib);
+    child.writeTo(lib);
+
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, lib.toString());
+    properties.setProperty(BundleProperties.CLASSLOADER_TYPE,
+        BundleProperties.CLASSLOADER_TYPE_EXTRACTED);
+    properties.setProperty(BundleProperties.EXTRACTION_DIRECTORY,
+        folder.newFolder("system", "extracted").toString());
+    BundleSystem bundleSystem = new BundleSystemBuilder().withBundleProperties(properties)
+        .withExtensionClasses(Arrays.asList(AbstractFoo.class)).build();
+
+    String className = child.getExtensionClassNames().get(0);
+    Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    List<Bundle> bundles = ExtensionManager.getInstance().getBundles(className);
+    Assert.assertEquals(1, bundles.size());
+    ClassLoader classLoader = bundles.get(0).getClassLoader();
+    Assert.assertTrue(classLoader instanceof ExtractedBundleClassLoader);
+    Assert.assertTrue(classLoader.getParent() instanceof ExtractedBundleClassLoader);
+    Assert.assertEquals(parent.getCoordinates(),
+        ((ExtractedBundleClassLoader) classLoader.getParent()).getBundleCoordinates());
+  }
+}
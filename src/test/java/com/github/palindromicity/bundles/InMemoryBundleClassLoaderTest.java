@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InMemoryBundleClassLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void afterTest() {
+    BundleSystem.reset();
+  }
+
+  @Test
+  public void testClassesAndResourcesAreServedFromMemory() throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    byte[] schema = "<schema/>".getBytes(StandardCharsets.UTF_8);
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "memory", "1.0").withExtensionType(MessageParser.class)
+        .withJarCount(2).withClassesPerJar(2).withJarResource("schemas/foo.xsd", schema);
+    InMemoryBundleRepository repository = new InMemoryBundleRepository(fileSystemManager);
+    FileObject bundleFile = repository.put(builder.getFileName(), builder.toByteArray());
+    Assert.assertEquals(1, repository.getBundleFiles().size());
+
+    InMemoryBundleClassLoader classLoader = new InMemoryBundleClassLoader.Builder()
+        .withBundleFile(bundleFile).withBundleCoordinates(builder.getCoordinates())
+        .withParentClassloader(getClass().getClassLoader()).build();
+    Assert.assertTrue(classLoader.getHeldBytes() > 0);
+
+    for (String className : builder.getExtensionClassNames()) {
+      Class<?> clazz = classLoader.loadClass(className);
+      Assert.assertSame(classLoader, clazz.getClassLoader());
+      Assert.assertTrue(clazz.newInstance() instanceof MessageParser);
+    }
+    Assert.assertEquals(builder.getExtensionClassNames().size(),
+        classLoader.getMetrics().getClassesDefined());
+
+    URL resource = classLoader.getResource("schemas/foo.xsd");
+    Assert.assertNotNull(resource);
+    Assert.assertEquals(InMemoryBundleClassLoader.PROTOCOL, resource.getProtocol());
+    try (InputStream in = resource.openStream()) {
+      Assert.assertArrayEquals(schema, IOUtils.toByteArray(in));
+    }
+    Assert.assertTrue(classLoader.getResources("META-INF/MANIFEST.MF").hasMoreElements());
+
+    try {
+      classLoader.loadClass("not.a.bundle.Package");
+      Assert.fail("expected ClassNotFoundException");
+    } catch (ClassNotFoundException e) {
+      // expected
+    }
+    Assert.assertEquals(1, classLoader.getMetrics().getFindClassMisses());
+
+    try {
+      repository.put(builder.getFileName(), builder.toByteArray());
+      Assert.fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBundleSystemAddsBundleFromMemory() throws Exception {
+    Path lib = folder.newFolder("system", "lib").toPath();
+    SyntheticBundleBuilder parent = new SyntheticBundleBuilder()
+        .withCoordinates("group", "parent", "1.0").withExtensionType(AbstractFoo.class)
+        .withClassesPerJar(2).withExtensionClassesPerJar(1);
+    SyntheticBundleBuilder child = new SyntheticBundleBuilder()
+        .withCoordinates("group", "child", "1.0").withDependencyCoordinates("group", "parent",
+            "1.0").withExtensionType(AbstractFoo.class).withClassesPerJar(2)
+        .withExtensionClassesPerJar(1);
+    SyntheticBundleBuilder orphan = new SyntheticBundleBuilder()
+        .withCoordinates("group", "orphan", "1.0").withDependencyCoordinates("group", "missing",
+            "1.0").withExtensionType(AbstractFoo.class).withClassesPerJar(2)
+        .withExtensionClassesPerJar(1);
+    parent.writeTo(lib);
+
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, lib.toString());
+    BundleSystem bundleSystem = new BundleSystemBuilder().withBundleProperties(properties)
+        .withExtensionClasses(Arrays.asList(AbstractFoo.class)).build();
+    bundleSystem.addBundle(child.getFileName(), child.toByteArray());
+
+    String className = child.getExtensionClassNames().get(0);
+    Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    List<Bundle> bundles = ExtensionManager.getInstance().getBundles(className);
+    Assert.assertEquals(1, bundles.size());
+    ClassLoader classLoader = bundles.get(0).getClassLoader();
+    Assert.assertTrue(classLoader instanceof InMemoryBundleClassLoader);
+    Assert.assertTrue(classLoader.getParent() instanceof VfsBundleClassLoader);
+    Assert.assertEquals(parent.getCoordinates(),
+        ((VfsBundleClassLoader) classLoader.getParent()).getBundleCoordinates());
+
+    try {
+      bundleSystem.addBundle(orphan.getFileName(), orphan.toByteArray());
+      Assert.fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    // the loaded bundle is no longer held by the repository, only by its class loader
+    Assert.assertEquals(0,
+        BundleClassLoaders.getInstance().getInMemoryBundleRepository().getBundleFiles().size());
+    Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    try {
+      bundleSystem.addBundle(child.getFileName(), child.toByteArray());
+      Assert.fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InstanceClassLoaderRegistryTest {
+
+  @Test
+  public void testMaximumCountEvictsLeastRecentlyUsed() throws Exception {
+    InstanceClassLoaderRegistry registry = new InstanceClassLoaderRegistry.Builder()
+        .withMaximumCount(2).build();
+    TrackingClassLoader first = new TrackingClassLoader();
+    TrackingClassLoader second = new TrackingClassLoader();
+    TrackingClassLoader third = new TrackingClassLoader();
+    registry.put("first", first);
+    registry.put("second", second);
+    Assert.assertSame(first, registry.get("first"));
+    registry.put("third", third);
+
+    Assert.assertEquals(2, registry.getLiveCount());
+    Assert.assertNull(registry.get("second"));
+    Assert.assertTrue(second.closed);
+    Assert.assertFalse(first.closed);
+    Assert.assertEquals(1, registry.getEvictedCount());
+    Assert.assertEquals(3, registry.getRegisteredCount());
+  }
+
+  @Test
+  public void testTimeToLiveEvictsIdleLoaders() throws Exception {
+    InstanceClassLoaderRegistry registry = new InstanceClassLoaderRegistry.Builder()
+        .withTimeToLive(10, TimeUnit.MILLISECONDS).build();
+    TrackingClassLoader loader = new TrackingClassLoader();
+    registry.put("idle", loader);
+    Thread.sleep(50);
+    Assert.assertEquals(1, registry.evict());
+    Assert.assertTrue(loader.closed);
+    Assert.assertTrue(registry.asMap().isEmpty());
+  }
+
+  @Test
+  public void testCollectedInstancesAreEvicted() throws Exception {
+    InstanceClassLoaderRegistry registry = new InstanceClassLoaderRegistry.Builder().build();
+    TrackingClassLoader kept = new TrackingClassLoader();
+    TrackingClassLoader collected = new TrackingClassLoader();
+    Object instance = new Object();
+    registry.put("kept", kept);
+    registry.put("collected", collected);
+    Assert.assertTrue(registry.attachInstance("kept", instance));
+    Assert.assertTrue(registry.attachInstance("collected", new Object()));
+    Assert.assertFalse(registry.attachInstance("missing", instance));
+
+    for (int i = 0; i < 50 && !collected.closed; i++) {
+      System.gc();
+      Thread.sleep(10);
+      registry.evict();
+    }
+    Assert.assertTrue(collected.closed);
+    Assert.assertFalse(kept.closed);
+    Assert.assertSame(kept, registry.get("kept"));
+    Assert.assertNotNull(instance);
+  }
+
+  @Test
+  public void testReachableInstancesAreNotEvictedByPolicy() throws Exception {
+    InstanceClassLoaderRegistry registry = new InstanceClassLoaderRegistry.Builder()
+        .withMaximumCount(1).withTimeToLive(10, TimeUnit.MILLISECONDS).build();
+    TrackingClassLoader running = new TrackingClassLoader();
+    TrackingClassLoader idle = new TrackingClassLoader();
+    Object instance = new Object();
+    registry.put("running", running);
+    Assert.assertTrue(registry.attachInstance("running", instance));
+    registry.put("idle", idle);
+    Thread.sleep(50);
+    registry.evict();
+
+    Assert.assertFalse(running.closed);
+    Assert.assertTrue(idle.closed);
+    Assert.assertEquals(1, registry.getLiveCount());
+    Assert.assertSame(running, registry.get("running"));
+    Assert.assertNotNull(instance);
+  }
+
+  @Test
+  public void testRemoveDoesNotClose() throws Exception {
+    InstanceClassLoaderRegistry registry = new InstanceClassLoaderRegistry.Builder()
+        .withMaximumCount(1).build();
+    TrackingClassLoader loader = new TrackingClassLoader();
+    registry.put("removed", loader);
+    Assert.assertSame(loader, registry.remove("removed"));
+    Assert.assertFalse(loader.closed);
+    Assert.assertEquals(0, registry.getEvictedCount());
+  }
+
+  @Test
+  public void testLiveMapWritesThrough() throws Exception {
+    InstanceClassLoaderRegistry registry = new InstanceClassLoaderRegistry.Builder().build();
+    Map<String, ClassLoader> lookup = registry.asLiveMap();
+    TrackingClassLoader first = new TrackingClassLoader();
+    TrackingClassLoader second = new TrackingClassLoader();
+    Assert.assertNull(lookup.put("instance", first));
+    Assert.assertSame(first, registry.get("instance"));
+    Assert.assertSame(first, lookup.putIfAbsent("instance", second));
+    Assert.assertSame(first, lookup.get("instance"));
+
+    registry.put("other", second);
+    Assert.assertEquals(2, lookup.size());
+    Assert.assertTrue(lookup.containsKey("other"));
+
+    lookup.keySet().remove("other");
+    Assert.assertNull(registry.get("other"));
+    Assert.assertSame(first, lookup.remove("instance"));
+    Assert.assertEquals(0, registry.getLiveCount());
+    Assert.assertFalse(first.closed);
+  }
+
+  private static class TrackingClassLoader extends URLClassLoader {
+
+    private volatile boolean closed;
+
+    TrackingClassLoader() {
+      super(new URL[0], null);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.SyntheticClassWriter;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InstanceClassLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testShimsAreSharedByResources() throws Exception {
+    final String name = "synthetic.shim.Shimmed";
+    Path root = folder.newFolder("shim").toPath();
+    Path classFile = root.resolve("synthetic/shim/Shimmed.class");
+    Files.createDirectories(classFile.getParent());
+    Files.write(classFile, SyntheticClassWriter.writeClass(name, MessageParser.class, null));
+    URL[] resources = new URL[]{root.toUri().toURL(), root.toUri().toURL()};
+
+    final int before = InstanceClassLoader.getSharedShimCount();
+    InstanceClassLoader first = new InstanceClassLoader("first", name, new URL[0],
+        getClass().getClassLoader());
+    InstanceClassLoader second = new InstanceClassLoader("second", name, new URL[0],
+        getClass().getClassLoader());
+    first.setInstanceResources(resources);
+    second.setInstanceResources(resources);
+    Assert.assertEquals(before + 1, InstanceClassLoader.getSharedShimCount());
+    Assert.assertEquals(1, first.getInstanceResources().length);
+
+    Assert.assertSame(first.loadClass(name), second.loadClass(name));
+    try {
+      first.loadClass("synthetic.shim.Missing");
+      Assert.fail("expected ClassNotFoundException");
+    } catch (ClassNotFoundException e) {
+      // expected
+    }
+
+    first.close();
+    Assert.assertEquals(before + 1, InstanceClassLoader.getSharedShimCount());
+    Assert.assertNotNull(second.loadClass(name));
+    second.close();
+    Assert.assertEquals(before, InstanceClassLoader.getSharedShimCount());
+  }
+
+  @Test
+  public void testClassesFromUrlsAreCountedUnsized() throws Exception {
+    final String name = "synthetic.own.Owned";
+    Path root = folder.newFolder("own").toPath();
+    Path classFile = root.resolve("synthetic/own/Owned.class");
+    Files.createDirectories(classFile.getParent());
+    Files.write(classFile, SyntheticClassWriter.writeClass(name, MessageParser.class, null));
+
+    try (InstanceClassLoader classLoader = new InstanceClassLoader("own", name,
+        new URL[]{root.toUri().toURL()}, getClass().getClassLoader())) {
+      Assert.assertNotNull(classLoader.loadClass(name));
+      Assert.assertEquals(1, classLoader.getMetrics().getClassesDefined());
+      Assert.assertEquals(1, classLoader.getMetrics().getUnsizedClassesDefined());
+      Assert.assertEquals(0, classLoader.getMetrics().getBytesDefined());
+    }
+  }
+}
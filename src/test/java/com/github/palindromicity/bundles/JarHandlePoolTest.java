@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarHandlePoolTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testLeastRecentlyUsedJarsAreReleasedAndReopened() throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "pooled", "1.0").withExtensionType(MessageParser.class)
+        .withJarCount(3).withClassesPerJar(2).withExtensionClassesPerJar(1);
+    Path bundle = builder.writeTo(folder.getRoot().toPath());
+    FileObject bundleFile = fileSystemManager.resolveFile(bundle.toUri());
+    JarHandlePool pool = new JarHandlePool(1);
+    VfsBundleClassLoader classLoader = new VfsBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager).withBundleFile(bundleFile)
+        .withBundleCoordinates(builder.getCoordinates())
+        .withParentClassloader(getClass().getClassLoader()).withJarHandlePool(pool).build();
+
+    // one class from each jar
+    List<String> classNames = builder.getExtensionClassNames();
+    for (String className : classNames) {
+      Assert.assertNotNull(classLoader.loadClass(className));
+    }
+    Assert.assertEquals(3, pool.getOpens());
+    Assert.assertEquals(2, pool.getCloses());
+    Assert.assertEquals(1, pool.getOpenCount());
+    Assert.assertEquals(3, classLoader.getMountedJarCount());
+    // the bundle and the one jar still holding a handle
+    Assert.assertEquals(2, classLoader.getOpenFileSystemCount());
+
+    // the first jar was released, and is read again transparently
+    Assert.assertNotNull(classLoader.getResource(
+        classNames.get(0).replace('.', '/').replace("Synthetic0", "Synthetic1") + ".class"));
+    Assert.assertEquals(1, pool.getReopens());
+    Assert.assertEquals(1, pool.getOpenCount());
+    Assert.assertTrue(pool.getReopenRate() > 0.0);
+  }
+
+  @Test
+  public void testPinnedJarsAreNotReleased() throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "pinned", "1.0").withClassesPerJar(1);
+    Path bundle = builder.writeTo(folder.getRoot().toPath());
+    FileObject bundleRoot = fileSystemManager
+        .createFileSystem(fileSystemManager.resolveFile(bundle.toUri()));
+    FileObject jar = bundleRoot.resolveFile(VfsBundleClassLoader.DEPENDENCY_PATH)
+        .getChildren()[0];
+    VfsBundleClassPathEntry entry = VfsBundleClassPathEntry
+        .lazy(fileSystemManager, jar, null, null, new JarHandlePool(1));
+
+    entry.pin();
+    try {
+      entry.getRoot();
+      Assert.assertFalse(entry.release());
+    } finally {
+      entry.unpin();
+    }
+    Assert.assertTrue(entry.release());
+    Assert.assertTrue(entry.isReleased());
+  }
+
+  @Test
+  public void testConcurrentReadsSurviveReleases() throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "contended", "1.0").withExtensionType(MessageParser.class)
+        .withJarCount(6).withClassesPerJar(20).withExtensionClassesPerJar(1);
+    Path bundle = builder.writeTo(folder.getRoot().toPath());
+    FileObject bundleFile = fileSystemManager.resolveFile(bundle.toUri());
+    JarHandlePool pool = new JarHandlePool(1);
+    VfsBundleClassLoader classLoader = new VfsBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager).withBundleFile(bundleFile)
+        .withBundleCoordinates(builder.getCoordinates())
+        .withParentClassloader(getClass().getClassLoader()).withJarHandlePool(pool).build();
+
+    List<String> resources = new ArrayList<>();
+    for (String className : builder.getExtensionClassNames()) {
+      for (int i = 0; i < 20; i++) {
+        resources.add(className.replace('.', '/').replace("Synthetic0", "Synthetic" + i)
+            + ".class");
+      }
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Callable<Integer>> readers = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        List<String> order = new ArrayList<>(resources);
+        Collections.shuffle(order);
+        readers.add(() -> {
+          int read = 0;
+          for (int round = 0; round < 5; round++) {
+            for (String resource : order) {
+              try (InputStream in = classLoader.getResourceAsStream(resource)) {
+                Assert.assertNotNull(resource, in);
+                read += IOUtils.toByteArray(in).length > 0 ? 1 : 0;
+              }
+            }
+          }
+          return read;
+        });
+      }
+      for (Future<Integer> reader : executor.invokeAll(readers, 2, TimeUnit.MINUTES)) {
+        Assert.assertEquals(resources.size() * 5, reader.get().intValue());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    for (String className : builder.getExtensionClassNames()) {
+      Assert.assertNotNull(classLoader.loadClass(className));
+    }
+    Assert.assertTrue(pool.getCloses() > 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxOpenMustBePositive() {
+    new JarHandlePool(0);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.bundle.Bundle;
+import com.github.palindromicity.bundles.util.BundleProperties;
+import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.NativeLibraryCache;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import com.github.palindromicity.bundles.util.SyntheticClassWriter;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SharedJarLayerTest {
+
+  private static final String COMMON_CLASS = "shared.common.Helper";
+  private static final String COMMON_JAR = "META-INF/bundled-dependencies/common-1.0.jar";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void afterTest() {
+    BundleSystem.reset();
+  }
+
+  @Test
+  public void testIdenticalJarsAreHostedOnce() throws Exception {
+    Path lib = folder.newFolder("lib").toPath();
+    byte[] common = jarOf(COMMON_CLASS, 0);
+    SyntheticBundleBuilder first = bundle("first").withBundleEntry(COMMON_JAR, common);
+    SyntheticBundleBuilder second = bundle("second").withBundleEntry(COMMON_JAR, common);
+    first.writeTo(lib);
+    second.writeTo(lib);
+
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, lib.toString());
+    properties.setProperty(BundleProperties.CLASSLOADER_SHARED_JARS, "common-*.jar");
+    properties.setProperty(BundleProperties.EXTRACTION_DIRECTORY,
+        folder.newFolder("extracted").toString());
+    new BundleSystemBuilder().withBundleProperties(properties)
+        .withExtensionClasses(Arrays.asList(MessageParser.class)).build();
+
+    SharedJarLayer layer = BundleClassLoaders.getInstance().getSharedJarLayer();
+    Assert.assertEquals(1, layer.getSharedJarCount());
+    List<Class<?>> loaded = new ArrayList<>();
+    for (Bundle bundle : BundleClassLoaders.getInstance().getBundles()) {
+      Assert.assertSame(layer, bundle.getClassLoader().getParent());
+      Assert.assertTrue(bundle.getClassLoader() instanceof VfsBundleClassLoader);
+      Assert.assertEquals(1,
+          ((VfsBundleClassLoader) bundle.getClassLoader()).getDependencyJars().size());
+      loaded.add(bundle.getClassLoader().loadClass(COMMON_CLASS));
+    }
+    Assert.assertEquals(2, loaded.size());
+    Assert.assertSame(loaded.get(0), loaded.get(1));
+    Assert.assertSame(layer, loaded.get(0).getClassLoader());
+
+    Map<String, Long> saved = layer.getSavedBytesByBundle();
+    Assert.assertEquals(2, saved.size());
+    Assert.assertTrue(saved.get(first.getCoordinates().getCoordinates()) > 0);
+    Assert.assertEquals(saved.get(first.getCoordinates().getCoordinates()).longValue(),
+        layer.getSavedBytes());
+  }
+
+  @Test
+  public void testDifferingVersionsAreNotShared() throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    Path lib = folder.newFolder("lib").toPath();
+    byte[] common = jarOf(COMMON_CLASS, 0);
+    List<FileObject> bundleFiles = new ArrayList<>();
+    bundleFiles.add(fileSystemManager.resolveFile(
+        bundle("first").withBundleEntry(COMMON_JAR, common).writeTo(lib).toUri()));
+    bundleFiles.add(fileSystemManager.resolveFile(
+        bundle("second").withBundleEntry(COMMON_JAR, common).writeTo(lib).toUri()));
+    bundleFiles.add(fileSystemManager.resolveFile(bundle("third")
+        .withBundleEntry("META-INF/bundled-dependencies/common-2.0.jar", jarOf(COMMON_CLASS, 1))
+        .writeTo(lib).toUri()));
+
+    SharedJarLayer layer = new SharedJarLayer.Builder()
+        .withFileSystemManager(fileSystemManager)
+        .withExtractionCache(new NativeLibraryCache(folder.newFolder("extracted").toPath()))
+        .withJarPatterns(Collections.singletonList("common-*.jar"))
+        .withBundleFiles(bundleFiles)
+        .withParentClassloader(getClass().getClassLoader()).build();
+    Assert.assertEquals(0, layer.getSharedJarCount());
+    for (FileObject bundleFile : bundleFiles) {
+      FileObject deps = fileSystemManager.createFileSystem(bundleFile)
+          .resolveFile(VfsBundleClassLoader.DEPENDENCY_PATH);
+      for (FileObject jar : deps.getChildren()) {
+        Assert.assertFalse(layer.isShared(null, jar));
+      }
+    }
+  }
+
+  private static SyntheticBundleBuilder bundle(String id) {
+    return new SyntheticBundleBuilder().withCoordinates("group", id, "1.0")
+        .withExtensionType(MessageParser.class).withClassesPerJar(1);
+  }
+
+  /**
+   * Writes a jar with a single class, the variant changes the jar content.
+   */
+  private static byte[] jarOf(String className, int variant) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JarOutputStream jar = new JarOutputStream(bytes)) {
+      JarEntry entry = new JarEntry(SyntheticClassWriter.internalName(className) + ".class");
+      entry.setTime(0L);
+      jar.putNextEntry(entry);
+      jar.write(SyntheticClassWriter.writeClass(className, MessageParser.class, null));
+      if (variant > 0) {
+        JarEntry version = new JarEntry("version-" + variant + ".txt");
+        version.setTime(0L);
+        jar.putNextEntry(version);
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.NativeLibraryCache;
+import com.github.palindromicity.bundles.util.ResourceByteCache;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.PublicKey;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VfsBundleClassLoaderTest {
+
+  private static final byte[] LIBRARY = "not really a shared object"
+      .getBytes(StandardCharsets.UTF_8);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FileSystemManager fileSystemManager;
+
+  @Before
+  public void setup() throws Exception {
+    fileSystemManager = FileSystemManagerFactory.createFileSystemManager(new String[]{"bundle"});
+  }
+
+  private VfsBundleClassLoader createClassLoader(SyntheticBundleBuilder builder, Path cache)
+      throws Exception {
+    return createClassLoader(builder, cache, null);
+  }
+
+  private VfsBundleClassLoader createClassLoader(SyntheticBundleBuilder builder, Path cache,
+      ResourceByteCache resourceByteCache) throws Exception {
+    Path bundle = builder.writeTo(folder.getRoot().toPath());
+    FileObject bundleFile = fileSystemManager.resolveFile(bundle.toUri());
+    return new VfsBundleClassLoader.Builder().withFileSystemManager(fileSystemManager)
+        .withBundleFile(bundleFile).withBundleCoordinates(builder.getCoordinates())
+        .withParentClassloader(getClass().getClassLoader())
+        .withNativeLibraryCache(new NativeLibraryCache(cache))
+        .withResourceByteCache(resourceByteCache).build();
+  }
+
+  private VfsBundleClassLoader createClassLoader(SyntheticBundleBuilder builder,
+      ClassLoader parent, DelegationPolicy delegationPolicy) throws Exception {
+    return builderFor(builder).withParentClassloader(parent)
+        .withDelegationPolicy(delegationPolicy).build();
+  }
+
+  private VfsBundleClassLoader.Builder builderFor(SyntheticBundleBuilder builder)
+      throws Exception {
+    Path bundle = builder.writeTo(folder.getRoot().toPath());
+    FileObject bundleFile = fileSystemManager.resolveFile(bundle.toUri());
+    return new VfsBundleClassLoader.Builder().withFileSystemManager(fileSystemManager)
+        .withBundleFile(bundleFile).withBundleCoordinates(builder.getCoordinates());
+  }
+
+  @Test
+  public void testFindLibraryExtractsToCache() throws Exception {
+    Path cache = folder.newFolder("cache").toPath();
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "native", "1.0")
+        .withBundleEntry(VfsBundleClassLoader.DEPENDENCY_PATH + "/"
+            + VfsBundleClassLoader.NATIVE_FOLDER + "/" + System.mapLibraryName("foo"), LIBRARY);
+    VfsBundleClassLoader classLoader = createClassLoader(builder, cache);
+
+    String library = classLoader.findLibrary("foo");
+    Assert.assertNotNull(library);
+    Path path = Paths.get(library);
+    Assert.assertTrue(path.isAbsolute());
+    Assert.assertTrue(path.startsWith(cache));
+    Assert.assertArrayEquals(LIBRARY, Files.readAllBytes(path));
+
+    // a new class loader, as after a restart, reuses the extracted file
+    long modified = Files.getLastModifiedTime(path).toMillis();
+    VfsBundleClassLoader restarted = new VfsBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager)
+        .withBundleFile(classLoader.getFileObjects()[classLoader.getFileObjects().length - 1])
+        .withNativeLibraryCache(new NativeLibraryCache(cache)).build();
+    Assert.assertEquals(library, restarted.findLibrary("foo"));
+    Assert.assertEquals(modified, Files.getLastModifiedTime(path).toMillis());
+    Assert.assertEquals(1, new File(cache.toFile(), path.getParent().getFileName().toString())
+        .list().length);
+    // the restart found the library through its stamp, without copying its content again
+    File[] stamps = new File(cache.toFile(), "stamps").listFiles();
+    Assert.assertEquals(1, stamps.length);
+    Assert.assertEquals(path.getParent().getFileName().toString(),
+        new String(Files.readAllBytes(stamps[0].toPath()), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testFindLibraryWithoutNativeFolder() throws Exception {
+    VfsBundleClassLoader classLoader = createClassLoader(
+        new SyntheticBundleBuilder().withCoordinates("group", "plain", "1.0"),
+        folder.newFolder("cache").toPath());
+    Assert.assertNull(classLoader.findLibrary("foo"));
+  }
+
+  @Test
+  public void testResourcesAreServedFromCache() throws Exception {
+    byte[] schema = "{\"type\": \"record\"}".getBytes(StandardCharsets.UTF_8);
+    ResourceByteCache cache = new ResourceByteCache(1024, 1024);
+    VfsBundleClassLoader classLoader = createClassLoader(
+        new SyntheticBundleBuilder().withCoordinates("group", "resources", "1.0")
+            .withJarResource("schemas/test.avsc", schema), folder.newFolder("cache").toPath(),
+        cache);
+
+    for (int i = 0; i < 3; i++) {
+      try (InputStream in = classLoader.getResourceAsStream("schemas/test.avsc")) {
+        Assert.assertArrayEquals(schema, IOUtils.toByteArray(in));
+      }
+    }
+    Assert.assertEquals(1, cache.getEntryCount());
+    Assert.assertEquals(2, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+
+    // parent resources are not cached, and are not misses of the bundle
+    Assert.assertNotNull(classLoader.getResourceAsStream("bundle.properties"));
+    Assert.assertNull(classLoader.getResourceAsStream("does/not/exist"));
+    Assert.assertEquals(1, cache.getEntryCount());
+    Assert.assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testPackageIndexedDelegationSkipsParents() throws Exception {
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "indexed", "1.0").withExtensionType(MessageParser.class);
+    String className = builder.getExtensionClassNames().get(0);
+
+    VfsBundleClassLoader parentFirst = createClassLoader(builder, getClass().getClassLoader(),
+        DelegationPolicy.PARENT_FIRST);
+    Assert.assertSame(parentFirst, parentFirst.loadClass(className).getClassLoader());
+    Assert.assertEquals(1, parentFirst.getMetrics().getParentDelegationMisses());
+
+    VfsBundleClassLoader indexed = createClassLoader(builder, getClass().getClassLoader(),
+        DelegationPolicy.packageIndexed(Collections.<String>emptyList()));
+    Assert.assertTrue(
+        indexed.getPackageNames().contains(className.substring(0, className.lastIndexOf('.'))));
+    Class<?> clazz = indexed.loadClass(className);
+    Assert.assertSame(indexed, clazz.getClassLoader());
+    Assert.assertTrue(MessageParser.class.isAssignableFrom(clazz));
+    Assert.assertEquals(0, indexed.getMetrics().getParentDelegationMisses());
+    Assert.assertSame(clazz, indexed.loadClass(className));
+  }
+
+  @Test
+  public void testMissInOwnPackageSearchesTheBundleOnce() throws Exception {
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "own-miss", "1.0").withExtensionType(MessageParser.class);
+    String className = builder.getExtensionClassNames().get(0);
+    String missing = className.substring(0, className.lastIndexOf('.')) + ".Missing";
+    VfsBundleClassLoader indexed = createClassLoader(builder, getClass().getClassLoader(),
+        DelegationPolicy.packageIndexed(Collections.<String>emptyList()));
+    try {
+      indexed.loadClass(missing);
+      Assert.fail("expected ClassNotFoundException");
+    } catch (ClassNotFoundException e) {
+      // expected
+    }
+    Assert.assertEquals(1, indexed.getMetrics().getFindClassTime().getCount());
+    Assert.assertEquals(1, indexed.getMetrics().getFindClassMisses());
+    Assert.assertEquals(1, indexed.getMetrics().getParentDelegationMisses());
+  }
+
+  @Test
+  public void testPackageIndexedDelegationToParentBundle() throws Exception {
+    DelegationPolicy policy = DelegationPolicy.packageIndexed(Collections.<String>emptyList());
+    SyntheticBundleBuilder parentBuilder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "parent", "1.0").withExtensionType(MessageParser.class);
+    VfsBundleClassLoader parent = createClassLoader(parentBuilder,
+        getClass().getClassLoader(), policy);
+    VfsBundleClassLoader child = createClassLoader(new SyntheticBundleBuilder()
+            .withCoordinates("group", "child", "1.0").withDependencyCoordinates(
+                parentBuilder.getCoordinates()).withExtensionType(MessageParser.class), parent,
+        policy);
+
+    Class<?> clazz = child.loadClass(parentBuilder.getExtensionClassNames().get(0));
+    Assert.assertSame(parent, clazz.getClassLoader());
+    Assert.assertEquals(0, child.getMetrics().getParentDelegationMisses());
+    Assert.assertEquals(0, parent.getMetrics().getParentDelegationMisses());
+
+    // classes outside of any bundle package are still found through the parents
+    Assert.assertSame(MessageParser.class, child.loadClass(MessageParser.class.getName()));
+  }
+
+  @Test
+  public void testSharedPackagesAreParentFirst() throws Exception {
+    DelegationPolicy policy = DelegationPolicy.packageIndexed(Arrays.asList("javax", "org.slf4j"));
+    Assert.assertTrue(policy.isShared("java.lang"));
+    Assert.assertTrue(policy.isShared("javax"));
+    Assert.assertTrue(policy.isShared("javax.xml.parsers"));
+    Assert.assertTrue(policy.isShared("org.slf4j.helpers"));
+    Assert.assertFalse(policy.isShared("javaxx.foo"));
+    Assert.assertFalse(policy.isShared("org.slf4jx"));
+    Assert.assertFalse(policy.isShared("synthetic"));
+    Assert.assertTrue(DelegationPolicy.PARENT_FIRST.isShared("synthetic"));
+
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "shared", "1.0").withPackagePrefix("org.slf4j.synthetic");
+    VfsBundleClassLoader classLoader = createClassLoader(builder, getClass().getClassLoader(),
+        policy);
+    Class<?> clazz = classLoader.loadClass("org.slf4j.synthetic.shared.jar0.Synthetic0");
+    Assert.assertSame(classLoader, clazz.getClassLoader());
+    Assert.assertEquals(1, classLoader.getMetrics().getParentDelegationMisses());
+  }
+
+  @Test
+  public void testImportedPackagesResolveThroughIndex() throws Exception {
+    BundlePackageIndex index = new BundlePackageIndex();
+    SyntheticBundleBuilder exporterBuilder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "exporter", "1.0").withExtensionType(MessageParser.class)
+        .withJarResource("exporter/config.properties", new byte[]{1});
+    VfsBundleClassLoader exporter = createClassLoader(exporterBuilder,
+        getClass().getClassLoader(), DelegationPolicy.PARENT_FIRST);
+    index.register(exporter);
+    String className = exporterBuilder.getExtensionClassNames().get(0);
+    String packageName = className.substring(0, className.lastIndexOf('.'));
+    Assert.assertSame(exporter, index.getExporter(packageName));
+    Assert.assertNull(index.getExporter("META-INF"));
+
+    for (DelegationPolicy policy : Arrays.asList(DelegationPolicy.PARENT_FIRST,
+        DelegationPolicy.packageIndexed(Collections.<String>emptyList()))) {
+      VfsBundleClassLoader importer = builderFor(new SyntheticBundleBuilder()
+          .withCoordinates("group", "importer", "1.0"))
+          .withParentClassloader(getClass().getClassLoader()).withDelegationPolicy(policy)
+          .withPackageIndex(index)
+          .withImportedPackages(Arrays.asList(packageName, "exporter.*")).build();
+      Assert.assertSame(exporter, importer.loadClass(className).getClassLoader());
+      Assert.assertNotNull(importer.getResource("exporter/config.properties"));
+    }
+
+    VfsBundleClassLoader notImporting = createClassLoader(new SyntheticBundleBuilder()
+            .withCoordinates("group", "not-importing", "1.0"), getClass().getClassLoader(),
+        DelegationPolicy.PARENT_FIRST);
+    try {
+      notImporting.loadClass(className);
+      Assert.fail("class of a package that is not imported was loaded");
+    } catch (ClassNotFoundException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testImportingDoesNotLockTheExporter() throws Exception {
+    BundlePackageIndex index = new BundlePackageIndex();
+    SyntheticBundleBuilder exporterBuilder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "locked-exporter", "1.0").withExtensionType(MessageParser.class);
+    VfsBundleClassLoader exporter = createClassLoader(exporterBuilder,
+        getClass().getClassLoader(), DelegationPolicy.PARENT_FIRST);
+    index.register(exporter);
+    String className = exporterBuilder.getExtensionClassNames().get(0);
+    VfsBundleClassLoader importer = builderFor(new SyntheticBundleBuilder()
+        .withCoordinates("group", "locked-importer", "1.0"))
+        .withParentClassloader(getClass().getClassLoader()).withPackageIndex(index)
+        .withImportedPackages(Arrays.asList(className.substring(0, className.lastIndexOf('.'))))
+        .build();
+
+    // bundles importing from each other hold their own class loading lock while they load from
+    // the other one, which must not be the class loader monitor
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      synchronized (exporter) {
+        Future<Class<?>> loaded = executor.submit(() -> importer.loadClass(className));
+        Assert.assertSame(exporter, loaded.get(30, TimeUnit.SECONDS).getClassLoader());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAdditionalDependenciesAreImported() throws Exception {
+    SyntheticBundleBuilder first = new SyntheticBundleBuilder()
+        .withCoordinates("group", "first", "1.0").withExtensionType(MessageParser.class);
+    SyntheticBundleBuilder second = new SyntheticBundleBuilder()
+        .withCoordinates("group", "second", "1.0").withExtensionType(MessageParser.class);
+    VfsBundleClassLoader firstLoader = createClassLoader(first, getClass().getClassLoader(),
+        DelegationPolicy.PARENT_FIRST);
+    VfsBundleClassLoader secondLoader = createClassLoader(second, getClass().getClassLoader(),
+        DelegationPolicy.PARENT_FIRST);
+
+    VfsBundleClassLoader dependent = builderFor(new SyntheticBundleBuilder()
+        .withCoordinates("group", "dependent", "1.0"))
+        .withParentClassloader(getClass().getClassLoader())
+        .withDependencyClassLoaders(Arrays.asList(firstLoader, secondLoader)).build();
+    Assert.assertSame(firstLoader,
+        dependent.loadClass(first.getExtensionClassNames().get(0)).getClassLoader());
+    Assert.assertSame(secondLoader,
+        dependent.loadClass(second.getExtensionClassNames().get(0)).getClassLoader());
+  }
+
+  @Test
+  public void testProtectionDomainIsSharedPerJar() throws Exception {
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "domains", "1.0").withExtensionType(MessageParser.class)
+        .withJarCount(2).withClassesPerJar(2);
+    VfsBundleClassLoader classLoader = createClassLoader(builder, getClass().getClassLoader(),
+        DelegationPolicy.PARENT_FIRST);
+    List<String> classNames = builder.getExtensionClassNames();
+
+    ProtectionDomain first = classLoader.loadClass(classNames.get(0)).getProtectionDomain();
+    ProtectionDomain second = classLoader.loadClass(classNames.get(1)).getProtectionDomain();
+    ProtectionDomain otherJar = classLoader.loadClass(classNames.get(2)).getProtectionDomain();
+    Assert.assertSame(first, second);
+    Assert.assertNotSame(first, otherJar);
+    Assert.assertSame(classLoader, first.getClassLoader());
+    Assert.assertTrue(first.getCodeSource().getLocation().toString().contains("-jar-0.jar"));
+    Assert.assertTrue(otherJar.getCodeSource().getLocation().toString().contains("-jar-1.jar"));
+  }
+
+  @Test
+  public void testProtectionDomainIsKeyedBySigners() throws Exception {
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "signers", "1.0").withClassesPerJar(1);
+    Path bundle = builder.writeTo(folder.getRoot().toPath());
+    FileObject bundleRoot = fileSystemManager
+        .createFileSystem(fileSystemManager.resolveFile(bundle.toUri()));
+    FileObject jar = bundleRoot.resolveFile(VfsBundleClassLoader.DEPENDENCY_PATH)
+        .getChildren()[0];
+    VfsBundleClassPathEntry entry = VfsBundleClassPathEntry
+        .lazy(fileSystemManager, jar, null, null, null);
+    Certificate[] signed = {new TestCertificate("a"), new TestCertificate("b")};
+    Certificate[] reordered = {new TestCertificate("b"), new TestCertificate("a")};
+
+    ProtectionDomain unsigned = entry.putProtectionDomain(null, domain(entry, null));
+    Assert.assertSame(unsigned, entry.getProtectionDomain(new Certificate[0]));
+    Assert.assertNull(entry.getProtectionDomain(signed));
+
+    ProtectionDomain signedDomain = entry.putProtectionDomain(signed, domain(entry, signed));
+    Assert.assertNotSame(unsigned, signedDomain);
+    Assert.assertSame(signedDomain, entry.getProtectionDomain(reordered));
+    Assert.assertSame(signedDomain, entry.putProtectionDomain(reordered,
+        domain(entry, reordered)));
+    Assert.assertSame(unsigned, entry.getProtectionDomain(null));
+  }
+
+  private static ProtectionDomain domain(VfsBundleClassPathEntry entry, Certificate[] certs)
+      throws Exception {
+    return new ProtectionDomain(new CodeSource(entry.getUrl(), certs), null);
+  }
+
+  private static class TestCertificate extends Certificate {
+
+    private final byte[] encoded;
+
+    TestCertificate(String name) {
+      super("test");
+      this.encoded = name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] getEncoded() {
+      return encoded.clone();
+    }
+
+    @Override
+    public void verify(PublicKey key) {
+    }
+
+    @Override
+    public void verify(PublicKey key, String sigProvider) {
+    }
+
+    @Override
+    public String toString() {
+      return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public PublicKey getPublicKey() {
+      return null;
+    }
+  }
+
+  @Test
+  public void testPackageAttributesFromJarManifest() throws Exception {
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "packages", "2.0").withExtensionType(MessageParser.class)
+        .withClassesPerJar(2);
+    VfsBundleClassLoader classLoader = createClassLoader(builder, getClass().getClassLoader(),
+        DelegationPolicy.PARENT_FIRST);
+
+    Package pkg = classLoader.loadClass(builder.getExtensionClassNames().get(0)).getPackage();
+    Assert.assertEquals("packages-jar-0", pkg.getImplementationTitle());
+    Assert.assertEquals("2.0", pkg.getImplementationVersion());
+    Assert.assertFalse(pkg.isSealed());
+    Assert.assertSame(pkg,
+        classLoader.loadClass(builder.getExtensionClassNames().get(1)).getPackage());
+  }
+
+  @Test
+  public void testResourceStreamsAreOpenedDirectly() throws Exception {
+    byte[] schema = "{\"type\": \"enum\"}".getBytes(StandardCharsets.UTF_8);
+    VfsBundleClassLoader classLoader = createClassLoader(
+        new SyntheticBundleBuilder().withCoordinates("group", "streams", "1.0")
+            .withJarResource("schemas/direct.avsc", schema), folder.newFolder("cache").toPath());
+
+    try (InputStream in = classLoader.getResourceAsStream("schemas/direct.avsc")) {
+      Assert.assertArrayEquals(schema, IOUtils.toByteArray(in));
+    }
+    Assert.assertEquals(1, classLoader.getMetrics().getResourceLookups());
+    Assert.assertNull(classLoader.getResourceAsStream("schemas/missing.avsc"));
+    Assert.assertEquals(1, classLoader.getMetrics().getResourceMisses());
+
+    // parent resources are still found first
+    try (InputStream in = classLoader.getResourceAsStream("bundle.properties")) {
+      Assert.assertNotNull(in);
+    }
+    Assert.assertEquals(2, classLoader.getMetrics().getResourceLookups());
+  }
+
+  @Test
+  public void testJarsAreMountedOnFirstUse() throws Exception {
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "lazy", "1.0").withExtensionType(MessageParser.class)
+        .withJarCount(3).withExtensionClassesPerJar(1);
+    VfsBundleClassLoader classLoader = createClassLoader(builder, getClass().getClassLoader(),
+        DelegationPolicy.PARENT_FIRST);
+    Assert.assertEquals(3, classLoader.getDependencyJars().size());
+    Assert.assertEquals(0, classLoader.getMountedJarCount());
+
+    // the listing answers lookups for packages no jar contains
+    Assert.assertNull(classLoader.getResource("not/in/any/Jar.class"));
+    Assert.assertEquals(0, classLoader.getMountedJarCount());
+
+    Class<?> clazz = classLoader.loadClass(builder.getExtensionClassNames().get(1));
+    Assert.assertSame(classLoader, clazz.getClassLoader());
+    Assert.assertEquals(1, classLoader.getMountedJarCount());
+
+    Assert.assertEquals(4, classLoader.getFileObjects().length);
+    Assert.assertEquals(3, classLoader.getMountedJarCount());
+  }
+}
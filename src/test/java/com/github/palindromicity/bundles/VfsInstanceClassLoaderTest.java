@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles;
+
+import com.github.palindromicity.bundles.util.FileSystemManagerFactory;
+import com.github.palindromicity.bundles.util.SyntheticBundleBuilder;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VfsInstanceClassLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SyntheticBundleBuilder builder;
+  private FileSystemManager fileSystemManager;
+  private Path bundle;
+  private VfsBundleClassLoader bundleClassLoader;
+
+  @Before
+  public void setup() throws Exception {
+    fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    builder = new SyntheticBundleBuilder().withCoordinates("group", "instances", "1.0")
+        .withExtensionType(MessageParser.class).withClassesPerJar(2)
+        .withJarResource("instances/config.properties",
+            "a=b".getBytes(StandardCharsets.UTF_8));
+    bundle = builder.writeTo(folder.getRoot().toPath());
+    bundleClassLoader = new VfsBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager)
+        .withBundleFile(fileSystemManager.resolveFile(bundle.toUri()))
+        .withBundleCoordinates(builder.getCoordinates())
+        .withParentClassloader(getClass().getClassLoader()).build();
+  }
+
+  @Test
+  public void testInstancesDefineTheirOwnCopies() throws Exception {
+    String className = builder.getExtensionClassNames().get(0);
+    VfsInstanceClassLoader first = new VfsInstanceClassLoader("first", className,
+        bundleClassLoader);
+    VfsInstanceClassLoader second = new VfsInstanceClassLoader("second", className,
+        bundleClassLoader);
+
+    Class<?> firstClass = first.loadClass(className);
+    Class<?> secondClass = second.loadClass(className);
+    Assert.assertSame(first, firstClass.getClassLoader());
+    Assert.assertSame(second, secondClass.getClassLoader());
+    Assert.assertNotSame(firstClass, secondClass);
+    Assert.assertNotSame(bundleClassLoader.loadClass(className), firstClass);
+    Assert.assertTrue(MessageParser.class.isAssignableFrom(firstClass));
+    Assert.assertTrue(firstClass.newInstance() instanceof MessageParser);
+
+    // the bytes were read from the bundle once
+    Assert.assertEquals(1, bundleClassLoader.getSharedClassCount());
+    Assert.assertSame(bundleClassLoader.getClassBytes(className).getBytes(),
+        bundleClassLoader.getClassBytes(className).getBytes());
+    Assert.assertEquals(1, first.getMetrics().getClassesDefined());
+    Assert.assertTrue(first.getMetrics().getBytesDefined() > 0);
+
+    Assert.assertEquals("instances-jar-0", firstClass.getPackage().getImplementationTitle());
+    Assert.assertEquals(
+        bundleClassLoader.loadClass(className).getProtectionDomain().getCodeSource(),
+        firstClass.getProtectionDomain().getCodeSource());
+  }
+
+  @Test
+  public void testSharedClassBytesAreBounded() throws Exception {
+    String first = builder.getExtensionClassNames().get(0);
+    String second = first.replace("Synthetic0", "Synthetic1");
+    int budget = Math.max(bundleClassLoader.getClassBytes(first).getBytes().length,
+        bundleClassLoader.getClassBytes(second).getBytes().length);
+
+    VfsBundleClassLoader bounded = new VfsBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager)
+        .withBundleFile(fileSystemManager.resolveFile(bundle.toUri()))
+        .withBundleCoordinates(builder.getCoordinates())
+        .withSharedClassBytesMaxBytes(budget)
+        .withParentClassloader(getClass().getClassLoader()).build();
+    Assert.assertNotNull(bounded.getClassBytes(first));
+    Assert.assertNotNull(bounded.getClassBytes(second));
+    Assert.assertEquals(1, bounded.getSharedClassCount());
+
+    VfsBundleClassLoader unshared = new VfsBundleClassLoader.Builder()
+        .withFileSystemManager(fileSystemManager)
+        .withBundleFile(fileSystemManager.resolveFile(bundle.toUri()))
+        .withBundleCoordinates(builder.getCoordinates())
+        .withSharedClassBytesMaxBytes(0)
+        .withParentClassloader(getClass().getClassLoader()).build();
+    Assert.assertNotNull(unshared.getClassBytes(first));
+    Assert.assertEquals(0, unshared.getSharedClassCount());
+  }
+
+  @Test
+  public void testResourcesComeFromTheBundle() throws Exception {
+    VfsInstanceClassLoader instance = new VfsInstanceClassLoader("resources", "type",
+        bundleClassLoader);
+    Assert.assertNotNull(instance.getResource("instances/config.properties"));
+    Assert.assertNull(instance.getResource("instances/missing.properties"));
+    Assert.assertNull(bundleClassLoader.getClassBytes("does.not.Exist"));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.jfr;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BundleEventsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testDefineClassEventIsRecorded() throws Exception {
+    Assert.assertTrue(BundleEvents.isAvailable());
+    Path dump = new File(folder.getRoot(), "bundles.jfr").toPath();
+    try (Recording recording = new Recording()) {
+      recording.enable("com.github.palindromicity.bundles.DefineClass")
+          .withThreshold(Duration.ZERO);
+      recording.start();
+      try (EventScope event = BundleEvents.defineClass("group:id:1.0", "foo.Bar")) {
+        event.setSize(1234);
+      }
+      recording.stop();
+      recording.dump(dump);
+    }
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+        .filter((e) -> e.getEventType().getName()
+            .equals("com.github.palindromicity.bundles.DefineClass"))
+        .collect(Collectors.toList());
+    Assert.assertEquals(1, events.size());
+    Assert.assertEquals("group:id:1.0", events.get(0).getString("coordinates"));
+    Assert.assertEquals("foo.Bar", events.get(0).getString("subject"));
+    Assert.assertEquals(1234, events.get(0).getLong("bytes"));
+  }
+
+  @Test
+  public void testNotRecordingReturnsNoop() {
+    Assert.assertSame(EventScope.NOOP, BundleEvents.jarOpen("group:id:1.0", "foo.jar"));
+  }
+
+  @Test
+  public void testWithoutFlightRecorderReturnsNoop() throws Exception {
+    try (URLClassLoader loader = new WithoutFlightRecorderClassLoader()) {
+      Class<?> events = loader.loadClass(BundleEvents.class.getName());
+      Assert.assertNotSame(BundleEvents.class, events);
+      Assert.assertEquals(false, events.getMethod("isAvailable").invoke(null));
+      Object noop = loader.loadClass(EventScope.class.getName()).getField("NOOP").get(null);
+      for (Method method : events.getMethods()) {
+        if (method.getDeclaringClass() != events || method.getReturnType() == boolean.class) {
+          continue;
+        }
+        Object[] arguments = new Object[method.getParameterCount()];
+        Arrays.fill(arguments, "foo");
+        Assert.assertSame(noop, method.invoke(null, arguments));
+      }
+    }
+  }
+
+  /**
+   * Loads the classes of this package again, from the main classes, and hides {@code jdk.jfr} from
+   * them, as a runtime without Flight Recorder would.
+   */
+  private static final class WithoutFlightRecorderClassLoader extends URLClassLoader {
+
+    private WithoutFlightRecorderClassLoader() {
+      super(new URL[]{BundleEvents.class.getProtectionDomain().getCodeSource().getLocation()},
+          BundleEventsTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (name.startsWith("jdk.jfr.")) {
+        throw new ClassNotFoundException(name);
+      }
+      if (!name.startsWith(BundleEvents.class.getPackage().getName() + ".")) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> clazz = findLoadedClass(name);
+        if (clazz == null) {
+          clazz = findClass(name);
+        }
+        if (resolve) {
+          resolveClass(clazz);
+        }
+        return clazz;
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getMeanNanos());
+    Assert.assertEquals(0, histogram.getPercentileNanos(0.99));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(100);
+    }
+    histogram.record(1_000_000);
+    Assert.assertEquals(100, histogram.getCount());
+    Assert.assertEquals(1_000_000, histogram.getMaxNanos());
+    // 100ns lands in the 64-127 bucket
+    Assert.assertEquals(127, histogram.getPercentileNanos(0.5));
+    Assert.assertEquals(127, histogram.getPercentileNanos(0.99));
+    Assert.assertEquals(1_000_000, histogram.getPercentileNanos(1.0));
+  }
+
+  @Test
+  public void testNegativeIsRecordedAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    Assert.assertEquals(1, histogram.getCount());
+    Assert.assertEquals(0, histogram.getMaxNanos());
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BoundedFilesCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<FileObject> files = new ArrayList<>();
+
+  @Before
+  public void beforeTest() throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory.createFileSystemManager();
+    for (int i = 0; i < 4; i++) {
+      files.add(fileSystemManager.resolveFile(folder.newFile("file" + i).toURI()));
+    }
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    BoundedFilesCache cache = new BoundedFilesCache(2, BoundedFilesCache.Policy.LRU);
+    cache.putFile(files.get(0));
+    cache.putFile(files.get(1));
+    Assert.assertSame(files.get(0), get(cache, files.get(0)));
+    cache.putFile(files.get(2));
+    Assert.assertNull(get(cache, files.get(1)));
+    Assert.assertSame(files.get(0), get(cache, files.get(0)));
+    Assert.assertSame(files.get(2), get(cache, files.get(2)));
+    Assert.assertEquals(2, cache.getSize());
+    Assert.assertEquals(1, cache.getEvictions());
+    Assert.assertEquals(3, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testFrequentlyUsedFilesAreKept() {
+    BoundedFilesCache cache = new BoundedFilesCache(2, BoundedFilesCache.Policy.TINY_LFU);
+    for (int i = 0; i < 5; i++) {
+      get(cache, files.get(0));
+    }
+    cache.putFile(files.get(0));
+    get(cache, files.get(1));
+    cache.putFile(files.get(1));
+    // the least recently used file is also the most frequently used
+    Assert.assertSame(files.get(1), get(cache, files.get(1)));
+
+    // requested once, it is still cached, and evicts the less frequently used file
+    get(cache, files.get(2));
+    cache.putFile(files.get(2));
+    Assert.assertSame(files.get(2), get(cache, files.get(2)));
+    Assert.assertSame(files.get(0), get(cache, files.get(0)));
+    Assert.assertNull(get(cache, files.get(1)));
+    Assert.assertEquals(2, cache.getSize());
+    Assert.assertEquals(1, cache.getEvictions());
+    Assert.assertEquals(1, cache.getRejections());
+  }
+
+  @Test
+  public void testFilesInUseAreNotEvicted() throws Exception {
+    BoundedFilesCache cache = new BoundedFilesCache(1, BoundedFilesCache.Policy.LRU);
+    cache.putFile(files.get(0));
+    try (InputStream in = files.get(0).getContent().getInputStream()) {
+      cache.putFile(files.get(1));
+      Assert.assertSame(files.get(0), get(cache, files.get(0)));
+      Assert.assertSame(files.get(1), get(cache, files.get(1)));
+      Assert.assertEquals(0, cache.getEvictions());
+    }
+    files.get(0).close();
+
+    cache.putFile(files.get(2));
+    Assert.assertNull(get(cache, files.get(0)));
+    Assert.assertSame(files.get(2), get(cache, files.get(2)));
+    Assert.assertEquals(2, cache.getSize());
+    Assert.assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testClearRemovesTheFileSystem() {
+    BoundedFilesCache cache = new BoundedFilesCache(10, BoundedFilesCache.Policy.LRU);
+    Assert.assertTrue(cache.putFileIfAbsent(files.get(0)));
+    Assert.assertFalse(cache.putFileIfAbsent(files.get(0)));
+    cache.clear(files.get(0).getFileSystem());
+    Assert.assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testFromProperties() throws Exception {
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    Assert.assertNull(BoundedFilesCache.fromProperties(properties));
+    properties.setProperty(BundleProperties.FILES_CACHE_POLICY, "tinylfu");
+    properties.setProperty(BundleProperties.FILES_CACHE_MAX_SIZE, "100");
+    BoundedFilesCache cache = BoundedFilesCache.fromProperties(properties);
+    Assert.assertEquals(BoundedFilesCache.Policy.TINY_LFU, cache.getPolicy());
+    Assert.assertEquals(100, cache.getMaxSize());
+  }
+
+  private static FileObject get(BoundedFilesCache cache, FileObject file) {
+    return cache.getFile(file.getFileSystem(), file.getName());
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BundleDirectoryScannerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FileObject lib;
+
+  @Before
+  public void beforeTest() throws Exception {
+    Path root = folder.newFolder("lib").toPath();
+    write(root.resolve("a.bundle"), 1);
+    write(root.resolve("sub/b.bundle"), 2);
+    write(root.resolve("sub/notes.txt"), 3);
+    write(root.resolve("sub/deeper/c.bundle"), 4);
+    write(root.resolve("parsers/d.bundle"), 5);
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    lib = fileSystemManager.resolveFile(root.toUri());
+  }
+
+  private static void write(Path file, int size) throws Exception {
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[size]);
+  }
+
+  private static Set<String> names(List<BundleDirectoryScanner.ListedFile> files) {
+    return files.stream().map(f -> f.getFile().getName().getBaseName())
+        .collect(Collectors.toSet());
+  }
+
+  @Test
+  public void testScanIsLimitedByDepth() throws Exception {
+    BundleDirectoryScanner shallow = new BundleDirectoryScanner.Builder()
+        .withExtensions("bundle").withMaxDepth(1).build();
+    Assert.assertEquals(new HashSet<>(Arrays.asList("a.bundle")), names(shallow.scan(lib)));
+    Assert.assertEquals(1, shallow.getListings());
+
+    BundleDirectoryScanner two = new BundleDirectoryScanner.Builder()
+        .withExtensions("bundle").withMaxDepth(2).build();
+    Assert.assertEquals(new HashSet<>(Arrays.asList("a.bundle", "b.bundle", "d.bundle")),
+        names(two.scan(lib)));
+
+    BundleDirectoryScanner all = new BundleDirectoryScanner.Builder()
+        .withExtensions("bundle").build();
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList("a.bundle", "b.bundle", "c.bundle", "d.bundle")),
+        names(all.scan(lib)));
+    // the library directory and its three subdirectories, each listed once
+    Assert.assertEquals(4, all.getListings());
+  }
+
+  @Test
+  public void testScanIsFilteredByGlob() throws Exception {
+    BundleDirectoryScanner scanner = new BundleDirectoryScanner.Builder()
+        .withExtensions("bundle", "txt").withGlob("{parsers,sub}/*").build();
+    List<BundleDirectoryScanner.ListedFile> files = scanner.scan(lib);
+    Assert.assertEquals(new HashSet<>(Arrays.asList("b.bundle", "notes.txt", "d.bundle")),
+        names(files));
+    for (BundleDirectoryScanner.ListedFile file : files) {
+      Assert.assertEquals(file.getFile().getContent().getSize(), file.getSize());
+      Assert.assertEquals(file.getFile().getContent().getLastModifiedTime(),
+          file.getLastModified());
+    }
+  }
+
+  @Test
+  public void testFromProperties() throws Exception {
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.DISCOVERY_MAX_DEPTH, "2");
+    properties.setProperty(BundleProperties.DISCOVERY_GLOB, "sub/*");
+    FileObject[] files = BundleDirectoryScanner
+        .fromProperties(properties, properties.getArchiveExtension()).findFiles(lib);
+    Assert.assertEquals(1, files.length);
+    Assert.assertEquals("b.bundle", files[0].getName().getBaseName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeDepthIsRejected() throws Exception {
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.DISCOVERY_MAX_DEPTH, "-1");
+    properties.getDiscoveryMaxDepth();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.util;
+
+import com.github.palindromicity.bundles.AbstractFoo;
+import com.github.palindromicity.bundles.BundleSystem;
+import com.github.palindromicity.bundles.BundleMapper;
+import com.github.palindromicity.bundles.BundleSystemBuilder;
+import com.github.palindromicity.bundles.ExtensionMapping;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BundlePackTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SyntheticBundleBuilder parent = new SyntheticBundleBuilder()
+      .withCoordinates("group", "parent", "1.0").withExtensionType(AbstractFoo.class)
+      .withClassesPerJar(2).withExtensionClassesPerJar(1);
+  private final SyntheticBundleBuilder child = new SyntheticBundleBuilder()
+      .withCoordinates("group", "child", "1.0").withDependencyCoordinates("group", "parent", "1.0")
+      .withExtensionType(AbstractFoo.class).withClassesPerJar(2).withExtensionClassesPerJar(1);
+
+  @After
+  public void afterTest() {
+    BundleSystem.reset();
+  }
+
+  private Path writePack(Path directory) throws Exception {
+    return writePack(directory, "all", child, parent);
+  }
+
+  private Path writePack(Path directory, String name, SyntheticBundleBuilder... bundles)
+      throws Exception {
+    Path pack = directory.resolve(name + "." + BundleProperties.DEFAULT_PACK_EXTENSION);
+    try (OutputStream out = Files.newOutputStream(pack);
+        BundlePack.Writer writer = new BundlePack.Writer(out)) {
+      for (SyntheticBundleBuilder bundle : bundles) {
+        writer.add(bundle.getFileName(), bundle.toByteArray());
+      }
+    }
+    return pack;
+  }
+
+  private BundleProperties libraryProperties(Path lib) throws Exception {
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, lib.toString());
+    return properties;
+  }
+
+  @Test
+  public void testBundlesAreServedFromThePack() throws Exception {
+    Path pack = writePack(folder.getRoot().toPath());
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    BundlePack bundlePack = BundlePack.open(fileSystemManager.resolveFile(pack.toUri()));
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+
+    List<BundlePack.Entry> entries = bundlePack.getEntries();
+    Assert.assertEquals(2, entries.size());
+    Assert.assertEquals(child.getFileName(), entries.get(0).getName());
+    Assert.assertEquals(parent.getFileName(), entries.get(1).getName());
+    Assert.assertEquals("child", entries.get(0).getAttributes().getValue("Bundle-Id"));
+
+    for (BundlePack.Entry entry : entries) {
+      byte[] expected = entry.getName().equals(child.getFileName()) ? child.toByteArray()
+          : parent.toByteArray();
+      Assert.assertEquals(expected.length, entry.getLength());
+      try (InputStream in = bundlePack.openStream(entry)) {
+        Assert.assertArrayEquals(expected, IOUtils.toByteArray(in));
+      }
+      FileObject bundleFile = bundlePack.getBundleFile(entry);
+      try (InputStream in = bundleFile.getContent().getInputStream()) {
+        Assert.assertArrayEquals(expected, IOUtils.toByteArray(in));
+      }
+      Assert.assertEquals("group", BundleUtil.fromAttributes(bundleFile, entry.getAttributes(),
+          properties).getCoordinates().getGroup());
+    }
+  }
+
+  @Test
+  public void testBundleFilesAreCopiedFromTheirRange() throws Exception {
+    Path pack = writePack(folder.getRoot().toPath());
+    Path directory = folder.newFolder("replicated").toPath();
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(new String[]{"bundle"});
+    BundlePack bundlePack = BundlePack
+        .open(fileSystemManager.resolveFile(pack.toUri()), directory);
+    BundlePack.Entry entry = bundlePack.getEntries().get(1);
+
+    FileObject bundleFile = bundlePack.getBundleFile(entry);
+    Assert.assertEquals("file", bundleFile.getName().getScheme());
+    Path copy = Paths.get(bundleFile.getName().getPath());
+    Assert.assertTrue(copy.startsWith(directory));
+    Assert.assertEquals(entry.getName(), copy.getFileName().toString());
+    Assert.assertArrayEquals(parent.toByteArray(), Files.readAllBytes(copy));
+    Assert.assertSame(bundleFile, bundlePack.getBundleFile(entry));
+
+    // the copy is reused when the pack is opened again
+    BundlePack reopened = BundlePack.open(fileSystemManager.resolveFile(pack.toUri()), directory);
+    Assert.assertEquals(bundleFile.getName(), reopened.getBundleFile(entry).getName());
+  }
+
+  @Test
+  public void testWriterRejectsDuplicates() throws Exception {
+    try (OutputStream out = Files.newOutputStream(folder.newFile("duplicates.bundlepack").toPath());
+        BundlePack.Writer writer = new BundlePack.Writer(out)) {
+      writer.add(parent.getFileName(), parent.toByteArray());
+      try {
+        writer.add(parent.getFileName(), parent.toByteArray());
+        Assert.fail("expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testBundleSystemLoadsBundlesFromPack() throws Exception {
+    Path lib = folder.newFolder("lib").toPath();
+    writePack(lib);
+
+    BundleSystem bundleSystem = new BundleSystemBuilder()
+        .withBundleProperties(libraryProperties(lib))
+        .withExtensionClasses(Arrays.asList(AbstractFoo.class)).build();
+
+    for (String className : child.getExtensionClassNames()) {
+      Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    }
+    for (String className : parent.getExtensionClassNames()) {
+      Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    }
+  }
+
+  @Test
+  public void testBundleMapperMapsPackedBundles() throws Exception {
+    Path lib = folder.newFolder("lib").toPath();
+    writePack(lib);
+    BundleProperties properties = libraryProperties(lib);
+    properties.setProperty("bundle.extension.type.foo", AbstractFoo.class.getName());
+
+    ExtensionMapping mapping = BundleMapper.mapBundles(FileSystemManagerFactory
+        .createFileSystemManager(new String[]{properties.getArchiveExtension()}), properties);
+    Assert.assertNotNull(mapping);
+    for (String className : child.getExtensionClassNames()) {
+      Assert.assertEquals(child.getCoordinates(),
+          mapping.getAllExtensionNames().get(className).iterator().next());
+    }
+    for (String className : parent.getExtensionClassNames()) {
+      Assert.assertEquals(parent.getCoordinates(),
+          mapping.getAllExtensionNames().get(className).iterator().next());
+    }
+  }
+
+  @Test
+  public void testPackedBundleIsAddedByName() throws Exception {
+    Path lib = folder.newFolder("lib").toPath();
+    parent.writeTo(lib);
+    BundleSystem bundleSystem = new BundleSystemBuilder()
+        .withBundleProperties(libraryProperties(lib))
+        .withExtensionClasses(Arrays.asList(AbstractFoo.class)).build();
+
+    writePack(lib, "later", child);
+    bundleSystem.addBundle(child.getFileName());
+    for (String className : child.getExtensionClassNames()) {
+      Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.Selectors;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentAddressedFileReplicatorTest {
+
+  private static final byte[] CONTENT = "nested jar content".getBytes();
+  private static final long REPRODUCIBLE_TIME = 315532800000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCopiesAreReusedAcrossReplicators() throws Exception {
+    Path directory = folder.newFolder("replicated").toPath();
+    File outer = writeOuterJar();
+
+    ContentAddressedFileReplicator first = new ContentAddressedFileReplicator.Builder()
+        .withDirectory(directory).build();
+    File copy = first.replicateFile(resolveNested(first, outer), Selectors.SELECT_SELF);
+    Assert.assertArrayEquals(CONTENT, Files.readAllBytes(copy.toPath()));
+    Assert.assertEquals("inner.jar", copy.getName());
+    Assert.assertEquals(copy, first.replicateFile(resolveNested(first, outer),
+        Selectors.SELECT_SELF));
+    Assert.assertEquals(1, first.getCopyCount());
+    Assert.assertEquals(1, first.getReuseCount());
+
+    // a restart finds the copy through its stamp, without copying again
+    ContentAddressedFileReplicator second = new ContentAddressedFileReplicator.Builder()
+        .withDirectory(directory).build();
+    Assert.assertEquals(copy, second.replicateFile(resolveNested(second, outer),
+        Selectors.SELECT_SELF));
+    Assert.assertEquals(0, second.getCopyCount());
+    Assert.assertEquals(1, second.getReuseCount());
+  }
+
+  @Test
+  public void testCleanTrimsToMaxBytes() throws Exception {
+    Path directory = folder.newFolder("replicated").toPath();
+    File outer = writeOuterJar();
+    ContentAddressedFileReplicator replicator = new ContentAddressedFileReplicator.Builder()
+        .withDirectory(directory).build();
+    File copy = replicator.replicateFile(resolveNested(replicator, outer), Selectors.SELECT_SELF);
+    Assert.assertTrue(copy.isFile());
+
+    new ContentAddressedFileReplicator.Builder().withDirectory(directory)
+        .withMaxBytes(1).build().clean();
+    Assert.assertFalse(copy.exists());
+
+    ContentAddressedFileReplicator after = new ContentAddressedFileReplicator.Builder()
+        .withDirectory(directory).build();
+    Assert.assertTrue(
+        after.replicateFile(resolveNested(after, outer), Selectors.SELECT_SELF).isFile());
+    Assert.assertEquals(1, after.getCopyCount());
+  }
+
+  @Test
+  public void testRebuiltOuterFileIsCopiedAgain() throws Exception {
+    Path directory = folder.newFolder("replicated").toPath();
+    File outer = writeOuterJar();
+    ContentAddressedFileReplicator first = new ContentAddressedFileReplicator.Builder()
+        .withDirectory(directory).build();
+    first.replicateFile(resolveNested(first, outer), Selectors.SELECT_SELF);
+
+    // the same path, nested size and nested time, but different content
+    byte[] rebuilt = "nested jar CONTENT".getBytes();
+    writeOuterJar(rebuilt);
+    Assert.assertTrue(outer.setLastModified(outer.lastModified() + 10000));
+
+    ContentAddressedFileReplicator second = new ContentAddressedFileReplicator.Builder()
+        .withDirectory(directory).build();
+    File copy = second.replicateFile(resolveNested(second, outer), Selectors.SELECT_SELF);
+    Assert.assertArrayEquals(rebuilt, Files.readAllBytes(copy.toPath()));
+    Assert.assertEquals(1, second.getCopyCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeBudgetIsRejected() {
+    new ContentAddressedFileReplicator.Builder().withMaxBytes(-1).build();
+  }
+
+  private File writeOuterJar() throws Exception {
+    return writeOuterJar(CONTENT);
+  }
+
+  private File writeOuterJar(byte[] content) throws Exception {
+    File outer = new File(folder.getRoot(), "outer.jar");
+    try (OutputStream out = Files.newOutputStream(outer.toPath());
+        JarOutputStream jar = new JarOutputStream(out)) {
+      JarEntry entry = new JarEntry("lib/inner.jar");
+      // as written by a reproducible build
+      entry.setTime(REPRODUCIBLE_TIME);
+      jar.putNextEntry(entry);
+      jar.write(content);
+      jar.closeEntry();
+    }
+    return outer;
+  }
+
+  private static FileObject resolveNested(ContentAddressedFileReplicator replicator, File outer)
+      throws Exception {
+    FileSystemManager fileSystemManager = FileSystemManagerFactory
+        .createFileSystemManager(null, replicator);
+    FileObject jar = fileSystemManager
+        .createFileSystem(fileSystemManager.resolveFile(outer.toURI()));
+    return jar.resolveFile("lib/inner.jar");
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResourceByteCacheTest {
+
+  @Test
+  public void testGetAndPut() throws Exception {
+    ResourceByteCache cache = new ResourceByteCache(100, 50);
+    Assert.assertNull(cache.get("g:a:1", "schema.avsc"));
+    Assert.assertTrue(cache.put("g:a:1", "schema.avsc", new byte[]{1, 2, 3}));
+    try (InputStream in = cache.get("g:a:1", "schema.avsc")) {
+      Assert.assertArrayEquals(new byte[]{1, 2, 3}, IOUtils.toByteArray(in));
+    }
+    Assert.assertNull(cache.get("g:b:1", "schema.avsc"));
+    Assert.assertEquals(1, cache.getHits());
+    // lookups that are not cached are only misses once the bundle serves them
+    Assert.assertEquals(0, cache.getMisses());
+    cache.recordMiss();
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(3, cache.getBytes());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    ResourceByteCache cache = new ResourceByteCache(100, 50);
+    cache.put("g:a:1", "one", new byte[40]);
+    cache.put("g:a:1", "two", new byte[40]);
+    cache.get("g:a:1", "one").close();
+    cache.put("g:a:1", "three", new byte[40]);
+    Assert.assertNull(cache.get("g:a:1", "two"));
+    Assert.assertNotNull(cache.get("g:a:1", "one"));
+    Assert.assertNotNull(cache.get("g:a:1", "three"));
+    Assert.assertEquals(1, cache.getEvictions());
+    Assert.assertEquals(80, cache.getBytes());
+  }
+
+  @Test
+  public void testLargeResourcesAreNotCached() {
+    ResourceByteCache cache = new ResourceByteCache(100, 50);
+    Assert.assertFalse(cache.put("g:a:1", "big", new byte[51]));
+    Assert.assertEquals(0, cache.getEntryCount());
+  }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import com.github.palindromicity.bundles.BundleManifestEntry;
+import com.github.palindromicity.bundles.VfsBundleClassLoader;
+import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes valid Bundle archives programmatically, for use in tests, stress tests and benchmarks.
+ *
+ * <p>The generated bundle has the layout produced by the bundles maven plugin:</p>
+ * <pre>
+ *   +META-INF/
+ *   +-- MANIFEST.MF
+ *   +-- bundled-dependencies/
+ *       +-- &lt;id&gt;-jar-0.jar ... &lt;id&gt;-jar-N.jar
+ * </pre>
+ *
+ * <p>Each generated jar holds {@code classesPerJar} generated classes. The first
+ * {@code extensionClassesPerJar} of them extend or implement the configured extension type and
+ * are listed in the jar's {@code META-INF/services/<extension type>} file, which is both the
+ * ServiceLoader registration and the ClassIndex subclass index. If an annotation type is
+ * configured, the extension classes also carry that annotation and are listed in the ClassIndex
+ * {@code META-INF/annotations/<annotation type>} index.</p>
+ *
+ * <p>Generated class names are derived from the bundle id, so bundles with different ids never
+ * register the same extension class name. Entry timestamps are fixed, so the same configuration
+ * always produces byte identical archives.</p>
+ */
+public class SyntheticBundleBuilder {
+
+  /**
+   * Fixed timestamp for all entries, so output is reproducible.
+   */
+  private static final long ENTRY_TIME = 1514764800000L;
+  private static final String SERVICES_PATH = "META-INF/services/";
+  private static final String ANNOTATIONS_PATH = "META-INF/annotations/";
+
+  private String metaIdPrefix = BundleProperties.DEFAULT_META_ID_PREFIX;
+  private String archiveExtension = BundleProperties.DEFAULT_ARCHIVE_EXTENSION;
+  private BundleCoordinates coordinates;
+  private BundleCoordinates dependencyCoordinates;
+  private Class<?> extensionType;
+  private Class<?> annotationType;
+  private int jarCount = 1;
+  private int classesPerJar = 1;
+  private int extensionClassesPerJar = -1;
+  private String packagePrefix = "synthetic";
+  private final Map<String, byte[]> jarResources = new LinkedHashMap<>();
+  private final Map<String, byte[]> bundleEntries = new LinkedHashMap<>();
+  private final Map<String, String> manifestEntries = new LinkedHashMap<>();
+
+  /**
+   * Provides the coordinates of the bundle.
+   *
+   * @param group the group
+   * @param id the id, required
+   * @param version the version
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withCoordinates(String group, String id, String version) {
+    this.coordinates = new BundleCoordinates(group, id, version);
+    return this;
+  }
+
+  /**
+   * Provides the coordinates of the bundle this bundle depends on.
+   *
+   * @param group the group
+   * @param id the id, required
+   * @param version the version
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withDependencyCoordinates(String group, String id,
+      String version) {
+    this.dependencyCoordinates = new BundleCoordinates(group, id, version);
+    return this;
+  }
+
+  /**
+   * Provides the coordinates of the bundle this bundle depends on.
+   *
+   * @param dependencyCoordinates the coordinates, may be null for no dependency
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withDependencyCoordinates(
+      BundleCoordinates dependencyCoordinates) {
+    this.dependencyCoordinates = dependencyCoordinates;
+    return this;
+  }
+
+  /**
+   * Overrides the manifest id prefix, see {@link BundleProperties#META_ID_PREFIX}.
+   *
+   * @param metaIdPrefix the prefix
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withMetaIdPrefix(String metaIdPrefix) {
+    this.metaIdPrefix = metaIdPrefix;
+    return this;
+  }
+
+  /**
+   * Overrides the archive extension used to name the written bundle file.
+   *
+   * @param archiveExtension the extension, without the dot
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withArchiveExtension(String archiveExtension) {
+    this.archiveExtension = archiveExtension;
+    return this;
+  }
+
+  /**
+   * Provides the class or interface the generated extension classes extend or implement.
+   *
+   * @param extensionType the extension type
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withExtensionType(Class<?> extensionType) {
+    this.extensionType = extensionType;
+    return this;
+  }
+
+  /**
+   * Provides a runtime retained annotation which the generated extension classes will carry, and
+   * which they will be indexed under for ClassIndex.
+   *
+   * @param annotationType the annotation type
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withAnnotationType(Class<?> annotationType) {
+    this.annotationType = annotationType;
+    return this;
+  }
+
+  /**
+   * Provides the number of jars to place in {@code META-INF/bundled-dependencies}.
+   *
+   * @param jarCount the number of jars
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withJarCount(int jarCount) {
+    this.jarCount = jarCount;
+    return this;
+  }
+
+  /**
+   * Provides the number of classes generated in each jar.
+   *
+   * @param classesPerJar the number of classes
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withClassesPerJar(int classesPerJar) {
+    this.classesPerJar = classesPerJar;
+    return this;
+  }
+
+  /**
+   * Provides how many of the classes in each jar are extensions. By default all of them are.
+   *
+   * @param extensionClassesPerJar the number of extension classes
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withExtensionClassesPerJar(int extensionClassesPerJar) {
+    this.extensionClassesPerJar = extensionClassesPerJar;
+    return this;
+  }
+
+  /**
+   * Provides the root package of the generated classes.
+   *
+   * @param packagePrefix the package prefix
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withPackagePrefix(String packagePrefix) {
+    this.packagePrefix = packagePrefix;
+    return this;
+  }
+
+  /**
+   * Adds a resource to the first generated jar.
+   *
+   * @param name the resource name, for example {@code schemas/foo.xsd}
+   * @param content the resource content
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withJarResource(String name, byte[] content) {
+    this.jarResources.put(name, content);
+    return this;
+  }
+
+  /**
+   * Adds an arbitrary entry to the bundle archive itself.
+   *
+   * @param name the entry name, for example {@code META-INF/bundled-dependencies/native/x.so}
+   * @param content the entry content
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withBundleEntry(String name, byte[] content) {
+    this.bundleEntries.put(name, content);
+    return this;
+  }
+
+  /**
+   * Adds an additional main attribute to the bundle manifest.
+   *
+   * @param name the attribute name
+   * @param value the attribute value
+   * @return {@code SyntheticBundleBuilder}
+   */
+  public SyntheticBundleBuilder withManifestEntry(String name, String value) {
+    this.manifestEntries.put(name, value);
+    return this;
+  }
+
+  /**
+   * Returns the coordinates of the bundle being built.
+   *
+   * @return {@code BundleCoordinates}
+   */
+  public BundleCoordinates getCoordinates() {
+    return coordinates;
+  }
+
+  /**
+   * Returns the file name the bundle is written to by {@link #writeTo(Path)}.
+   *
+   * @return the file name
+   */
+  public String getFileName() {
+    checkCoordinates();
+    return coordinates.getId() + "-" + coordinates.getVersion() + "." + archiveExtension;
+  }
+
+  /**
+   * Returns the names of the generated extension classes.
+   *
+   * @return {@code List} of class names
+   */
+  public List<String> getExtensionClassNames() {
+    final List<String> names = new ArrayList<>();
+    for (int jar = 0; jar < jarCount; jar++) {
+      for (int i = 0; i < effectiveExtensionClassesPerJar(); i++) {
+        names.add(className(jar, i));
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Writes the bundle into the given directory.
+   *
+   * @param directory the directory, it will be created if required
+   * @return the {@code Path} of the written bundle
+   * @throws IOException if the bundle cannot be written
+   */
+  public Path writeTo(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    final Path bundlePath = directory.resolve(getFileName());
+    try (OutputStream out = Files.newOutputStream(bundlePath)) {
+      writeTo(out);
+    }
+    return bundlePath;
+  }
+
+  /**
+   * Writes the bundle into the given directory of a Hadoop {@code FileSystem}, for example one
+   * backed by a {@code MiniDFSCluster}.
+   *
+   * @param fileSystem the Hadoop {@code FileSystem}
+   * @param directory the directory
+   * @return the {@code Path} of the written bundle
+   * @throws IOException if the bundle cannot be written
+   */
+  public org.apache.hadoop.fs.Path writeTo(org.apache.hadoop.fs.FileSystem fileSystem,
+      org.apache.hadoop.fs.Path directory) throws IOException {
+    final org.apache.hadoop.fs.Path bundlePath = new org.apache.hadoop.fs.Path(directory,
+        getFileName());
+    try (OutputStream out = fileSystem.create(bundlePath, true)) {
+      writeTo(out);
+    }
+    return bundlePath;
+  }
+
+  /**
+   * Writes the bundle to the stream. The stream is not closed.
+   *
+   * @param out the {@code OutputStream}
+   * @throws IOException if the bundle cannot be written
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    checkCoordinates();
+    final ZipOutputStream bundle = new ZipOutputStream(out);
+    putEntry(bundle, JarFile.MANIFEST_NAME, manifestBytes(bundleManifest()));
+    putEntry(bundle, VfsBundleClassLoader.DEPENDENCY_PATH + "/", null);
+    for (int jar = 0; jar < jarCount; jar++) {
+      putEntry(bundle, VfsBundleClassLoader.DEPENDENCY_PATH + "/" + jarName(jar),
+          buildJar(jar));
+    }
+    for (Map.Entry<String, byte[]> entry : bundleEntries.entrySet()) {
+      putEntry(bundle, entry.getKey(), entry.getValue());
+    }
+    bundle.finish();
+    bundle.flush();
+  }
+
+  /**
+   * Builds the bundle in memory.
+   *
+   * @return the bundle bytes
+   * @throws IOException if the bundle cannot be built
+   */
+  public byte[] toByteArray() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeTo(out);
+    return out.toByteArray();
+  }
+
+  private byte[] buildJar(int jar) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ZipOutputStream out = new ZipOutputStream(bytes);
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes()
+        .put(Attributes.Name.IMPLEMENTATION_TITLE, coordinates.getId() + "-jar-" + jar);
+    manifest.getMainAttributes()
+        .put(Attributes.Name.IMPLEMENTATION_VERSION, coordinates.getVersion());
+    putEntry(out, JarFile.MANIFEST_NAME, manifestBytes(manifest));
+
+    final StringBuilder services = new StringBuilder();
+    final int extensions = effectiveExtensionClassesPerJar();
+    for (int i = 0; i < classesPerJar; i++) {
+      final String className = className(jar, i);
+      final boolean extension = i < extensions;
+      final byte[] classBytes = SyntheticClassWriter
+          .writeClass(className, extension ? extensionType : null,
+              extension ? annotationType : null);
+      putEntry(out, SyntheticClassWriter.internalName(className) + ".class", classBytes);
+      if (extension) {
+        services.append(className).append('\n');
+      }
+    }
+    if (extensionType != null && services.length() > 0) {
+      final byte[] index = services.toString().getBytes(StandardCharsets.UTF_8);
+      putEntry(out, SERVICES_PATH + extensionType.getName(), index);
+      if (annotationType != null) {
+        putEntry(out, ANNOTATIONS_PATH + annotationType.getName(), index);
+      }
+    }
+    if (jar == 0) {
+      for (Map.Entry<String, byte[]> entry : jarResources.entrySet()) {
+        putEntry(out, entry.getKey(), entry.getValue());
+      }
+    }
+    out.finish();
+    return bytes.toByteArray();
+  }
+
+  private Manifest bundleManifest() {
+    final Manifest manifest = new Manifest();
+    final Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue(metaIdPrefix + BundleManifestEntry.PRE_GROUP.getManifestName(),
+        coordinates.getGroup());
+    attributes.putValue(metaIdPrefix + BundleManifestEntry.PRE_ID.getManifestName(),
+        coordinates.getId());
+    attributes.putValue(metaIdPrefix + BundleManifestEntry.PRE_VERSION.getManifestName(),
+        coordinates.getVersion());
+    if (dependencyCoordinates != null) {
+      attributes.putValue(
+          metaIdPrefix + BundleManifestEntry.PRE_DEPENDENCY_GROUP.getManifestName(),
+          dependencyCoordinates.getGroup());
+      attributes
+          .putValue(metaIdPrefix + BundleManifestEntry.PRE_DEPENDENCY_ID.getManifestName(),
+              dependencyCoordinates.getId());
+      attributes.putValue(
+          metaIdPrefix + BundleManifestEntry.PRE_DEPENDENCY_VERSION.getManifestName(),
+          dependencyCoordinates.getVersion());
+    }
+    attributes.putValue(BundleManifestEntry.BUILT_BY.getManifestName(),
+        SyntheticBundleBuilder.class.getSimpleName());
+    for (Map.Entry<String, String> entry : manifestEntries.entrySet()) {
+      attributes.putValue(entry.getKey(), entry.getValue());
+    }
+    return manifest;
+  }
+
+  private int effectiveExtensionClassesPerJar() {
+    if (extensionType == null) {
+      return 0;
+    }
+    if (extensionClassesPerJar < 0) {
+      return classesPerJar;
+    }
+    return Math.min(extensionClassesPerJar, classesPerJar);
+  }
+
+  private String jarName(int jar) {
+    return coordinates.getId() + "-jar-" + jar + ".jar";
+  }
+
+  private String className(int jar, int index) {
+    return packagePrefix + "." + javaIdentifier(coordinates.getId()) + ".jar" + jar
+        + ".Synthetic" + index;
+  }
+
+  private static String javaIdentifier(String value) {
+    final StringBuilder builder = new StringBuilder(value.length() + 1);
+    for (char c : value.toCharArray()) {
+      builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+    }
+    if (!Character.isJavaIdentifierStart(builder.charAt(0))) {
+      builder.insert(0, '_');
+    }
+    return builder.toString();
+  }
+
+  private void checkCoordinates() {
+    if (coordinates == null) {
+      throw new IllegalStateException("coordinates are required");
+    }
+  }
+
+  private static byte[] manifestBytes(Manifest manifest) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    manifest.write(out);
+    return out.toByteArray();
+  }
+
+  private static void putEntry(ZipOutputStream out, String name, byte[] content)
+      throws IOException {
+    final ZipEntry entry = new ZipEntry(name);
+    entry.setTime(ENTRY_TIME);
+    out.putNextEntry(entry);
+    if (content != null) {
+      out.write(content);
+    }
+    out.closeEntry();
+  }
+}
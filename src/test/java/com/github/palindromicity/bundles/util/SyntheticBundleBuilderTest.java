@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import com.github.palindromicity.bundles.AbstractFoo;
+import com.github.palindromicity.bundles.BundleSystem;
+import com.github.palindromicity.bundles.BundleSystemBuilder;
+import com.github.palindromicity.parsers.interfaces.MessageParser;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyntheticBundleBuilderTest {
+
+  private static final Path LIB = Paths.get("target/synthetic-bundles/lib");
+
+  @After
+  public void afterTest() throws Exception {
+    BundleSystem.reset();
+    FileUtils.deleteDirectory(new File("target/synthetic-bundles"));
+  }
+
+  @Test
+  public void testWriteClass() throws Exception {
+    final String name = "synthetic.test.Implementor";
+    final byte[] bytes = SyntheticClassWriter.writeClass(name, MessageParser.class, null);
+    final ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> findClass(String className) throws ClassNotFoundException {
+        if (name.equals(className)) {
+          return defineClass(className, bytes, 0, bytes.length);
+        }
+        throw new ClassNotFoundException(className);
+      }
+    };
+    Object instance = loader.loadClass(name).newInstance();
+    Assert.assertTrue(instance instanceof MessageParser);
+  }
+
+  @Test
+  public void testDeploymentIsLoadable() throws Exception {
+    SyntheticDeployment deployment = new SyntheticDeployment().withBundleCount(3)
+        .withDependencyChainLength(2).withTemplate(
+            new SyntheticBundleBuilder().withExtensionType(AbstractFoo.class).withJarCount(2)
+                .withClassesPerJar(5).withExtensionClassesPerJar(2));
+    List<Path> bundles = deployment.writeTo(LIB);
+    Assert.assertEquals(3, bundles.size());
+
+    BundleProperties properties = BundleProperties
+        .createBasicBundleProperties("src/test/resources/bundle.properties", null);
+    properties.setProperty(BundleProperties.BUNDLE_LIBRARY_DIRECTORY, LIB.toString());
+    BundleSystem bundleSystem = new BundleSystemBuilder().withBundleProperties(properties)
+        .withExtensionClasses(Arrays.asList(AbstractFoo.class)).build();
+
+    SyntheticBundleBuilder second = new SyntheticBundleBuilder()
+        .withCoordinates(deployment.getCoordinates(1).getGroup(),
+            deployment.getCoordinates(1).getId(), deployment.getCoordinates(1).getVersion())
+        .withExtensionType(AbstractFoo.class).withJarCount(2).withClassesPerJar(5)
+        .withExtensionClassesPerJar(2);
+    for (String className : second.getExtensionClassNames()) {
+      Assert.assertNotNull(bundleSystem.createInstance(className, AbstractFoo.class));
+    }
+    // 3 bundles, 2 jars each, 2 extensions per jar, plus the system classpath extensions
+    Assert.assertTrue(
+        bundleSystem.getExtensionsClassesForExtensionType(AbstractFoo.class).size() >= 12);
+  }
+
+  @Test
+  public void testOutputIsReproducible() throws Exception {
+    SyntheticBundleBuilder builder = new SyntheticBundleBuilder()
+        .withCoordinates("group", "id", "1.0").withExtensionType(MessageParser.class)
+        .withClassesPerJar(3);
+    Assert.assertArrayEquals(builder.toByteArray(), builder.toByteArray());
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Modifier;
+
+/**
+ * Writes minimal, verifiable Java 8 class files without a bytecode library.
+ *
+ * <p>The generated class is public, has a public no argument constructor which calls the super
+ * class constructor, and either extends the given type (when it is a class) or implements it (when
+ * it is an interface). Optionally the class can carry a runtime visible marker annotation so that
+ * ClassIndex annotation scanning can be exercised.</p>
+ */
+public final class SyntheticClassWriter {
+
+  private static final int MAGIC = 0xCAFEBABE;
+  private static final int JAVA_8_MAJOR_VERSION = 52;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_METHOD_REF = 10;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_SUPER = 0x0020;
+
+  private SyntheticClassWriter() {
+  }
+
+  /**
+   * Generates the bytes of a class named {@code className} based on {@code extensionType}.
+   *
+   * @param className the binary name of the class to generate, for example {@code a.b.C}
+   * @param extensionType the class to extend or the interface to implement, may be null
+   * @param annotationType a runtime retained annotation to mark the class with, may be null
+   * @return the class file bytes
+   */
+  public static byte[] writeClass(String className, Class<?> extensionType,
+      Class<?> annotationType) {
+    if (extensionType != null && !extensionType.isInterface()
+        && Modifier.isFinal(extensionType.getModifiers())) {
+      throw new IllegalArgumentException(extensionType.getName() + " is final");
+    }
+    final boolean implementsInterface = extensionType != null && extensionType.isInterface();
+    final String superName = (extensionType == null || implementsInterface)
+        ? "java/lang/Object" : internalName(extensionType.getName());
+
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeShort(0);
+      out.writeShort(JAVA_8_MAJOR_VERSION);
+
+      // constant pool, indexes are fixed by the order below
+      int count = 10;
+      if (implementsInterface) {
+        count += 2;
+      }
+      if (annotationType != null) {
+        count += 2;
+      }
+      out.writeShort(count);
+      writeUtf8(out, internalName(className));                          // #1
+      writeClassRef(out, 1);                                            // #2
+      writeUtf8(out, superName);                                        // #3
+      writeClassRef(out, 3);                                            // #4
+      writeUtf8(out, "<init>");                                         // #5
+      writeUtf8(out, "()V");                                            // #6
+      out.writeByte(CONSTANT_NAME_AND_TYPE);                            // #7
+      out.writeShort(5);
+      out.writeShort(6);
+      out.writeByte(CONSTANT_METHOD_REF);                               // #8
+      out.writeShort(4);
+      out.writeShort(7);
+      writeUtf8(out, "Code");                                           // #9
+      int next = 10;
+      int interfaceIndex = 0;
+      if (implementsInterface) {
+        writeUtf8(out, internalName(extensionType.getName()));          // #10
+        writeClassRef(out, next);                                       // #11
+        interfaceIndex = next + 1;
+        next += 2;
+      }
+      int annotationAttributeIndex = 0;
+      if (annotationType != null) {
+        writeUtf8(out, "RuntimeVisibleAnnotations");
+        writeUtf8(out, "L" + internalName(annotationType.getName()) + ";");
+        annotationAttributeIndex = next;
+      }
+
+      out.writeShort(ACC_PUBLIC | ACC_SUPER);
+      out.writeShort(2);
+      out.writeShort(4);
+      if (implementsInterface) {
+        out.writeShort(1);
+        out.writeShort(interfaceIndex);
+      } else {
+        out.writeShort(0);
+      }
+
+      // no fields
+      out.writeShort(0);
+
+      // one method, the public no argument constructor
+      out.writeShort(1);
+      out.writeShort(ACC_PUBLIC);
+      out.writeShort(5);
+      out.writeShort(6);
+      out.writeShort(1);
+      out.writeShort(9);
+      out.writeInt(17);
+      out.writeShort(1);           // max stack
+      out.writeShort(1);           // max locals
+      out.writeInt(5);             // code length
+      out.writeByte(0x2a);         // aload_0
+      out.writeByte(0xb7);         // invokespecial #8
+      out.writeShort(8);
+      out.writeByte(0xb1);         // return
+      out.writeShort(0);           // exception table
+      out.writeShort(0);           // code attributes
+
+      if (annotationType != null) {
+        out.writeShort(1);
+        out.writeShort(annotationAttributeIndex);
+        out.writeInt(6);
+        out.writeShort(1);
+        out.writeShort(annotationAttributeIndex + 1);
+        out.writeShort(0);
+      } else {
+        out.writeShort(0);
+      }
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the internal (slash separated) form of a binary class name.
+   *
+   * @param className the binary name
+   * @return the internal name
+   */
+  public static String internalName(String className) {
+    return className.replace('.', '/');
+  }
+
+  private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+    out.writeByte(CONSTANT_UTF8);
+    out.writeUTF(value);
+  }
+
+  private static void writeClassRef(DataOutputStream out, int nameIndex) throws IOException {
+    out.writeByte(CONSTANT_CLASS);
+    out.writeShort(nameIndex);
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.palindromicity.bundles.util;
+
+import com.github.palindromicity.bundles.bundle.BundleCoordinates;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a library directory of synthetic bundles, for scale tests and benchmarks.
+ *
+ * <p>Bundles are named {@code <idPrefix>-<n>}. When a dependency chain length greater than one is
+ * configured, bundles are grouped into chains where each bundle depends on the previous bundle in
+ * its chain, which produces the parent class loader hierarchies seen in real deployments.</p>
+ */
+public class SyntheticDeployment {
+
+  private String group = "com.github.palindromicity.synthetic";
+  private String idPrefix = "synthetic-bundle";
+  private String version = "0.1.0";
+  private int bundleCount = 1;
+  private int dependencyChainLength = 1;
+  private SyntheticBundleBuilder template = new SyntheticBundleBuilder();
+
+  /**
+   * Provides the group of all generated bundles.
+   *
+   * @param group the group
+   * @return {@code SyntheticDeployment}
+   */
+  public SyntheticDeployment withGroup(String group) {
+    this.group = group;
+    return this;
+  }
+
+  /**
+   * Provides the prefix of the generated bundle ids.
+   *
+   * @param idPrefix the id prefix
+   * @return {@code SyntheticDeployment}
+   */
+  public SyntheticDeployment withIdPrefix(String idPrefix) {
+    this.idPrefix = idPrefix;
+    return this;
+  }
+
+  /**
+   * Provides the version of all generated bundles.
+   *
+   * @param version the version
+   * @return {@code SyntheticDeployment}
+   */
+  public SyntheticDeployment withVersion(String version) {
+    this.version = version;
+    return this;
+  }
+
+  /**
+   * Provides the number of bundles to generate.
+   *
+   * @param bundleCount the number of bundles
+   * @return {@code SyntheticDeployment}
+   */
+  public SyntheticDeployment withBundleCount(int bundleCount) {
+    this.bundleCount = bundleCount;
+    return this;
+  }
+
+  /**
+   * Provides the length of the bundle dependency chains.
+   *
+   * @param dependencyChainLength 1 for no dependencies
+   * @return {@code SyntheticDeployment}
+   */
+  public SyntheticDeployment withDependencyChainLength(int dependencyChainLength) {
+    this.dependencyChainLength = Math.max(1, dependencyChainLength);
+    return this;
+  }
+
+  /**
+   * Provides the template for each bundle. The coordinates and dependency coordinates of the
+   * template are replaced for each generated bundle, all other settings are kept.
+   *
+   * @param template the template {@code SyntheticBundleBuilder}
+   * @return {@code SyntheticDeployment}
+   */
+  public SyntheticDeployment withTemplate(SyntheticBundleBuilder template) {
+    this.template = template;
+    return this;
+  }
+
+  /**
+   * Returns the coordinates of the nth bundle.
+   *
+   * @param index the bundle index
+   * @return {@code BundleCoordinates}
+   */
+  public BundleCoordinates getCoordinates(int index) {
+    return new BundleCoordinates(group, idPrefix + "-" + index, version);
+  }
+
+  /**
+   * Writes all bundles into the directory.
+   *
+   * @param directory the library directory
+   * @return the written bundle files
+   * @throws IOException if any bundle cannot be written
+   */
+  public List<Path> writeTo(Path directory) throws IOException {
+    final List<Path> paths = new ArrayList<>(bundleCount);
+    for (int i = 0; i < bundleCount; i++) {
+      paths.add(configure(i).writeTo(directory));
+    }
+    return paths;
+  }
+
+  /**
+   * Writes all bundles into the directory of a Hadoop {@code FileSystem}.
+   *
+   * @param fileSystem the Hadoop {@code FileSystem}
+   * @param directory the library directory
+   * @return the written bundle files
+   * @throws IOException if any bundle cannot be written
+   */
+  public List<org.apache.hadoop.fs.Path> writeTo(org.apache.hadoop.fs.FileSystem fileSystem,
+      org.apache.hadoop.fs.Path directory) throws IOException {
+    final List<org.apache.hadoop.fs.Path> paths = new ArrayList<>(bundleCount);
+    for (int i = 0; i < bundleCount; i++) {
+      paths.add(configure(i).writeTo(fileSystem, directory));
+    }
+    return paths;
+  }
+
+  private SyntheticBundleBuilder configure(int index) {
+    final BundleCoordinates coordinates = getCoordinates(index);
+    template.withCoordinates(coordinates.getGroup(), coordinates.getId(),
+        coordinates.getVersion());
+    if (index % dependencyChainLength == 0) {
+      template.withDependencyCoordinates(null);
+    } else {
+      template.withDependencyCoordinates(getCoordinates(index - 1));
+    }
+    return template;
+  }
+}
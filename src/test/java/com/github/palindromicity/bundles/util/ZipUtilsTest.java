@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 bundles authors
+ * All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.palindromicity.bundles.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipUtilsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final List<String> NAMES = Arrays
+      .asList("META-INF/MANIFEST.MF", "org/", "org/example/", "org/example/Foo.class");
+
+  private static byte[] zipOf(List<String> names, String comment) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      for (String name : names) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setComment("entry " + name);
+        out.putNextEntry(entry);
+        if (!name.endsWith("/")) {
+          out.write(name.getBytes(StandardCharsets.UTF_8));
+        }
+        out.closeEntry();
+      }
+      out.setComment(comment);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testEntryNamesAreReadFromTheCentralDirectory() throws Exception {
+    File zip = folder.newFile("test.jar");
+    Files.write(zip.toPath(), zipOf(NAMES, "a comment"));
+    FileSystemManager fileSystemManager = FileSystemManagerFactory.createFileSystemManager();
+    FileObject zipObject = fileSystemManager.resolveFile(zip.toURI());
+    Assert.assertEquals(NAMES, ZipUtils.entryNames(zipObject));
+  }
+
+  @Test
+  public void testEntryIsReadInPlace() throws Exception {
+    File zip = folder.newFile("test.jar");
+    Files.write(zip.toPath(), zipOf(NAMES, null));
+    FileSystemManager fileSystemManager = FileSystemManagerFactory.createFileSystemManager();
+    FileObject zipObject = fileSystemManager.resolveFile(zip.toURI());
+    Assert.assertArrayEquals("org/example/Foo.class".getBytes(StandardCharsets.UTF_8),
+        ZipUtils.readEntry(zipObject, "org/example/Foo.class"));
+    Assert.assertNull(ZipUtils.readEntry(zipObject, "org/example/Bar.class"));
+  }
+
+  @Test
+  public void testEntryNamesOfNestedZipAreStreamed() throws Exception {
+    File outer = folder.newFile("outer.zip");
+    try (OutputStream out = Files.newOutputStream(outer.toPath());
+        ZipOutputStream zipOut = new ZipOutputStream(out)) {
+      zipOut.putNextEntry(new ZipEntry("inner.jar"));
+      zipOut.write(zipOf(NAMES, null));
+      zipOut.closeEntry();
+    }
+    FileSystemManager fileSystemManager = FileSystemManagerFactory.createFileSystemManager();
+    FileObject outerObject = fileSystemManager
+        .createFileSystem(fileSystemManager.resolveFile(outer.toURI()));
+    Assert.assertEquals(NAMES, ZipUtils.entryNames(outerObject.resolveFile("inner.jar")));
+  }
+}